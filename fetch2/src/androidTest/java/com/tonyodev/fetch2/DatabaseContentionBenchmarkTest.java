@@ -0,0 +1,185 @@
+package com.tonyodev.fetch2;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2.database.CachedFetchDatabaseManager;
+import com.tonyodev.fetch2.database.DownloadDatabase;
+import com.tonyodev.fetch2.database.DownloadInfo;
+import com.tonyodev.fetch2.database.FetchDatabaseManagerImpl;
+import com.tonyodev.fetch2.database.FetchDatabaseManagerWrapper;
+import com.tonyodev.fetch2.fetch.LiveSettings;
+import com.tonyodev.fetch2.util.FetchTypeConverterExtensions;
+import com.tonyodev.fetch2core.DefaultStorageResolver;
+import com.tonyodev.fetch2core.FetchCoreUtils;
+import com.tonyodev.fetch2core.FetchLogger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the read latency seen by UI readers while download threads report progress, with reads
+ * serialized behind writes and with concurrent reads. Results are logged with the tag FetchContentionBenchmark.
+ * It is ignored by default and run manually.
+ */
+@Ignore("Benchmark. Remove to run it manually.")
+@RunWith(AndroidJUnit4.class)
+public class DatabaseContentionBenchmarkTest {
+
+    private static final String TAG = "FetchContentionBenchmark";
+    private static final String NAMESPACE = "fetch2ContentionBenchmark";
+    private static final int ROW_COUNT = 2_000;
+    private static final int WRITERS = 4;
+    private static final int READERS = 2;
+    private static final long DURATION_MILLIS = 5_000L;
+    private static final long PROGRESS_FLUSH_INTERVAL_MILLIS = 50L;
+
+    private Context appContext;
+    private FetchDatabaseManagerWrapper fetchDatabaseManager;
+
+    @Before
+    public void setUp() {
+        appContext = InstrumentationRegistry.getTargetContext();
+    }
+
+    @After
+    public void cleanup() {
+        if (fetchDatabaseManager != null) {
+            fetchDatabaseManager.deleteAll();
+            fetchDatabaseManager.close();
+        }
+    }
+
+    @Test
+    public void readLatencyWithProgressWriters() throws Exception {
+        final long[] serialized = measure(false);
+        final long[] concurrent = measure(true);
+        Log.i(TAG, WRITERS + " writers, " + READERS + " readers, serialized reads: " + format(serialized));
+        Log.i(TAG, WRITERS + " writers, " + READERS + " readers, concurrent reads: " + format(concurrent));
+    }
+
+    /** @return the p50 and p99 read latency in microseconds and the number of reads.*/
+    private long[] measure(final boolean concurrentReadsEnabled) throws Exception {
+        cleanup();
+        fetchDatabaseManager = createDatabaseManager(concurrentReadsEnabled);
+        fetchDatabaseManager.deleteAll();
+        final List<DownloadInfo> downloads = getTestDownloads();
+        fetchDatabaseManager.insert(downloads);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        final List<List<Long>> readLatencies = new ArrayList<>();
+        for (int writer = 0; writer < WRITERS; writer++) {
+            final int offset = writer;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    awaitStart(startLatch);
+                    long downloaded = 0;
+                    while (running.get()) {
+                        downloaded++;
+                        for (int index = offset; index < downloads.size(); index += WRITERS) {
+                            final DownloadInfo downloadInfo = downloads.get(index);
+                            downloadInfo.setDownloaded(downloaded);
+                            downloadInfo.setStatus(Status.DOWNLOADING);
+                            fetchDatabaseManager.updateFileBytesInfoAndStatusOnly(downloadInfo);
+                        }
+                    }
+                }
+            }));
+        }
+        for (int reader = 0; reader < READERS; reader++) {
+            final List<Long> latencies = new ArrayList<>();
+            readLatencies.add(latencies);
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    awaitStart(startLatch);
+                    while (running.get()) {
+                        final long startTime = System.nanoTime();
+                        final List<DownloadInfo> loaded = fetchDatabaseManager.get();
+                        latencies.add((System.nanoTime() - startTime) / 1000);
+                        assertEquals(ROW_COUNT, loaded.size());
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        startLatch.countDown();
+        Thread.sleep(DURATION_MILLIS);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final List<Long> allLatencies = new ArrayList<>();
+        for (List<Long> latencies : readLatencies) {
+            allLatencies.addAll(latencies);
+        }
+        assertTrue(allLatencies.size() > 0);
+        final long[] sorted = new long[allLatencies.size()];
+        for (int index = 0; index < sorted.length; index++) {
+            sorted[index] = allLatencies.get(index);
+        }
+        Arrays.sort(sorted);
+        return new long[]{percentile(sorted, 50), percentile(sorted, 99), sorted.length};
+    }
+
+    private FetchDatabaseManagerWrapper createDatabaseManager(final boolean concurrentReadsEnabled) {
+        final LiveSettings liveSettings = new LiveSettings(NAMESPACE);
+        final FetchLogger fetchLogger = new FetchLogger(false, NAMESPACE);
+        final DefaultStorageResolver defaultStorageResolver = new DefaultStorageResolver(appContext, FetchCoreUtils.getFileTempDir(appContext));
+        final FetchDatabaseManagerImpl databaseManagerImpl = new FetchDatabaseManagerImpl(appContext, NAMESPACE, fetchLogger,
+                DownloadDatabase.getMigrations(), liveSettings, false, defaultStorageResolver);
+        return new FetchDatabaseManagerWrapper(new CachedFetchDatabaseManager(databaseManagerImpl), null,
+                PROGRESS_FLUSH_INTERVAL_MILLIS, concurrentReadsEnabled);
+    }
+
+    private void awaitStart(final CountDownLatch startLatch) {
+        try {
+            startLatch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long percentile(final long[] sorted, final int percentile) {
+        final int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private String format(final long[] results) {
+        return String.format("p50 %d us, p99 %d us, %d reads", results[0], results[1], results[2]);
+    }
+
+    private List<DownloadInfo> getTestDownloads() {
+        final String url = "http://www.example.com/test.txt";
+        final String dir = appContext.getFilesDir() + "/contentionBenchmark/";
+        final List<DownloadInfo> downloads = new ArrayList<>(ROW_COUNT);
+        for (int i = 0; i < ROW_COUNT; i++) {
+            final Request request = new Request(url, dir + "test" + i + ".txt");
+            request.setGroupId(i % 10);
+            final DownloadInfo downloadInfo = FetchTypeConverterExtensions.toDownloadInfo(request, new DownloadInfo());
+            downloadInfo.setTotal(Long.MAX_VALUE);
+            downloads.add(downloadInfo);
+        }
+        return downloads;
+    }
+
+}
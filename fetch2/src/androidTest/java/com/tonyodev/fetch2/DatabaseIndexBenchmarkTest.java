@@ -0,0 +1,179 @@
+package com.tonyodev.fetch2;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2.database.DownloadDatabase;
+import com.tonyodev.fetch2.database.migration.MigrationSevenToEight;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the latency of the queries issued by DownloadDao on 10k, 100k and 1M rows before and
+ * after the indexes added by MigrationSevenToEight. Results are logged with the tag FetchIndexBenchmark.
+ * Builds databases of up to 1M rows twice, so it is ignored by default and run manually.
+ */
+@Ignore("Benchmark. Remove to run it manually.")
+@RunWith(AndroidJUnit4.class)
+public class DatabaseIndexBenchmarkTest {
+
+    private static final String TAG = "FetchIndexBenchmark";
+    private static final String DATABASE_NAME = "fetch2IndexBenchmark.db";
+    private static final int[] ROW_COUNTS = {10_000, 100_000, 1_000_000};
+    private static final int RUNS = 5;
+
+    private Context appContext;
+    private SupportSQLiteOpenHelper openHelper;
+
+    @Before
+    public void setUp() {
+        appContext = InstrumentationRegistry.getTargetContext();
+        appContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void cleanup() {
+        if (openHelper != null) {
+            openHelper.close();
+        }
+        appContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void queryLatencyBeforeAndAfterIndexes() {
+        for (int rowCount : ROW_COUNTS) {
+            final SupportSQLiteDatabase database = createDatabase(rowCount);
+            final long[] before = measureQueries(database, rowCount);
+            new MigrationSevenToEight().migrate(database);
+            final long[] after = measureQueries(database, rowCount);
+            Log.i(TAG, rowCount + " rows before: " + format(before));
+            Log.i(TAG, rowCount + " rows after: " + format(after));
+            openHelper.close();
+            openHelper = null;
+            appContext.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    private SupportSQLiteDatabase createDatabase(final int rowCount) {
+        final SupportSQLiteOpenHelper.Configuration configuration = SupportSQLiteOpenHelper.Configuration.builder(appContext)
+                .name(DATABASE_NAME)
+                .callback(new SupportSQLiteOpenHelper.Callback(1) {
+                    @Override
+                    public void onCreate(SupportSQLiteDatabase db) {
+                        db.execSQL("CREATE TABLE " + DownloadDatabase.TABLE_NAME + " ("
+                                + DownloadDatabase.COLUMN_ID + " INTEGER NOT NULL PRIMARY KEY, "
+                                + DownloadDatabase.COLUMN_FILE + " TEXT NOT NULL, "
+                                + DownloadDatabase.COLUMN_GROUP + " INTEGER NOT NULL, "
+                                + DownloadDatabase.COLUMN_PRIORITY + " INTEGER NOT NULL, "
+                                + DownloadDatabase.COLUMN_STATUS + " INTEGER NOT NULL, "
+                                + DownloadDatabase.COLUMN_CREATED + " INTEGER NOT NULL, "
+                                + DownloadDatabase.COLUMN_TAG + " TEXT, "
+                                + DownloadDatabase.COLUMN_IDENTIFIER + " INTEGER NOT NULL)");
+                        db.execSQL("CREATE UNIQUE INDEX index_requests__file ON " + DownloadDatabase.TABLE_NAME
+                                + " (" + DownloadDatabase.COLUMN_FILE + ")");
+                        db.execSQL("CREATE INDEX index_requests__group__status ON " + DownloadDatabase.TABLE_NAME
+                                + " (" + DownloadDatabase.COLUMN_GROUP + ", " + DownloadDatabase.COLUMN_STATUS + ")");
+                    }
+
+                    @Override
+                    public void onUpgrade(SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+                    }
+                })
+                .build();
+        openHelper = new FrameworkSQLiteOpenHelperFactory().create(configuration);
+        final SupportSQLiteDatabase database = openHelper.getWritableDatabase();
+        final Status[] statuses = Status.values();
+        final Priority[] priorities = Priority.values();
+        final ContentValues values = new ContentValues();
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < rowCount; i++) {
+                values.put(DownloadDatabase.COLUMN_ID, i);
+                values.put(DownloadDatabase.COLUMN_FILE, "/downloads/file" + i);
+                values.put(DownloadDatabase.COLUMN_GROUP, i % 100);
+                values.put(DownloadDatabase.COLUMN_PRIORITY, priorities[i % priorities.length].getValue());
+                values.put(DownloadDatabase.COLUMN_STATUS, statuses[i % statuses.length].getValue());
+                values.put(DownloadDatabase.COLUMN_CREATED, (long) i);
+                values.put(DownloadDatabase.COLUMN_TAG, "tag" + (i % 1000));
+                values.put(DownloadDatabase.COLUMN_IDENTIFIER, (long) (i % 1000));
+                database.insert(DownloadDatabase.TABLE_NAME, SQLiteDatabase.CONFLICT_ABORT, values);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return database;
+    }
+
+    /** @return the median latency in microseconds of the pending sorted, tag, identifier and pending count queries.*/
+    private long[] measureQueries(final SupportSQLiteDatabase database, final int rowCount) {
+        final int queued = Status.QUEUED.getValue();
+        final String[] queries = {
+                "SELECT * FROM " + DownloadDatabase.TABLE_NAME + " WHERE " + DownloadDatabase.COLUMN_STATUS + " = " + queued
+                        + " ORDER BY " + DownloadDatabase.COLUMN_PRIORITY + " DESC, " + DownloadDatabase.COLUMN_CREATED + " ASC",
+                "SELECT * FROM " + DownloadDatabase.TABLE_NAME + " WHERE " + DownloadDatabase.COLUMN_TAG + " = 'tag7'",
+                "SELECT * FROM " + DownloadDatabase.TABLE_NAME + " WHERE " + DownloadDatabase.COLUMN_IDENTIFIER + " = 7",
+                "SELECT " + DownloadDatabase.COLUMN_ID + " FROM " + DownloadDatabase.TABLE_NAME
+                        + " WHERE " + DownloadDatabase.COLUMN_STATUS + " = '" + queued + "'"
+                        + " OR " + DownloadDatabase.COLUMN_STATUS + " = '" + Status.DOWNLOADING.getValue() + "'"
+        };
+        final int[] expectedCounts = {
+                countOf(rowCount, Status.QUEUED),
+                rowCount / 1000,
+                rowCount / 1000,
+                countOf(rowCount, Status.QUEUED) + countOf(rowCount, Status.DOWNLOADING)
+        };
+        final long[] medians = new long[queries.length];
+        for (int index = 0; index < queries.length; index++) {
+            final long[] times = new long[RUNS];
+            for (int run = 0; run < RUNS; run++) {
+                final long startTime = System.nanoTime();
+                final Cursor cursor = database.query(queries[index]);
+                int count = 0;
+                while (cursor.moveToNext()) {
+                    count++;
+                }
+                cursor.close();
+                times[run] = (System.nanoTime() - startTime) / 1000;
+                assertEquals(expectedCounts[index], count);
+            }
+            Arrays.sort(times);
+            medians[index] = times[RUNS / 2];
+        }
+        return medians;
+    }
+
+    private int countOf(final int rowCount, final Status status) {
+        final Status[] statuses = Status.values();
+        int count = 0;
+        for (int i = 0; i < rowCount; i++) {
+            if (statuses[i % statuses.length] == status) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private String format(final long[] medians) {
+        return String.format("pending sorted %d us, by tag %d us, by identifier %d us, pending count %d us",
+                medians[0], medians[1], medians[2], medians[3]);
+    }
+
+}
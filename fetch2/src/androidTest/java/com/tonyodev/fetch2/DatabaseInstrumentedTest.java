@@ -429,6 +429,31 @@ public class DatabaseInstrumentedTest {
         assertEquals(status, downloadInfo1.getStatus());
     }
 
+    @Test
+    public void fileUpdateThenFullUpdate() throws Exception {
+        fetchDatabaseManager.deleteAll();
+        final DownloadInfo downloadInfo = FetchTypeConverterExtensions.toDownloadInfo(getTestRequest(), new DownloadInfo());
+        fetchDatabaseManager.insert(downloadInfo);
+        downloadInfo.setDownloaded(2000);
+        downloadInfo.setTotal(4000);
+        downloadInfo.setStatus(Status.DOWNLOADING);
+        fetchDatabaseManager.updateFileBytesInfoAndStatusOnly(downloadInfo);
+        downloadInfo.setDownloaded(0);
+        downloadInfo.setTotal(-1);
+        downloadInfo.setStatus(Status.QUEUED);
+        fetchDatabaseManager.update(downloadInfo);
+        final DownloadInfo downloadInfo1 = fetchDatabaseManager.get(downloadInfo.getId());
+        assertNotNull(downloadInfo1);
+        assertEquals(0, downloadInfo1.getDownloaded());
+        assertEquals(-1, downloadInfo1.getTotal());
+        assertEquals(Status.QUEUED, downloadInfo1.getStatus());
+        fetchDatabaseManager.delete(downloadInfo);
+        fetchDatabaseManager.insert(downloadInfo);
+        final DownloadInfo downloadInfo2 = fetchDatabaseManager.get(downloadInfo.getId());
+        assertNotNull(downloadInfo2);
+        assertEquals(0, downloadInfo2.getDownloaded());
+    }
+
     @Test
     public void closed() throws Exception {
         assertFalse(fetchDatabaseManager.isClosed());
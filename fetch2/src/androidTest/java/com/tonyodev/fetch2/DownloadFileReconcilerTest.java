@@ -0,0 +1,93 @@
+package com.tonyodev.fetch2;
+
+import android.content.Context;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2.database.DownloadFileReconciler;
+import com.tonyodev.fetch2.database.DownloadInfo;
+import com.tonyodev.fetch2core.DefaultStorageResolver;
+import com.tonyodev.fetch2core.FetchCoreUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class DownloadFileReconcilerTest {
+
+    private File directory;
+    private DownloadFileReconciler fileReconciler;
+
+    @Before
+    public void setUp() {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        directory = new File(appContext.getFilesDir(), "reconcilerTest");
+        directory.mkdirs();
+        fileReconciler = new DownloadFileReconciler(new DefaultStorageResolver(appContext,
+                FetchCoreUtils.getFileTempDir(appContext)), 30_000L);
+    }
+
+    @After
+    public void cleanup() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void missingFilesAreReported() throws Exception {
+        final List<DownloadInfo> downloads = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final File file = new File(directory, "file" + i + ".txt");
+            assertTrue(file.createNewFile());
+            downloads.add(getDownloadInfo(i, file));
+        }
+        assertTrue(fileReconciler.getDownloadsWithMissingFiles(downloads).isEmpty());
+        for (DownloadInfo downloadInfo : downloads) {
+            assertTrue(fileReconciler.isVerified(downloadInfo));
+        }
+        assertTrue(new File(downloads.get(3).getFile()).delete());
+        final List<DownloadInfo> missingDownloads = fileReconciler.getDownloadsWithMissingFiles(downloads);
+        assertEquals(1, missingDownloads.size());
+        assertEquals(downloads.get(3).getId(), missingDownloads.get(0).getId());
+        assertFalse(fileReconciler.isVerified(downloads.get(3)));
+    }
+
+    @Test
+    public void progressInvalidatesVerification() throws Exception {
+        final File file = new File(directory, "progress.txt");
+        assertTrue(file.createNewFile());
+        final DownloadInfo downloadInfo = getDownloadInfo(1, file);
+        final List<DownloadInfo> downloads = new ArrayList<>();
+        downloads.add(downloadInfo);
+        fileReconciler.getDownloadsWithMissingFiles(downloads);
+        assertTrue(fileReconciler.isVerified(downloadInfo));
+        downloadInfo.setDownloaded(downloadInfo.getDownloaded() + 1);
+        assertFalse(fileReconciler.isVerified(downloadInfo));
+    }
+
+    private DownloadInfo getDownloadInfo(final int id, final File file) {
+        final DownloadInfo downloadInfo = new DownloadInfo();
+        downloadInfo.setId(id);
+        downloadInfo.setFile(file.getAbsolutePath());
+        downloadInfo.setDownloaded(100);
+        downloadInfo.setStatus(Status.PAUSED);
+        return downloadInfo;
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.tonyodev.fetch2;
+
+import android.content.Context;
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2.database.DownloadDatabase;
+import com.tonyodev.fetch2.database.DownloadInfo;
+import com.tonyodev.fetch2.database.DownloadSummaryInfo;
+import com.tonyodev.fetch2.database.FetchDatabaseManagerImpl;
+import com.tonyodev.fetch2.fetch.LiveSettings;
+import com.tonyodev.fetch2.util.FetchTypeConverterExtensions;
+import com.tonyodev.fetch2core.DefaultStorageResolver;
+import com.tonyodev.fetch2core.FetchCoreUtils;
+import com.tonyodev.fetch2core.FetchLogger;
+import com.tonyodev.fetch2core.MutableExtras;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the row loading throughput and allocations of the DownloadSummary queries against
+ * loading full downloads with headers and extras. Results are logged with the tag FetchSummaryBenchmark.
+ * It is ignored by default and run manually.
+ */
+@Ignore("Benchmark. Remove to run it manually.")
+@RunWith(AndroidJUnit4.class)
+public class DownloadSummaryBenchmarkTest {
+
+    private static final String TAG = "FetchSummaryBenchmark";
+    private static final int[] ROW_COUNTS = {1_000, 10_000};
+    private static final int RUNS = 5;
+
+    private FetchDatabaseManagerImpl fetchDatabaseManager;
+    private Context appContext;
+
+    @Before
+    public void setUp() {
+        appContext = InstrumentationRegistry.getTargetContext();
+        final String namespace = "fetch2SummaryBenchmark";
+        final LiveSettings liveSettings = new LiveSettings(namespace);
+        final FetchLogger fetchLogger = new FetchLogger(false, namespace);
+        final DefaultStorageResolver defaultStorageResolver = new DefaultStorageResolver(appContext, FetchCoreUtils.getFileTempDir(appContext));
+        fetchDatabaseManager = new FetchDatabaseManagerImpl(appContext, namespace, fetchLogger, DownloadDatabase.getMigrations(),
+                liveSettings, false, defaultStorageResolver);
+    }
+
+    @After
+    public void cleanup() {
+        fetchDatabaseManager.deleteAll();
+        fetchDatabaseManager.close();
+    }
+
+    @Test
+    public void summaryLoadingAgainstFullLoading() {
+        for (int rowCount : ROW_COUNTS) {
+            fetchDatabaseManager.deleteAll();
+            fetchDatabaseManager.insert(getTestDownloads(rowCount));
+            final long[] full = measure(rowCount, false);
+            final long[] summary = measure(rowCount, true);
+            Log.i(TAG, rowCount + " rows full: " + format(rowCount, full));
+            Log.i(TAG, rowCount + " rows summary: " + format(rowCount, summary));
+        }
+    }
+
+    /** @return the median load time in microseconds and the median allocation count and size.*/
+    @SuppressWarnings("deprecation")
+    private long[] measure(final int rowCount, final boolean summaries) {
+        final long[] times = new long[RUNS];
+        final long[] allocCounts = new long[RUNS];
+        final long[] allocSizes = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            Debug.startAllocCounting();
+            final long startTime = System.nanoTime();
+            final int loaded;
+            if (summaries) {
+                final List<DownloadSummaryInfo> downloadSummaries = fetchDatabaseManager.getSummaries();
+                loaded = downloadSummaries.size();
+            } else {
+                final List<DownloadInfo> downloads = fetchDatabaseManager.get();
+                loaded = downloads.size();
+            }
+            times[run] = (System.nanoTime() - startTime) / 1000;
+            Debug.stopAllocCounting();
+            allocCounts[run] = Debug.getThreadAllocCount();
+            allocSizes[run] = Debug.getThreadAllocSize();
+            assertEquals(rowCount, loaded);
+        }
+        return new long[]{median(times), median(allocCounts), median(allocSizes)};
+    }
+
+    private long median(final long[] values) {
+        Arrays.sort(values);
+        return values[values.length / 2];
+    }
+
+    private String format(final int rowCount, final long[] results) {
+        final long rowsPerSecond = results[0] > 0 ? rowCount * 1_000_000L / results[0] : 0;
+        return String.format("%d us, %d rows/s, %d allocations, %d bytes allocated",
+                results[0], rowsPerSecond, results[1], results[2]);
+    }
+
+    private List<DownloadInfo> getTestDownloads(final int size) {
+        final String url = "http://www.example.com/test.txt";
+        final String dir = appContext.getFilesDir() + "/summaryBenchmark/";
+        final List<DownloadInfo> downloads = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            final Request request = new Request(url, dir + "test" + i + ".txt");
+            request.addHeader("Authorization", "Bearer token" + i);
+            request.addHeader("User-Agent", "FetchSummaryBenchmark");
+            final MutableExtras extras = new MutableExtras();
+            extras.putString("title", "Download " + i);
+            extras.putString("description", "Benchmark download number " + i);
+            request.setExtras(extras);
+            request.setGroupId(i % 10);
+            downloads.add(FetchTypeConverterExtensions.toDownloadInfo(request, new DownloadInfo()));
+        }
+        return downloads;
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.tonyodev.fetch2;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2core.Func;
+
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the round trip latency of Fetch.enqueue, from the call until the result callback runs,
+ * with results delivered on the main thread and with a callback executor that runs them on the
+ * Fetch thread. Results are logged with the tag FetchEnqueueBenchmark. It is ignored by default
+ * and run manually.
+ */
+@Ignore("Benchmark. Remove to run it manually.")
+@RunWith(AndroidJUnit4.class)
+public class EnqueueLatencyBenchmarkTest {
+
+    private static final String TAG = "FetchEnqueueBenchmark";
+    private static final int ROUNDS = 200;
+
+    private Context appContext;
+
+    @Before
+    public void setUp() {
+        appContext = InstrumentationRegistry.getTargetContext();
+    }
+
+    @Test
+    public void enqueueRoundTripLatency() throws Exception {
+        final long[] mainThread = measureEnqueues("fetch2EnqueueBenchmarkMain", null);
+        final long[] headless = measureEnqueues("fetch2EnqueueBenchmarkHeadless", new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        Log.i(TAG, "main thread callbacks: " + format(mainThread));
+        Log.i(TAG, "callback executor: " + format(headless));
+    }
+
+    /** @return the median and the 95th percentile round trip latency in microseconds.*/
+    private long[] measureEnqueues(final String namespace, final Executor callbackExecutor) throws Exception {
+        final Fetch fetch = Fetch.Impl.getInstance(new FetchConfiguration.Builder(appContext)
+                .setNamespace(namespace)
+                .enableAutoStart(false)
+                .setCallbackExecutor(callbackExecutor)
+                .build());
+        final String dir = appContext.getFilesDir() + "/enqueueBenchmark/";
+        final long[] latencies = new long[ROUNDS];
+        try {
+            for (int i = 0; i < ROUNDS; i++) {
+                final CountDownLatch latch = new CountDownLatch(1);
+                final Request request = new Request("http://www.example.com/test" + i + ".txt", dir + namespace + i + ".txt");
+                final long startTime = System.nanoTime();
+                fetch.enqueue(request, new Func<Request>() {
+                    @Override
+                    public void call(Request result) {
+                        latch.countDown();
+                    }
+                }, null);
+                assertTrue(latch.await(10, TimeUnit.SECONDS));
+                latencies[i] = (System.nanoTime() - startTime) / 1000;
+            }
+        } finally {
+            final CountDownLatch latch = new CountDownLatch(1);
+            fetch.deleteAll(new Func<List<Download>>() {
+                @Override
+                public void call(List<Download> result) {
+                    latch.countDown();
+                }
+            }, null);
+            latch.await(10, TimeUnit.SECONDS);
+            fetch.close();
+        }
+        Arrays.sort(latencies);
+        return new long[]{latencies[ROUNDS / 2], latencies[ROUNDS * 95 / 100]};
+    }
+
+    private String format(final long[] results) {
+        return String.format("median %d us, p95 %d us", results[0], results[1]);
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.tonyodev.fetch2;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2.database.DownloadInfo;
+import com.tonyodev.fetch2.model.FetchGroupInfo;
+import com.tonyodev.fetch2core.Reason;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class FetchGroupInfoTest {
+
+    @Test
+    public void aggregatesFollowDownloadChanges() {
+        final FetchGroupInfo groupInfo = new FetchGroupInfo(1, "fetch2GroupInfoTest");
+        final List<Download> downloads = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            downloads.add(getDownloadInfo(i, Status.QUEUED, 0, 100));
+        }
+        groupInfo.update(downloads, null, Reason.DOWNLOAD_ADDED);
+        assertEquals(10, groupInfo.getDownloadCount());
+        assertEquals(10, groupInfo.getDownloadCount(Status.QUEUED));
+        assertEquals(1000, groupInfo.getTotalBytes());
+        assertEquals(0, groupInfo.getGroupDownloadProgress());
+
+        groupInfo.update(getDownloadInfo(0, Status.DOWNLOADING, 50, 100), Reason.DOWNLOAD_PROGRESS_CHANGED);
+        assertEquals(9, groupInfo.getDownloadCount(Status.QUEUED));
+        assertEquals(1, groupInfo.getDownloadingDownloads().size());
+        assertEquals(50, groupInfo.getDownloadedBytes());
+
+        groupInfo.update(getDownloadInfo(0, Status.COMPLETED, 100, 100), Reason.DOWNLOAD_COMPLETED);
+        assertEquals(0, groupInfo.getDownloadingDownloads().size());
+        assertEquals(1, groupInfo.getCompletedDownloads().size());
+        assertEquals(10, groupInfo.getGroupDownloadProgress());
+
+        groupInfo.update(getDownloadInfo(1, Status.DELETED, 0, 100), Reason.DOWNLOAD_DELETED);
+        assertEquals(9, groupInfo.getDownloads().size());
+        assertEquals(900, groupInfo.getTotalBytes());
+
+        groupInfo.update(getDownloadInfo(2, Status.QUEUED, 0, -1), Reason.DOWNLOAD_QUEUED);
+        assertEquals(-1, groupInfo.getGroupDownloadProgress());
+    }
+
+    @Test
+    public void aggregatesFollowChangesOfTheSameInstance() {
+        final FetchGroupInfo groupInfo = new FetchGroupInfo(1, "fetch2GroupInfoTest");
+        final DownloadInfo download = getDownloadInfo(0, Status.QUEUED, 0, 100);
+        final List<Download> downloads = new ArrayList<>();
+        downloads.add(download);
+        downloads.add(getDownloadInfo(1, Status.QUEUED, 0, 100));
+        groupInfo.update(downloads, null, Reason.DOWNLOAD_ADDED);
+
+        download.setStatus(Status.DOWNLOADING);
+        groupInfo.update(download, Reason.DOWNLOAD_STARTED);
+        download.setDownloaded(40);
+        groupInfo.update(download, Reason.DOWNLOAD_PROGRESS_CHANGED);
+        download.setDownloaded(80);
+        groupInfo.update(download, Reason.DOWNLOAD_PROGRESS_CHANGED);
+        assertEquals(1, groupInfo.getDownloadCount(Status.DOWNLOADING));
+        assertEquals(80, groupInfo.getDownloadedBytes());
+        assertEquals(40, groupInfo.getGroupDownloadProgress());
+
+        download.setStatus(Status.QUEUED);
+        groupInfo.update(download, Reason.DOWNLOAD_QUEUED);
+        assertEquals(0, groupInfo.getDownloadCount(Status.DOWNLOADING));
+        assertEquals(2, groupInfo.getDownloadCount(Status.QUEUED));
+        assertEquals(0, groupInfo.getDownloadingDownloads().size());
+        assertEquals(80, groupInfo.getDownloadedBytes());
+
+        download.setStatus(Status.DELETED);
+        groupInfo.update(download, Reason.DOWNLOAD_DELETED);
+        assertEquals(1, groupInfo.getDownloadCount());
+        assertEquals(1, groupInfo.getDownloadCount(Status.QUEUED));
+        assertEquals(0, groupInfo.getDownloadedBytes());
+        assertEquals(100, groupInfo.getTotalBytes());
+    }
+
+    private DownloadInfo getDownloadInfo(final int id, final Status status, final long downloaded, final long total) {
+        final DownloadInfo downloadInfo = new DownloadInfo();
+        downloadInfo.setId(id);
+        downloadInfo.setGroup(1);
+        downloadInfo.setStatus(status);
+        downloadInfo.setDownloaded(downloaded);
+        downloadInfo.setTotal(total);
+        return downloadInfo;
+    }
+
+}
@@ -93,7 +93,8 @@ public class FetchHandlerInstrumentedTest {
                 progessInterval, fetchLogger, networkInfoProvider, retryOnNetworkGain,
                 downloadInfoUpdater, downloadManagerCoordinator,
                 listenerCoordinator, serverDownloader, false, storageResolver,
-                appContext, namespace, groupInfoProvider, FetchDefaults.DEFAULT_GLOBAL_AUTO_RETRY_ATTEMPTS, false);
+                appContext, namespace, groupInfoProvider, FetchDefaults.DEFAULT_GLOBAL_AUTO_RETRY_ATTEMPTS, false,
+                FetchDefaults.DEFAULT_MAX_CONCURRENT_SLICES);
         priorityListProcessorImpl = new PriorityListProcessorImpl(
                 handlerWrapper,
                 new DownloadProvider(databaseManagerWrapper),
@@ -135,6 +136,30 @@ public class FetchHandlerInstrumentedTest {
         assertNotNull(downloads);
     }
 
+    @Test
+    public void enqueueMultiWithExistingDownloads() throws Exception {
+        fetchHandler.deleteAll();
+        final String url = "http://www.example.com/test.txt";
+        final String dir = appContext.getFilesDir() + "/testFolder/";
+        final List<Request> requestList = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            requestList.add(new Request(url, dir + "bulk" + i + ".txt"));
+        }
+        fetchHandler.enqueue(requestList.subList(0, 10));
+        requestList.get(0).setEnqueueAction(EnqueueAction.DO_NOT_ENQUEUE_IF_EXISTING);
+        requestList.get(1).setEnqueueAction(EnqueueAction.REPLACE_EXISTING);
+        requestList.get(2).setEnqueueAction(EnqueueAction.UPDATE_ACCORDINGLY);
+        final List<Pair<Download, Error>> downloads = fetchHandler.enqueue(requestList);
+        assertEquals(requestList.size(), downloads.size());
+        assertEquals(Error.REQUEST_WITH_FILE_PATH_ALREADY_EXIST, downloads.get(0).getSecond());
+        for (int i = 1; i < downloads.size(); i++) {
+            assertEquals(Error.NONE, downloads.get(i).getSecond());
+            assertEquals(requestList.get(i).getId(), downloads.get(i).getFirst().getId());
+            assertEquals(Status.QUEUED, downloads.get(i).getFirst().getStatus());
+        }
+        assertEquals(requestList.size(), fetchHandler.getDownloads().size());
+    }
+
     @Test
     public void pauseWithId() throws Exception {
         fetchHandler.deleteAll();
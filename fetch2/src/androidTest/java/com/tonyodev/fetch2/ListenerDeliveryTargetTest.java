@@ -0,0 +1,116 @@
+package com.tonyodev.fetch2;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2.database.DownloadDatabase;
+import com.tonyodev.fetch2.database.DownloadInfo;
+import com.tonyodev.fetch2.database.FetchDatabaseManagerImpl;
+import com.tonyodev.fetch2.database.FetchDatabaseManagerWrapper;
+import com.tonyodev.fetch2.fetch.ListenerCoordinator;
+import com.tonyodev.fetch2.fetch.LiveSettings;
+import com.tonyodev.fetch2.provider.DownloadProvider;
+import com.tonyodev.fetch2.provider.GroupInfoProvider;
+import com.tonyodev.fetch2core.DefaultStorageResolver;
+import com.tonyodev.fetch2core.FetchCoreUtils;
+import com.tonyodev.fetch2core.FetchLogger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ListenerDeliveryTargetTest {
+
+    private static final String NAMESPACE = "fetch2ListenerDeliveryTarget";
+
+    private FetchDatabaseManagerWrapper fetchDatabaseManager;
+    private ListenerCoordinator listenerCoordinator;
+    private ExecutorService executorService;
+
+    @Before
+    public void setUp() {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        final FetchLogger fetchLogger = new FetchLogger(false, NAMESPACE);
+        final DefaultStorageResolver defaultStorageResolver = new DefaultStorageResolver(appContext, FetchCoreUtils.getFileTempDir(appContext));
+        fetchDatabaseManager = new FetchDatabaseManagerWrapper(new FetchDatabaseManagerImpl(appContext, NAMESPACE, fetchLogger,
+                DownloadDatabase.getMigrations(), new LiveSettings(NAMESPACE), false, defaultStorageResolver));
+        final DownloadProvider downloadProvider = new DownloadProvider(fetchDatabaseManager);
+        final GroupInfoProvider groupInfoProvider = new GroupInfoProvider(NAMESPACE, downloadProvider);
+        listenerCoordinator = new ListenerCoordinator(NAMESPACE, groupInfoProvider, downloadProvider,
+                new Handler(Looper.getMainLooper()), 0L);
+        executorService = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void cleanup() {
+        listenerCoordinator.clearAll();
+        executorService.shutdown();
+        fetchDatabaseManager.close();
+    }
+
+    @Test
+    public void callingThreadTarget() {
+        final AtomicReference<Thread> callbackThread = new AtomicReference<>();
+        final FetchListener listener = new AbstractFetchListener() {
+            @Override
+            public void onCompleted(Download download) {
+                callbackThread.set(Thread.currentThread());
+            }
+        };
+        listenerCoordinator.addListener(1, listener, DeliveryTarget.CALLING_THREAD);
+        listenerCoordinator.getMainListener().onCompleted(getDownloadInfo(Status.COMPLETED));
+        assertEquals(Thread.currentThread(), callbackThread.get());
+        listenerCoordinator.removeListener(1, listener);
+        callbackThread.set(null);
+        listenerCoordinator.getMainListener().onCompleted(getDownloadInfo(Status.COMPLETED));
+        assertEquals(null, callbackThread.get());
+    }
+
+    @Test
+    public void executorTarget() throws Exception {
+        final AtomicReference<Thread> executorThread = new AtomicReference<>();
+        executorService.submit(new Runnable() {
+            @Override
+            public void run() {
+                executorThread.set(Thread.currentThread());
+            }
+        }).get();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Thread> callbackThread = new AtomicReference<>();
+        final FetchListener listener = new AbstractFetchListener() {
+            @Override
+            public void onPaused(Download download) {
+                callbackThread.set(Thread.currentThread());
+                latch.countDown();
+            }
+        };
+        listenerCoordinator.addListener(1, listener, DeliveryTarget.executor(executorService));
+        listenerCoordinator.getMainListener().onPaused(getDownloadInfo(Status.PAUSED));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(executorThread.get(), callbackThread.get());
+    }
+
+    private DownloadInfo getDownloadInfo(final Status status) {
+        final DownloadInfo downloadInfo = new DownloadInfo();
+        downloadInfo.setId(1);
+        downloadInfo.setStatus(status);
+        downloadInfo.setTotal(100);
+        return downloadInfo;
+    }
+
+}
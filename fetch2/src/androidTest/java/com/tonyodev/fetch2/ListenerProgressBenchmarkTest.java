@@ -0,0 +1,135 @@
+package com.tonyodev.fetch2;
+
+import android.content.Context;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.util.Log;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2.database.DownloadDatabase;
+import com.tonyodev.fetch2.database.DownloadInfo;
+import com.tonyodev.fetch2.database.FetchDatabaseManagerImpl;
+import com.tonyodev.fetch2.database.FetchDatabaseManagerWrapper;
+import com.tonyodev.fetch2.fetch.ListenerCoordinator;
+import com.tonyodev.fetch2.fetch.LiveSettings;
+import com.tonyodev.fetch2.provider.DownloadProvider;
+import com.tonyodev.fetch2.provider.GroupInfoProvider;
+import com.tonyodev.fetch2core.DefaultStorageResolver;
+import com.tonyodev.fetch2core.FetchCoreUtils;
+import com.tonyodev.fetch2core.FetchLogger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Counts the main thread messages, listener callbacks and allocations per second caused by progress
+ * events of many downloads, with progress conflation only and with a capped delivery rate. Without
+ * conflation every event posted one message per listener, which is logged as the uncoalesced count.
+ * Results are logged with the tag FetchListenerBenchmark. It is ignored by default and run manually.
+ */
+@Ignore("Benchmark. Remove to run it manually.")
+@RunWith(AndroidJUnit4.class)
+public class ListenerProgressBenchmarkTest {
+
+    private static final String TAG = "FetchListenerBenchmark";
+    private static final String NAMESPACE = "fetch2ListenerBenchmark";
+    private static final int DOWNLOADS = 100;
+    private static final int LISTENERS = 4;
+    private static final long EVENT_INTERVAL_MILLIS = 10L;
+    private static final long DURATION_MILLIS = 3_000L;
+    private static final long[] DELIVERY_INTERVALS = {0L, 100L};
+
+    private FetchDatabaseManagerWrapper fetchDatabaseManager;
+    private DownloadProvider downloadProvider;
+    private GroupInfoProvider groupInfoProvider;
+
+    @Before
+    public void setUp() {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        final FetchLogger fetchLogger = new FetchLogger(false, NAMESPACE);
+        final DefaultStorageResolver defaultStorageResolver = new DefaultStorageResolver(appContext, FetchCoreUtils.getFileTempDir(appContext));
+        fetchDatabaseManager = new FetchDatabaseManagerWrapper(new FetchDatabaseManagerImpl(appContext, NAMESPACE, fetchLogger,
+                DownloadDatabase.getMigrations(), new LiveSettings(NAMESPACE), false, defaultStorageResolver));
+        downloadProvider = new DownloadProvider(fetchDatabaseManager);
+        groupInfoProvider = new GroupInfoProvider(NAMESPACE, downloadProvider);
+    }
+
+    @After
+    public void cleanup() {
+        fetchDatabaseManager.close();
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void mainThreadMessagesPerSecond() throws Exception {
+        for (long deliveryInterval : DELIVERY_INTERVALS) {
+            final AtomicInteger messages = new AtomicInteger(0);
+            final AtomicInteger callbacks = new AtomicInteger(0);
+            final Handler uiHandler = new Handler(Looper.getMainLooper()) {
+                @Override
+                public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
+                    messages.incrementAndGet();
+                    return super.sendMessageAtTime(msg, uptimeMillis);
+                }
+            };
+            final ListenerCoordinator listenerCoordinator = new ListenerCoordinator(NAMESPACE, groupInfoProvider,
+                    downloadProvider, uiHandler, deliveryInterval);
+            final List<FetchListener> listeners = new ArrayList<>();
+            for (int i = 0; i < LISTENERS; i++) {
+                final FetchListener listener = new AbstractFetchListener() {
+                    @Override
+                    public void onProgress(Download download, long etaInMilliSeconds, long downloadedBytesPerSecond) {
+                        callbacks.incrementAndGet();
+                    }
+                };
+                listeners.add(listener);
+                listenerCoordinator.addListener(i, listener);
+            }
+            final List<DownloadInfo> downloads = new ArrayList<>();
+            for (int i = 0; i < DOWNLOADS; i++) {
+                final DownloadInfo downloadInfo = new DownloadInfo();
+                downloadInfo.setId(i);
+                downloadInfo.setStatus(Status.DOWNLOADING);
+                downloadInfo.setTotal(Long.MAX_VALUE);
+                downloads.add(downloadInfo);
+            }
+            Debug.resetGlobalAllocCount();
+            Debug.startAllocCounting();
+            final long startTime = System.currentTimeMillis();
+            int events = 0;
+            while (System.currentTimeMillis() - startTime < DURATION_MILLIS) {
+                for (DownloadInfo downloadInfo : downloads) {
+                    downloadInfo.setDownloaded(downloadInfo.getDownloaded() + 1);
+                    listenerCoordinator.getMainListener().onProgress(downloadInfo, 1000L, 1000L);
+                    events++;
+                }
+                Thread.sleep(EVENT_INTERVAL_MILLIS);
+            }
+            Thread.sleep(deliveryInterval + 500L);
+            Debug.stopAllocCounting();
+            final long seconds = Math.max(1, (System.currentTimeMillis() - startTime) / 1000);
+            final long allocations = Debug.getGlobalAllocCount();
+            listenerCoordinator.clearAll();
+            assertTrue(callbacks.get() > 0);
+            Log.i(TAG, String.format("delivery interval %d ms: %d events/s, %d main thread messages/s "
+                            + "(uncoalesced %d/s), %d listener callbacks/s, %d allocations/s",
+                    deliveryInterval, events / seconds, messages.get() / seconds, events * LISTENERS / seconds,
+                    callbacks.get() / seconds, allocations / seconds));
+            listeners.clear();
+        }
+    }
+
+}
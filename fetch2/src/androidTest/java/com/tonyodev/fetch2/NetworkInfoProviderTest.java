@@ -0,0 +1,46 @@
+package com.tonyodev.fetch2;
+
+import android.content.Context;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2.provider.NetworkInfoProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class NetworkInfoProviderTest {
+
+    /** Not routable, so a blocking connect would wait for the whole connect timeout.*/
+    private static final String UNREACHABLE_URL = "http://10.255.255.1/";
+
+    private NetworkInfoProvider networkInfoProvider;
+
+    @Before
+    public void setUp() {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        networkInfoProvider = new NetworkInfoProvider(appContext, UNREACHABLE_URL);
+    }
+
+    @After
+    public void cleanup() {
+        networkInfoProvider.unregisterAllNetworkChangeListeners();
+    }
+
+    @Test
+    public void internetCheckDoesNotBlock() {
+        for (int i = 0; i < 100; i++) {
+            final long startTime = System.currentTimeMillis();
+            assertFalse(networkInfoProvider.isNetworkAvailable());
+            assertTrue(System.currentTimeMillis() - startTime < 1_000);
+        }
+    }
+
+}
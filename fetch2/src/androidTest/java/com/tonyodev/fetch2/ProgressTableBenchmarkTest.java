@@ -0,0 +1,205 @@
+package com.tonyodev.fetch2;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2.database.DownloadDatabase;
+import com.tonyodev.fetch2.database.migration.MigrationEightToNine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the write amplification and throughput of progress updates before and after
+ * MigrationEightToNine moved the downloaded and total bytes into the narrow progress table.
+ * Write amplification is the number of bytes appended to the write-ahead log per progress update.
+ * Results are logged with the tag FetchProgressBenchmark. It is ignored by default and run manually.
+ */
+@Ignore("Benchmark. Remove to run it manually.")
+@RunWith(AndroidJUnit4.class)
+public class ProgressTableBenchmarkTest {
+
+    private static final String TAG = "FetchProgressBenchmark";
+    private static final String DATABASE_NAME = "fetch2ProgressBenchmark.db";
+    private static final int ROW_COUNT = 1_000;
+    private static final int BATCHES = 200;
+    private static final int BATCH_SIZE = 50;
+
+    private Context appContext;
+    private SupportSQLiteOpenHelper openHelper;
+
+    @Before
+    public void setUp() {
+        appContext = InstrumentationRegistry.getTargetContext();
+        appContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void cleanup() {
+        if (openHelper != null) {
+            openHelper.close();
+        }
+        appContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void progressUpdatesBeforeAndAfterProgressTable() {
+        final SupportSQLiteDatabase database = createDatabase();
+        final long[] before = measureUpdates(database, false);
+        new MigrationEightToNine().migrate(database);
+        final long[] after = measureUpdates(database, true);
+        Log.i(TAG, ROW_COUNT + " rows before: " + format(before));
+        Log.i(TAG, ROW_COUNT + " rows after: " + format(after));
+        assertEquals(ROW_COUNT, countProgressRowsWithBytes(database));
+    }
+
+    private SupportSQLiteDatabase createDatabase() {
+        final SupportSQLiteOpenHelper.Configuration configuration = SupportSQLiteOpenHelper.Configuration.builder(appContext)
+                .name(DATABASE_NAME)
+                .callback(new SupportSQLiteOpenHelper.Callback(1) {
+                    @Override
+                    public void onCreate(SupportSQLiteDatabase db) {
+                        db.execSQL("CREATE TABLE " + DownloadDatabase.TABLE_NAME + " ("
+                                + DownloadDatabase.COLUMN_ID + " INTEGER NOT NULL PRIMARY KEY, "
+                                + DownloadDatabase.COLUMN_URL + " TEXT NOT NULL, "
+                                + DownloadDatabase.COLUMN_FILE + " TEXT NOT NULL, "
+                                + DownloadDatabase.COLUMN_HEADERS + " TEXT NOT NULL, "
+                                + DownloadDatabase.COLUMN_DOWNLOADED + " INTEGER NOT NULL, "
+                                + DownloadDatabase.COLUMN_TOTAL + " INTEGER NOT NULL, "
+                                + DownloadDatabase.COLUMN_STATUS + " INTEGER NOT NULL, "
+                                + DownloadDatabase.COLUMN_EXTRAS + " TEXT NOT NULL)");
+                        db.execSQL("CREATE INDEX index_requests__status ON " + DownloadDatabase.TABLE_NAME
+                                + " (" + DownloadDatabase.COLUMN_STATUS + ")");
+                    }
+
+                    @Override
+                    public void onUpgrade(SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+                    }
+                })
+                .build();
+        openHelper = new FrameworkSQLiteOpenHelperFactory().create(configuration);
+        openHelper.setWriteAheadLoggingEnabled(true);
+        final SupportSQLiteDatabase database = openHelper.getWritableDatabase();
+        query(database, "PRAGMA wal_autocheckpoint = 0");
+        final StringBuilder headers = new StringBuilder("{");
+        for (int i = 0; i < 10; i++) {
+            headers.append(i == 0 ? "" : ",").append("\"Header").append(i).append("\":\"value value value value ").append(i).append("\"");
+        }
+        headers.append("}");
+        final String extras = headers.toString().replace("Header", "extra");
+        final ContentValues values = new ContentValues();
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < ROW_COUNT; i++) {
+                values.put(DownloadDatabase.COLUMN_ID, i);
+                values.put(DownloadDatabase.COLUMN_URL, "http://www.example.com/downloads/file" + i + "?token=abcdefghijklmnopqrstuvwxyz");
+                values.put(DownloadDatabase.COLUMN_FILE, "/storage/emulated/0/Download/fetch/file" + i);
+                values.put(DownloadDatabase.COLUMN_HEADERS, headers.toString());
+                values.put(DownloadDatabase.COLUMN_DOWNLOADED, 0L);
+                values.put(DownloadDatabase.COLUMN_TOTAL, Long.MAX_VALUE);
+                values.put(DownloadDatabase.COLUMN_STATUS, Status.DOWNLOADING.getValue());
+                values.put(DownloadDatabase.COLUMN_EXTRAS, extras);
+                database.insert(DownloadDatabase.TABLE_NAME, SQLiteDatabase.CONFLICT_ABORT, values);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return database;
+    }
+
+    /** @return the write-ahead log bytes per update and the updates per second.*/
+    private long[] measureUpdates(final SupportSQLiteDatabase database, final boolean progressTable) {
+        query(database, "PRAGMA wal_checkpoint(TRUNCATE)");
+        final File walFile = new File(appContext.getDatabasePath(DATABASE_NAME).getPath() + "-wal");
+        final long walStartLength = walFile.length();
+        final SupportSQLiteStatement progressStatement;
+        final SupportSQLiteStatement statusStatement;
+        if (progressTable) {
+            progressStatement = database.compileStatement("UPDATE " + DownloadDatabase.PROGRESS_TABLE_NAME + " SET "
+                    + DownloadDatabase.COLUMN_DOWNLOADED + " = ?, " + DownloadDatabase.COLUMN_TOTAL + " = ? "
+                    + "WHERE " + DownloadDatabase.COLUMN_ID + " = ?");
+            statusStatement = database.compileStatement("UPDATE " + DownloadDatabase.TABLE_NAME + " SET "
+                    + DownloadDatabase.COLUMN_STATUS + " = ? WHERE " + DownloadDatabase.COLUMN_ID + " = ? AND "
+                    + DownloadDatabase.COLUMN_STATUS + " != ?");
+        } else {
+            progressStatement = database.compileStatement("UPDATE " + DownloadDatabase.TABLE_NAME + " SET "
+                    + DownloadDatabase.COLUMN_DOWNLOADED + " = ?, " + DownloadDatabase.COLUMN_TOTAL + " = ?, "
+                    + DownloadDatabase.COLUMN_STATUS + " = " + Status.DOWNLOADING.getValue() + " "
+                    + "WHERE " + DownloadDatabase.COLUMN_ID + " = ?");
+            statusStatement = null;
+        }
+        final long startTime = System.nanoTime();
+        int id = 0;
+        for (int batch = 0; batch < BATCHES; batch++) {
+            database.beginTransaction();
+            try {
+                for (int index = 0; index < BATCH_SIZE; index++) {
+                    progressStatement.bindLong(1, batch + 1);
+                    progressStatement.bindLong(2, Long.MAX_VALUE);
+                    progressStatement.bindLong(3, id);
+                    progressStatement.executeUpdateDelete();
+                    if (statusStatement != null) {
+                        statusStatement.bindLong(1, Status.DOWNLOADING.getValue());
+                        statusStatement.bindLong(2, id);
+                        statusStatement.bindLong(3, Status.DOWNLOADING.getValue());
+                        statusStatement.executeUpdateDelete();
+                    }
+                    id = (id + 1) % ROW_COUNT;
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        }
+        final long elapsedNanos = Math.max(1, System.nanoTime() - startTime);
+        try {
+            progressStatement.close();
+            if (statusStatement != null) {
+                statusStatement.close();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to close statements", e);
+        }
+        final int updates = BATCHES * BATCH_SIZE;
+        final long walBytesPerUpdate = (walFile.length() - walStartLength) / updates;
+        final long updatesPerSecond = updates * 1_000_000_000L / elapsedNanos;
+        return new long[]{walBytesPerUpdate, updatesPerSecond};
+    }
+
+    private int countProgressRowsWithBytes(final SupportSQLiteDatabase database) {
+        final Cursor cursor = database.query("SELECT COUNT(*) FROM " + DownloadDatabase.PROGRESS_TABLE_NAME + " WHERE " + DownloadDatabase.COLUMN_DOWNLOADED + " > 0");
+        cursor.moveToFirst();
+        final int count = cursor.getInt(0);
+        cursor.close();
+        return count;
+    }
+
+    private void query(final SupportSQLiteDatabase database, final String query) {
+        final Cursor cursor = database.query(query);
+        cursor.moveToFirst();
+        cursor.close();
+    }
+
+    private String format(final long[] results) {
+        return String.format("%d WAL bytes per update, %d updates/s", results[0], results[1]);
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.tonyodev.fetch2;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2core.OutputResourceWrapper;
+import com.tonyodev.fetch2core.StorageResolverHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Measures how the write throughput of parallel download slices writing their buffers into one file
+ * scales with the slice count, with seek and write serialized on a shared lock and with positional
+ * writes. The total bytes written are the same for every slice count. Results are logged with the
+ * tag FetchSliceWriteBenchmark. Writes 64 MB per run, so it is ignored by default and run manually.
+ */
+@Ignore("Benchmark. Remove to run it manually.")
+@RunWith(AndroidJUnit4.class)
+public class SliceWriteBenchmarkTest {
+
+    private static final String TAG = "FetchSliceWriteBenchmark";
+    private static final int[] SLICE_COUNTS = {1, 2, 4, 8, 16};
+    private static final long TOTAL_SIZE = 64L * 1024L * 1024L;
+    private static final int BUFFER_SIZE = 8192;
+    private static final int RUNS = 3;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        file = new File(appContext.getFilesDir(), "sliceWriteBenchmark.bin");
+        file.delete();
+        file.createNewFile();
+    }
+
+    @After
+    public void cleanup() {
+        file.delete();
+    }
+
+    @Test
+    public void positionalWritesAgainstSeekAndWrite() throws Exception {
+        for (int slices : SLICE_COUNTS) {
+            for (int run = 0; run < RUNS; run++) {
+                final long seekAndWrite = write(slices, false);
+                final long positional = write(slices, true);
+                Log.i(TAG, "run " + run + ", " + slices + " slices, seek and write: " + format(seekAndWrite));
+                Log.i(TAG, "run " + run + ", " + slices + " slices, positional writes: " + format(positional));
+            }
+        }
+    }
+
+    /** @return the wall time in nanoseconds to write all slices.*/
+    private long write(final int slices, final boolean positional) throws Exception {
+        final long sliceSize = TOTAL_SIZE / slices;
+        final OutputResourceWrapper outputResourceWrapper = StorageResolverHelper.getOutputResourceWrapper(new RandomAccessFile(file, "rw"));
+        final Object lock = new Object();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final List<Thread> threads = new ArrayList<>();
+        for (int slice = 0; slice < slices; slice++) {
+            final long startBytes = slice * sliceSize;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final byte[] buffer = new byte[BUFFER_SIZE];
+                    for (int i = 0; i < buffer.length; i++) {
+                        buffer[i] = (byte) (startBytes + i);
+                    }
+                    try {
+                        startLatch.await();
+                        for (long downloaded = 0; downloaded < sliceSize; downloaded += BUFFER_SIZE) {
+                            final long position = startBytes + downloaded;
+                            if (positional) {
+                                outputResourceWrapper.writeAtPosition(position, buffer, 0, BUFFER_SIZE);
+                            } else {
+                                synchronized (lock) {
+                                    outputResourceWrapper.setWriteOffset(position);
+                                    outputResourceWrapper.write(buffer, 0, BUFFER_SIZE);
+                                }
+                            }
+                        }
+                    } catch (InterruptedException | IOException e) {
+                        error.set(e);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        final long startTime = System.nanoTime();
+        startLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        outputResourceWrapper.flush();
+        final long wallTime = System.nanoTime() - startTime;
+        outputResourceWrapper.close();
+        assertNull(error.get());
+        assertEquals(TOTAL_SIZE, file.length());
+        return wallTime;
+    }
+
+    private String format(final long wallTime) {
+        final double megabytes = TOTAL_SIZE / (1024.0 * 1024.0);
+        final double throughput = megabytes / (wallTime / 1_000_000_000.0);
+        return String.format("%.1f MB/s", throughput);
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.tonyodev.fetch2
+
+import java.util.concurrent.Executor
+
+/**
+ * Decides on which thread the callbacks of a FetchListener attached with
+ * Fetch.addListener are delivered. Callbacks of a listener are delivered in the order
+ * the events occurred as long as the executor runs tasks one at a time.
+ * @param executor the executor callbacks are handed to. Null delivers callbacks the way
+ * Fetch delivers them by default.
+ * */
+class DeliveryTarget private constructor(val executor: Executor?) {
+
+    override fun toString(): String {
+        return when (this) {
+            MAIN_THREAD -> "DeliveryTarget(MAIN_THREAD)"
+            CALLING_THREAD -> "DeliveryTarget(CALLING_THREAD)"
+            else -> "DeliveryTarget(executor=$executor)"
+        }
+    }
+
+    companion object {
+
+        /** Default. Callbacks are posted to the main thread, except for the callbacks
+         * documented to run on a background thread.*/
+        @JvmField
+        val MAIN_THREAD = DeliveryTarget(null)
+
+        /** Callbacks are called directly on the Fetch thread that reported the event. Conflated
+         * progress is called on the thread Fetch delivers progress from. Callbacks must return
+         * quickly and must not block, otherwise they delay the downloads.*/
+        @JvmField
+        val CALLING_THREAD = DeliveryTarget(Executor { it.run() })
+
+        /** Callbacks are handed to the passed in executor.
+         * @param executor the executor. Use a single threaded executor to keep the order of events.
+         * @return delivery target.
+         * */
+        @JvmStatic
+        fun executor(executor: Executor): DeliveryTarget {
+            return DeliveryTarget(executor)
+        }
+
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.tonyodev.fetch2
+
+/**
+ * A page of downloads returned by the paged Fetch queries. Downloads are ordered by the time
+ * they were created and then by id. Pass the next cursor to the same query to get the following page.
+ * */
+open class DownloadPage(
+        /** The downloads in this page.*/
+        val downloads: List<Download>,
+
+        /** Opaque cursor used to request the next page or null if this is the last page.*/
+        val nextCursor: String?) {
+
+    /** Indicates if there are more downloads after this page.*/
+    val hasNextPage: Boolean
+        get() {
+            return nextCursor != null
+        }
+
+    override fun toString(): String {
+        return "DownloadPage(downloads=$downloads, nextCursor=$nextCursor)"
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.tonyodev.fetch2
+
+/**
+ * The latest progress of a download, delivered to a FetchBatchProgressListener.
+ * @param download An immutable object which contains a current snapshot of all the information
+ * about a specific download managed by Fetch.
+ * @param etaInMilliSeconds Estimated time remaining in milliseconds for the download to complete.
+ * @param downloadedBytesPerSecond Average downloaded bytes per second.
+ * Can return -1 to indicate that the estimated time remaining is unknown.
+ * */
+class DownloadProgressUpdate(val download: Download,
+                             val etaInMilliSeconds: Long,
+                             val downloadedBytesPerSecond: Long) {
+
+    override fun toString(): String {
+        return "DownloadProgressUpdate(download=$download, etaInMilliSeconds=$etaInMilliSeconds, " +
+                "downloadedBytesPerSecond=$downloadedBytesPerSecond)"
+    }
+
+}
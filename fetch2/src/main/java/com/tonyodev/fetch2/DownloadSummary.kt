@@ -0,0 +1,47 @@
+package com.tonyodev.fetch2
+
+/**
+ * A lightweight snapshot of a download managed by Fetch. Summaries are read without the
+ * headers, extras and other columns of the download, which makes them cheap to load for lists
+ * and progress displays. Use Fetch.getDownload(id) with the summary id to load the full download
+ * when it is needed.
+ * */
+interface DownloadSummary {
+
+    /** Used to identify a download. This id also matches the id of the request that started
+     * the download.*/
+    val id: Int
+
+    /** The current status of a download.
+     *  @see com.tonyodev.fetch2.Status
+     *  */
+    val status: Status
+
+    /** The amount of bytes downloaded thus far and saved to the file.*/
+    val downloaded: Long
+
+    /** The file size of a download in bytes. This field could return -1 if the server
+     * did not readily provide the Content-Length when the connection was established.*/
+    val total: Long
+
+    /** The download progress thus far eg(95 indicating 95% completed). If the total field of
+     * this object has a value of -1, this field will also return -1 indicating that the server
+     * did not readily provide the Content-Length and that the progress is undetermined.*/
+    val progress: Int
+
+    /** The download Priority of this download.
+     * @see com.tonyodev.fetch2.Priority
+     * */
+    val priority: Priority
+
+    /** The group id this download belongs to.*/
+    val group: Int
+
+    /** If the download encountered an error, the download status will be Status.Failed and
+     *  this field will provide the specific error when possible.
+     *  Otherwise the default non-error value is Error.NONE.
+     *  @see com.tonyodev.fetch2.Error
+     *  */
+    val error: Error
+
+}
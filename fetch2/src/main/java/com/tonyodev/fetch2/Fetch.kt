@@ -739,6 +739,117 @@ interface Fetch {
      * */
     fun getDownloadsByTag(tag: String, func: Func<List<Download>>): Fetch
 
+    /**
+     * Gets summaries of all downloads managed by this instance of Fetch. Summaries only contain
+     * the id, status, progress, priority, group and error of a download and are much cheaper to
+     * load than full downloads. Use getDownload(id, func) to load a full download when needed.
+     * @param func Callback that the results will be returned on.
+     * @throws FetchException if this instance of Fetch has been closed.
+     * @return Instance
+     * */
+    fun getDownloadSummaries(func: Func<List<DownloadSummary>>): Fetch
+
+    /**
+     * Gets summaries of the downloads with the specified ids.
+     * @see getDownloadSummaries
+     * @param idList Id list
+     * @param func Callback that the results will be returned on. Ids that do not exist are skipped.
+     * @throws FetchException if this instance of Fetch has been closed.
+     * @return Instance
+     * */
+    fun getDownloadSummaries(idList: List<Int>, func: Func<List<DownloadSummary>>): Fetch
+
+    /**
+     * Gets summaries of the downloads with the specified statuses.
+     * @see getDownloadSummaries
+     * @param statuses Statuses to query.
+     * @param func Callback that the results will be returned on.
+     * @throws FetchException if this instance of Fetch has been closed.
+     * @return Instance
+     * */
+    fun getDownloadSummariesWithStatus(statuses: List<Status>, func: Func<List<DownloadSummary>>): Fetch
+
+    /**
+     * Gets summaries of the downloads in the specified group.
+     * @see getDownloadSummaries
+     * @param groupId group id to query.
+     * @param func Callback that the results will be returned on.
+     * @throws FetchException if this instance of Fetch has been closed.
+     * @return Instance
+     * */
+    fun getDownloadSummariesInGroup(groupId: Int, func: Func<List<DownloadSummary>>): Fetch
+
+    /**
+     * Gets a page of the downloads managed by this instance of Fetch. Downloads are ordered by
+     * the time they were created and then by id.
+     * @param pageSize maximum number of downloads in the page. Must be greater than 0.
+     * @param cursor the next cursor of the previous page or null for the first page.
+     * @param func Callback that the page will be returned on.
+     * @throws FetchException if this instance of Fetch has been closed, the page size is less than 1 or the cursor is not valid.
+     * @return Instance
+     * */
+    fun getDownloadsPage(pageSize: Int, cursor: String?, func: Func<DownloadPage>): Fetch
+
+    /**
+     * Gets a page of the downloads with the specified statuses. Downloads are ordered by
+     * the time they were created and then by id.
+     * @param statuses Statuses to query.
+     * @param pageSize maximum number of downloads in the page. Must be greater than 0.
+     * @param cursor the next cursor of the previous page or null for the first page.
+     * @param func Callback that the page will be returned on.
+     * @throws FetchException if this instance of Fetch has been closed, the page size is less than 1 or the cursor is not valid.
+     * @return Instance
+     * */
+    fun getDownloadsWithStatusPage(statuses: List<Status>, pageSize: Int, cursor: String?, func: Func<DownloadPage>): Fetch
+
+    /**
+     * Gets a page of the downloads in the specified group. Downloads are ordered by
+     * the time they were created and then by id.
+     * @param groupId group id to query.
+     * @param pageSize maximum number of downloads in the page. Must be greater than 0.
+     * @param cursor the next cursor of the previous page or null for the first page.
+     * @param func Callback that the page will be returned on.
+     * @throws FetchException if this instance of Fetch has been closed, the page size is less than 1 or the cursor is not valid.
+     * @return Instance
+     * */
+    fun getDownloadsInGroupPage(groupId: Int, pageSize: Int, cursor: String?, func: Func<DownloadPage>): Fetch
+
+    /**
+     * Streams all downloads managed by this instance of Fetch in chunks, so large queues are
+     * never held in memory at once. Chunks are ordered by the time the downloads were created and then by id.
+     * Each chunk is queried after the previous one was posted.
+     * @param chunkSize maximum number of downloads in a chunk. Must be greater than 0.
+     * @param func Callback that each chunk will be returned on.
+     * @param func2 Callback that the number of streamed downloads will be returned on after the last chunk. Can be null.
+     * @throws FetchException if this instance of Fetch has been closed or the chunk size is less than 1.
+     * @return Instance
+     * */
+    fun streamDownloads(chunkSize: Int, func: Func<List<Download>>, func2: Func<Int>? = null): Fetch
+
+    /**
+     * Streams the downloads with the specified statuses in chunks.
+     * @see streamDownloads
+     * @param statuses Statuses to query.
+     * @param chunkSize maximum number of downloads in a chunk. Must be greater than 0.
+     * @param func Callback that each chunk will be returned on.
+     * @param func2 Callback that the number of streamed downloads will be returned on after the last chunk. Can be null.
+     * @throws FetchException if this instance of Fetch has been closed or the chunk size is less than 1.
+     * @return Instance
+     * */
+    fun streamDownloadsWithStatus(statuses: List<Status>, chunkSize: Int, func: Func<List<Download>>, func2: Func<Int>? = null): Fetch
+
+    /**
+     * Streams the downloads in the specified group in chunks.
+     * @see streamDownloads
+     * @param groupId group id to query.
+     * @param chunkSize maximum number of downloads in a chunk. Must be greater than 0.
+     * @param func Callback that each chunk will be returned on.
+     * @param func2 Callback that the number of streamed downloads will be returned on after the last chunk. Can be null.
+     * @throws FetchException if this instance of Fetch has been closed or the chunk size is less than 1.
+     * @return Instance
+     * */
+    fun streamDownloadsInGroup(groupId: Int, chunkSize: Int, func: Func<List<Download>>, func2: Func<Int>? = null): Fetch
+
     /**
      * Gets the FetchGroup by id. Even if the database does not contain downloads with this group id
      * a FetchGroup will be returned. It will contain no downloads however. When a download with this
@@ -784,6 +895,18 @@ interface Fetch {
      * */
     fun addListener(listener: FetchListener, notify: Boolean = DEFAULT_ENABLE_LISTENER_NOTIFY_ON_ATTACHED, autoStart: Boolean): Fetch
 
+    /** Attaches a FetchListener to this instance of Fetch.
+     * @param listener Fetch Listener
+     * @param notify Allows Fetch to notify the newly attached listener instantly of the download status
+     * of all downloads managed by the namespace.
+     * @param autoStart Allows Fetch to start processing requests if it is not already doing so.
+     * @param deliveryTarget The thread or executor the callbacks of the listener are delivered on.
+     * Default is DeliveryTarget.MAIN_THREAD.
+     * @throws FetchException if this instance of Fetch has been closed.
+     * @return Instance
+     * */
+    fun addListener(listener: FetchListener, notify: Boolean, autoStart: Boolean, deliveryTarget: DeliveryTarget): Fetch
+
     /** Detaches a FetchListener from this instance of Fetch.
      * @param listener Fetch Listener
      * @throws FetchException if this instance of Fetch has been closed.
@@ -0,0 +1,20 @@
+package com.tonyodev.fetch2
+
+/**
+ * FetchListener that receives download progress in batches. Fetch only keeps the latest progress
+ * of each download until it is delivered, and delivers the progress of all downloads that changed
+ * since the last delivery in a single callback on the main thread. The delivery rate is capped by
+ * FetchConfiguration.Builder.setProgressDeliveryInterval.
+ * Note: The onProgress(download, etaInMilliSeconds, downloadedBytesPerSecond) callback is
+ * not called for listeners implementing this interface.
+ * */
+interface FetchBatchProgressListener : FetchListener {
+
+    /**
+     * Called with the latest progress of all downloads whose progress changed since the last delivery.
+     * Each download appears at most once.
+     * @param progressUpdates the progress updates.
+     * */
+    fun onProgress(progressUpdates: List<DownloadProgressUpdate>)
+
+}
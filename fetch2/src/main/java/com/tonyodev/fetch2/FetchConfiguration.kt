@@ -9,6 +9,7 @@ import com.tonyodev.fetch2.exception.FetchException
 import com.tonyodev.fetch2.fetch.FetchHandler
 import com.tonyodev.fetch2.util.*
 import com.tonyodev.fetch2core.*
+import java.util.concurrent.Executor
 
 /**
  * Class used to hold the configuration settings for a Fetch instance.
@@ -18,6 +19,7 @@ class FetchConfiguration private constructor(val appContext: Context,
                                              val namespace: String,
                                              val concurrentLimit: Int,
                                              val progressReportingIntervalMillis: Long,
+                                             val progressDeliveryIntervalMillis: Long,
                                              val loggingEnabled: Boolean,
                                              val httpDownloader: Downloader<*, *>,
                                              val globalNetworkType: NetworkType,
@@ -31,13 +33,15 @@ class FetchConfiguration private constructor(val appContext: Context,
                                              val fetchNotificationManager: FetchNotificationManager?,
                                              val fetchDatabaseManager: FetchDatabaseManager<DownloadInfo>?,
                                              val backgroundHandler: Handler?,
+                                             val callbackExecutor: Executor?,
                                              val prioritySort: PrioritySort,
                                              val internetCheckUrl: String?,
                                              val activeDownloadsCheckInterval: Long,
                                              val createFileOnEnqueue: Boolean,
                                              val maxAutoRetryAttempts: Int,
                                              val preAllocateFileOnCreation: Boolean,
-                                             val fetchHandler: FetchHandler?) {
+                                             val fetchHandler: FetchHandler?,
+                                             val maxConcurrentSlices: Int) {
 
     /** Creates a new Instance of Fetch with this object's configuration settings. Convenience method
     * for Fetch.Impl.getInstance(fetchConfiguration)
@@ -54,6 +58,7 @@ class FetchConfiguration private constructor(val appContext: Context,
         private var namespace = DEFAULT_INSTANCE_NAMESPACE
         private var concurrentLimit = DEFAULT_CONCURRENT_LIMIT
         private var progressReportingIntervalMillis = DEFAULT_PROGRESS_REPORTING_INTERVAL_IN_MILLISECONDS
+        private var progressDeliveryIntervalMillis = DEFAULT_PROGRESS_DELIVERY_INTERVAL_IN_MILLISECONDS
         private var loggingEnabled = DEFAULT_LOGGING_ENABLED
         private var httpDownloader = defaultDownloader
         private var globalNetworkType = defaultGlobalNetworkType
@@ -67,6 +72,7 @@ class FetchConfiguration private constructor(val appContext: Context,
         private var fetchNotificationManager: FetchNotificationManager? = null
         private var fetchDatabaseManager: FetchDatabaseManager<DownloadInfo>? = null
         private var backgroundHandler: Handler? = null
+        private var callbackExecutor: Executor? = null
         private var prioritySort: PrioritySort = defaultPrioritySort
         private var internetCheckUrl: String? = null
         private var activeDownloadCheckInterval = DEFAULT_HAS_ACTIVE_DOWNLOADS_INTERVAL_IN_MILLISECONDS
@@ -74,6 +80,7 @@ class FetchConfiguration private constructor(val appContext: Context,
         private var maxAutoRetryAttempts = DEFAULT_GLOBAL_AUTO_RETRY_ATTEMPTS
         private var preAllocateFileOnCreation = DEFAULT_PREALLOCATE_FILE_ON_CREATE
         private var fetchHandler: FetchHandler? = null
+        private var maxConcurrentSlices = DEFAULT_MAX_CONCURRENT_SLICES
 
         /** Sets the namespace which Fetch operates in. Fetch uses
          * a namespace to create a database that the instance will use. Downloads
@@ -134,6 +141,26 @@ class FetchConfiguration private constructor(val appContext: Context,
             return this
         }
 
+        /**
+         * Sets the minimum interval in milliseconds between two deliveries of progress updates to the
+         * listeners, observers and notification managers. Only the latest progress of each download is
+         * kept until it is delivered, and the progress of all downloads is delivered together, so a large
+         * number of downloads does not flood the main thread. The default value is 100 milliseconds.
+         * Set to 0 to deliver progress as soon as possible. Progress is still conflated.
+         * Note: The interval is shared by all Fetch instances of the same namespace. The value of the
+         * first instance created for a namespace is used.
+         * @param progressDeliveryIntervalMillis Progress delivery interval in milliseconds
+         * @throws FetchException if the passed in progress delivery interval is less than 0.
+         * @return Builder
+         * */
+        fun setProgressDeliveryInterval(progressDeliveryIntervalMillis: Long): Builder {
+            if (progressDeliveryIntervalMillis < 0) {
+                throw FetchException("progressDeliveryIntervalMillis cannot be less than 0")
+            }
+            this.progressDeliveryIntervalMillis = progressDeliveryIntervalMillis
+            return this
+        }
+
         /** Sets the number of parallel downloads Fetch should perform at any given time.
          * Default value is 1. This method can only accept values greater than -1. Setting the
          * concurrent limit to zero prevents the instance of Fetch to pull and download request
@@ -151,6 +178,22 @@ class FetchConfiguration private constructor(val appContext: Context,
             return this
         }
 
+        /** Sets the maximum number of slices of parallel downloads that can be downloading at
+         * the same time across all downloads of the namespace. Slices of all parallel downloads share
+         * one pool of threads and are scheduled fairly between the active downloads.
+         * Default value is 16. This method can only accept values greater than 0.
+         * @param maxConcurrentSlices Number of slices that can download at the same time.
+         * @throws FetchException if the passed in max concurrent slices is less than 1.
+         * @return Builder
+         * */
+        fun setMaxConcurrentSlices(maxConcurrentSlices: Int): Builder {
+            if (maxConcurrentSlices < 1) {
+                throw FetchException("Max concurrent slices cannot be less than 1")
+            }
+            this.maxConcurrentSlices = maxConcurrentSlices
+            return this
+        }
+
         /**
          * Overrides each downloads specified network type preference and use the
          * global network type preference instead. The default is GLOBAL_OFF.
@@ -280,6 +323,20 @@ class FetchConfiguration private constructor(val appContext: Context,
             return this
         }
 
+        /**
+         * Sets the executor the results and errors of Fetch methods are delivered on, instead of
+         * the main thread. Listeners attached without a DeliveryTarget are called on this executor as
+         * well. Use this for headless use, like a background service, where nothing touches the UI.
+         * FetchObservers and FetchGroupObservers are always called on the main thread. Use a single
+         * threaded executor to keep results, like the pages of a stream, in order.
+         * @param callbackExecutor the executor. Null delivers on the main thread. Default is null.
+         * @return Builder
+         * */
+        fun setCallbackExecutor(callbackExecutor: Executor?): Builder {
+            this.callbackExecutor = callbackExecutor
+            return this
+        }
+
         /**
          * Sets a fetch handler. This should only be used by advanced users
          * who know what they are doing.
@@ -382,6 +439,7 @@ class FetchConfiguration private constructor(val appContext: Context,
                     namespace = namespace,
                     concurrentLimit = concurrentLimit,
                     progressReportingIntervalMillis = progressReportingIntervalMillis,
+                    progressDeliveryIntervalMillis = progressDeliveryIntervalMillis,
                     loggingEnabled = loggingEnabled,
                     httpDownloader = httpDownloader,
                     globalNetworkType = globalNetworkType,
@@ -395,13 +453,15 @@ class FetchConfiguration private constructor(val appContext: Context,
                     fetchNotificationManager = fetchNotificationManager,
                     fetchDatabaseManager = fetchDatabaseManager,
                     backgroundHandler = backgroundHandler,
+                    callbackExecutor = callbackExecutor,
                     prioritySort = prioritySort,
                     internetCheckUrl = internetCheckUrl,
                     activeDownloadsCheckInterval = activeDownloadCheckInterval,
                     createFileOnEnqueue = createFileOnEnqueue,
                     maxAutoRetryAttempts = maxAutoRetryAttempts,
                     preAllocateFileOnCreation = preAllocateFileOnCreation,
-                    fetchHandler = fetchHandler)
+                    fetchHandler = fetchHandler,
+                    maxConcurrentSlices = maxConcurrentSlices)
         }
 
     }
@@ -414,6 +474,7 @@ class FetchConfiguration private constructor(val appContext: Context,
         if (namespace != other.namespace) return false
         if (concurrentLimit != other.concurrentLimit) return false
         if (progressReportingIntervalMillis != other.progressReportingIntervalMillis) return false
+        if (progressDeliveryIntervalMillis != other.progressDeliveryIntervalMillis) return false
         if (loggingEnabled != other.loggingEnabled) return false
         if (httpDownloader != other.httpDownloader) return false
         if (globalNetworkType != other.globalNetworkType) return false
@@ -427,6 +488,7 @@ class FetchConfiguration private constructor(val appContext: Context,
         if (fetchNotificationManager != other.fetchNotificationManager) return false
         if (fetchDatabaseManager != other.fetchDatabaseManager) return false
         if (backgroundHandler != other.backgroundHandler) return false
+        if (callbackExecutor != other.callbackExecutor) return false
         if (prioritySort != other.prioritySort) return false
         if (internetCheckUrl != other.internetCheckUrl) return false
         if (activeDownloadsCheckInterval != other.activeDownloadsCheckInterval) return false
@@ -434,6 +496,7 @@ class FetchConfiguration private constructor(val appContext: Context,
         if (maxAutoRetryAttempts != other.maxAutoRetryAttempts) return false
         if (preAllocateFileOnCreation != other.preAllocateFileOnCreation) return false
         if (fetchHandler != other.fetchHandler) return false
+        if (maxConcurrentSlices != other.maxConcurrentSlices) return false
         return true
     }
 
@@ -442,6 +505,7 @@ class FetchConfiguration private constructor(val appContext: Context,
         result = 31 * result + namespace.hashCode()
         result = 31 * result + concurrentLimit
         result = 31 * result + progressReportingIntervalMillis.hashCode()
+        result = 31 * result + progressDeliveryIntervalMillis.hashCode()
         result = 31 * result + loggingEnabled.hashCode()
         result = 31 * result + httpDownloader.hashCode()
         result = 31 * result + globalNetworkType.hashCode()
@@ -461,6 +525,9 @@ class FetchConfiguration private constructor(val appContext: Context,
         if (backgroundHandler != null) {
             result = 31 * result + backgroundHandler.hashCode()
         }
+        if (callbackExecutor != null) {
+            result = 31 * result + callbackExecutor.hashCode()
+        }
         if (fetchHandler != null) {
             result = 31 * result + fetchHandler.hashCode()
         }
@@ -472,21 +539,24 @@ class FetchConfiguration private constructor(val appContext: Context,
         result = 31 * result + createFileOnEnqueue.hashCode()
         result = 31 * result + maxAutoRetryAttempts.hashCode()
         result = 31 * result + preAllocateFileOnCreation.hashCode()
+        result = 31 * result + maxConcurrentSlices
         return result
     }
 
     override fun toString(): String {
         return "FetchConfiguration(appContext=$appContext, namespace='$namespace', " +
                 "concurrentLimit=$concurrentLimit, progressReportingIntervalMillis=$progressReportingIntervalMillis, " +
+                "progressDeliveryIntervalMillis=$progressDeliveryIntervalMillis, " +
                 "loggingEnabled=$loggingEnabled, httpDownloader=$httpDownloader, globalNetworkType=$globalNetworkType," +
                 " logger=$logger, autoStart=$autoStart, retryOnNetworkGain=$retryOnNetworkGain, " +
                 "fileServerDownloader=$fileServerDownloader, hashCheckingEnabled=$hashCheckingEnabled, " +
                 "fileExistChecksEnabled=$fileExistChecksEnabled, storageResolver=$storageResolver, " +
                 "fetchNotificationManager=$fetchNotificationManager, fetchDatabaseManager=$fetchDatabaseManager," +
-                " backgroundHandler=$backgroundHandler, prioritySort=$prioritySort, internetCheckUrl=$internetCheckUrl," +
+                " backgroundHandler=$backgroundHandler, callbackExecutor=$callbackExecutor, prioritySort=$prioritySort, internetCheckUrl=$internetCheckUrl," +
                 " activeDownloadsCheckInterval=$activeDownloadsCheckInterval, createFileOnEnqueue=$createFileOnEnqueue," +
                 " preAllocateFileOnCreation=$preAllocateFileOnCreation, " +
-                "maxAutoRetryAttempts=$maxAutoRetryAttempts," + " fetchHandler=$fetchHandler)"
+                "maxAutoRetryAttempts=$maxAutoRetryAttempts," + " fetchHandler=$fetchHandler, " +
+                "maxConcurrentSlices=$maxConcurrentSlices)"
     }
 
 }
\ No newline at end of file
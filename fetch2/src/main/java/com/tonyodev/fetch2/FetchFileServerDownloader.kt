@@ -26,9 +26,11 @@ open class FetchFileServerDownloader @JvmOverloads constructor(
      * The PARALLEL type downloads bytes in parallel.
      * */
     private val fileDownloaderType: Downloader.FileDownloaderType = Downloader.FileDownloaderType.SEQUENTIAL
-) : FileServerDownloader {
+) : FileServerDownloader, ContentHashVerifier {
 
     private val connections: MutableMap<Downloader.Response, FetchFileResourceTransporter> = Collections.synchronizedMap(HashMap())
+    /** Addresses of servers that rejected binary framing. Requests to these servers use JSON frames.*/
+    private val jsonFramingServers: MutableSet<InetSocketAddress> = Collections.synchronizedSet(HashSet())
 
     override fun onPreClientExecute(client: FetchFileResourceTransporter, request: Downloader.ServerRequest): FileServerDownloader.TransporterRequest {
         val headers = request.headers
@@ -60,12 +62,33 @@ open class FetchFileServerDownloader @JvmOverloads constructor(
     }
 
     override fun execute(request: Downloader.ServerRequest, interruptMonitor: InterruptMonitor): Downloader.Response? {
-        val transporter = FetchFileResourceTransporter()
+        var transporter = FetchFileResourceTransporter()
         val transporterRequest = onPreClientExecute(transporter, request)
-        transporter.connect(transporterRequest.inetSocketAddress)
+        val serverAddress = transporterRequest.inetSocketAddress
+        val requestBinaryFraming = !jsonFramingServers.contains(serverAddress)
+        transporter.connect(serverAddress, requestBinaryFraming)
         transporter.sendFileRequest(transporterRequest.fileRequest)
         while (!interruptMonitor.isInterrupted) {
-            val serverResponse = transporter.receiveFileResponse()
+            val firstResponse = try {
+                transporter.receiveFileResponse()
+            } catch (e: Exception) {
+                if (!requestBinaryFraming || transporter.isBinaryFraming) {
+                    throw e
+                }
+                null
+            }
+            val serverResponse = if (firstResponse != null && !transporter.isBinaryFramingRejected) {
+                firstResponse
+            } else {
+                if (firstResponse != null) {
+                    jsonFramingServers.add(serverAddress)
+                }
+                transporter.close()
+                transporter = FetchFileResourceTransporter()
+                transporter.connect(serverAddress)
+                transporter.sendFileRequest(transporterRequest.fileRequest)
+                transporter.receiveFileResponse()
+            }
             val code = serverResponse.status
             val isSuccessful = serverResponse.connection == FileResponse.OPEN_CONNECTION &&
                     serverResponse.type == TYPE_FILE && serverResponse.status == HttpURLConnection.HTTP_PARTIAL
@@ -146,11 +169,11 @@ open class FetchFileServerDownloader @JvmOverloads constructor(
     override fun getRequestFileDownloaderType(request: Downloader.ServerRequest, supportedFileDownloaderTypes: Set<Downloader.FileDownloaderType>) = fileDownloaderType
 
     override fun verifyContentHash(request: Downloader.ServerRequest, hash: String): Boolean {
-        if (hash.isEmpty()) {
-            return true
-        }
-        val fileMd5 = getFileMd5String(request.file)
-        return fileMd5?.contentEquals(hash) ?: true
+        return verifyFileContentHash(request.file, hash)
+    }
+
+    override fun verifyContentHash(request: Downloader.ServerRequest, hash: String, computedHash: String): Boolean {
+        return hash.equals(computedHash, ignoreCase = true)
     }
 
     override fun getContentHash(responseHeaders: MutableMap<String, List<String>>): String {
@@ -68,6 +68,30 @@ interface FetchGroup {
      * */
     val removedDownloads: List<Download>
 
+    /**
+     * The number of downloads belonging to this group. Does not build the download lists.
+     * */
+    val downloadCount: Int
+
+    /**
+     * The number of downloads belonging to this group with the passed in status.
+     * Does not build the download lists.
+     * @param status the status.
+     * @return the number of downloads with the status.
+     * */
+    fun getDownloadCount(status: Status): Int
+
+    /**
+     * The sum of the downloaded bytes of all downloads belonging to this group.
+     * */
+    val downloadedBytes: Long
+
+    /**
+     * The sum of the total bytes of all downloads belonging to this group.
+     * Only meaningful if groupDownloadProgress is not -1.
+     * */
+    val totalBytes: Long
+
     /**
      * The groups downloading progress. -1 if the group progress is indeterminate.
      * */
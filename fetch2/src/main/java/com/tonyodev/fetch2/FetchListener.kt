@@ -73,7 +73,9 @@ interface FetchListener {
     fun onStarted(download: Download, downloadBlocks: List<DownloadBlock>, totalBlocks: Int)
 
     /** Called several times to report the progress of a download when downloading.
-     * The status of the download will be Status.DOWNLOADING.
+     * The status of the download will be Status.DOWNLOADING. Progress is conflated: if the
+     * download reports progress again before the last progress was delivered, only the latest
+     * progress is delivered. See FetchConfiguration.Builder.setProgressDeliveryInterval.
      * @param download An immutable object which contains a current snapshot of all the information
      * about a specific download managed by Fetch.
      * @param etaInMilliSeconds Estimated time remaining in milliseconds for the download to complete.
@@ -24,7 +24,7 @@ open class HttpUrlConnectionDownloader @JvmOverloads constructor(
          * The SEQUENTIAL type downloads bytes in sequence.
          * The PARALLEL type downloads bytes in parallel.
          * */
-        private val fileDownloaderType: Downloader.FileDownloaderType = Downloader.FileDownloaderType.SEQUENTIAL) : Downloader<HttpURLConnection, Void> {
+        private val fileDownloaderType: Downloader.FileDownloaderType = Downloader.FileDownloaderType.SEQUENTIAL) : Downloader<HttpURLConnection, Void>, ContentHashVerifier {
 
     constructor(fileDownloaderType: Downloader.FileDownloaderType) : this(null, fileDownloaderType)
 
@@ -169,11 +169,11 @@ open class HttpUrlConnectionDownloader @JvmOverloads constructor(
     }
 
     override fun verifyContentHash(request: Downloader.ServerRequest, hash: String): Boolean {
-        if (hash.isEmpty()) {
-            return true
-        }
-        val fileHash = getFileMd5String(request.file)
-        return fileHash?.contentEquals(hash) ?: true
+        return verifyFileContentHash(request.file, hash)
+    }
+
+    override fun verifyContentHash(request: Downloader.ServerRequest, hash: String, computedHash: String): Boolean {
+        return hash.equals(computedHash, ignoreCase = true)
     }
 
     override fun onServerResponse(request: Downloader.ServerRequest, response: Downloader.Response) {
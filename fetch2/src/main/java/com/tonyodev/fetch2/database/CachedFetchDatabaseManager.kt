@@ -0,0 +1,429 @@
+package com.tonyodev.fetch2.database
+
+import com.tonyodev.fetch2.PrioritySort
+import com.tonyodev.fetch2.Status
+import com.tonyodev.fetch2.util.toDownloadInfo
+import com.tonyodev.fetch2.util.toDownloadSummaryInfo
+import com.tonyodev.fetch2core.Extras
+import com.tonyodev.fetch2core.Logger
+import java.util.*
+
+/**
+ * Write through cache in front of the Fetch database. All downloads are loaded once and kept in
+ * memory together with indexes by file, status, group, tag and identifier. Reads are served from
+ * memory and writes are applied to the database first, then to the cache, so the database only
+ * serves as the durable copy. Callers receive copies of the cached downloads and can change them
+ * freely. Reads may run concurrently with each other, but writes must not run concurrently with
+ * any other call. FetchDatabaseManagerWrapper enforces this with its read/write lock.
+ * */
+class CachedFetchDatabaseManager(private val fetchDatabaseManager: FetchDatabaseManagerImpl) : FetchDatabaseManager<DownloadInfo> {
+
+    override val isClosed: Boolean
+        get() {
+            return fetchDatabaseManager.isClosed
+        }
+    override val logger: Logger = fetchDatabaseManager.logger
+    override var delegate: FetchDatabaseManager.Delegate<DownloadInfo>?
+        get() {
+            return fetchDatabaseManager.delegate
+        }
+        set(value) {
+            fetchDatabaseManager.delegate = value
+        }
+
+    override val hasPendingFileChecks: Boolean
+        get() {
+            return fetchDatabaseManager.hasPendingFileChecks
+        }
+
+    @Volatile
+    private var loaded = false
+    private val loadLock = Any()
+    private val downloads = TreeMap<Int, DownloadInfo>()
+    private val fileIndex = HashMap<String, Int>()
+    private val statusIndex = EnumMap<Status, TreeSet<Int>>(Status::class.java)
+    private val groupIndex = HashMap<Int, TreeSet<Int>>()
+    private val tagIndex = HashMap<String, TreeSet<Int>>()
+    private val identifierIndex = HashMap<Long, TreeSet<Int>>()
+    private val createdOrder = TreeSet<DownloadInfo>(compareBy<DownloadInfo> { it.created }.thenBy { it.id })
+
+    override fun insert(downloadInfo: DownloadInfo): Pair<DownloadInfo, Boolean> {
+        val result = fetchDatabaseManager.insert(downloadInfo)
+        if (result.second) {
+            cache(result.first)
+        }
+        return result
+    }
+
+    override fun insert(downloadInfoList: List<DownloadInfo>): List<Pair<DownloadInfo, Boolean>> {
+        val results = fetchDatabaseManager.insert(downloadInfoList)
+        results.forEach {
+            if (it.second) {
+                cache(it.first)
+            }
+        }
+        return results
+    }
+
+    override fun delete(downloadInfo: DownloadInfo) {
+        fetchDatabaseManager.delete(downloadInfo)
+        evict(downloadInfo.id)
+    }
+
+    override fun delete(downloadInfoList: List<DownloadInfo>) {
+        fetchDatabaseManager.delete(downloadInfoList)
+        downloadInfoList.forEach {
+            evict(it.id)
+        }
+    }
+
+    override fun deleteAll() {
+        fetchDatabaseManager.deleteAll()
+        clearCache()
+        loaded = true
+    }
+
+    override fun update(downloadInfo: DownloadInfo) {
+        fetchDatabaseManager.update(downloadInfo)
+        if (downloads.containsKey(downloadInfo.id)) {
+            cache(downloadInfo)
+        }
+    }
+
+    override fun update(downloadInfoList: List<DownloadInfo>) {
+        fetchDatabaseManager.update(downloadInfoList)
+        downloadInfoList.forEach {
+            if (downloads.containsKey(it.id)) {
+                cache(it)
+            }
+        }
+    }
+
+    override fun applyChanges(updatedList: List<DownloadInfo>, deletedList: List<DownloadInfo>,
+                              insertedList: List<DownloadInfo>): List<Pair<DownloadInfo, Boolean>> {
+        val results = fetchDatabaseManager.applyChanges(updatedList, deletedList, insertedList)
+        updatedList.forEach {
+            if (downloads.containsKey(it.id)) {
+                cache(it)
+            }
+        }
+        deletedList.forEach {
+            evict(it.id)
+        }
+        results.forEach {
+            if (it.second) {
+                cache(it.first)
+            }
+        }
+        return results
+    }
+
+    override fun updateFileBytesInfoAndStatusOnly(downloadInfo: DownloadInfo) {
+        fetchDatabaseManager.updateFileBytesInfoAndStatusOnly(downloadInfo)
+        updateCachedFileBytesInfoAndStatus(downloadInfo)
+    }
+
+    override fun updateFileBytesInfoAndStatusOnly(downloadInfoList: List<DownloadInfo>) {
+        fetchDatabaseManager.updateFileBytesInfoAndStatusOnly(downloadInfoList)
+        downloadInfoList.forEach {
+            updateCachedFileBytesInfoAndStatus(it)
+        }
+    }
+
+    override fun updateExtras(id: Int, extras: Extras): DownloadInfo? {
+        val download = fetchDatabaseManager.updateExtras(id, extras)
+        if (download != null) {
+            cache(download)
+        } else {
+            evict(id)
+        }
+        return download
+    }
+
+    override fun get(): List<DownloadInfo> {
+        ensureLoaded()
+        return getSanitizedCopies(downloads.values.toList())
+    }
+
+    override fun get(id: Int): DownloadInfo? {
+        ensureLoaded()
+        val download = downloads[id] ?: return null
+        return getSanitizedCopies(listOf(download)).first()
+    }
+
+    override fun get(ids: List<Int>): List<DownloadInfo?> {
+        ensureLoaded()
+        return getSanitizedCopies(ids.mapNotNull { downloads[it] })
+    }
+
+    override fun getByFile(file: String): DownloadInfo? {
+        ensureLoaded()
+        val download = fileIndex[file]?.let { downloads[it] } ?: return null
+        return getSanitizedCopies(listOf(download)).first()
+    }
+
+    override fun getByFile(files: List<String>): List<DownloadInfo> {
+        ensureLoaded()
+        return getSanitizedCopies(files.mapNotNull { file -> fileIndex[file]?.let { downloads[it] } })
+    }
+
+    override fun getByStatus(status: Status): List<DownloadInfo> {
+        ensureLoaded()
+        return getSanitizedCopies(getIndexed(statusIndex[status]))
+    }
+
+    override fun getByStatus(statuses: List<Status>): List<DownloadInfo> {
+        ensureLoaded()
+        val ids = TreeSet<Int>()
+        statuses.forEach { status ->
+            statusIndex[status]?.let { ids.addAll(it) }
+        }
+        return getSanitizedCopies(getIndexed(ids))
+    }
+
+    override fun getByGroup(group: Int): List<DownloadInfo> {
+        ensureLoaded()
+        return getSanitizedCopies(getIndexed(groupIndex[group]))
+    }
+
+    override fun getDownloadsInGroupWithStatus(groupId: Int, statuses: List<Status>): List<DownloadInfo> {
+        ensureLoaded()
+        val downloadsInGroup = getIndexed(groupIndex[groupId]).filter { statuses.contains(it.status) }
+        return getSanitizedCopies(downloadsInGroup)
+    }
+
+    override fun getDownloadsByRequestIdentifier(identifier: Long): List<DownloadInfo> {
+        ensureLoaded()
+        return getSanitizedCopies(getIndexed(identifierIndex[identifier]))
+    }
+
+    override fun getDownloadsByTag(tag: String): List<DownloadInfo> {
+        ensureLoaded()
+        return getSanitizedCopies(getIndexed(tagIndex[tag]))
+    }
+
+    override fun getAllGroupIds(): List<Int> {
+        ensureLoaded()
+        return groupIndex.keys.toList()
+    }
+
+    override fun getPendingDownloadsSorted(prioritySort: PrioritySort): List<DownloadInfo> {
+        ensureLoaded()
+        val comparator = if (prioritySort == PrioritySort.ASC) {
+            compareByDescending<DownloadInfo> { it.priority.value }.thenBy { it.created }
+        } else {
+            compareByDescending<DownloadInfo> { it.priority.value }.thenByDescending { it.created }
+        }
+        return getSanitizedCopies(getIndexed(statusIndex[Status.QUEUED]).sortedWith(comparator))
+    }
+
+    override fun getPage(created: Long, id: Int, limit: Int): List<DownloadInfo> {
+        ensureLoaded()
+        return getSanitizedCopies(getCreatedAfter(created, id, limit) { true })
+    }
+
+    override fun getPageByStatus(statuses: List<Status>, created: Long, id: Int, limit: Int): List<DownloadInfo> {
+        ensureLoaded()
+        return getSanitizedCopies(getCreatedAfter(created, id, limit) { statuses.contains(it.status) })
+    }
+
+    override fun getPageByGroup(group: Int, created: Long, id: Int, limit: Int): List<DownloadInfo> {
+        ensureLoaded()
+        return getSanitizedCopies(getCreatedAfter(created, id, limit) { it.group == group })
+    }
+
+    override fun getSummaries(): List<DownloadSummaryInfo> {
+        ensureLoaded()
+        return getSummaries(downloads.values)
+    }
+
+    override fun getSummaries(ids: List<Int>): List<DownloadSummaryInfo> {
+        ensureLoaded()
+        return getSummaries(ids.mapNotNull { downloads[it] })
+    }
+
+    override fun getSummariesByStatus(statuses: List<Status>): List<DownloadSummaryInfo> {
+        ensureLoaded()
+        val ids = TreeSet<Int>()
+        statuses.forEach { status ->
+            statusIndex[status]?.let { ids.addAll(it) }
+        }
+        return getSummaries(getIndexed(ids))
+    }
+
+    override fun getSummariesByGroup(group: Int): List<DownloadSummaryInfo> {
+        ensureLoaded()
+        return getSummaries(getIndexed(groupIndex[group]))
+    }
+
+    override fun getPendingCount(includeAddedDownloads: Boolean): Long {
+        ensureLoaded()
+        var count = (statusIndex[Status.QUEUED]?.size ?: 0) + (statusIndex[Status.DOWNLOADING]?.size ?: 0)
+        if (includeAddedDownloads) {
+            count += statusIndex[Status.ADDED]?.size ?: 0
+        }
+        return count.toLong()
+    }
+
+    override fun sanitizeOnFirstEntry() {
+        fetchDatabaseManager.sanitizeOnFirstEntry()
+        clearCache()
+        loaded = false
+    }
+
+    override fun reconcileFiles(): List<DownloadInfo> {
+        val resetDownloads = fetchDatabaseManager.reconcileFiles()
+        resetDownloads.forEach {
+            if (downloads.containsKey(it.id)) {
+                cache(it)
+            }
+        }
+        return resetDownloads
+    }
+
+    override fun getNewDownloadInfoInstance(): DownloadInfo {
+        return fetchDatabaseManager.getNewDownloadInfoInstance()
+    }
+
+    override fun close() {
+        fetchDatabaseManager.close()
+        clearCache()
+        loaded = false
+    }
+
+    /** Concurrent reads may call this at the same time, so the first load is done by one of them only.*/
+    private fun ensureLoaded() {
+        if (!loaded) {
+            synchronized(loadLock) {
+                if (!loaded) {
+                    fetchDatabaseManager.getUnsanitized().forEach {
+                        cacheLoaded(it)
+                    }
+                    loaded = true
+                }
+            }
+        }
+    }
+
+    /** Copies the cached downloads, then sanitizes the copies. Concurrent reads share the cached
+     * downloads, so they are never changed here. Sanitized changes are stored and cached by
+     * reconcileFiles, which the wrapper runs as a write.*/
+    private fun getSanitizedCopies(cachedDownloads: List<DownloadInfo>): List<DownloadInfo> {
+        if (cachedDownloads.isEmpty()) {
+            return cachedDownloads
+        }
+        val copies = cachedDownloads.map {
+            it.toDownloadInfo(fetchDatabaseManager.getNewDownloadInfoInstance())
+        }
+        fetchDatabaseManager.sanitize(copies)
+        return copies
+    }
+
+    /** Summaries only copy a few fields, so the cached downloads do not need to be copied or sanitized.*/
+    private fun getSummaries(cachedDownloads: Collection<DownloadInfo>): List<DownloadSummaryInfo> {
+        return cachedDownloads.map {
+            it.toDownloadSummaryInfo(DownloadSummaryInfo())
+        }
+    }
+
+    private fun getCreatedAfter(created: Long, id: Int, limit: Int, predicate: (DownloadInfo) -> Boolean): List<DownloadInfo> {
+        val position = fetchDatabaseManager.getNewDownloadInfoInstance()
+        position.created = created
+        position.id = id
+        val downloads = ArrayList<DownloadInfo>(minOf(limit, createdOrder.size))
+        val iterator = createdOrder.tailSet(position, false).iterator()
+        while (downloads.size < limit && iterator.hasNext()) {
+            val download = iterator.next()
+            if (predicate(download)) {
+                downloads.add(download)
+            }
+        }
+        return downloads
+    }
+
+    private fun getIndexed(ids: Set<Int>?): List<DownloadInfo> {
+        return ids?.mapNotNull { downloads[it] } ?: emptyList()
+    }
+
+    private fun cache(downloadInfo: DownloadInfo) {
+        if (loaded) {
+            cacheLoaded(downloadInfo)
+        }
+    }
+
+    private fun cacheLoaded(downloadInfo: DownloadInfo) {
+        val cached = downloads[downloadInfo.id]
+        if (cached != null) {
+            removeFromIndexes(cached)
+        }
+        val download = downloadInfo.toDownloadInfo(cached ?: fetchDatabaseManager.getNewDownloadInfoInstance())
+        downloads[download.id] = download
+        addToIndexes(download)
+    }
+
+    private fun updateCachedFileBytesInfoAndStatus(downloadInfo: DownloadInfo) {
+        val cached = downloads[downloadInfo.id] ?: return
+        val oldStatus = cached.status
+        cached.downloaded = downloadInfo.downloaded
+        cached.total = downloadInfo.total
+        cached.status = downloadInfo.status
+        if (oldStatus != cached.status) {
+            removeFromIndex(statusIndex, oldStatus, cached.id)
+            statusIndex.getOrPut(cached.status) { TreeSet() }.add(cached.id)
+        }
+    }
+
+    private fun evict(id: Int) {
+        val cached = downloads.remove(id)
+        if (cached != null) {
+            removeFromIndexes(cached)
+        }
+    }
+
+    private fun addToIndexes(download: DownloadInfo) {
+        fileIndex[download.file] = download.id
+        createdOrder.add(download)
+        statusIndex.getOrPut(download.status) { TreeSet() }.add(download.id)
+        groupIndex.getOrPut(download.group) { TreeSet() }.add(download.id)
+        identifierIndex.getOrPut(download.identifier) { TreeSet() }.add(download.id)
+        val tag = download.tag
+        if (tag != null) {
+            tagIndex.getOrPut(tag) { TreeSet() }.add(download.id)
+        }
+    }
+
+    private fun removeFromIndexes(download: DownloadInfo) {
+        if (fileIndex[download.file] == download.id) {
+            fileIndex.remove(download.file)
+        }
+        createdOrder.remove(download)
+        removeFromIndex(statusIndex, download.status, download.id)
+        removeFromIndex(groupIndex, download.group, download.id)
+        removeFromIndex(identifierIndex, download.identifier, download.id)
+        val tag = download.tag
+        if (tag != null) {
+            removeFromIndex(tagIndex, tag, download.id)
+        }
+    }
+
+    private fun <K> removeFromIndex(index: MutableMap<K, TreeSet<Int>>, key: K, id: Int) {
+        val ids = index[key]
+        if (ids != null) {
+            ids.remove(id)
+            if (ids.isEmpty()) {
+                index.remove(key)
+            }
+        }
+    }
+
+    private fun clearCache() {
+        downloads.clear()
+        fileIndex.clear()
+        createdOrder.clear()
+        statusIndex.clear()
+        groupIndex.clear()
+        tagIndex.clear()
+        identifierIndex.clear()
+    }
+
+}
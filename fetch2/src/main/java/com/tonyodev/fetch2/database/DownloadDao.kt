@@ -3,6 +3,8 @@ package com.tonyodev.fetch2.database
 import androidx.room.*
 import com.tonyodev.fetch2.Status
 import com.tonyodev.fetch2.database.DownloadDatabase.Companion.COLUMN_CREATED
+import com.tonyodev.fetch2.database.DownloadDatabase.Companion.DOWNLOAD_COLUMNS
+import com.tonyodev.fetch2.database.DownloadDatabase.Companion.DOWNLOAD_TABLES
 import com.tonyodev.fetch2.database.DownloadDatabase.Companion.COLUMN_FILE
 import com.tonyodev.fetch2.database.DownloadDatabase.Companion.COLUMN_GROUP
 import com.tonyodev.fetch2.database.DownloadDatabase.Companion.COLUMN_ID
@@ -10,6 +12,7 @@ import com.tonyodev.fetch2.database.DownloadDatabase.Companion.COLUMN_IDENTIFIER
 import com.tonyodev.fetch2.database.DownloadDatabase.Companion.COLUMN_PRIORITY
 import com.tonyodev.fetch2.database.DownloadDatabase.Companion.COLUMN_STATUS
 import com.tonyodev.fetch2.database.DownloadDatabase.Companion.COLUMN_TAG
+import com.tonyodev.fetch2.database.DownloadDatabase.Companion.SUMMARY_COLUMNS
 import com.tonyodev.fetch2.database.DownloadDatabase.Companion.TABLE_NAME
 
 
@@ -37,43 +40,72 @@ interface DownloadDao {
     @Update(onConflict = OnConflictStrategy.REPLACE)
     fun update(downloadInfoList: List<DownloadInfo>)
 
-    @Query("SELECT * FROM $TABLE_NAME")
+    @Query("SELECT $DOWNLOAD_COLUMNS FROM $DOWNLOAD_TABLES")
     fun get(): List<DownloadInfo>
 
-    @Query("SELECT * FROM $TABLE_NAME WHERE $COLUMN_ID = :id")
+    @Query("SELECT $DOWNLOAD_COLUMNS FROM $DOWNLOAD_TABLES WHERE $TABLE_NAME.$COLUMN_ID = :id")
     fun get(id: Int): DownloadInfo?
 
-    @Query("SELECT * FROM $TABLE_NAME WHERE $COLUMN_ID IN (:ids)")
+    @Query("SELECT $DOWNLOAD_COLUMNS FROM $DOWNLOAD_TABLES WHERE $TABLE_NAME.$COLUMN_ID IN (:ids)")
     fun get(ids: List<Int>): List<DownloadInfo>
 
-    @Query("SELECT * FROM $TABLE_NAME WHERE $COLUMN_FILE = :file")
+    @Query("SELECT $DOWNLOAD_COLUMNS FROM $DOWNLOAD_TABLES WHERE $COLUMN_FILE = :file")
     fun getByFile(file: String): DownloadInfo?
 
-    @Query("SELECT * FROM $TABLE_NAME WHERE $COLUMN_STATUS = :status")
+    @Query("SELECT $DOWNLOAD_COLUMNS FROM $DOWNLOAD_TABLES WHERE $COLUMN_FILE IN (:files)")
+    fun getByFile(files: List<String>): List<DownloadInfo>
+
+    @Query("SELECT $DOWNLOAD_COLUMNS FROM $DOWNLOAD_TABLES WHERE $COLUMN_STATUS = :status")
     fun getByStatus(status: Status): List<DownloadInfo>
 
-    @Query("SELECT * FROM $TABLE_NAME WHERE $COLUMN_STATUS IN (:statuses)")
+    @Query("SELECT $DOWNLOAD_COLUMNS FROM $DOWNLOAD_TABLES WHERE $COLUMN_STATUS IN (:statuses)")
     fun getByStatus(statuses: List<@JvmSuppressWildcards Status>): List<DownloadInfo>
 
-    @Query("SELECT * FROM $TABLE_NAME WHERE $COLUMN_GROUP = :group")
+    @Query("SELECT $DOWNLOAD_COLUMNS FROM $DOWNLOAD_TABLES WHERE $COLUMN_GROUP = :group")
     fun getByGroup(group: Int): List<DownloadInfo>
 
-    @Query("SELECT * FROM $TABLE_NAME WHERE $COLUMN_GROUP = :group AND $COLUMN_STATUS IN (:statuses)")
+    @Query("SELECT $DOWNLOAD_COLUMNS FROM $DOWNLOAD_TABLES WHERE $COLUMN_GROUP = :group AND $COLUMN_STATUS IN (:statuses)")
     fun getByGroupWithStatus(group: Int, statuses: List<@JvmSuppressWildcards Status>): List<DownloadInfo>
 
-    @Query("SELECT * FROM $TABLE_NAME WHERE $COLUMN_STATUS = :status ORDER BY $COLUMN_PRIORITY DESC, $COLUMN_CREATED ASC")
+    @Query("SELECT $DOWNLOAD_COLUMNS FROM $DOWNLOAD_TABLES WHERE $COLUMN_STATUS = :status ORDER BY $COLUMN_PRIORITY DESC, $COLUMN_CREATED ASC")
     fun getPendingDownloadsSorted(status: Status): List<DownloadInfo>
 
-    @Query("SELECT * FROM $TABLE_NAME WHERE $COLUMN_STATUS = :status ORDER BY $COLUMN_PRIORITY DESC, $COLUMN_CREATED DESC")
+    @Query("SELECT $DOWNLOAD_COLUMNS FROM $DOWNLOAD_TABLES WHERE $COLUMN_STATUS = :status ORDER BY $COLUMN_PRIORITY DESC, $COLUMN_CREATED DESC")
     fun getPendingDownloadsSortedDesc(status: Status): List<DownloadInfo>
 
-    @Query("SELECT * FROM $TABLE_NAME WHERE $COLUMN_IDENTIFIER = :identifier")
+    @Query("SELECT $DOWNLOAD_COLUMNS FROM $DOWNLOAD_TABLES WHERE $COLUMN_IDENTIFIER = :identifier")
     fun getDownloadsByRequestIdentifier(identifier: Long): List<DownloadInfo>
 
-    @Query("SELECT * FROM $TABLE_NAME WHERE $COLUMN_TAG = :tag")
+    @Query("SELECT $DOWNLOAD_COLUMNS FROM $DOWNLOAD_TABLES WHERE $COLUMN_TAG = :tag")
     fun getDownloadsByTag(tag: String): List<DownloadInfo>
 
     @Query("SELECT DISTINCT $COLUMN_GROUP from $TABLE_NAME")
     fun getAllGroupIds(): List<Int>
 
-}
\ No newline at end of file
+    @Query("SELECT $DOWNLOAD_COLUMNS FROM $DOWNLOAD_TABLES WHERE ($COLUMN_CREATED > :created OR ($COLUMN_CREATED = :created AND $TABLE_NAME.$COLUMN_ID > :id))"
+            + " ORDER BY $COLUMN_CREATED ASC, $COLUMN_ID ASC LIMIT :limit")
+    fun getPage(created: Long, id: Int, limit: Int): List<DownloadInfo>
+
+    @Query("SELECT $DOWNLOAD_COLUMNS FROM $DOWNLOAD_TABLES WHERE $COLUMN_STATUS IN (:statuses)"
+            + " AND ($COLUMN_CREATED > :created OR ($COLUMN_CREATED = :created AND $TABLE_NAME.$COLUMN_ID > :id))"
+            + " ORDER BY $COLUMN_CREATED ASC, $COLUMN_ID ASC LIMIT :limit")
+    fun getPageByStatus(statuses: List<@JvmSuppressWildcards Status>, created: Long, id: Int, limit: Int): List<DownloadInfo>
+
+    @Query("SELECT $DOWNLOAD_COLUMNS FROM $DOWNLOAD_TABLES WHERE $COLUMN_GROUP = :group"
+            + " AND ($COLUMN_CREATED > :created OR ($COLUMN_CREATED = :created AND $TABLE_NAME.$COLUMN_ID > :id))"
+            + " ORDER BY $COLUMN_CREATED ASC, $COLUMN_ID ASC LIMIT :limit")
+    fun getPageByGroup(group: Int, created: Long, id: Int, limit: Int): List<DownloadInfo>
+
+    @Query("SELECT $SUMMARY_COLUMNS FROM $DOWNLOAD_TABLES")
+    fun getSummaries(): List<DownloadSummaryInfo>
+
+    @Query("SELECT $SUMMARY_COLUMNS FROM $DOWNLOAD_TABLES WHERE $TABLE_NAME.$COLUMN_ID IN (:ids)")
+    fun getSummaries(ids: List<Int>): List<DownloadSummaryInfo>
+
+    @Query("SELECT $SUMMARY_COLUMNS FROM $DOWNLOAD_TABLES WHERE $COLUMN_STATUS IN (:statuses)")
+    fun getSummariesByStatus(statuses: List<@JvmSuppressWildcards Status>): List<DownloadSummaryInfo>
+
+    @Query("SELECT $SUMMARY_COLUMNS FROM $DOWNLOAD_TABLES WHERE $COLUMN_GROUP = :group")
+    fun getSummariesByGroup(group: Int): List<DownloadSummaryInfo>
+
+}
@@ -3,10 +3,11 @@ package com.tonyodev.fetch2.database
 import androidx.room.Database
 import androidx.room.RoomDatabase
 import androidx.room.TypeConverters
+import androidx.sqlite.db.SupportSQLiteDatabase
 import com.tonyodev.fetch2.database.DownloadDatabase.Companion.DATABASE_VERSION
 import com.tonyodev.fetch2.database.migration.*
 
-@Database(entities = [DownloadInfo::class], version = DATABASE_VERSION, exportSchema = false)
+@Database(entities = [DownloadInfo::class, DownloadProgressInfo::class], version = DATABASE_VERSION, exportSchema = false)
 @TypeConverters(value = [Converter::class])
 abstract class DownloadDatabase : RoomDatabase() {
 
@@ -38,13 +39,69 @@ abstract class DownloadDatabase : RoomDatabase() {
         const val COLUMN_EXTRAS = "_extras"
         const val COLUMN_AUTO_RETRY_MAX_ATTEMPTS = "_auto_retry_max_attempts"
         const val COLUMN_AUTO_RETRY_ATTEMPTS = "_auto_retry_attempts"
-        const val OLD_DATABASE_VERSION = 6
-        const val DATABASE_VERSION = 7
+        const val INDEX_STATUS_PRIORITY_CREATED = "index_requests__status__priority__created"
+        const val INDEX_CREATED = "index_requests__created"
+        const val INDEX_TAG = "index_requests__tag"
+        const val INDEX_IDENTIFIER = "index_requests__identifier"
+        const val PROGRESS_TABLE_NAME = "download_progress"
+        const val TRIGGER_PROGRESS_INSERT = "trigger_requests_progress_insert"
+        const val TRIGGER_PROGRESS_UPDATE = "trigger_requests_progress_update"
+        const val TRIGGER_PROGRESS_DELETE = "trigger_requests_progress_delete"
+
+        /**
+         * The downloaded and total bytes columns of the requests table hold the values of the last
+         * full write. The current values live in the progress table, so queries read them from there.
+         * */
+        private const val DOWNLOADED_COLUMN = "COALESCE($PROGRESS_TABLE_NAME.$COLUMN_DOWNLOADED, " +
+                "$TABLE_NAME.$COLUMN_DOWNLOADED) AS $COLUMN_DOWNLOADED"
+        private const val TOTAL_COLUMN = "COALESCE($PROGRESS_TABLE_NAME.$COLUMN_TOTAL, " +
+                "$TABLE_NAME.$COLUMN_TOTAL) AS $COLUMN_TOTAL"
+        const val DOWNLOAD_TABLES = "$TABLE_NAME LEFT JOIN $PROGRESS_TABLE_NAME " +
+                "ON $PROGRESS_TABLE_NAME.$COLUMN_ID = $TABLE_NAME.$COLUMN_ID"
+        const val DOWNLOAD_COLUMNS = "$TABLE_NAME.$COLUMN_ID AS $COLUMN_ID, $COLUMN_NAMESPACE, $COLUMN_URL, " +
+                "$COLUMN_FILE, $COLUMN_GROUP, $COLUMN_PRIORITY, $COLUMN_HEADERS, $DOWNLOADED_COLUMN, $TOTAL_COLUMN, " +
+                "$COLUMN_STATUS, $COLUMN_ERROR, $COLUMN_NETWORK_TYPE, $COLUMN_CREATED, $COLUMN_TAG, " +
+                "$COLUMN_ENQUEUE_ACTION, $COLUMN_IDENTIFIER, $COLUMN_DOWNLOAD_ON_ENQUEUE, $COLUMN_EXTRAS, " +
+                "$COLUMN_AUTO_RETRY_MAX_ATTEMPTS, $COLUMN_AUTO_RETRY_ATTEMPTS"
+        const val SUMMARY_COLUMNS = "$TABLE_NAME.$COLUMN_ID AS $COLUMN_ID, $COLUMN_STATUS, $DOWNLOADED_COLUMN, " +
+                "$TOTAL_COLUMN, $COLUMN_PRIORITY, $COLUMN_GROUP, $COLUMN_ERROR"
+        const val OLD_DATABASE_VERSION = 8
+        const val DATABASE_VERSION = 9
 
         @JvmStatic
         fun getMigrations(): Array<Migration> {
             return arrayOf(MigrationOneToTwo(), MigrationTwoToThree(), MigrationThreeToFour(),
-                    MigrationFourToFive(), MigrationFiveToSix(), MigrationSixToSeven())
+                    MigrationFourToFive(), MigrationFiveToSix(), MigrationSixToSeven(), MigrationSevenToEight(),
+                    MigrationEightToNine())
+        }
+
+        /**
+         * Keeps a progress row for every download. Inserts and full updates of the requests table
+         * copy the downloaded and total bytes into the progress table, deletes remove the progress row.
+         * Room does not manage triggers, so they are created when the database is created and by
+         * MigrationEightToNine.
+         * */
+        @JvmStatic
+        fun createProgressTriggers(db: SupportSQLiteDatabase) {
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS $TRIGGER_PROGRESS_INSERT AFTER INSERT ON $TABLE_NAME BEGIN "
+                    + "INSERT OR REPLACE INTO $PROGRESS_TABLE_NAME ($COLUMN_ID, $COLUMN_DOWNLOADED, $COLUMN_TOTAL) "
+                    + "VALUES (new.$COLUMN_ID, new.$COLUMN_DOWNLOADED, new.$COLUMN_TOTAL); END")
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS $TRIGGER_PROGRESS_UPDATE "
+                    + "AFTER UPDATE OF $COLUMN_DOWNLOADED, $COLUMN_TOTAL ON $TABLE_NAME BEGIN "
+                    + "INSERT OR REPLACE INTO $PROGRESS_TABLE_NAME ($COLUMN_ID, $COLUMN_DOWNLOADED, $COLUMN_TOTAL) "
+                    + "VALUES (new.$COLUMN_ID, new.$COLUMN_DOWNLOADED, new.$COLUMN_TOTAL); END")
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS $TRIGGER_PROGRESS_DELETE AFTER DELETE ON $TABLE_NAME BEGIN "
+                    + "DELETE FROM $PROGRESS_TABLE_NAME WHERE $COLUMN_ID = old.$COLUMN_ID; END")
+        }
+
+        /** Creates the progress triggers on newly created databases.*/
+        @JvmStatic
+        fun getCallback(): Callback {
+            return object : Callback() {
+                override fun onCreate(db: SupportSQLiteDatabase) {
+                    createProgressTriggers(db)
+                }
+            }
         }
 
     }
@@ -0,0 +1,107 @@
+package com.tonyodev.fetch2.database
+
+import android.net.Uri
+import com.tonyodev.fetch2.util.DEFAULT_FILE_VERIFICATION_INTERVAL_IN_MILLISECONDS
+import com.tonyodev.fetch2core.StorageResolver
+import com.tonyodev.fetch2core.isUriPath
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Checks if the files of downloads still exist. Local files are checked with one listing per
+ * directory, and a listing is reused until the modification time of its directory changes.
+ * Content uris are checked one by one through the storage resolver. Verified files are remembered
+ * with the downloaded bytes they were verified for, so reads can skip them without any I/O until
+ * the download progresses or the verification interval passes. isVerified may be called from
+ * concurrent reads while the files are checked. The other methods must not be called concurrently.
+ * */
+class DownloadFileReconciler(private val storageResolver: StorageResolver,
+                             private val verificationIntervalMillis: Long = DEFAULT_FILE_VERIFICATION_INTERVAL_IN_MILLISECONDS) {
+
+    private val verifiedFiles = ConcurrentHashMap<String, VerifiedFile>()
+    private val directoryListings = HashMap<String, DirectoryListing>()
+
+    /** @return true if the file of the download was verified recently for its current downloaded bytes. Does no I/O.*/
+    fun isVerified(downloadInfo: DownloadInfo): Boolean {
+        val verifiedFile = verifiedFiles[downloadInfo.file] ?: return false
+        return verifiedFile.downloaded == downloadInfo.downloaded
+                && System.currentTimeMillis() - verifiedFile.verifiedMillis < verificationIntervalMillis
+    }
+
+    /**
+     * Checks the files of the passed in downloads and remembers the files that exist.
+     * @return the downloads whose file no longer exists.
+     * */
+    fun getDownloadsWithMissingFiles(downloads: List<DownloadInfo>): List<DownloadInfo> {
+        val missingDownloads = mutableListOf<DownloadInfo>()
+        val verifiedMillis = System.currentTimeMillis()
+        verifiedFiles.values.removeAll { verifiedMillis - it.verifiedMillis >= verificationIntervalMillis }
+        if (directoryListings.size > MAX_DIRECTORY_LISTINGS) {
+            directoryListings.clear()
+        }
+        for (downloadInfo in downloads) {
+            val localFile = getLocalFile(downloadInfo.file)
+            val exists = if (localFile != null) {
+                val directory = localFile.parentFile
+                if (directory != null) {
+                    getDirectoryListing(directory).names.contains(localFile.name)
+                } else {
+                    localFile.exists()
+                }
+            } else {
+                storageResolver.fileExists(downloadInfo.file)
+            }
+            if (exists) {
+                verifiedFiles[downloadInfo.file] = VerifiedFile(downloadInfo.downloaded, verifiedMillis)
+            } else {
+                verifiedFiles.remove(downloadInfo.file)
+                missingDownloads.add(downloadInfo)
+            }
+        }
+        return missingDownloads
+    }
+
+    /** Forgets all verified files and directory listings.*/
+    fun clear() {
+        verifiedFiles.clear()
+        directoryListings.clear()
+    }
+
+    private fun getLocalFile(file: String): File? {
+        return if (isUriPath(file)) {
+            val uri = Uri.parse(file)
+            if (uri.scheme == "file") uri.path?.let { File(it) } else null
+        } else {
+            File(file)
+        }
+    }
+
+    /**
+     * Lists the directory unless the cached listing is still valid. A listing taken within the
+     * modification time granularity of the directory is not trusted and the directory is listed again.
+     * */
+    private fun getDirectoryListing(directory: File): DirectoryListing {
+        val lastModified = directory.lastModified()
+        val cachedListing = directoryListings[directory.path]
+        if (cachedListing != null && lastModified != 0L && cachedListing.lastModified == lastModified
+                && cachedListing.listedMillis - lastModified > DIRECTORY_MODIFIED_GRANULARITY_MILLIS) {
+            return cachedListing
+        }
+        val names = directory.list()?.toHashSet() ?: HashSet()
+        val directoryListing = DirectoryListing(lastModified, System.currentTimeMillis(), names)
+        directoryListings[directory.path] = directoryListing
+        return directoryListing
+    }
+
+    private class VerifiedFile(val downloaded: Long, val verifiedMillis: Long)
+
+    private class DirectoryListing(val lastModified: Long, val listedMillis: Long, val names: Set<String>)
+
+    private companion object {
+
+        const val DIRECTORY_MODIFIED_GRANULARITY_MILLIS = 2_000L
+        const val MAX_DIRECTORY_LISTINGS = 64
+
+    }
+
+}
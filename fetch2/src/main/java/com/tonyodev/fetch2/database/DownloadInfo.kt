@@ -17,7 +17,13 @@ import java.util.*
 
 @Entity(tableName = DownloadDatabase.TABLE_NAME,
         indices = [(Index(value = [DownloadDatabase.COLUMN_FILE], unique = true)),
-            (Index(value = [DownloadDatabase.COLUMN_GROUP, DownloadDatabase.COLUMN_STATUS], unique = false))])
+            (Index(value = [DownloadDatabase.COLUMN_GROUP, DownloadDatabase.COLUMN_STATUS], unique = false)),
+            (Index(value = [DownloadDatabase.COLUMN_STATUS, DownloadDatabase.COLUMN_PRIORITY, DownloadDatabase.COLUMN_CREATED],
+                    orders = [Index.Order.ASC, Index.Order.DESC, Index.Order.ASC],
+                    name = DownloadDatabase.INDEX_STATUS_PRIORITY_CREATED, unique = false)),
+            (Index(value = [DownloadDatabase.COLUMN_CREATED], name = DownloadDatabase.INDEX_CREATED, unique = false)),
+            (Index(value = [DownloadDatabase.COLUMN_TAG], name = DownloadDatabase.INDEX_TAG, unique = false)),
+            (Index(value = [DownloadDatabase.COLUMN_IDENTIFIER], name = DownloadDatabase.INDEX_IDENTIFIER, unique = false))])
 open class DownloadInfo : Download {
 
     @PrimaryKey
@@ -0,0 +1,25 @@
+package com.tonyodev.fetch2.database
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * Row of the narrow progress table. Progress updates only write this table, so they do not
+ * rewrite the wide requests row holding the url, file, headers and extras. Rows are kept in sync
+ * with the requests table by the triggers created in DownloadDatabase.createProgressTriggers.
+ * */
+@Entity(tableName = DownloadDatabase.PROGRESS_TABLE_NAME)
+open class DownloadProgressInfo {
+
+    @PrimaryKey
+    @ColumnInfo(name = DownloadDatabase.COLUMN_ID, typeAffinity = ColumnInfo.INTEGER)
+    var id: Int = 0
+
+    @ColumnInfo(name = DownloadDatabase.COLUMN_DOWNLOADED, typeAffinity = ColumnInfo.INTEGER)
+    var downloaded: Long = 0L
+
+    @ColumnInfo(name = DownloadDatabase.COLUMN_TOTAL, typeAffinity = ColumnInfo.INTEGER)
+    var total: Long = -1L
+
+}
@@ -0,0 +1,72 @@
+package com.tonyodev.fetch2.database
+
+import androidx.room.ColumnInfo
+import com.tonyodev.fetch2.DownloadSummary
+import com.tonyodev.fetch2.Error
+import com.tonyodev.fetch2.Priority
+import com.tonyodev.fetch2.Status
+import com.tonyodev.fetch2.util.defaultNoError
+import com.tonyodev.fetch2.util.defaultPriority
+import com.tonyodev.fetch2.util.defaultStatus
+import com.tonyodev.fetch2core.calculateProgress
+
+/** Projection of the requests table read by the summary queries of DownloadDao.*/
+open class DownloadSummaryInfo : DownloadSummary {
+
+    @ColumnInfo(name = DownloadDatabase.COLUMN_ID, typeAffinity = ColumnInfo.INTEGER)
+    override var id: Int = 0
+
+    @ColumnInfo(name = DownloadDatabase.COLUMN_STATUS, typeAffinity = ColumnInfo.INTEGER)
+    override var status: Status = defaultStatus
+
+    @ColumnInfo(name = DownloadDatabase.COLUMN_DOWNLOADED, typeAffinity = ColumnInfo.INTEGER)
+    override var downloaded: Long = 0L
+
+    @ColumnInfo(name = DownloadDatabase.COLUMN_TOTAL, typeAffinity = ColumnInfo.INTEGER)
+    override var total: Long = -1L
+
+    @ColumnInfo(name = DownloadDatabase.COLUMN_PRIORITY, typeAffinity = ColumnInfo.INTEGER)
+    override var priority: Priority = defaultPriority
+
+    @ColumnInfo(name = DownloadDatabase.COLUMN_GROUP, typeAffinity = ColumnInfo.INTEGER)
+    override var group: Int = 0
+
+    @ColumnInfo(name = DownloadDatabase.COLUMN_ERROR, typeAffinity = ColumnInfo.INTEGER)
+    override var error: Error = defaultNoError
+
+    override val progress: Int
+        get() {
+            return calculateProgress(downloaded, total)
+        }
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (javaClass != other?.javaClass) return false
+        other as DownloadSummaryInfo
+        if (id != other.id) return false
+        if (status != other.status) return false
+        if (downloaded != other.downloaded) return false
+        if (total != other.total) return false
+        if (priority != other.priority) return false
+        if (group != other.group) return false
+        if (error != other.error) return false
+        return true
+    }
+
+    override fun hashCode(): Int {
+        var result = id
+        result = 31 * result + status.hashCode()
+        result = 31 * result + downloaded.hashCode()
+        result = 31 * result + total.hashCode()
+        result = 31 * result + priority.hashCode()
+        result = 31 * result + group
+        result = 31 * result + error.hashCode()
+        return result
+    }
+
+    override fun toString(): String {
+        return "DownloadSummary(id=$id, status=$status, downloaded=$downloaded, total=$total, " +
+                "priority=$priority, group=$group, error=$error)"
+    }
+
+}
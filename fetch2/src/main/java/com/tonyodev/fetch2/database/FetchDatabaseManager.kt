@@ -2,6 +2,7 @@ package com.tonyodev.fetch2.database
 
 import com.tonyodev.fetch2.PrioritySort
 import com.tonyodev.fetch2.Status
+import com.tonyodev.fetch2.util.toDownloadSummaryInfo
 import com.tonyodev.fetch2core.Extras
 import com.tonyodev.fetch2core.Logger
 import java.io.Closeable
@@ -73,12 +74,43 @@ interface FetchDatabaseManager<T: DownloadInfo> : Closeable {
      * */
     fun update(downloadInfoList: List<T>)
 
+    /**
+     * Updates, then deletes, then inserts downloads. Fetch calls this method once when enqueuing
+     * a list of requests. The default implementation calls update, delete and insert.
+     * Override this method to write all changes in a single transaction.
+     * @param updatedList downloads to update.
+     * @param deletedList downloads to delete.
+     * @param insertedList downloads to insert.
+     * @return list of inserted downloads with a boolean indicating if the insert was successful.
+     * */
+    fun applyChanges(updatedList: List<T>, deletedList: List<T>, insertedList: List<T>): List<Pair<T, Boolean>> {
+        if (updatedList.isNotEmpty()) {
+            update(updatedList)
+        }
+        if (deletedList.isNotEmpty()) {
+            delete(deletedList)
+        }
+        return if (insertedList.isNotEmpty()) insert(insertedList) else emptyList()
+    }
+
     /**
      * Updates only the file bytes and status of a download in the database.
      * @param downloadInfo the download information.
      * */
     fun updateFileBytesInfoAndStatusOnly(downloadInfo: T)
 
+    /**
+     * Updates only the file bytes and status of a list of downloads in the database.
+     * Fetch calls this method with the progress of all active downloads collected over
+     * a progress interval. Override this method to write the list in a single transaction.
+     * @param downloadInfoList list of downloads. Only the id, downloaded, total and status fields are set.
+     * */
+    fun updateFileBytesInfoAndStatusOnly(downloadInfoList: List<T>) {
+        downloadInfoList.forEach {
+            updateFileBytesInfoAndStatusOnly(it)
+        }
+    }
+
     /**
      * Gets a list of all the downloads in the database.
      * */
@@ -106,6 +138,16 @@ interface FetchDatabaseManager<T: DownloadInfo> : Closeable {
      * */
     fun getByFile(file: String): T?
 
+    /**
+     * Gets the downloads with the specified file names.
+     * The default implementation calls getByFile(file) for each file. Override to query all files at once.
+     * @param files the files
+     * @return list of downloads that exist. Files without a download are skipped.
+     * */
+    fun getByFile(files: List<String>): List<T> {
+        return files.mapNotNull { getByFile(it) }
+    }
+
     /**
      * Get all downloads by the specified status.
      * @param status the query status.
@@ -162,6 +204,83 @@ interface FetchDatabaseManager<T: DownloadInfo> : Closeable {
      * */
     fun getPendingDownloadsSorted(prioritySort: PrioritySort): List<T>
 
+    /**
+     * Gets a page of downloads ordered by created time and then id.
+     * The default implementation pages over get(). Override to query pages directly.
+     * @param created created time of the last download of the previous page. Long.MIN_VALUE for the first page.
+     * @param id id of the last download of the previous page. Int.MIN_VALUE for the first page.
+     * @param limit maximum number of downloads in the page.
+     * @return the downloads created after the passed in position.
+     * */
+    fun getPage(created: Long, id: Int, limit: Int): List<T> {
+        return getDownloadsPage(get(), created, id, limit)
+    }
+
+    /**
+     * Gets a page of downloads with the specified statuses ordered by created time and then id.
+     * The default implementation pages over getByStatus(statuses). Override to query pages directly.
+     * @param statuses the statuses to query against.
+     * @param created created time of the last download of the previous page. Long.MIN_VALUE for the first page.
+     * @param id id of the last download of the previous page. Int.MIN_VALUE for the first page.
+     * @param limit maximum number of downloads in the page.
+     * @return the downloads created after the passed in position.
+     * */
+    fun getPageByStatus(statuses: List<Status>, created: Long, id: Int, limit: Int): List<T> {
+        return getDownloadsPage(getByStatus(statuses), created, id, limit)
+    }
+
+    /**
+     * Gets a page of downloads in the specified group ordered by created time and then id.
+     * The default implementation pages over getByGroup(group). Override to query pages directly.
+     * @param group the group id
+     * @param created created time of the last download of the previous page. Long.MIN_VALUE for the first page.
+     * @param id id of the last download of the previous page. Int.MIN_VALUE for the first page.
+     * @param limit maximum number of downloads in the page.
+     * @return the downloads created after the passed in position.
+     * */
+    fun getPageByGroup(group: Int, created: Long, id: Int, limit: Int): List<T> {
+        return getDownloadsPage(getByGroup(group), created, id, limit)
+    }
+
+    /**
+     * Gets summaries of all downloads. Summaries skip the headers and extras of the downloads.
+     * The default implementation maps get(). Override to read the summary columns directly.
+     * @return list of download summaries.
+     * */
+    fun getSummaries(): List<DownloadSummaryInfo> {
+        return get().map { it.toDownloadSummaryInfo(DownloadSummaryInfo()) }
+    }
+
+    /**
+     * Gets summaries of the downloads with the specified ids.
+     * The default implementation maps get(ids). Override to read the summary columns directly.
+     * @param ids the download ids.
+     * @return list of download summaries. Ids that do not exist are skipped.
+     * */
+    fun getSummaries(ids: List<Int>): List<DownloadSummaryInfo> {
+        return get(ids).mapNotNull { it?.toDownloadSummaryInfo(DownloadSummaryInfo()) }
+    }
+
+    /**
+     * Gets summaries of the downloads with the specified statuses.
+     * The default implementation maps getByStatus(statuses). Override to read the summary columns directly.
+     * @param statuses the statuses.
+     * @return list of download summaries.
+     * */
+    fun getSummariesByStatus(statuses: List<Status>): List<DownloadSummaryInfo> {
+        return getByStatus(statuses).map { it.toDownloadSummaryInfo(DownloadSummaryInfo()) }
+    }
+
+    /**
+     * Gets summaries of the downloads in the specified group.
+     * The default implementation maps getByGroup(group). Override to read the summary columns directly.
+     * @param group the group id.
+     * @return list of download summaries.
+     * */
+    fun getSummariesByGroup(group: Int): List<DownloadSummaryInfo> {
+        return getByGroup(group).map { it.toDownloadSummaryInfo(DownloadSummaryInfo()) }
+    }
+
     /**
      * Called when the first instance of Fetch for a namespace is created. Use this method
      * to ensure the database is clean and up to date.
@@ -170,6 +289,27 @@ interface FetchDatabaseManager<T: DownloadInfo> : Closeable {
      * */
     fun sanitizeOnFirstEntry()
 
+    /**
+     * Checks if reads found downloads whose files have to be checked on disk or whose sanitized
+     * state has to be stored. Fetch then calls reconcileFiles on its background thread.
+     * The default implementation returns false.
+     * */
+    val hasPendingFileChecks: Boolean
+        get() {
+            return false
+        }
+
+    /**
+     * Checks the files of the downloads found by reads since the last call. Downloads whose files
+     * no longer exist are reset and stored. Downloads that reads sanitized are stored as well.
+     * Reads should not access files or write themselves, so that they can return without I/O.
+     * The default implementation does nothing.
+     * @return the downloads that were reset or updated.
+     * */
+    fun reconcileFiles(): List<T> {
+        return emptyList()
+    }
+
     /**
      * Updates the extras on a download.
      * @param id the download id.
@@ -204,4 +344,12 @@ interface FetchDatabaseManager<T: DownloadInfo> : Closeable {
 
     }
 
-}
\ No newline at end of file
+}
+
+private fun <T : DownloadInfo> getDownloadsPage(downloads: List<T>, created: Long, id: Int, limit: Int): List<T> {
+    return downloads.asSequence()
+            .filter { it.created > created || (it.created == created && it.id > id) }
+            .sortedWith(compareBy<T> { it.created }.thenBy { it.id })
+            .take(limit)
+            .toList()
+}
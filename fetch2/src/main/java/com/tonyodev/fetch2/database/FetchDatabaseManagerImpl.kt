@@ -5,6 +5,7 @@ import android.content.Context
 import android.database.Cursor
 import android.database.sqlite.SQLiteException
 import androidx.room.Room
+import androidx.room.RoomDatabase
 import androidx.sqlite.db.SupportSQLiteDatabase
 import com.tonyodev.fetch2.PrioritySort
 import com.tonyodev.fetch2.Status
@@ -15,6 +16,7 @@ import com.tonyodev.fetch2.util.defaultNoError
 import com.tonyodev.fetch2core.DefaultStorageResolver
 import com.tonyodev.fetch2core.Extras
 import com.tonyodev.fetch2core.Logger
+import java.util.concurrent.Callable
 
 
 class FetchDatabaseManagerImpl(context: Context,
@@ -34,10 +36,23 @@ class FetchDatabaseManagerImpl(context: Context,
     override var delegate: FetchDatabaseManager.Delegate<DownloadInfo>? = null
     private val requestDatabase: DownloadDatabase
     private val database: SupportSQLiteDatabase
+    private val fileReconciler = DownloadFileReconciler(defaultStorageResolver)
+    private val pendingFileChecks = LinkedHashSet<Int>()
+    private val pendingSanitizedDownloads = LinkedHashSet<Int>()
+    override val hasPendingFileChecks: Boolean
+        get() {
+            return synchronized(pendingFileChecks) {
+                pendingFileChecks.isNotEmpty()
+            } || synchronized(pendingSanitizedDownloads) {
+                pendingSanitizedDownloads.isNotEmpty()
+            }
+        }
 
     init {
         val builder = Room.databaseBuilder(context, DownloadDatabase::class.java, "$namespace.db")
         builder.addMigrations(*migrations)
+        builder.setJournalMode(RoomDatabase.JournalMode.WRITE_AHEAD_LOGGING)
+        builder.addCallback(DownloadDatabase.getCallback())
         requestDatabase = builder.build()
         database = requestDatabase.openHelper.writableDatabase
     }
@@ -82,23 +97,63 @@ class FetchDatabaseManagerImpl(context: Context,
         requestDatabase.requestDao().update(downloadInfoList)
     }
 
+    override fun applyChanges(updatedList: List<DownloadInfo>, deletedList: List<DownloadInfo>,
+                              insertedList: List<DownloadInfo>): List<Pair<DownloadInfo, Boolean>> {
+        throwExceptionIfClosed()
+        return requestDatabase.runInTransaction(Callable<List<Pair<DownloadInfo, Boolean>>> {
+            val requestDao = requestDatabase.requestDao()
+            if (updatedList.isNotEmpty()) {
+                requestDao.update(updatedList)
+            }
+            if (deletedList.isNotEmpty()) {
+                requestDao.delete(deletedList)
+            }
+            if (insertedList.isNotEmpty()) {
+                val rowsList = requestDao.insert(insertedList)
+                rowsList.indices.map {
+                    Pair(insertedList[it], requestDatabase.wasRowInserted(rowsList[it]))
+                }
+            } else {
+                emptyList()
+            }
+        })
+    }
+
     override fun updateFileBytesInfoAndStatusOnly(downloadInfo: DownloadInfo) {
+        updateFileBytesInfoAndStatusOnly(listOf(downloadInfo))
+    }
+
+    /**
+     * Writes the bytes to the narrow progress table. The status lives in the requests table because
+     * the pending and status queries are indexed on it. It rarely changes during a download, so the
+     * requests row is only written when the status actually changed.
+     * */
+    override fun updateFileBytesInfoAndStatusOnly(downloadInfoList: List<DownloadInfo>) {
         throwExceptionIfClosed()
+        if (downloadInfoList.isEmpty()) {
+            return
+        }
         try {
             database.beginTransaction()
-
-            database.execSQL("UPDATE ${DownloadDatabase.TABLE_NAME} SET "
+            val progressStatement = database.compileStatement("UPDATE ${DownloadDatabase.PROGRESS_TABLE_NAME} SET "
                     + "${DownloadDatabase.COLUMN_DOWNLOADED} = ?, "
-                    + "${DownloadDatabase.COLUMN_TOTAL} = ?, "
+                    + "${DownloadDatabase.COLUMN_TOTAL} = ? "
+                    + "WHERE ${DownloadDatabase.COLUMN_ID} = ?")
+            val statusStatement = database.compileStatement("UPDATE ${DownloadDatabase.TABLE_NAME} SET "
                     + "${DownloadDatabase.COLUMN_STATUS} = ? "
-                    + "WHERE ${DownloadDatabase.COLUMN_ID} = ?",
-                    arrayOf(
-                            downloadInfo.downloaded,
-                            downloadInfo.total,
-                            downloadInfo.status.value,
-                            downloadInfo.id
-                    )
-            )
+                    + "WHERE ${DownloadDatabase.COLUMN_ID} = ? AND ${DownloadDatabase.COLUMN_STATUS} != ?")
+            for (downloadInfo in downloadInfoList) {
+                progressStatement.bindLong(1, downloadInfo.downloaded)
+                progressStatement.bindLong(2, downloadInfo.total)
+                progressStatement.bindLong(3, downloadInfo.id.toLong())
+                progressStatement.executeUpdateDelete()
+                statusStatement.bindLong(1, downloadInfo.status.value.toLong())
+                statusStatement.bindLong(2, downloadInfo.id.toLong())
+                statusStatement.bindLong(3, downloadInfo.status.value.toLong())
+                statusStatement.executeUpdateDelete()
+            }
+            progressStatement.close()
+            statusStatement.close()
             database.setTransactionSuccessful()
         } catch (e: SQLiteException) {
             logger.e("DatabaseManager exception", e)
@@ -132,6 +187,12 @@ class FetchDatabaseManagerImpl(context: Context,
         return downloads
     }
 
+    /** Returns all stored downloads without sanitizing them, so loading a cache does not write.*/
+    fun getUnsanitized(): List<DownloadInfo> {
+        throwExceptionIfClosed()
+        return requestDatabase.requestDao().get()
+    }
+
     override fun get(id: Int): DownloadInfo? {
         throwExceptionIfClosed()
         val download = requestDatabase.requestDao().get(id)
@@ -153,6 +214,15 @@ class FetchDatabaseManagerImpl(context: Context,
         return download
     }
 
+    override fun getByFile(files: List<String>): List<DownloadInfo> {
+        throwExceptionIfClosed()
+        val downloads = files.chunked(MAX_QUERY_ARGUMENTS).flatMap {
+            requestDatabase.requestDao().getByFile(it)
+        }
+        sanitize(downloads)
+        return downloads
+    }
+
     override fun getByStatus(status: Status): List<DownloadInfo> {
         throwExceptionIfClosed()
         var downloads = requestDatabase.requestDao().getByStatus(status)
@@ -221,6 +291,49 @@ class FetchDatabaseManagerImpl(context: Context,
         return downloads
     }
 
+    override fun getPage(created: Long, id: Int, limit: Int): List<DownloadInfo> {
+        throwExceptionIfClosed()
+        val downloads = requestDatabase.requestDao().getPage(created, id, limit)
+        sanitize(downloads)
+        return downloads
+    }
+
+    override fun getPageByStatus(statuses: List<Status>, created: Long, id: Int, limit: Int): List<DownloadInfo> {
+        throwExceptionIfClosed()
+        var downloads = requestDatabase.requestDao().getPageByStatus(statuses, created, id, limit)
+        if (sanitize(downloads)) {
+            downloads = downloads.filter { statuses.contains(it.status) }
+        }
+        return downloads
+    }
+
+    override fun getPageByGroup(group: Int, created: Long, id: Int, limit: Int): List<DownloadInfo> {
+        throwExceptionIfClosed()
+        val downloads = requestDatabase.requestDao().getPageByGroup(group, created, id, limit)
+        sanitize(downloads)
+        return downloads
+    }
+
+    override fun getSummaries(): List<DownloadSummaryInfo> {
+        throwExceptionIfClosed()
+        return requestDatabase.requestDao().getSummaries()
+    }
+
+    override fun getSummaries(ids: List<Int>): List<DownloadSummaryInfo> {
+        throwExceptionIfClosed()
+        return requestDatabase.requestDao().getSummaries(ids)
+    }
+
+    override fun getSummariesByStatus(statuses: List<Status>): List<DownloadSummaryInfo> {
+        throwExceptionIfClosed()
+        return requestDatabase.requestDao().getSummariesByStatus(statuses)
+    }
+
+    override fun getSummariesByGroup(group: Int): List<DownloadSummaryInfo> {
+        throwExceptionIfClosed()
+        return requestDatabase.requestDao().getSummariesByGroup(group)
+    }
+
     private val pendingCountQuery = "SELECT ${DownloadDatabase.COLUMN_ID} FROM ${DownloadDatabase.TABLE_NAME}" +
             " WHERE ${DownloadDatabase.COLUMN_STATUS} = '${Status.QUEUED.value}'" +
             " OR ${DownloadDatabase.COLUMN_STATUS} = '${Status.DOWNLOADING.value}'"
@@ -252,16 +365,49 @@ class FetchDatabaseManagerImpl(context: Context,
         }
     }
 
-    private val updatedDownloadsList = mutableListOf<DownloadInfo>()
+    /**
+     * Sanitizes downloads that were not read through this database manager, for example
+     * copies of downloads served from a cache. Downloads are changed in place but not stored,
+     * so concurrent reads never write. The changed downloads are stored by the next
+     * reconcileFiles call, which runs as a write. Safe to call from concurrent reads.
+     * @return true if any download was changed.
+     * */
+    fun sanitize(downloads: List<DownloadInfo>): Boolean {
+        throwExceptionIfClosed()
+        val updatedDownloadsList = getSanitizedDownloads(downloads, false)
+        if (updatedDownloadsList.isNotEmpty()) {
+            synchronized(pendingSanitizedDownloads) {
+                updatedDownloadsList.forEach {
+                    pendingSanitizedDownloads.add(it.id)
+                }
+            }
+        }
+        return updatedDownloadsList.isNotEmpty()
+    }
+
+    private fun sanitize(downloads: List<DownloadInfo>, firstEntry: Boolean): Boolean {
+        val updatedDownloadsList = getSanitizedDownloads(downloads, firstEntry)
+        val updatedCount = updatedDownloadsList.size
+        if (updatedCount > 0) {
+            try {
+                update(updatedDownloadsList)
+            } catch (e: Exception) {
+                logger.e("Failed to update", e)
+            }
+        }
+        return updatedCount > 0
+    }
 
-    private fun sanitize(downloads: List<DownloadInfo>, firstEntry: Boolean = false): Boolean {
-        updatedDownloadsList.clear()
+    /** Sanitizes the downloads in place.
+     * @return the downloads that were changed and have to be stored.*/
+    private fun getSanitizedDownloads(downloads: List<DownloadInfo>, firstEntry: Boolean): List<DownloadInfo> {
+        val updatedDownloadsList = mutableListOf<DownloadInfo>()
         var downloadInfo: DownloadInfo
         for (element in downloads) {
             downloadInfo = element
             when (downloadInfo.status) {
-                Status.COMPLETED -> onCompleted(downloadInfo)
-                Status.DOWNLOADING -> onDownloading(downloadInfo, firstEntry)
+                Status.COMPLETED -> onCompleted(downloadInfo, updatedDownloadsList)
+                Status.DOWNLOADING -> onDownloading(downloadInfo, firstEntry, updatedDownloadsList)
                 Status.QUEUED,
                 Status.PAUSED -> onPaused(downloadInfo)
                 Status.CANCELLED,
@@ -273,33 +419,82 @@ class FetchDatabaseManagerImpl(context: Context,
                 }
             }
         }
-        val updatedCount = updatedDownloadsList.size
-        if (updatedCount > 0) {
+        return updatedDownloadsList
+    }
+
+    /** File checks are left to reconcileFiles so reads do not access the disk. Concurrent reads
+     * call this at the same time and possibly while reconcileFiles updates the file reconciler,
+     * so isVerified is the only file reconciler method that may be called here.*/
+    private fun onPaused(downloadInfo: DownloadInfo) {
+        if (downloadInfo.downloaded > 0) {
+            if (fileExistChecksEnabled && !fileReconciler.isVerified(downloadInfo)) {
+                synchronized(pendingFileChecks) {
+                    pendingFileChecks.add(downloadInfo.id)
+                }
+            }
+        }
+    }
+
+    override fun reconcileFiles(): List<DownloadInfo> {
+        throwExceptionIfClosed()
+        val sanitizedDownloads = storeSanitizedDownloads()
+        val ids = synchronized(pendingFileChecks) {
+            val ids = pendingFileChecks.toList()
+            pendingFileChecks.clear()
+            ids
+        }
+        if (ids.isEmpty()) {
+            return sanitizedDownloads
+        }
+        val downloads = ids.chunked(MAX_QUERY_ARGUMENTS).flatMap {
+            requestDatabase.requestDao().get(it)
+        }.filter {
+            (it.status == Status.PAUSED || it.status == Status.QUEUED) && it.downloaded > 0
+        }
+        val missingDownloads = fileReconciler.getDownloadsWithMissingFiles(downloads)
+        for (downloadInfo in missingDownloads) {
+            downloadInfo.downloaded = 0
+            downloadInfo.total = -1L
+            downloadInfo.error = defaultNoError
+            delegate?.deleteTempFilesForDownload(downloadInfo)
+        }
+        if (missingDownloads.isNotEmpty()) {
             try {
-                update(updatedDownloadsList)
+                update(missingDownloads)
             } catch (e: Exception) {
                 logger.e("Failed to update", e)
             }
         }
-        updatedDownloadsList.clear()
-        return updatedCount > 0
+        return sanitizedDownloads + missingDownloads
     }
 
-    private fun onPaused(downloadInfo: DownloadInfo) {
-        if (downloadInfo.downloaded > 0) {
-            if (fileExistChecksEnabled) {
-                if (!defaultStorageResolver.fileExists(downloadInfo.file)) {
-                    downloadInfo.downloaded = 0
-                    downloadInfo.total = -1L
-                    downloadInfo.error = defaultNoError
-                    updatedDownloadsList.add(downloadInfo)
-                    delegate?.deleteTempFilesForDownload(downloadInfo)
-                }
+    /** Stores the downloads that sanitize changed during reads. The stored downloads are read and
+     * sanitized again, so changes written since the read are kept.*/
+    private fun storeSanitizedDownloads(): List<DownloadInfo> {
+        val ids = synchronized(pendingSanitizedDownloads) {
+            val ids = pendingSanitizedDownloads.toList()
+            pendingSanitizedDownloads.clear()
+            ids
+        }
+        if (ids.isEmpty()) {
+            return emptyList()
+        }
+        val downloads = ids.chunked(MAX_QUERY_ARGUMENTS).flatMap {
+            requestDatabase.requestDao().get(it)
+        }
+        val updatedDownloadsList = getSanitizedDownloads(downloads, false)
+        if (updatedDownloadsList.isNotEmpty()) {
+            try {
+                update(updatedDownloadsList)
+            } catch (e: Exception) {
+                logger.e("Failed to update", e)
+                return emptyList()
             }
         }
+        return updatedDownloadsList
     }
 
-    private fun onDownloading(downloadInfo: DownloadInfo, firstEntry: Boolean) {
+    private fun onDownloading(downloadInfo: DownloadInfo, firstEntry: Boolean, updatedDownloadsList: MutableList<DownloadInfo>) {
         if (firstEntry) {
             val status = if (downloadInfo.downloaded > 0 && downloadInfo.total > 0 && downloadInfo.downloaded >= downloadInfo.total) {
                 Status.COMPLETED
@@ -312,7 +507,7 @@ class FetchDatabaseManagerImpl(context: Context,
         }
     }
 
-    private fun onCompleted(downloadInfo: DownloadInfo) {
+    private fun onCompleted(downloadInfo: DownloadInfo, updatedDownloadsList: MutableList<DownloadInfo>) {
         if (downloadInfo.total < 1 && downloadInfo.downloaded > 0) {
             downloadInfo.total = downloadInfo.downloaded
             downloadInfo.error = defaultNoError
@@ -356,4 +551,11 @@ class FetchDatabaseManagerImpl(context: Context,
         }
     }
 
-}
\ No newline at end of file
+    private companion object {
+
+        /** SQLite limits the number of arguments of a query to 999 on older Android versions.*/
+        const val MAX_QUERY_ARGUMENTS = 999
+
+    }
+
+}
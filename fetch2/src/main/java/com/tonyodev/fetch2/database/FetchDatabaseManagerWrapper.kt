@@ -2,167 +2,453 @@ package com.tonyodev.fetch2.database
 
 import com.tonyodev.fetch2.PrioritySort
 import com.tonyodev.fetch2.Status
+import com.tonyodev.fetch2.util.DEFAULT_FILE_RECONCILIATION_DELAY_IN_MILLISECONDS
+import com.tonyodev.fetch2core.DEFAULT_PROGRESS_REPORTING_INTERVAL_IN_MILLISECONDS
 import com.tonyodev.fetch2core.Extras
+import com.tonyodev.fetch2core.HandlerWrapper
 import com.tonyodev.fetch2core.Logger
+import java.util.concurrent.CopyOnWriteArraySet
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.withLock
 
-class FetchDatabaseManagerWrapper(private val fetchDatabaseManager: FetchDatabaseManager<DownloadInfo>): FetchDatabaseManager<DownloadInfo> {
+/**
+ * Guards access to the database manager. Writes are serialized and run exclusively, while reads
+ * run in parallel with each other when concurrent reads are enabled. Only enable concurrent reads
+ * for database managers that are safe to read from several threads, like the default
+ * CachedFetchDatabaseManager on top of FetchDatabaseManagerImpl.
+ *
+ * Progress updates are written behind: the latest downloaded bytes, total and status of each
+ * download are kept in memory under their own lock, so download threads never wait for readers
+ * or writers. The pending progress is written for all downloads in a single transaction once per
+ * flush interval and before any other write. Reads do not write. They return the stored downloads
+ * with the pending progress applied instead. If a handler wrapper is set, the flush is scheduled
+ * on it. File checks and sanitized downloads found by reads are also handled on the handler
+ * wrapper shortly after, as a write that updates the cache and notifies change listeners, so
+ * reads return without touching the disk.
+ * */
+class FetchDatabaseManagerWrapper @JvmOverloads constructor(private val fetchDatabaseManager: FetchDatabaseManager<DownloadInfo>,
+                                                            private val handlerWrapper: HandlerWrapper? = null,
+                                                            private val progressFlushIntervalMillis: Long = DEFAULT_PROGRESS_REPORTING_INTERVAL_IN_MILLISECONDS,
+                                                            private val concurrentReadsEnabled: Boolean = false): FetchDatabaseManager<DownloadInfo> {
 
     override val logger: Logger = fetchDatabaseManager.logger
-    private val lock = Any()
+    private val lock = ReentrantReadWriteLock()
+    private val progressLock = Any()
+    private val pendingProgress = LinkedHashMap<Int, DownloadInfo>()
+    private var lastProgressFlushMillis = System.currentTimeMillis()
+    private var progressFlushScheduled = false
+    private val downloadChangeListeners = CopyOnWriteArraySet<DownloadChangeListener>()
+    private val fileReconciliationScheduled = AtomicBoolean(false)
+    private val progressFlushRunnable = Runnable {
+        synchronized(progressLock) {
+            progressFlushScheduled = false
+        }
+        if (!isClosed) {
+            lock.writeLock().withLock {
+                flushPendingProgress()
+            }
+        }
+    }
+    private val fileReconciliationRunnable = Runnable {
+        if (!isClosed) {
+            reconcileFiles()
+        }
+    }
 
     override val isClosed: Boolean
         get() {
-            return synchronized(lock) {
-                fetchDatabaseManager.isClosed
-            }
+            return fetchDatabaseManager.isClosed
         }
 
     override var delegate: FetchDatabaseManager.Delegate<DownloadInfo>?
         get() {
-            return synchronized(lock) {
-                fetchDatabaseManager.delegate
-            }
+            return fetchDatabaseManager.delegate
         }
         set(value) {
-            synchronized(lock) {
+            write {
                 fetchDatabaseManager.delegate = value
             }
         }
 
     override fun insert(downloadInfo: DownloadInfo): Pair<DownloadInfo, Boolean> {
-        return synchronized(lock) {
-            fetchDatabaseManager.insert(downloadInfo)
+        return write {
+            val result = fetchDatabaseManager.insert(downloadInfo)
+            if (result.second) {
+                notifyDownloadsUpdated(listOf(result.first))
+            }
+            result
         }
     }
 
     override fun insert(downloadInfoList: List<DownloadInfo>): List<Pair<DownloadInfo, Boolean>> {
-        return synchronized(lock) {
-            fetchDatabaseManager.insert(downloadInfoList)
+        return write {
+            val results = fetchDatabaseManager.insert(downloadInfoList)
+            notifyDownloadsUpdated(results.filter { it.second }.map { it.first })
+            results
         }
     }
 
     override fun delete(downloadInfo: DownloadInfo) {
-        synchronized(lock) {
+        write {
             fetchDatabaseManager.delete(downloadInfo)
+            notifyDownloadsDeleted(listOf(downloadInfo))
         }
     }
 
     override fun delete(downloadInfoList: List<DownloadInfo>) {
-        synchronized(lock) {
+        write {
             fetchDatabaseManager.delete(downloadInfoList)
+            notifyDownloadsDeleted(downloadInfoList)
         }
     }
 
     override fun deleteAll() {
-        synchronized(lock) {
+        write {
             fetchDatabaseManager.deleteAll()
+            notifyDownloadsInvalidated()
         }
     }
 
     override fun update(downloadInfo: DownloadInfo) {
-        synchronized(lock) {
+        write {
             fetchDatabaseManager.update(downloadInfo)
+            notifyDownloadsUpdated(listOf(downloadInfo))
         }
     }
 
     override fun update(downloadInfoList: List<DownloadInfo>) {
-        return synchronized(lock) {
+        write {
             fetchDatabaseManager.update(downloadInfoList)
+            notifyDownloadsUpdated(downloadInfoList)
+        }
+    }
+
+    override fun applyChanges(updatedList: List<DownloadInfo>, deletedList: List<DownloadInfo>,
+                              insertedList: List<DownloadInfo>): List<Pair<DownloadInfo, Boolean>> {
+        return write {
+            val results = fetchDatabaseManager.applyChanges(updatedList, deletedList, insertedList)
+            notifyDownloadsUpdated(updatedList)
+            notifyDownloadsDeleted(deletedList)
+            notifyDownloadsUpdated(results.filter { it.second }.map { it.first })
+            results
         }
     }
 
     override fun updateFileBytesInfoAndStatusOnly(downloadInfo: DownloadInfo) {
-        return synchronized(lock) {
-            fetchDatabaseManager.updateFileBytesInfoAndStatusOnly(downloadInfo)
+        var flushProgress = false
+        synchronized(progressLock) {
+            val progress = pendingProgress[downloadInfo.id]
+                    ?: fetchDatabaseManager.getNewDownloadInfoInstance().also {
+                        it.id = downloadInfo.id
+                        pendingProgress[downloadInfo.id] = it
+                    }
+            progress.downloaded = downloadInfo.downloaded
+            progress.total = downloadInfo.total
+            progress.status = downloadInfo.status
+            if (handlerWrapper == null) {
+                flushProgress = System.currentTimeMillis() - lastProgressFlushMillis >= progressFlushIntervalMillis
+            } else if (!progressFlushScheduled) {
+                progressFlushScheduled = true
+                handlerWrapper.postDelayed(progressFlushRunnable, progressFlushIntervalMillis)
+            }
+        }
+        if (downloadChangeListeners.isNotEmpty()) {
+            notifyDownloadsUpdated(listOf(downloadInfo))
+        }
+        if (flushProgress) {
+            lock.writeLock().withLock {
+                flushPendingProgress()
+            }
+        }
+    }
+
+    override fun updateFileBytesInfoAndStatusOnly(downloadInfoList: List<DownloadInfo>) {
+        downloadInfoList.forEach {
+            updateFileBytesInfoAndStatusOnly(it)
+        }
+    }
+
+    fun addDownloadChangeListener(downloadChangeListener: DownloadChangeListener) {
+        downloadChangeListeners.add(downloadChangeListener)
+    }
+
+    fun removeDownloadChangeListener(downloadChangeListener: DownloadChangeListener) {
+        downloadChangeListeners.remove(downloadChangeListener)
+    }
+
+    private fun notifyDownloadsUpdated(downloads: List<DownloadInfo>) {
+        if (downloads.isNotEmpty()) {
+            downloadChangeListeners.forEach {
+                it.onDownloadsUpdated(downloads)
+            }
+        }
+    }
+
+    private fun notifyDownloadsDeleted(downloads: List<DownloadInfo>) {
+        if (downloads.isNotEmpty()) {
+            downloadChangeListeners.forEach {
+                it.onDownloadsDeleted(downloads)
+            }
+        }
+    }
+
+    private fun notifyDownloadsInvalidated() {
+        downloadChangeListeners.forEach {
+            it.onDownloadsInvalidated()
+        }
+    }
+
+    /**
+     * Runs a read. Reads share the read lock when concurrent reads are enabled and do not write
+     * pending progress, so they never wait for progress updates.
+     * */
+    private inline fun <R> read(block: () -> R): R {
+        val readLock = if (concurrentReadsEnabled) lock.readLock() else lock.writeLock()
+        readLock.lock()
+        try {
+            return block()
+        } finally {
+            readLock.unlock()
+            scheduleFileReconciliation()
+        }
+    }
+
+    /** Runs a write exclusively, after the pending progress has been written.*/
+    private inline fun <R> write(block: () -> R): R {
+        val writeLock = lock.writeLock()
+        writeLock.lock()
+        try {
+            flushPendingProgress()
+            return block()
+        } finally {
+            writeLock.unlock()
+            scheduleFileReconciliation()
+        }
+    }
+
+    /** Writes the pending progress of all downloads in a single transaction. Must be called while holding the write lock.*/
+    private fun flushPendingProgress() {
+        val downloadInfoList = synchronized(progressLock) {
+            if (pendingProgress.isEmpty()) {
+                return
+            }
+            lastProgressFlushMillis = System.currentTimeMillis()
+            val downloadInfoList = pendingProgress.values.toList()
+            pendingProgress.clear()
+            downloadInfoList
+        }
+        fetchDatabaseManager.updateFileBytesInfoAndStatusOnly(downloadInfoList)
+    }
+
+    /** Applies the progress that has not been written yet to downloads returned by a read.*/
+    private fun <T : DownloadInfo?> applyPendingProgress(downloads: List<T>): List<T> {
+        synchronized(progressLock) {
+            if (pendingProgress.isNotEmpty()) {
+                for (download in downloads) {
+                    if (download != null) {
+                        val progress = pendingProgress[download.id]
+                        if (progress != null) {
+                            download.downloaded = progress.downloaded
+                            download.total = progress.total
+                            download.status = progress.status
+                        }
+                    }
+                }
+            }
+        }
+        return downloads
+    }
+
+    private fun applyPendingProgress(download: DownloadInfo?): DownloadInfo? {
+        if (download != null) {
+            applyPendingProgress(listOf(download))
+        }
+        return download
+    }
+
+    private fun applyPendingSummaryProgress(summaries: List<DownloadSummaryInfo>): List<DownloadSummaryInfo> {
+        synchronized(progressLock) {
+            if (pendingProgress.isNotEmpty()) {
+                for (summary in summaries) {
+                    val progress = pendingProgress[summary.id]
+                    if (progress != null) {
+                        summary.downloaded = progress.downloaded
+                        summary.total = progress.total
+                        summary.status = progress.status
+                    }
+                }
+            }
+        }
+        return summaries
+    }
+
+    /**
+     * Without a handler wrapper the file checks run right away, unless the calling thread
+     * still holds the read lock.
+     * */
+    private fun scheduleFileReconciliation() {
+        if (!fileReconciliationScheduled.get() && fetchDatabaseManager.hasPendingFileChecks) {
+            if (handlerWrapper != null) {
+                if (fileReconciliationScheduled.compareAndSet(false, true)) {
+                    handlerWrapper.postDelayed(fileReconciliationRunnable, DEFAULT_FILE_RECONCILIATION_DELAY_IN_MILLISECONDS)
+                }
+            } else if (lock.readHoldCount == 0) {
+                reconcileFiles()
+            }
         }
     }
 
     override fun get(): List<DownloadInfo> {
-        return synchronized(lock) {
-            fetchDatabaseManager.get()
+        return read {
+            applyPendingProgress(fetchDatabaseManager.get())
         }
     }
 
     override fun get(id: Int): DownloadInfo? {
-        return synchronized(lock) {
-            fetchDatabaseManager.get(id)
+        return read {
+            applyPendingProgress(fetchDatabaseManager.get(id))
         }
     }
 
     override fun get(ids: List<Int>): List<DownloadInfo?> {
-        return synchronized(lock) {
-            fetchDatabaseManager.get(ids)
+        return read {
+            applyPendingProgress(fetchDatabaseManager.get(ids))
         }
     }
 
     override fun getByFile(file: String): DownloadInfo? {
-        return synchronized(lock) {
-            fetchDatabaseManager.getByFile(file)
+        return read {
+            applyPendingProgress(fetchDatabaseManager.getByFile(file))
+        }
+    }
+
+    override fun getByFile(files: List<String>): List<DownloadInfo> {
+        return read {
+            applyPendingProgress(fetchDatabaseManager.getByFile(files))
         }
     }
 
     override fun getByStatus(status: Status): List<DownloadInfo> {
-        return synchronized(lock) {
-            fetchDatabaseManager.getByStatus(status)
+        return read {
+            applyPendingProgress(fetchDatabaseManager.getByStatus(status))
         }
     }
 
     override fun getByStatus(statuses: List<Status>): List<DownloadInfo> {
-        return synchronized(lock) {
-            fetchDatabaseManager.getByStatus(statuses)
+        return read {
+            applyPendingProgress(fetchDatabaseManager.getByStatus(statuses))
         }
     }
 
     override fun getByGroup(group: Int): List<DownloadInfo> {
-        return synchronized(lock) {
-            fetchDatabaseManager.getByGroup(group)
+        return read {
+            applyPendingProgress(fetchDatabaseManager.getByGroup(group))
         }
     }
 
     override fun getAllGroupIds(): List<Int> {
-        return synchronized(lock) {
+        return read {
             fetchDatabaseManager.getAllGroupIds()
         }
     }
 
     override fun getDownloadsByTag(tag: String): List<DownloadInfo> {
-        return synchronized(lock) {
-            fetchDatabaseManager.getDownloadsByTag(tag)
+        return read {
+            applyPendingProgress(fetchDatabaseManager.getDownloadsByTag(tag))
         }
     }
 
     override fun getDownloadsInGroupWithStatus(groupId: Int, statuses: List<Status>): List<DownloadInfo> {
-        return synchronized(lock) {
-            fetchDatabaseManager.getDownloadsInGroupWithStatus(groupId, statuses)
+        return read {
+            applyPendingProgress(fetchDatabaseManager.getDownloadsInGroupWithStatus(groupId, statuses))
         }
     }
 
     override fun getDownloadsByRequestIdentifier(identifier: Long): List<DownloadInfo> {
-        return synchronized(lock) {
-            fetchDatabaseManager.getDownloadsByRequestIdentifier(identifier)
+        return read {
+            applyPendingProgress(fetchDatabaseManager.getDownloadsByRequestIdentifier(identifier))
         }
     }
 
     override fun getPendingDownloadsSorted(prioritySort: PrioritySort): List<DownloadInfo> {
-        return synchronized(lock) {
-            fetchDatabaseManager.getPendingDownloadsSorted(prioritySort)
+        return read {
+            applyPendingProgress(fetchDatabaseManager.getPendingDownloadsSorted(prioritySort))
+        }
+    }
+
+    override fun getPage(created: Long, id: Int, limit: Int): List<DownloadInfo> {
+        return read {
+            applyPendingProgress(fetchDatabaseManager.getPage(created, id, limit))
+        }
+    }
+
+    override fun getPageByStatus(statuses: List<Status>, created: Long, id: Int, limit: Int): List<DownloadInfo> {
+        return read {
+            applyPendingProgress(fetchDatabaseManager.getPageByStatus(statuses, created, id, limit))
+        }
+    }
+
+    override fun getPageByGroup(group: Int, created: Long, id: Int, limit: Int): List<DownloadInfo> {
+        return read {
+            applyPendingProgress(fetchDatabaseManager.getPageByGroup(group, created, id, limit))
+        }
+    }
+
+    override fun getSummaries(): List<DownloadSummaryInfo> {
+        return read {
+            applyPendingSummaryProgress(fetchDatabaseManager.getSummaries())
+        }
+    }
+
+    override fun getSummaries(ids: List<Int>): List<DownloadSummaryInfo> {
+        return read {
+            applyPendingSummaryProgress(fetchDatabaseManager.getSummaries(ids))
+        }
+    }
+
+    override fun getSummariesByStatus(statuses: List<Status>): List<DownloadSummaryInfo> {
+        return read {
+            applyPendingSummaryProgress(fetchDatabaseManager.getSummariesByStatus(statuses))
+        }
+    }
+
+    override fun getSummariesByGroup(group: Int): List<DownloadSummaryInfo> {
+        return read {
+            applyPendingSummaryProgress(fetchDatabaseManager.getSummariesByGroup(group))
         }
     }
 
     override fun sanitizeOnFirstEntry() {
-       synchronized(lock) {
+       write {
            fetchDatabaseManager.sanitizeOnFirstEntry()
+           notifyDownloadsInvalidated()
        }
     }
 
+    override val hasPendingFileChecks: Boolean
+        get() {
+            return fetchDatabaseManager.hasPendingFileChecks
+        }
+
+    override fun reconcileFiles(): List<DownloadInfo> {
+        handlerWrapper?.removeCallbacks(fileReconciliationRunnable)
+        fileReconciliationScheduled.set(false)
+        return write {
+            val resetDownloads = fetchDatabaseManager.reconcileFiles()
+            notifyDownloadsUpdated(resetDownloads)
+            resetDownloads
+        }
+    }
+
     override fun updateExtras(id: Int, extras: Extras): DownloadInfo? {
-       return synchronized(lock) {
+       return write {
            fetchDatabaseManager.updateExtras(id, extras)
        }
     }
 
     override fun getPendingCount(includeAddedDownloads: Boolean): Long {
-        return synchronized(lock) {
+        return read {
             fetchDatabaseManager.getPendingCount(includeAddedDownloads)
         }
     }
@@ -172,9 +458,36 @@ class FetchDatabaseManagerWrapper(private val fetchDatabaseManager: FetchDatabas
     }
 
     override fun close() {
-        synchronized(lock) {
+        handlerWrapper?.removeCallbacks(progressFlushRunnable)
+        handlerWrapper?.removeCallbacks(fileReconciliationRunnable)
+        synchronized(progressLock) {
+            progressFlushScheduled = false
+        }
+        fileReconciliationScheduled.set(false)
+        lock.writeLock().withLock {
+            if (!fetchDatabaseManager.isClosed) {
+                flushPendingProgress()
+            }
             fetchDatabaseManager.close()
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Notified of the downloads written through the wrapper. Methods are called while the wrapper
+     * holds its write lock, or from download threads for progress updates. Listeners must be thread
+     * safe, return quickly and must not access the database.
+     * */
+    interface DownloadChangeListener {
+
+        /** Called with the latest state of inserted or updated downloads.*/
+        fun onDownloadsUpdated(downloads: List<DownloadInfo>)
+
+        /** Called with deleted downloads.*/
+        fun onDownloadsDeleted(downloads: List<DownloadInfo>)
+
+        /** Called when downloads may have changed without individual notifications.*/
+        fun onDownloadsInvalidated()
+
+    }
+
+}
@@ -0,0 +1,21 @@
+package com.tonyodev.fetch2.database.migration
+
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.tonyodev.fetch2.database.DownloadDatabase
+
+class MigrationEightToNine : Migration(8, 9) {
+
+    override fun migrate(db: SupportSQLiteDatabase) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS '${DownloadDatabase.PROGRESS_TABLE_NAME}' ("
+                + "'${DownloadDatabase.COLUMN_ID}' INTEGER NOT NULL, "
+                + "'${DownloadDatabase.COLUMN_DOWNLOADED}' INTEGER NOT NULL, "
+                + "'${DownloadDatabase.COLUMN_TOTAL}' INTEGER NOT NULL, "
+                + "PRIMARY KEY('${DownloadDatabase.COLUMN_ID}'))")
+        db.execSQL("INSERT OR REPLACE INTO '${DownloadDatabase.PROGRESS_TABLE_NAME}' ("
+                + "'${DownloadDatabase.COLUMN_ID}', '${DownloadDatabase.COLUMN_DOWNLOADED}', '${DownloadDatabase.COLUMN_TOTAL}') "
+                + "SELECT ${DownloadDatabase.COLUMN_ID}, ${DownloadDatabase.COLUMN_DOWNLOADED}, ${DownloadDatabase.COLUMN_TOTAL} "
+                + "FROM '${DownloadDatabase.TABLE_NAME}'")
+        DownloadDatabase.createProgressTriggers(db)
+    }
+
+}
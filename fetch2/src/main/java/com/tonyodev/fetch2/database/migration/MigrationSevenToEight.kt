@@ -0,0 +1,22 @@
+package com.tonyodev.fetch2.database.migration
+
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.tonyodev.fetch2.database.DownloadDatabase
+
+class MigrationSevenToEight : Migration(7, 8) {
+
+    override fun migrate(db: SupportSQLiteDatabase) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS '${DownloadDatabase.INDEX_STATUS_PRIORITY_CREATED}' "
+                + "ON '${DownloadDatabase.TABLE_NAME}' ("
+                + "'${DownloadDatabase.COLUMN_STATUS}' ASC, "
+                + "'${DownloadDatabase.COLUMN_PRIORITY}' DESC, "
+                + "'${DownloadDatabase.COLUMN_CREATED}' ASC)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS '${DownloadDatabase.INDEX_CREATED}' "
+                + "ON '${DownloadDatabase.TABLE_NAME}' ('${DownloadDatabase.COLUMN_CREATED}')")
+        db.execSQL("CREATE INDEX IF NOT EXISTS '${DownloadDatabase.INDEX_TAG}' "
+                + "ON '${DownloadDatabase.TABLE_NAME}' ('${DownloadDatabase.COLUMN_TAG}')")
+        db.execSQL("CREATE INDEX IF NOT EXISTS '${DownloadDatabase.INDEX_IDENTIFIER}' "
+                + "ON '${DownloadDatabase.TABLE_NAME}' ('${DownloadDatabase.COLUMN_IDENTIFIER}')")
+    }
+
+}
@@ -30,9 +30,12 @@ class DownloadManagerImpl(private val httpDownloader: Downloader<*, *>,
                           private val namespace: String,
                           private val groupInfoProvider: GroupInfoProvider,
                           private val globalAutoRetryMaxAttempts: Int,
-                          private val preAllocateFileOnCreation: Boolean) : DownloadManager {
+                          private val preAllocateFileOnCreation: Boolean,
+                          maxConcurrentSlices: Int) : DownloadManager {
 
     private val lock = Any()
+    private val sliceScheduler = SliceScheduler(namespace, maxConcurrentSlices)
+    private val progressReportingTimer = Executors.newSingleThreadScheduledExecutor()
     private var executor: ExecutorService? = getNewDownloadExecutorService(concurrentLimit)
     @Volatile
     override var concurrentLimit: Int = concurrentLimit
@@ -205,6 +208,11 @@ class DownloadManagerImpl(private val httpDownloader: Downloader<*, *>,
                 executor?.shutdown()
             } catch (_: Exception) {
             }
+            sliceScheduler.close()
+            try {
+                progressReportingTimer.shutdown()
+            } catch (_: Exception) {
+            }
         }
     }
 
@@ -263,7 +271,8 @@ class DownloadManagerImpl(private val httpDownloader: Downloader<*, *>,
             originalRequest
         }
         val supportedDownloadTypes = downloader.getRequestSupportedFileDownloaderTypes(request)
-        return if (downloader.getRequestFileDownloaderType(request, supportedDownloadTypes) == Downloader.FileDownloaderType.SEQUENTIAL) {
+        val fileDownloaderType = downloader.getRequestFileDownloaderType(request, supportedDownloadTypes)
+        return if (fileDownloaderType == Downloader.FileDownloaderType.SEQUENTIAL) {
             SequentialFileDownloaderImpl(
                     initialDownload = download,
                     downloader = downloader,
@@ -285,7 +294,10 @@ class DownloadManagerImpl(private val httpDownloader: Downloader<*, *>,
                     fileTempDir = storageResolver.getDirectoryForFileDownloaderTypeParallel(request),
                     hashCheckingEnabled = hashCheckingEnabled,
                     storageResolver = storageResolver,
-                    preAllocateFileOnCreation = preAllocateFileOnCreation)
+                    preAllocateFileOnCreation = preAllocateFileOnCreation,
+                    sliceScheduler = sliceScheduler,
+                    progressReportingTimer = progressReportingTimer,
+                    adaptiveSlicing = fileDownloaderType == Downloader.FileDownloaderType.ADAPTIVE_PARALLEL)
         }
     }
 
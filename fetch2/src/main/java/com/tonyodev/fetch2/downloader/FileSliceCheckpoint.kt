@@ -0,0 +1,231 @@
+package com.tonyodev.fetch2.downloader
+
+import com.tonyodev.fetch2.util.DEFAULT_CHECKPOINT_FLUSH_THRESHOLD_BYTES
+import com.tonyodev.fetch2core.FileSlice
+import com.tonyodev.fetch2core.getFile
+import com.tonyodev.fetch2core.getLongDataFromFile
+import java.io.Closeable
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Keeps the downloaded offsets of all slices of a parallel download in memory and
+ * periodically persists them as a single fixed layout record in a memory mapped file.
+ * The record stores the start, end and downloaded bytes of every slice. Offsets are only
+ * ever recorded after the bytes have been written to the output resource, so a checkpoint
+ * never claims more data than was written and a download resumes correctly after a crash.
+ * */
+class FileSliceCheckpoint(private val id: Int,
+                          private val fileTempDir: String,
+                          private val flushThresholdBytes: Long = DEFAULT_CHECKPOINT_FLUSH_THRESHOLD_BYTES) : Closeable {
+
+    private val lock = Any()
+    private var fileSlices = emptyList<FileSlice>()
+    /** Sized to the mapped capacity and only replaced when the mapping grows. Read without
+     * the lock by update, so it is volatile.*/
+    @Volatile
+    private var sliceOffsets = AtomicLongArray(0)
+    private val unsavedBytes = AtomicLong(0)
+    private var randomAccessFile: RandomAccessFile? = null
+    private var mappedByteBuffer: MappedByteBuffer? = null
+
+    /** Creates the checkpoint record for the passed in slices and writes their current offsets.*/
+    fun open(slices: List<FileSlice>) {
+        synchronized(lock) {
+            closeResources()
+            fileSlices = slices
+            val offsets = AtomicLongArray(slices.size * CAPACITY_GROWTH_FACTOR)
+            slices.forEachIndexed { index, fileSlice ->
+                offsets.set(index, fileSlice.downloaded)
+            }
+            sliceOffsets = offsets
+            map(offsets.length())
+            writeRecord()
+        }
+    }
+
+    /** Records slices that were split off the existing slices. The existing slices keep their
+     * index, only their end may have changed. The file is only mapped again when the slices no
+     * longer fit the mapped capacity.*/
+    fun addSlices(slices: List<FileSlice>) {
+        synchronized(lock) {
+            if (mappedByteBuffer == null) {
+                open(slices)
+                return
+            }
+            val offsets = sliceOffsets
+            if (slices.size > offsets.length()) {
+                val grownOffsets = AtomicLongArray(slices.size * CAPACITY_GROWTH_FACTOR)
+                //Published before copying. A slice that updated the old array either sees the new
+                //array and updates it again or its offset is copied here.
+                sliceOffsets = grownOffsets
+                for (index in fileSlices.indices) {
+                    grownOffsets.compareAndSet(index, 0L, offsets.get(index))
+                }
+                map(grownOffsets.length())
+            }
+            for (index in fileSlices.size until slices.size) {
+                sliceOffsets.set(index, slices[index].downloaded)
+            }
+            fileSlices = slices
+            writeRecord()
+        }
+    }
+
+    /** Updates the in memory downloaded bytes for the slice at the index. The record is only
+     * persisted once the unsaved bytes across all slices pass the flush threshold
+     * or when flush is called.*/
+    fun update(index: Int, downloaded: Long, bytesWritten: Int) {
+        var offsets = sliceOffsets
+        offsets.set(index, downloaded)
+        while (offsets !== sliceOffsets) {
+            offsets = sliceOffsets
+            offsets.set(index, downloaded)
+        }
+        if (unsavedBytes.addAndGet(bytesWritten.toLong()) >= flushThresholdBytes) {
+            flush()
+        }
+    }
+
+    /** Persists the current offsets of all slices.*/
+    fun flush() {
+        synchronized(lock) {
+            if (mappedByteBuffer != null) {
+                unsavedBytes.set(0)
+                writeRecord()
+            }
+        }
+    }
+
+    override fun close() {
+        synchronized(lock) {
+            if (mappedByteBuffer != null) {
+                writeRecord()
+                mappedByteBuffer?.force()
+            }
+            closeResources()
+        }
+    }
+
+    private fun writeRecord() {
+        val buffer = mappedByteBuffer ?: return
+        buffer.putInt(0, CHECKPOINT_MAGIC)
+        buffer.putInt(4, CHECKPOINT_VERSION)
+        buffer.putInt(8, fileSlices.size)
+        fileSlices.forEachIndexed { index, fileSlice ->
+            val offset = HEADER_SIZE + (index * SLICE_RECORD_SIZE)
+            buffer.putLong(offset, fileSlice.startBytes)
+            buffer.putLong(offset + 8, fileSlice.endBytes)
+            buffer.putLong(offset + 16, sliceOffsets.get(index))
+        }
+    }
+
+    /** Maps the record for the passed in number of slices, growing the file if needed.*/
+    private fun map(sliceCapacity: Int) {
+        val size = HEADER_SIZE + (sliceCapacity * SLICE_RECORD_SIZE).toLong()
+        val file = randomAccessFile ?: RandomAccessFile(getFile(getCheckpointFilePath(id, fileTempDir)), "rw")
+        randomAccessFile = file
+        file.setLength(size)
+        mappedByteBuffer = file.channel.map(FileChannel.MapMode.READ_WRITE, 0, size)
+    }
+
+    private fun closeResources() {
+        mappedByteBuffer = null
+        try {
+            randomAccessFile?.close()
+        } catch (_: Exception) {
+
+        }
+        randomAccessFile = null
+    }
+
+    companion object {
+
+        private const val CHECKPOINT_MAGIC = 0x46534C43
+        private const val CHECKPOINT_VERSION = 1
+        private const val HEADER_SIZE = 16
+        private const val SLICE_RECORD_SIZE = 24
+        private const val CAPACITY_GROWTH_FACTOR = 2
+
+        fun getCheckpointFilePath(id: Int, fileTempDir: String): String {
+            return "$fileTempDir/$id.checkpoint.data"
+        }
+
+        /** Reads the slices saved for the download with the passed in id.
+         * Falls back to the legacy per slice data files written by older versions.
+         * @return the saved slices or an empty list if nothing valid was saved.*/
+        fun readSavedSlices(id: Int, fileTempDir: String): List<FileSlice> {
+            val checkpointFile = File(getCheckpointFilePath(id, fileTempDir))
+            return if (checkpointFile.exists()) {
+                readCheckpointFile(id, checkpointFile)
+            } else {
+                readLegacySliceFiles(id, fileTempDir)
+            }
+        }
+
+        private fun readCheckpointFile(id: Int, file: File): List<FileSlice> {
+            return try {
+                RandomAccessFile(file, "r").use { randomAccessFile ->
+                    if (randomAccessFile.length() < HEADER_SIZE
+                            || randomAccessFile.readInt() != CHECKPOINT_MAGIC
+                            || randomAccessFile.readInt() != CHECKPOINT_VERSION) {
+                        return emptyList()
+                    }
+                    val sliceCount = randomAccessFile.readInt()
+                    if (sliceCount < 1 || randomAccessFile.length() < HEADER_SIZE + (sliceCount * SLICE_RECORD_SIZE).toLong()) {
+                        return emptyList()
+                    }
+                    val fileSlices = mutableListOf<FileSlice>()
+                    for (index in 0 until sliceCount) {
+                        randomAccessFile.seek(HEADER_SIZE + (index * SLICE_RECORD_SIZE).toLong())
+                        val startBytes = randomAccessFile.readLong()
+                        val endBytes = randomAccessFile.readLong()
+                        val downloaded = randomAccessFile.readLong()
+                        fileSlices.add(FileSlice(
+                                id = id,
+                                position = index + 1,
+                                startBytes = startBytes,
+                                endBytes = endBytes,
+                                downloaded = downloaded))
+                    }
+                    fileSlices
+                }
+            } catch (_: Exception) {
+                emptyList()
+            }
+        }
+
+        /** Older versions saved the slice count in $id.meta.data and the downloaded bytes
+         * of every slice in its own $id.$position.data file. Ranges were not saved,
+         * so the returned slices have a start and end of -1.*/
+        private fun readLegacySliceFiles(id: Int, fileTempDir: String): List<FileSlice> {
+            val metaFilePath = "$fileTempDir/$id.meta.data"
+            if (!File(metaFilePath).exists()) {
+                return emptyList()
+            }
+            return try {
+                val sliceCount = getLongDataFromFile(metaFilePath)?.toInt() ?: -1
+                if (sliceCount < 1) {
+                    emptyList()
+                } else {
+                    (1..sliceCount).map { position ->
+                        FileSlice(
+                                id = id,
+                                position = position,
+                                startBytes = -1,
+                                endBytes = -1,
+                                downloaded = getLongDataFromFile("$fileTempDir/$id.$position.data") ?: 0L)
+                    }
+                }
+            } catch (_: Exception) {
+                emptyList()
+            }
+        }
+
+    }
+
+}
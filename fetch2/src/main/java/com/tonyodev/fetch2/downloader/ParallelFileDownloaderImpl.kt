@@ -1,5 +1,6 @@
 package com.tonyodev.fetch2.downloader
 
+import android.net.Uri
 import com.tonyodev.fetch2.Download
 import com.tonyodev.fetch2.EnqueueAction
 import com.tonyodev.fetch2core.Downloader
@@ -12,8 +13,9 @@ import com.tonyodev.fetch2.provider.NetworkInfoProvider
 import com.tonyodev.fetch2.util.*
 import com.tonyodev.fetch2core.*
 import java.io.*
-import java.util.concurrent.ExecutorService
-import java.util.concurrent.Executors
+import java.util.concurrent.Phaser
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
 import kotlin.math.ceil
 
 class ParallelFileDownloaderImpl(private val initialDownload: Download,
@@ -25,13 +27,19 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
                                  private val fileTempDir: String,
                                  private val hashCheckingEnabled: Boolean,
                                  private val storageResolver: StorageResolver,
-                                 private val preAllocateFileOnCreation: Boolean) : FileDownloader {
+                                 private val preAllocateFileOnCreation: Boolean,
+                                 private val sliceScheduler: SliceScheduler,
+                                 private val progressReportingTimer: ScheduledExecutorService,
+                                 private val adaptiveSlicing: Boolean) : FileDownloader {
 
     @Volatile
     override var interrupted = false
         set(value) {
             (delegate as? FileDownloaderDelegate)?.interrupted = value
             field = value
+            if (value) {
+                slicesPhaser.forceTermination()
+            }
         }
 
     @Volatile
@@ -39,6 +47,9 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
         set(value) {
             (delegate as? FileDownloaderDelegate)?.interrupted = value
             field = value
+            if (value) {
+                slicesPhaser.forceTermination()
+            }
         }
 
     override val completedDownload: Boolean
@@ -72,22 +83,51 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
 
     private var estimatedTimeRemainingInMilliseconds: Long = -1
 
-    private var executorService: ExecutorService? = null
+    private var sliceExecutor: SliceScheduler.SliceExecutor? = null
 
     @Volatile
-    private var actionsCounter = 0
+    private var slicesPhaser = Phaser()
 
-    private var actionsTotal = 0
+    private var progressReportingStopped = false
 
     private val lock = Object()
 
+    private val sliceRangeLock = Object()
+
+    private val activeFileSlices = mutableListOf<FileSlice>()
+
+    private var maxSliceBufferSize = 0
+
+    private val host by lazy { Uri.parse(initialDownload.url).host ?: initialDownload.url }
+
+    private var maxAdaptiveConnections = DEFAULT_ADAPTIVE_MAX_CONNECTIONS_PER_HOST
+
+    private var adaptiveSpeedSamples = 0
+
+    private var adaptiveBaselineSpeed = 0.0
+
+    private var adaptiveSlicingStopped = false
+
     @Volatile
     private var throwable: Throwable? = null
 
+    @Volatile
     private var fileSlices = emptyList<FileSlice>()
 
     private var outputResourceWrapper: OutputResourceWrapper? = null
 
+    private val fileSliceCheckpoint by lazy { FileSliceCheckpoint(initialDownload.id, fileTempDir) }
+
+    private val contentDigestLock = Object()
+
+    private var contentDigest: ContentDigest? = null
+
+    private var contentDigestFile: RandomAccessFile? = null
+
+    @Volatile
+    private var contentDigestCatchingUp = false
+
+    @Volatile
     private var totalDownloadBlocks = 0
 
     override fun run() {
@@ -114,6 +154,10 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
                     downloadInfo.total = total
                     fileSlices = getFileSliceList(openingResponse.acceptsRanges, openingRequest)
                     totalDownloadBlocks = fileSlices.size
+                    fileSliceCheckpoint.open(fileSlices)
+                    if (hashCheckingEnabled && downloader is ContentHashVerifier && !isUriPath(openingRequest.file)) {
+                        contentDigest = ContentDigest.create(openingResponse.hash)
+                    }
                     try {
                         downloader.disconnect(openingResponse)
                     } catch (e: Exception) {
@@ -144,7 +188,7 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
                             }
                         }
                         if (sliceFileDownloadsList.isNotEmpty()) {
-                            executorService = Executors.newFixedThreadPool(sliceFileDownloadsList.size)
+                            sliceExecutor = sliceScheduler.getSliceExecutor(downloadInfo.id)
                         }
                         downloadSliceFiles(openingRequest, sliceFileDownloadsList)
                         waitAndPerformProgressReporting()
@@ -191,7 +235,7 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
                     delegate?.saveDownloadProgress(downloadInfo)
                 }
                 if (hashCheckingEnabled) {
-                    if (openingResponse != null && downloader.verifyContentHash(openingResponse.request, openingResponse.hash)) {
+                    if (openingResponse != null && isContentHashValid(openingResponse)) {
                         deleteAllInFolderForId(downloadInfo.id, fileTempDir)
                         if (!interrupted && !terminated) {
                             downloadInfo.etaInMilliSeconds = estimatedTimeRemainingInMilliseconds
@@ -264,7 +308,7 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
             }
         } finally {
             try {
-                executorService?.shutdown()
+                sliceExecutor?.shutdown()
             } catch (e: Exception) {
                 logger.e("FileDownloader", e)
             }
@@ -273,6 +317,12 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
             } catch (e: Exception) {
                 logger.e("FileDownloader", e)
             }
+            try {
+                fileSliceCheckpoint.close()
+            } catch (e: Exception) {
+                logger.e("FileDownloader", e)
+            }
+            closeContentDigestFile()
             if (openingResponse != null) {
                 try {
                     downloader.disconnect(openingResponse)
@@ -288,58 +338,132 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
         if (!storageResolver.fileExists(downloadInfo.file)) {
             deleteAllInFolderForId(downloadInfo.id, fileTempDir)
         }
-        val previousSliceSize = getPreviousSliceCount(downloadInfo.id, fileTempDir)
-        return if (acceptsRanges && !totalUnknown) {
+        var savedFileSlices = FileSliceCheckpoint.readSavedSlices(downloadInfo.id, fileTempDir)
+        val fileSliceList = if (acceptsRanges && !totalUnknown && isSavedFileSliceLayoutValid(savedFileSlices)) {
+            savedFileSlices.map {
+                FileSlice(
+                        id = downloadInfo.id,
+                        position = it.position,
+                        startBytes = it.startBytes,
+                        endBytes = it.endBytes)
+            }
+        } else if (acceptsRanges && !totalUnknown) {
             val fileSliceInfo = getChuckInfo(request)
-            if (previousSliceSize != fileSliceInfo.slicingCount) {
+            if (savedFileSlices.size != fileSliceInfo.slicingCount) {
                 deleteAllInFolderForId(downloadInfo.id, fileTempDir)
+                savedFileSlices = emptyList()
             }
-            saveCurrentSliceCount(downloadInfo.id, fileSliceInfo.slicingCount, fileTempDir)
             var counterBytes = 0L
             val fileSlices = mutableListOf<FileSlice>()
             for (position in 1..fileSliceInfo.slicingCount) {
-                if (!interrupted && !terminated) {
-                    val startBytes = counterBytes
-                    val endBytes = if (fileSliceInfo.slicingCount == position) {
-                        total
-                    } else {
-                        counterBytes + fileSliceInfo.bytesPerFileSlice
-                    }
-                    counterBytes = endBytes
-                    val fileSlice = FileSlice(
-                            id = downloadInfo.id,
-                            position = position,
-                            startBytes = startBytes,
-                            endBytes = endBytes,
-                            downloaded = getSavedDownloadedInfo(downloadInfo.id, position, fileTempDir)
-                    )
-                    downloaded += fileSlice.downloaded
-                    fileSlices.add(fileSlice)
+                val startBytes = counterBytes
+                val endBytes = if (fileSliceInfo.slicingCount == position) {
+                    total
                 } else {
-                    break
+                    counterBytes + fileSliceInfo.bytesPerFileSlice
                 }
+                counterBytes = endBytes
+                fileSlices.add(FileSlice(
+                        id = downloadInfo.id,
+                        position = position,
+                        startBytes = startBytes,
+                        endBytes = endBytes))
             }
             fileSlices
         } else {
-            if (previousSliceSize != 1) {
+            if (savedFileSlices.size != 1) {
                 deleteAllInFolderForId(downloadInfo.id, fileTempDir)
+                savedFileSlices = emptyList()
             }
-            saveCurrentSliceCount(downloadInfo.id, 1, fileTempDir)
-            val fileSlice = FileSlice(
+            listOf(FileSlice(
                     id = downloadInfo.id,
                     position = 1,
                     startBytes = 0,
-                    endBytes = total,
-                    downloaded = getSavedDownloadedInfo(downloadInfo.id, 1, fileTempDir))
+                    endBytes = total))
+        }
+        if (!savedFileSlices.indices.all { isSavedFileSliceValid(savedFileSlices[it], fileSliceList.getOrNull(it)) }) {
+            deleteAllInFolderForId(downloadInfo.id, fileTempDir)
+            savedFileSlices = emptyList()
+        }
+        fileSliceList.forEachIndexed { index, fileSlice ->
+            fileSlice.downloaded = savedFileSlices.getOrNull(index)?.downloaded ?: 0L
             downloaded += fileSlice.downloaded
-            listOf(fileSlice)
         }
+        return fileSliceList
+    }
+
+    /** Slices that were split while downloading no longer match the computed slice list.
+     * Their saved ranges are reused as long as they still cover the whole file without gaps.*/
+    private fun isSavedFileSliceLayoutValid(savedFileSlices: List<FileSlice>): Boolean {
+        if (savedFileSlices.isEmpty() || savedFileSlices.any { it.startBytes < 0 || it.endBytes < it.startBytes }) {
+            return false
+        }
+        var counterBytes = 0L
+        savedFileSlices.sortedBy { it.startBytes }.forEach {
+            if (it.startBytes != counterBytes) {
+                return false
+            }
+            counterBytes = it.endBytes
+        }
+        return counterBytes == total
+    }
+
+    private fun isSavedFileSliceValid(savedFileSlice: FileSlice, fileSlice: FileSlice?): Boolean {
+        if (fileSlice == null || savedFileSlice.downloaded < 0
+                || (savedFileSlice.endBytes > -1 && savedFileSlice.downloaded > savedFileSlice.endBytes - savedFileSlice.startBytes)) {
+            return false
+        }
+        val savedRangeUnknown = savedFileSlice.startBytes == -1L && savedFileSlice.endBytes == -1L
+        return savedRangeUnknown || (savedFileSlice.startBytes == fileSlice.startBytes && savedFileSlice.endBytes == fileSlice.endBytes)
     }
 
     private fun getChuckInfo(request: Downloader.ServerRequest): FileSliceInfo {
         val fileSliceSize = downloader.getFileSlicingCount(request, total)
-                ?: DEFAULT_FILE_SLICE_NO_LIMIT_SET
-        return getFileSliceInfo(fileSliceSize, total)
+        if (adaptiveSlicing) {
+            maxAdaptiveConnections = fileSliceSize ?: DEFAULT_ADAPTIVE_MAX_CONNECTIONS_PER_HOST
+            return getFileSliceInfo(DEFAULT_ADAPTIVE_INITIAL_FILE_SLICES.coerceAtMost(maxAdaptiveConnections), total)
+        }
+        return getFileSliceInfo(fileSliceSize ?: DEFAULT_FILE_SLICE_NO_LIMIT_SET, total)
+    }
+
+    /**
+     * Called by the progress reporting timer after every download speed sample while holding the lock.
+     * Once a few samples were taken since the last change, a new connection is added by splitting the
+     * largest remaining range, but only if the download speed improved enough since the previous connection
+     * was added. Growth stops for good the first time the speed stops improving.
+     * */
+    private fun evaluateAdaptiveSlicing() {
+        if (!adaptiveSlicing || adaptiveSlicingStopped || totalUnknown || interrupted || terminated) {
+            return
+        }
+        adaptiveSpeedSamples += 1
+        if (adaptiveSpeedSamples < DEFAULT_ADAPTIVE_SPEED_SAMPLES) {
+            return
+        }
+        val downloadSpeed = averageDownloadedBytesPerSecond
+        if (downloadSpeed < adaptiveBaselineSpeed * (1 + DEFAULT_ADAPTIVE_MIN_SPEED_IMPROVEMENT)) {
+            adaptiveSlicingStopped = true
+            logger.d("FileDownloader download:${downloadInfo.id} stopped adding connections at ${fileSlices.size} slices")
+            return
+        }
+        if (!sliceScheduler.tryAcquireHostConnection(host, maxAdaptiveConnections)) {
+            return
+        }
+        val stolenFileSlice = synchronized(sliceRangeLock) {
+            val fileSlice = stealFileSliceNoLock()
+            if (fileSlice != null) {
+                slicesPhaser.register()
+            }
+            fileSlice
+        }
+        if (stolenFileSlice == null) {
+            sliceScheduler.releaseHostConnection(host)
+            adaptiveSlicingStopped = true
+            return
+        }
+        adaptiveBaselineSpeed = downloadSpeed
+        adaptiveSpeedSamples = 0
+        submitSliceTask(stolenFileSlice)
     }
 
     private fun getAverageDownloadedBytesPerSecond(): Long {
@@ -350,35 +474,35 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
     }
 
     private fun waitAndPerformProgressReporting() {
-        var reportingStopTime: Long
-        var downloadSpeedStopTime: Long
         var downloadedBytesPerSecond = downloaded
         var reportingStartTime = System.nanoTime()
         var downloadSpeedStartTime = System.nanoTime()
-        while (actionsCounter != actionsTotal && !interrupted && !terminated) {
-            downloadInfo.downloaded = downloaded
-            downloadInfo.total = total
-            downloadSpeedStopTime = System.nanoTime()
-            val downloadSpeedCheckTimeElapsed = hasIntervalTimeElapsed(downloadSpeedStartTime,
-                    downloadSpeedStopTime, DEFAULT_DOWNLOAD_SPEED_REPORTING_INTERVAL_IN_MILLISECONDS)
-
-            if (downloadSpeedCheckTimeElapsed) {
-                downloadedBytesPerSecond = downloaded - downloadedBytesPerSecond
-                movingAverageCalculator.add(downloadedBytesPerSecond.toDouble())
-                averageDownloadedBytesPerSecond =
-                        movingAverageCalculator.getMovingAverageWithWeightOnRecentValues()
-                estimatedTimeRemainingInMilliseconds = calculateEstimatedTimeRemainingInMilliseconds(
-                        downloadedBytes = downloaded,
-                        totalBytes = total,
-                        downloadedBytesPerSecond = getAverageDownloadedBytesPerSecond())
-                downloadedBytesPerSecond = downloaded
-            }
-            reportingStopTime = System.nanoTime()
-            val hasReportingTimeElapsed = hasIntervalTimeElapsed(reportingStartTime,
-                    reportingStopTime, progressReportingIntervalMillis)
-            if (hasReportingTimeElapsed) {
-                synchronized(lock) {
-                    if (!interrupted && !terminated) {
+        val progressReportingTask = progressReportingTimer.scheduleAtFixedRate({
+            synchronized(lock) {
+                if (!progressReportingStopped && !interrupted && !terminated) {
+                    downloadInfo.downloaded = downloaded
+                    downloadInfo.total = total
+                    val downloadSpeedStopTime = System.nanoTime()
+                    val downloadSpeedCheckTimeElapsed = hasIntervalTimeElapsed(downloadSpeedStartTime,
+                            downloadSpeedStopTime, DEFAULT_DOWNLOAD_SPEED_REPORTING_INTERVAL_IN_MILLISECONDS)
+                    if (downloadSpeedCheckTimeElapsed) {
+                        downloadedBytesPerSecond = downloaded - downloadedBytesPerSecond
+                        movingAverageCalculator.add(downloadedBytesPerSecond.toDouble())
+                        averageDownloadedBytesPerSecond =
+                                movingAverageCalculator.getMovingAverageWithWeightOnRecentValues()
+                        estimatedTimeRemainingInMilliseconds = calculateEstimatedTimeRemainingInMilliseconds(
+                                downloadedBytes = downloaded,
+                                totalBytes = total,
+                                downloadedBytesPerSecond = getAverageDownloadedBytesPerSecond())
+                        downloadedBytesPerSecond = downloaded
+                        downloadSpeedStartTime = System.nanoTime()
+                        evaluateAdaptiveSlicing()
+                    }
+                    val reportingStopTime = System.nanoTime()
+                    val hasReportingTimeElapsed = hasIntervalTimeElapsed(reportingStartTime,
+                            reportingStopTime, progressReportingIntervalMillis)
+                    if (hasReportingTimeElapsed) {
+                        fileSliceCheckpoint.flush()
                         downloadInfo.downloaded = downloaded
                         downloadInfo.total = total
                         delegate?.saveDownloadProgress(downloadInfo)
@@ -388,24 +512,27 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
                                 download = downloadInfo,
                                 etaInMilliSeconds = downloadInfo.etaInMilliSeconds,
                                 downloadedBytesPerSecond = downloadInfo.downloadedBytesPerSecond)
+                        reportingStartTime = System.nanoTime()
                     }
                 }
-                reportingStartTime = System.nanoTime()
             }
-            if (downloadSpeedCheckTimeElapsed) {
-                downloadSpeedStartTime = System.nanoTime()
+        }, progressReportingIntervalMillis, progressReportingIntervalMillis.coerceAtLeast(1), TimeUnit.MILLISECONDS)
+        try {
+            if (!interrupted && !terminated) {
+                slicesPhaser.awaitAdvanceInterruptibly(slicesPhaser.arrive())
             }
-            try {
-                Thread.sleep(progressReportingIntervalMillis)
-            } catch (e: InterruptedException) {
-                logger.e("FileDownloader", e)
+        } catch (e: InterruptedException) {
+            logger.e("FileDownloader", e)
+        } finally {
+            progressReportingTask.cancel(false)
+            synchronized(lock) {
+                progressReportingStopped = true
             }
         }
     }
 
     private fun downloadSliceFiles(request: Downloader.ServerRequest, fileSlicesDownloadsList: List<FileSlice>) {
-        actionsCounter = 0
-        actionsTotal = fileSlicesDownloadsList.size
+        slicesPhaser = Phaser(1)
         if (!storageResolver.fileExists(request.file)) {
             storageResolver.createFile(request.file, initialDownload.enqueueAction == EnqueueAction.INCREMENT_FILE_NAME)
         }
@@ -416,109 +543,276 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
         outputResourceWrapper?.setWriteOffset(0)
         for (fileSlice in fileSlicesDownloadsList) {
             if (!interrupted && !terminated) {
-                executorService?.execute {
-                    try {
-                        Thread.currentThread().name = "${downloadInfo.namespace}-${downloadInfo.id}-Slice-${fileSlice.position}"
-                    } catch (_: Exception) {
+                slicesPhaser.register()
+                sliceScheduler.acquireHostConnection(host)
+                submitSliceTask(fileSlice)
+            } else {
+                break
+            }
+        }
+    }
+
+    /** Submits a slice that was registered with slicesPhaser and holds a host connection. A slice
+     * the scheduler drops before it runs gives both back, so the waiting download thread is released.*/
+    private fun submitSliceTask(fileSlice: FileSlice) {
+        val phaser = slicesPhaser
+        val sliceTask = object : SliceScheduler.SliceTask {
+
+            override fun run() {
+                runSliceTask(fileSlice)
+            }
+
+            override fun cancel() {
+                sliceScheduler.releaseHostConnection(host)
+                phaser.arriveAndDeregister()
+            }
+
+        }
+        val executor = sliceExecutor
+        if (executor != null) {
+            executor.execute(sliceTask)
+        } else {
+            sliceTask.cancel()
+        }
+    }
+
+    /** Runs on a slice worker. The caller must have registered the task with slicesPhaser
+     * and acquired a host connection for it. Once the slice finishes, the same worker and
+     * connection slot continue with a range taken from a slower slice.*/
+    private fun runSliceTask(fileSlice: FileSlice) {
+        try {
+            var nextFileSlice: FileSlice? = fileSlice
+            while (nextFileSlice != null && !interrupted && !terminated) {
+                nextFileSlice = if (downloadSlice(nextFileSlice)) {
+                    advanceContentDigest()
+                    stealFileSlice()
+                } else {
+                    null
+                }
+            }
+        } finally {
+            sliceScheduler.releaseHostConnection(host)
+            slicesPhaser.arriveAndDeregister()
+        }
+    }
 
+    /**
+     * Downloads the remaining bytes of the slice. Another slice may shrink the end of this slice
+     * while it downloads, see stealFileSlice.
+     * @return true if the slice was fully downloaded.
+     * */
+    private fun downloadSlice(fileSlice: FileSlice): Boolean {
+        try {
+            Thread.currentThread().name = "${downloadInfo.namespace}-${downloadInfo.id}-Slice-${fileSlice.position}"
+        } catch (_: Exception) {
+
+        }
+        val downloadBlock = DownloadBlockInfo()
+        downloadBlock.downloadId = fileSlice.id
+        downloadBlock.blockPosition = fileSlice.position
+        synchronized(sliceRangeLock) {
+            activeFileSlices.add(fileSlice)
+            downloadBlock.downloadedBytes = fileSlice.downloaded
+            downloadBlock.startByte = fileSlice.startBytes
+            downloadBlock.endByte = fileSlice.endBytes
+        }
+        val downloadRequest = getRequestForDownload(download = downloadInfo, rangeStart = fileSlice.startBytes + fileSlice.downloaded, segment = fileSlice.position + 1)
+        val sliceIndex = fileSlice.position - 1
+        var downloadResponse: Downloader.Response? = null
+        try {
+            downloadResponse = downloader.execute(downloadRequest, interruptMonitor)
+            if (!terminated && !interrupted && downloadResponse?.isSuccessful == true) {
+                var reportingStopTime: Long
+                val bufferSize = downloader.getRequestBufferSize(downloadRequest)
+                val buffer = ByteArray(bufferSize)
+                var read: Int = downloadResponse.byteStream?.read(buffer, 0, bufferSize)
+                        ?: -1
+                var remainderBytes: Long = synchronized(sliceRangeLock) {
+                    if (bufferSize > maxSliceBufferSize) {
+                        maxSliceBufferSize = bufferSize
                     }
-                    val downloadBlock = DownloadBlockInfo()
-                    downloadBlock.downloadId = fileSlice.id
-                    downloadBlock.blockPosition = fileSlice.position
-                    downloadBlock.downloadedBytes = fileSlice.downloaded
-                    downloadBlock.startByte = fileSlice.startBytes
-                    downloadBlock.endByte = fileSlice.endBytes
-                    val downloadRequest = getRequestForDownload(download = downloadInfo, rangeStart = fileSlice.startBytes + fileSlice.downloaded, segment = fileSlice.position + 1)
-                    var downloadResponse: Downloader.Response? = null
-                    var saveRandomAccessFile: RandomAccessFile? = null
-                    try {
-                        val file = getFile(getDownloadedInfoFilePath(fileSlice.id, fileSlice.position, fileTempDir))
-                        saveRandomAccessFile = RandomAccessFile(file, "rw")
-                        downloadResponse = downloader.execute(downloadRequest, interruptMonitor)
-                        if (!terminated && !interrupted && downloadResponse?.isSuccessful == true) {
-                            var reportingStopTime: Long
-                            val bufferSize = downloader.getRequestBufferSize(downloadRequest)
-                            val buffer = ByteArray(bufferSize)
-                            var read: Int = downloadResponse.byteStream?.read(buffer, 0, bufferSize)
-                                    ?: -1
-                            val naturalEnd = if (fileSlice.endBytes < 1) 0 else fileSlice.endBytes
-                            var remainderBytes: Long = naturalEnd - (fileSlice.startBytes + fileSlice.downloaded)
-                            var reportingStartTime = System.nanoTime()
-                            var streamBytes: Int
-                            var seekPosition: Long
-                            while ((totalUnknown || remainderBytes > 0L) && read != -1 && !interrupted && !terminated) {
-                                streamBytes = if (totalUnknown || read <= remainderBytes) {
-                                    read
-                                } else {
-                                    read = -1
-                                    remainderBytes.toInt()
-                                }
-                                seekPosition = fileSlice.startBytes + fileSlice.downloaded
-                                synchronized(lock) {
-                                    if (!interrupted && !terminated) {
-                                        outputResourceWrapper?.setWriteOffset(seekPosition)
-                                        outputResourceWrapper?.write(buffer, 0, streamBytes)
-                                        if (!interrupted && !terminated) {
-                                            fileSlice.downloaded += streamBytes
-                                            saveRandomAccessFile.seek(0)
-                                            saveRandomAccessFile.setLength(0)
-                                            saveRandomAccessFile.writeLong(fileSlice.downloaded)
-                                            downloaded += streamBytes
-                                        }
-                                        reportingStopTime = System.nanoTime()
-                                        val hasReportingTimeElapsed = hasIntervalTimeElapsed(reportingStartTime,
-                                                reportingStopTime, progressReportingIntervalMillis)
-                                        if (hasReportingTimeElapsed) {
-                                            if (!interrupted && !terminated) {
-                                                downloadBlock.downloadedBytes = fileSlice.downloaded
-                                                delegate?.onDownloadBlockUpdated(downloadInfo, downloadBlock, totalDownloadBlocks)
-                                            }
-                                            reportingStartTime = System.nanoTime()
-                                        }
-                                    }
-                                }
-                                if (!interrupted && !terminated && read != -1) {
-                                    read = downloadResponse.byteStream?.read(buffer, 0, bufferSize) ?: -1
-                                    if (!totalUnknown) {
-                                        remainderBytes = naturalEnd - (fileSlice.startBytes + fileSlice.downloaded)
-                                    }
-                                }
+                    getFileSliceRemainderBytes(fileSlice)
+                }
+                var reportingStartTime = System.nanoTime()
+                var streamBytes: Int
+                var seekPosition: Long
+                while ((totalUnknown || remainderBytes > 0L) && read != -1 && !interrupted && !terminated) {
+                    streamBytes = if (totalUnknown || read <= remainderBytes) {
+                        read
+                    } else {
+                        read = -1
+                        remainderBytes.toInt()
+                    }
+                    seekPosition = fileSlice.startBytes + fileSlice.downloaded
+                    if (!interrupted && !terminated) {
+                        outputResourceWrapper?.writeAtPosition(seekPosition, buffer, 0, streamBytes)
+                        if (!interrupted && !terminated) {
+                            val sliceDownloaded = synchronized(sliceRangeLock) {
+                                fileSlice.downloaded += streamBytes
+                                downloaded += streamBytes
+                                remainderBytes = getFileSliceRemainderBytes(fileSlice)
+                                fileSlice.downloaded
                             }
-                        } else if (downloadResponse == null && !interrupted && !terminated) {
-                            throw FetchException(EMPTY_RESPONSE_BODY)
-                        } else if (downloadResponse?.isSuccessful == false && !interrupted && !terminated) {
-                            throw FetchException(RESPONSE_NOT_SUCCESSFUL)
-                        } else if (!interrupted && !terminated) {
-                            throw FetchException(UNKNOWN_ERROR)
+                            fileSliceCheckpoint.update(sliceIndex, sliceDownloaded, streamBytes)
+                            digestContent(seekPosition, buffer, streamBytes)
                         }
-                    } catch (e: Exception) {
-                        logger.e("FileDownloader downloads slice $fileSlice", e)
-                        throwable = e
-                    } finally {
-                        try {
-                            if (downloadResponse != null) {
-                                downloader.disconnect(downloadResponse)
+                        reportingStopTime = System.nanoTime()
+                        val hasReportingTimeElapsed = hasIntervalTimeElapsed(reportingStartTime,
+                                reportingStopTime, progressReportingIntervalMillis)
+                        if (hasReportingTimeElapsed) {
+                            if (!interrupted && !terminated) {
+                                synchronized(lock) {
+                                    downloadBlock.downloadedBytes = fileSlice.downloaded
+                                    downloadBlock.endByte = fileSlice.endBytes
+                                    delegate?.onDownloadBlockUpdated(downloadInfo, downloadBlock, totalDownloadBlocks)
+                                }
                             }
-                        } catch (e: Exception) {
-                            logger.e("FileDownloader", e)
+                            reportingStartTime = System.nanoTime()
                         }
-                        try {
-                            saveRandomAccessFile?.close()
-                        } catch (e: Exception) {
-                            logger.e("FileDownloader", e)
-                        }
-                        incrementActionCompletedCount()
+                    }
+                    if (!interrupted && !terminated && read != -1) {
+                        read = downloadResponse.byteStream?.read(buffer, 0, bufferSize) ?: -1
                     }
                 }
-            } else {
-                break
+            } else if (downloadResponse == null && !interrupted && !terminated) {
+                throw FetchException(EMPTY_RESPONSE_BODY)
+            } else if (downloadResponse?.isSuccessful == false && !interrupted && !terminated) {
+                throw FetchException(RESPONSE_NOT_SUCCESSFUL)
+            } else if (!interrupted && !terminated) {
+                throw FetchException(UNKNOWN_ERROR)
+            }
+        } catch (e: Exception) {
+            logger.e("FileDownloader downloads slice $fileSlice", e)
+            throwable = e
+        } finally {
+            try {
+                if (downloadResponse != null) {
+                    downloader.disconnect(downloadResponse)
+                }
+            } catch (e: Exception) {
+                logger.e("FileDownloader", e)
+            }
+        }
+        return synchronized(sliceRangeLock) {
+            activeFileSlices.remove(fileSlice)
+            throwable == null && !totalUnknown && fileSlice.isDownloaded
+        }
+    }
+
+    /**
+     * Called by a slice that finished downloading its range. Splits off the back half of the
+     * largest remaining range of the slices that are still downloading and returns it as a new slice
+     * that is downloaded with its own range request. The slice that lost the range stops once it
+     * reaches its new end. The split is placed at least one buffer past the current position of the
+     * slow slice, so a buffer it is already writing can never overlap the new slice.
+     * @return the new slice or null if no range is large enough to split.
+     * */
+    private fun stealFileSlice(): FileSlice? {
+        if (interrupted || terminated || totalUnknown) {
+            return null
+        }
+        return synchronized(sliceRangeLock) {
+            stealFileSliceNoLock()
+        }
+    }
+
+    private fun stealFileSliceNoLock(): FileSlice? {
+        val stolenFileSlice = splitFileSlice(activeFileSlices, fileSlices.size + 1, maxSliceBufferSize) ?: return null
+        fileSlices = fileSlices + stolenFileSlice
+        totalDownloadBlocks = fileSlices.size
+        fileSliceCheckpoint.addSlices(fileSlices)
+        logger.d("FileDownloader slice ${stolenFileSlice.position} took bytes " +
+                "${stolenFileSlice.startBytes}-${stolenFileSlice.endBytes}")
+        return stolenFileSlice
+    }
+
+    /**
+     * Feeds bytes a slice just wrote to the content digest if they directly follow the digested prefix
+     * of the file. Only the slice downloading at the end of the prefix gets here, other slices
+     * write further into the file and their bytes are read back by advanceContentDigest.
+     * */
+    private fun digestContent(position: Long, buffer: ByteArray, length: Int) {
+        if (contentDigest == null || contentDigestCatchingUp) {
+            return
+        }
+        synchronized(contentDigestLock) {
+            val digest = contentDigest ?: return
+            if (digest.digestedBytes == position) {
+                digest.update(buffer, 0, length)
             }
         }
     }
 
-    private fun incrementActionCompletedCount() {
-        synchronized(lock) {
-            actionsCounter += 1
+    /**
+     * Reads back and digests the bytes that follow the digested prefix and were already written by
+     * other slices. Called when a slice finishes, so the prefix keeps growing while the remaining slices
+     * download and only the bytes written since the last call are read when the download completes.
+     * */
+    private fun advanceContentDigest() {
+        if (contentDigest == null) {
+            return
+        }
+        synchronized(contentDigestLock) {
+            val digest = contentDigest ?: return
+            contentDigestCatchingUp = true
+            try {
+                val wrapper = outputResourceWrapper
+                if (wrapper != null) {
+                    synchronized(wrapper) {
+                        wrapper.flush()
+                    }
+                }
+                var endPosition = getContiguousDownloadedBytes(digest.digestedBytes)
+                while (endPosition > digest.digestedBytes && !interrupted && !terminated) {
+                    val file = contentDigestFile ?: RandomAccessFile(downloadInfo.file, "r")
+                    contentDigestFile = file
+                    digest.update(file, endPosition, ByteArray(DEFAULT_BUFFER_SIZE))
+                    endPosition = getContiguousDownloadedBytes(digest.digestedBytes)
+                }
+            } catch (e: Exception) {
+                logger.e("FileDownloader", e)
+                contentDigest = null
+            } finally {
+                contentDigestCatchingUp = false
+            }
+        }
+    }
+
+    /** @return the end of the downloaded bytes that follow the position without a gap.*/
+    private fun getContiguousDownloadedBytes(position: Long): Long {
+        return synchronized(sliceRangeLock) {
+            var endPosition = position
+            for (fileSlice in fileSlices.sortedBy { it.startBytes }) {
+                if (fileSlice.startBytes > endPosition) {
+                    break
+                }
+                endPosition = maxOf(endPosition, fileSlice.startBytes + fileSlice.downloaded)
+            }
+            endPosition
+        }
+    }
+
+    private fun isContentHashValid(response: Downloader.Response): Boolean {
+        advanceContentDigest()
+        val digest = synchronized(contentDigestLock) {
+            contentDigest?.takeIf { it.digestedBytes == total }
+        }
+        val verifier = downloader as? ContentHashVerifier
+        return if (digest != null && verifier != null) {
+            verifier.verifyContentHash(response.request, response.hash, digest.getHashString())
+        } else {
+            downloader.verifyContentHash(response.request, response.hash)
+        }
+    }
+
+    private fun closeContentDigestFile() {
+        synchronized(contentDigestLock) {
+            try {
+                contentDigestFile?.close()
+            } catch (e: Exception) {
+                logger.e("FileDownloader", e)
+            }
+            contentDigestFile = null
         }
     }
 
@@ -56,6 +56,7 @@ class SequentialFileDownloaderImpl(private val initialDownload: Download,
         downloadBlock
     }()
     private val totalDownloadBlocks = 1
+    private var contentDigest: ContentDigest? = null
 
     override val download: Download
         get () {
@@ -121,6 +122,7 @@ class SequentialFileDownloaderImpl(private val initialDownload: Download,
                                     totalBlocks = totalDownloadBlocks)
                             delegate?.onDownloadBlockUpdated(downloadInfo, downloadBlock, totalDownloadBlocks)
                         }
+                        contentDigest = getContentDigest(response, seekPosition, bufferSize)
                         writeToOutput(input, outputResourceWrapper, bufferSize)
                     }
                 } else if (response == null && !interrupted && !terminated && !isDownloadComplete()) {
@@ -232,6 +234,7 @@ class SequentialFileDownloaderImpl(private val initialDownload: Download,
             outputResourceWrapper?.write(buffer, 0, read)
             if (!terminated && !interrupted) {
                 downloaded += read
+                contentDigest?.update(buffer, 0, read)
                 downloadInfo.downloaded = downloaded
                 downloadInfo.total = total
                 downloadBlock.downloadedBytes = downloaded
@@ -287,7 +290,7 @@ class SequentialFileDownloaderImpl(private val initialDownload: Download,
             downloadBlock.downloadedBytes = downloaded
             downloadBlock.endByte = total
             if (hashCheckingEnabled) {
-                if (downloader.verifyContentHash(response.request, response.hash)) {
+                if (isContentHashValid(response)) {
                     if (!terminated && !interrupted) {
                         delegate?.saveDownloadProgress(downloadInfo)
                         delegate?.onDownloadBlockUpdated(downloadInfo, downloadBlock, totalDownloadBlocks)
@@ -326,6 +329,43 @@ class SequentialFileDownloaderImpl(private val initialDownload: Download,
         }
     }
 
+    /** Creates the digest that hashes the content while it is written. When resuming, the bytes
+     * already in the file are digested first. Returns null if the hash cannot be computed this way,
+     * in which case the downloader verifies the completed file.*/
+    private fun getContentDigest(response: Downloader.Response, seekPosition: Long, bufferSize: Int): ContentDigest? {
+        if (!hashCheckingEnabled || downloader !is ContentHashVerifier) {
+            return null
+        }
+        val digest = ContentDigest.create(response.hash) ?: return null
+        if (seekPosition > 0) {
+            if (isUriPath(response.request.file)) {
+                return null
+            }
+            try {
+                RandomAccessFile(response.request.file, "r").use {
+                    digest.update(it, seekPosition, ByteArray(bufferSize))
+                }
+            } catch (e: Exception) {
+                logger.e("FileDownloader", e)
+                return null
+            }
+            if (digest.digestedBytes != seekPosition) {
+                return null
+            }
+        }
+        return digest
+    }
+
+    private fun isContentHashValid(response: Downloader.Response): Boolean {
+        val digest = contentDigest
+        val verifier = downloader as? ContentHashVerifier
+        return if (digest != null && verifier != null && digest.digestedBytes == downloaded) {
+            verifier.verifyContentHash(response.request, response.hash, digest.getHashString())
+        } else {
+            downloader.verifyContentHash(response.request, response.hash)
+        }
+    }
+
     private fun getRequest(): Downloader.ServerRequest {
         val headers = initialDownload.headers.toMutableMap()
         headers["Range"] = "bytes=$downloaded-"
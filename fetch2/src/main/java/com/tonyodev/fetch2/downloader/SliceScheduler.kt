@@ -0,0 +1,195 @@
+package com.tonyodev.fetch2.downloader
+
+import java.util.concurrent.Executor
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * Runs the slices of all parallel downloads of a namespace on one shared pool of threads.
+ * At most maxConcurrentSlices slices run at any given time. Pending slices are queued per download
+ * and dispatched round robin between downloads, so a download with many slices cannot starve
+ * the other active downloads. Idle threads are kept alive for a short time and reused across downloads.
+ * */
+class SliceScheduler(val namespace: String,
+                     maxConcurrentSlices: Int) {
+
+    private val lock = Any()
+    private val maxConcurrentSlices = if (maxConcurrentSlices < 1) 1 else maxConcurrentSlices
+    private val executor = ThreadPoolExecutor(this.maxConcurrentSlices, this.maxConcurrentSlices,
+            IDLE_THREAD_KEEP_ALIVE_IN_SECONDS, TimeUnit.SECONDS, LinkedBlockingQueue<Runnable>())
+    private val pendingSliceExecutors = ArrayDeque<SliceExecutor>()
+    private var runningSlices = 0
+    private val hostConnections = mutableMapOf<String, Int>()
+    @Volatile
+    private var closed = false
+
+    init {
+        executor.allowCoreThreadTimeOut(true)
+    }
+
+    /** Creates the executor a parallel download uses to submit its slices.*/
+    fun getSliceExecutor(downloadId: Int): SliceExecutor {
+        return SliceExecutor(downloadId)
+    }
+
+    /** Registers a connection to the host opened by a slice.*/
+    fun acquireHostConnection(host: String) {
+        synchronized(lock) {
+            hostConnections[host] = (hostConnections[host] ?: 0) + 1
+        }
+    }
+
+    /** Registers a connection to the host only if fewer than maxConnections are open.
+     * @return true if the connection was registered.*/
+    fun tryAcquireHostConnection(host: String, maxConnections: Int): Boolean {
+        synchronized(lock) {
+            val connections = hostConnections[host] ?: 0
+            if (connections >= maxConnections) {
+                return false
+            }
+            hostConnections[host] = connections + 1
+            return true
+        }
+    }
+
+    fun releaseHostConnection(host: String) {
+        synchronized(lock) {
+            val connections = (hostConnections[host] ?: 0) - 1
+            if (connections > 0) {
+                hostConnections[host] = connections
+            } else {
+                hostConnections.remove(host)
+            }
+        }
+    }
+
+    fun close() {
+        val droppedSlices = mutableListOf<Runnable>()
+        synchronized(lock) {
+            if (closed) {
+                return
+            }
+            closed = true
+            pendingSliceExecutors.forEach {
+                droppedSlices.addAll(it.pendingSlices)
+                it.pendingSlices.clear()
+            }
+            pendingSliceExecutors.clear()
+        }
+        cancelSlices(droppedSlices)
+        try {
+            executor.shutdown()
+        } catch (_: Exception) {
+
+        }
+    }
+
+    private fun enqueue(sliceExecutor: SliceExecutor, runnable: Runnable) {
+        val droppedSlices = synchronized(lock) {
+            if (closed || sliceExecutor.isShutdown) {
+                listOf(runnable)
+            } else {
+                sliceExecutor.pendingSlices.addLast(runnable)
+                if (!pendingSliceExecutors.contains(sliceExecutor)) {
+                    pendingSliceExecutors.addLast(sliceExecutor)
+                }
+                dispatchNoLock()
+            }
+        }
+        cancelSlices(droppedSlices)
+    }
+
+    private fun remove(sliceExecutor: SliceExecutor) {
+        val droppedSlices = synchronized(lock) {
+            val droppedSlices = sliceExecutor.pendingSlices.toList()
+            sliceExecutor.pendingSlices.clear()
+            pendingSliceExecutors.remove(sliceExecutor)
+            droppedSlices
+        }
+        cancelSlices(droppedSlices)
+    }
+
+    /** @return the slices the thread pool rejected. They have to be cancelled outside of the lock.*/
+    private fun dispatchNoLock(): List<Runnable> {
+        var droppedSlices: MutableList<Runnable>? = null
+        while (!closed && runningSlices < maxConcurrentSlices && pendingSliceExecutors.isNotEmpty()) {
+            val sliceExecutor = pendingSliceExecutors.removeFirst()
+            val runnable = sliceExecutor.pendingSlices.removeFirstOrNull() ?: continue
+            if (sliceExecutor.pendingSlices.isNotEmpty()) {
+                pendingSliceExecutors.addLast(sliceExecutor)
+            }
+            runningSlices += 1
+            try {
+                executor.execute {
+                    try {
+                        runnable.run()
+                    } finally {
+                        onSliceFinished()
+                    }
+                }
+            } catch (e: RejectedExecutionException) {
+                runningSlices -= 1
+                if (droppedSlices == null) {
+                    droppedSlices = mutableListOf()
+                }
+                droppedSlices.add(runnable)
+            }
+        }
+        return droppedSlices ?: emptyList()
+    }
+
+    private fun onSliceFinished() {
+        val droppedSlices = synchronized(lock) {
+            runningSlices -= 1
+            dispatchNoLock()
+        }
+        cancelSlices(droppedSlices)
+    }
+
+    /** Slices that are dropped before they run release what was acquired for them.*/
+    private fun cancelSlices(droppedSlices: List<Runnable>) {
+        for (droppedSlice in droppedSlices) {
+            if (droppedSlice is SliceTask) {
+                droppedSlice.cancel()
+            }
+        }
+    }
+
+    /**
+     * A slice submitted to a SliceExecutor. If the slice is dropped before it runs, because the
+     * executor was shut down or the scheduler closed, cancel is called instead of run.
+     * */
+    interface SliceTask : Runnable {
+
+        fun cancel()
+
+    }
+
+    /** Executor handed to a single parallel download. Shutting it down drops the
+     * slices of that download that have not started yet.*/
+    inner class SliceExecutor internal constructor(val downloadId: Int) : Executor {
+
+        internal val pendingSlices = ArrayDeque<Runnable>()
+
+        @Volatile
+        var isShutdown = false
+            private set
+
+        override fun execute(command: Runnable) {
+            enqueue(this, command)
+        }
+
+        fun shutdown() {
+            isShutdown = true
+            remove(this)
+        }
+
+    }
+
+    private companion object {
+        private const val IDLE_THREAD_KEEP_ALIVE_IN_SECONDS = 30L
+    }
+
+}
@@ -49,9 +49,16 @@ interface FetchHandler : Closeable {
     fun getDownloadsWithStatus(statuses: List<Status>): List<Download>
     fun getDownloadsInGroupWithStatus(groupId: Int, statuses: List<Status>): List<Download>
     fun getDownloadsByRequestIdentifier(identifier: Long): List<Download>
+    fun getDownloadsPage(cursor: String?, pageSize: Int): DownloadPage
+    fun getDownloadsWithStatusPage(statuses: List<Status>, cursor: String?, pageSize: Int): DownloadPage
+    fun getDownloadsInGroupPage(groupId: Int, cursor: String?, pageSize: Int): DownloadPage
+    fun getDownloadSummaries(): List<DownloadSummary>
+    fun getDownloadSummaries(idList: List<Int>): List<DownloadSummary>
+    fun getDownloadSummariesWithStatus(statuses: List<Status>): List<DownloadSummary>
+    fun getDownloadSummariesInGroup(groupId: Int): List<DownloadSummary>
     fun setGlobalNetworkType(networkType: NetworkType)
     fun enableLogging(enabled: Boolean)
-    fun addListener(listener: FetchListener, notify: Boolean, autoStart: Boolean)
+    fun addListener(listener: FetchListener, notify: Boolean, autoStart: Boolean, deliveryTarget: DeliveryTarget)
     fun removeListener(listener: FetchListener)
     fun getDownloadBlocks(id: Int): List<DownloadBlock>
     fun getContentLengthForRequest(request: Request, fromServer: Boolean): Long
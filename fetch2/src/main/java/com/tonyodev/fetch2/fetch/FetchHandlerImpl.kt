@@ -6,6 +6,7 @@ import com.tonyodev.fetch2.*
 import com.tonyodev.fetch2.database.DownloadInfo
 import com.tonyodev.fetch2.database.FetchDatabaseManagerWrapper
 import com.tonyodev.fetch2.downloader.DownloadManager
+import com.tonyodev.fetch2.downloader.FileSliceCheckpoint
 import com.tonyodev.fetch2.exception.FetchException
 import com.tonyodev.fetch2.helper.PriorityListProcessor
 import com.tonyodev.fetch2.provider.GroupInfoProvider
@@ -79,48 +80,113 @@ class FetchHandlerImpl(private val namespace: String,
         return results
     }
 
+    /**
+     * Enqueues all requests with a single query for the existing downloads and a single
+     * transaction for the changes. If the transaction fails, the changes of each request are
+     * written one by one so that only the failing requests report an error.
+     * */
     private fun enqueueRequests(requests: List<Request>): List<Pair<Download, Error>> {
-        val results = mutableListOf<Pair<Download, Error>>()
-        requests.forEach {
+        val downloadInfoList = requests.map {
             val downloadInfo = it.toDownloadInfo(fetchDatabaseManagerWrapper.getNewDownloadInfoInstance())
             downloadInfo.namespace = namespace
+            downloadInfo
+        }
+        val results = downloadInfoList.map { Pair<Download, Error>(it, Error.NONE) }.toMutableList()
+        val enqueueChangesList = mutableListOf<EnqueueChanges>()
+        val existingDownloads = getExistingDownloadsForEnqueue(downloadInfoList)
+        downloadInfoList.forEachIndexed { index, downloadInfo ->
             try {
-                val existing = prepareDownloadInfoForEnqueue(downloadInfo)
+                val enqueueChanges = EnqueueChanges(index)
+                val existing = prepareDownloadInfoForEnqueue(downloadInfo, existingDownloads[downloadInfo.file], enqueueChanges)
                 if (downloadInfo.status != Status.COMPLETED) {
-                    downloadInfo.status = if (it.downloadOnEnqueue) {
+                    downloadInfo.status = if (requests[index].downloadOnEnqueue) {
                         Status.QUEUED
                     } else {
                         Status.ADDED
                     }
                     if (!existing) {
-                        val downloadPair = fetchDatabaseManagerWrapper.insert(downloadInfo)
-                        logger.d("Enqueued download ${downloadPair.first}")
-                        results.add(Pair(downloadPair.first, Error.NONE))
-                        startPriorityQueueIfNotStarted()
+                        enqueueChanges.insertedList.add(downloadInfo)
                     } else {
-                        fetchDatabaseManagerWrapper.update(downloadInfo)
-                        logger.d("Updated download $downloadInfo")
-                        results.add(Pair(downloadInfo, Error.NONE))
+                        enqueueChanges.updatedList.add(downloadInfo)
                     }
-                } else {
-                    results.add(Pair(downloadInfo, Error.NONE))
-                }
-                if (prioritySort == PrioritySort.DESC && !downloadManager.canAccommodateNewDownload()) {
-                    priorityListProcessor.pause()
                 }
+                enqueueChangesList.add(enqueueChanges)
             } catch (e: Exception) {
                 val error = getErrorFromThrowable(e)
                 error.throwable = e
-                results.add(Pair(downloadInfo, error))
+                results[index] = Pair(downloadInfo, error)
             }
         }
+        try {
+            fetchDatabaseManagerWrapper.applyChanges(enqueueChangesList.flatMap { it.updatedList },
+                    enqueueChangesList.flatMap { it.deletedList }, enqueueChangesList.flatMap { it.insertedList })
+            enqueueChangesList.forEach {
+                logEnqueueChanges(it)
+            }
+        } catch (e: Exception) {
+            logger.e("Failed to enqueue ${enqueueChangesList.size} requests in a single transaction", e)
+            enqueueChangesList.forEach {
+                try {
+                    fetchDatabaseManagerWrapper.applyChanges(it.updatedList, it.deletedList, it.insertedList)
+                    logEnqueueChanges(it)
+                } catch (e: Exception) {
+                    val error = getErrorFromThrowable(e)
+                    error.throwable = e
+                    results[it.index] = Pair(downloadInfoList[it.index], error)
+                }
+            }
+        }
+        if (prioritySort == PrioritySort.DESC && !downloadManager.canAccommodateNewDownload()) {
+            priorityListProcessor.pause()
+        }
         startPriorityQueueIfNotStarted()
         return results
     }
 
+    private fun logEnqueueChanges(enqueueChanges: EnqueueChanges) {
+        enqueueChanges.insertedList.forEach {
+            logger.d("Enqueued download $it")
+        }
+        enqueueChanges.updatedList.forEach {
+            logger.d("Updated download $it")
+        }
+    }
+
+    /**
+     * Cancels the passed in downloads and the existing downloads for the same files, then
+     * queries the existing downloads again with their latest status.
+     * @return existing downloads mapped by file.
+     * */
+    private fun getExistingDownloadsForEnqueue(downloadInfoList: List<DownloadInfo>): Map<String, DownloadInfo> {
+        cancelDownloadsIfDownloading(downloadInfoList)
+        val files = downloadInfoList.map { it.file }
+        var existingDownloads = fetchDatabaseManagerWrapper.getByFile(files)
+        if (existingDownloads.isNotEmpty()) {
+            cancelDownloadsIfDownloading(existingDownloads)
+            existingDownloads = fetchDatabaseManagerWrapper.getByFile(files)
+        }
+        if (createFileOnEnqueue && storageResolver is DefaultStorageResolver) {
+            createParentDirectories(files)
+        }
+        return existingDownloads.associateBy { it.file }
+    }
+
     private fun prepareDownloadInfoForEnqueue(downloadInfo: DownloadInfo): Boolean {
-        cancelDownloadsIfDownloading(listOf(downloadInfo))
-        var existingDownload = fetchDatabaseManagerWrapper.getByFile(downloadInfo.file)
+        val existingDownloads = getExistingDownloadsForEnqueue(listOf(downloadInfo))
+        val enqueueChanges = EnqueueChanges(0)
+        val existing = prepareDownloadInfoForEnqueue(downloadInfo, existingDownloads[downloadInfo.file], enqueueChanges)
+        fetchDatabaseManagerWrapper.applyChanges(enqueueChanges.updatedList, enqueueChanges.deletedList, enqueueChanges.insertedList)
+        return existing
+    }
+
+    /**
+     * Applies the EnqueueAction of the download against the existing download. Files are created
+     * and deleted right away, database changes are added to the passed in enqueue changes.
+     * @return true if the download exists and has to be updated instead of inserted.
+     * */
+    private fun prepareDownloadInfoForEnqueue(downloadInfo: DownloadInfo, existing: DownloadInfo?,
+                                              enqueueChanges: EnqueueChanges): Boolean {
+        var existingDownload = existing
         if (existingDownload == null) {
             if (downloadInfo.enqueueAction != EnqueueAction.INCREMENT_FILE_NAME) {
                 if (createFileOnEnqueue) {
@@ -128,23 +194,13 @@ class FetchHandlerImpl(private val namespace: String,
                 }
             }
         } else {
-            cancelDownloadsIfDownloading(listOf(existingDownload))
-            existingDownload = fetchDatabaseManagerWrapper.getByFile(downloadInfo.file)
-            if (existingDownload != null && existingDownload.status == Status.DOWNLOADING) {
+            if (existingDownload.status == Status.DOWNLOADING) {
                 existingDownload.status = Status.QUEUED
-                try {
-                    fetchDatabaseManagerWrapper.update(existingDownload)
-                } catch (e: Exception) {
-                    logger.e(e.message ?: "", e)
-                }
-            } else if (existingDownload?.status == Status.COMPLETED
+                enqueueChanges.updatedList.add(existingDownload)
+            } else if (existingDownload.status == Status.COMPLETED
                     && downloadInfo.enqueueAction == EnqueueAction.UPDATE_ACCORDINGLY) {
                 if (!storageResolver.fileExists(existingDownload.file)) {
-                    try {
-                        fetchDatabaseManagerWrapper.delete(existingDownload)
-                    } catch (e: Exception) {
-                        logger.e(e.message ?: "", e)
-                    }
+                    enqueueChanges.deletedList.add(existingDownload)
                     existingDownload = null
                     if (downloadInfo.enqueueAction != EnqueueAction.INCREMENT_FILE_NAME) {
                         if (createFileOnEnqueue) {
@@ -188,9 +244,9 @@ class FetchHandlerImpl(private val namespace: String,
             }
             EnqueueAction.REPLACE_EXISTING -> {
                 if (existingDownload != null) {
-                    deleteDownloads(listOf(existingDownload))
+                    deleteDownloadForEnqueue(existingDownload, enqueueChanges)
                 }
-                deleteDownloads(listOf(downloadInfo))
+                deleteDownloadForEnqueue(downloadInfo.toDownloadInfo(fetchDatabaseManagerWrapper.getNewDownloadInfoInstance()), enqueueChanges)
                 return false
             }
             EnqueueAction.INCREMENT_FILE_NAME -> {
@@ -204,6 +260,21 @@ class FetchHandlerImpl(private val namespace: String,
         }
     }
 
+    /** Same as deleteDownloads but the database delete is added to the enqueue changes.*/
+    private fun deleteDownloadForEnqueue(downloadInfo: DownloadInfo, enqueueChanges: EnqueueChanges) {
+        enqueueChanges.deletedList.add(downloadInfo)
+        downloadInfo.status = Status.DELETED
+        storageResolver.deleteFile(downloadInfo.file)
+        fetchDatabaseManagerWrapper.delegate?.deleteTempFilesForDownload(downloadInfo)
+    }
+
+    /** Database changes collected while preparing one request for enqueue.*/
+    private class EnqueueChanges(val index: Int) {
+        val updatedList = mutableListOf<DownloadInfo>()
+        val deletedList = mutableListOf<DownloadInfo>()
+        val insertedList = mutableListOf<DownloadInfo>()
+    }
+
     override fun enqueueCompletedDownload(completedDownload: CompletedDownload): Download {
         return enqueueCompletedDownloads(listOf(completedDownload)).first()
     }
@@ -519,11 +590,54 @@ class FetchHandlerImpl(private val namespace: String,
         return fetchDatabaseManagerWrapper.getDownloadsByTag(tag)
     }
 
+    override fun getDownloadsPage(cursor: String?, pageSize: Int): DownloadPage {
+        val position = getDownloadPageCursorPosition(cursor)
+        return getDownloadPage(fetchDatabaseManagerWrapper.getPage(position.first, position.second, pageSize + 1), pageSize)
+    }
+
+    override fun getDownloadsWithStatusPage(statuses: List<Status>, cursor: String?, pageSize: Int): DownloadPage {
+        val position = getDownloadPageCursorPosition(cursor)
+        return getDownloadPage(fetchDatabaseManagerWrapper.getPageByStatus(statuses, position.first, position.second, pageSize + 1), pageSize)
+    }
+
+    override fun getDownloadsInGroupPage(groupId: Int, cursor: String?, pageSize: Int): DownloadPage {
+        val position = getDownloadPageCursorPosition(cursor)
+        return getDownloadPage(fetchDatabaseManagerWrapper.getPageByGroup(groupId, position.first, position.second, pageSize + 1), pageSize)
+    }
+
+    override fun getDownloadSummaries(): List<DownloadSummary> {
+        return fetchDatabaseManagerWrapper.getSummaries()
+    }
+
+    override fun getDownloadSummaries(idList: List<Int>): List<DownloadSummary> {
+        return fetchDatabaseManagerWrapper.getSummaries(idList)
+    }
+
+    override fun getDownloadSummariesWithStatus(statuses: List<Status>): List<DownloadSummary> {
+        return fetchDatabaseManagerWrapper.getSummariesByStatus(statuses)
+    }
+
+    override fun getDownloadSummariesInGroup(groupId: Int): List<DownloadSummary> {
+        return fetchDatabaseManagerWrapper.getSummariesByGroup(groupId)
+    }
+
+    /** Downloads are queried with one extra row to find out if there is a next page.*/
+    private fun getDownloadPage(downloads: List<Download>, pageSize: Int): DownloadPage {
+        return if (downloads.size > pageSize) {
+            val pageDownloads = downloads.take(pageSize)
+            DownloadPage(pageDownloads, getDownloadPageCursor(pageDownloads.last()))
+        } else {
+            DownloadPage(downloads, null)
+        }
+    }
+
     override fun getDownloadBlocks(id: Int): List<DownloadBlock> {
         val download = fetchDatabaseManagerWrapper.get(id)
         return if (download != null) {
             val fileTempDir = downloadManager.getDownloadFileTempDir(download)
-            val fileSliceInfo = getFileSliceInfo(getPreviousSliceCount(download.id, fileTempDir), download.total)
+            val savedFileSlices = FileSliceCheckpoint.readSavedSlices(download.id, fileTempDir)
+            val previousSliceCount = if (savedFileSlices.isEmpty()) -1 else savedFileSlices.size
+            val fileSliceInfo = getFileSliceInfo(previousSliceCount, download.total)
             when {
                 download.total < 1 -> listOf()
                 fileSliceInfo.slicingCount < 2 -> {
@@ -546,12 +660,18 @@ class FetchHandlerImpl(private val namespace: String,
                             counterBytes + fileSliceInfo.bytesPerFileSlice
                         }
                         counterBytes = endBytes
+                        val savedFileSlice = savedFileSlices.getOrNull(position - 1)
                         val downloadBlockInfo = DownloadBlockInfo()
                         downloadBlockInfo.downloadId = download.id
                         downloadBlockInfo.blockPosition = position
-                        downloadBlockInfo.startByte = startBytes
-                        downloadBlockInfo.endByte = endBytes
-                        downloadBlockInfo.downloadedBytes = getSavedDownloadedInfo(download.id, position, fileTempDir)
+                        if (savedFileSlice != null && savedFileSlice.startBytes > -1) {
+                            downloadBlockInfo.startByte = savedFileSlice.startBytes
+                            downloadBlockInfo.endByte = savedFileSlice.endBytes
+                        } else {
+                            downloadBlockInfo.startByte = startBytes
+                            downloadBlockInfo.endByte = endBytes
+                        }
+                        downloadBlockInfo.downloadedBytes = savedFileSlice?.downloaded ?: 0L
                         downloadBlocksList.add(downloadBlockInfo)
                     }
                     downloadBlocksList
@@ -679,15 +799,16 @@ class FetchHandlerImpl(private val namespace: String,
         logger.enabled = enabled
     }
 
-    override fun addListener(listener: FetchListener, notify: Boolean, autoStart: Boolean) {
+    override fun addListener(listener: FetchListener, notify: Boolean, autoStart: Boolean, deliveryTarget: DeliveryTarget) {
         synchronized(listenerSet) {
             listenerSet.add(listener)
         }
-        listenerCoordinator.addListener(listenerId, listener)
+        listenerCoordinator.addListener(listenerId, listener, deliveryTarget)
         if (notify) {
             val downloads = fetchDatabaseManagerWrapper.get()
+            val executor = deliveryTarget.executor
             downloads.forEach {
-                uiHandler.post {
+                val callback = Runnable {
                     when (it.status) {
                         Status.COMPLETED -> {
                             listener.onCompleted(it)
@@ -719,6 +840,11 @@ class FetchHandlerImpl(private val namespace: String,
                         }
                     }
                 }
+                if (executor != null) {
+                    executor.execute(callback)
+                } else {
+                    uiHandler.post(callback)
+                }
             }
         }
         logger.d("Added listener $listener")
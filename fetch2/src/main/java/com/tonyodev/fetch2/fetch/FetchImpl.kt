@@ -12,7 +12,9 @@ import com.tonyodev.fetch2.util.ActiveDownloadInfo
 import com.tonyodev.fetch2.util.DEFAULT_ENABLE_LISTENER_AUTOSTART_ON_ATTACHED
 import com.tonyodev.fetch2.util.DEFAULT_ENABLE_LISTENER_NOTIFY_ON_ATTACHED
 import com.tonyodev.fetch2.util.toDownloadInfo
+import com.tonyodev.fetch2.util.getDownloadPageCursorPosition
 import com.tonyodev.fetch2core.*
+import java.util.concurrent.Executor
 
 open class FetchImpl(override val namespace: String,
                      final override val fetchConfiguration: FetchConfiguration,
@@ -32,6 +34,10 @@ open class FetchImpl(override val namespace: String,
                 return closed
             }
         }
+    /** Results and errors are delivered on the configured callback executor, or on the main thread.*/
+    private val callbackExecutor = fetchConfiguration.callbackExecutor ?: Executor { uiHandler.post(it) }
+    private val defaultDeliveryTarget = fetchConfiguration.callbackExecutor?.let { DeliveryTarget.executor(it) }
+            ?: DeliveryTarget.MAIN_THREAD
     private val activeDownloadsSet = mutableSetOf<ActiveDownloadInfo>()
     private val activeDownloadsRunnable = Runnable {
         if (!isClosed) {
@@ -71,18 +77,12 @@ open class FetchImpl(override val namespace: String,
             if (result.isNotEmpty()) {
                 val enqueuedPair = result.first()
                 if (enqueuedPair.second != Error.NONE) {
-                    uiHandler.post {
-                        func2?.call(enqueuedPair.second)
-                    }
+                    func2?.call(enqueuedPair.second)
                 } else {
-                    uiHandler.post {
-                        func?.call(enqueuedPair.first)
-                    }
+                    func?.call(enqueuedPair.first)
                 }
             } else {
-                uiHandler.post {
-                    func2?.call(Error.ENQUEUE_NOT_SUCCESSFUL)
-                }
+                func2?.call(Error.ENQUEUE_NOT_SUCCESSFUL)
             }
         }, func2)
         return this
@@ -99,7 +99,7 @@ open class FetchImpl(override val namespace: String,
             handlerWrapper.post {
                 try {
                     val enqueueBatch = fetchHandler.enqueueBatch(requests)
-                    uiHandler.post {
+                    callbackExecutor.execute {
                         func?.call(enqueueBatch)
                     }
                 } catch (e: Exception) {
@@ -145,7 +145,7 @@ open class FetchImpl(override val namespace: String,
                             }
                         }
                     }
-                    uiHandler.post {
+                    callbackExecutor.execute {
                         func?.call(downloadPairs.map { Pair(it.first.request, it.second) })
                     }
                 } catch (e: Exception) {
@@ -153,7 +153,7 @@ open class FetchImpl(override val namespace: String,
                     val error = getErrorFromMessage(e.message)
                     error.throwable = e
                     if (func2 != null) {
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             func2.call(error)
                         }
                     }
@@ -208,7 +208,7 @@ open class FetchImpl(override val namespace: String,
                         logger.d("Paused download $it")
                         listenerCoordinator.mainListener.onPaused(it)
                     }
-                    uiHandler.post {
+                    callbackExecutor.execute {
                         func?.call(downloads)
                     }
                 } catch (e: Exception) {
@@ -216,7 +216,7 @@ open class FetchImpl(override val namespace: String,
                     val error = getErrorFromMessage(e.message)
                     error.throwable = e
                     if (func2 != null) {
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             func2.call(error)
                         }
                     }
@@ -256,7 +256,7 @@ open class FetchImpl(override val namespace: String,
                 try {
                     fetchHandler.freeze()
                     if (func != null) {
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             func.call(true)
                         }
                     }
@@ -265,7 +265,7 @@ open class FetchImpl(override val namespace: String,
                     val error = getErrorFromMessage(e.message)
                     error.throwable = e
                     if (func2 != null) {
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             func2.call(error)
                         }
                     }
@@ -286,7 +286,7 @@ open class FetchImpl(override val namespace: String,
                 try {
                     fetchHandler.unfreeze()
                     if (func != null) {
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             func.call(true)
                         }
                     }
@@ -295,7 +295,7 @@ open class FetchImpl(override val namespace: String,
                     val error = getErrorFromMessage(e.message)
                     error.throwable = e
                     if (func2 != null) {
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             func2.call(error)
                         }
                     }
@@ -361,7 +361,7 @@ open class FetchImpl(override val namespace: String,
                         logger.d("Resumed download $it")
                         listenerCoordinator.mainListener.onResumed(it)
                     }
-                    uiHandler.post {
+                    callbackExecutor.execute {
                         func?.call(downloads)
                     }
                 } catch (e: Exception) {
@@ -369,7 +369,7 @@ open class FetchImpl(override val namespace: String,
                     val error = getErrorFromMessage(e.message)
                     error.throwable = e
                     if (func2 != null) {
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             func2.call(error)
                         }
                     }
@@ -464,7 +464,7 @@ open class FetchImpl(override val namespace: String,
                         logger.d("Removed download $it")
                         listenerCoordinator.mainListener.onRemoved(it)
                     }
-                    uiHandler.post {
+                    callbackExecutor.execute {
                         func?.call(downloads)
                     }
                 } catch (e: Exception) {
@@ -472,7 +472,7 @@ open class FetchImpl(override val namespace: String,
                     val error = getErrorFromMessage(e.message)
                     error.throwable = e
                     if (func2 != null) {
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             func2.call(error)
                         }
                     }
@@ -546,7 +546,7 @@ open class FetchImpl(override val namespace: String,
                         logger.d("Deleted download $it")
                         listenerCoordinator.mainListener.onDeleted(it)
                     }
-                    uiHandler.post {
+                    callbackExecutor.execute {
                         func?.call(downloads)
                     }
                 } catch (e: Exception) {
@@ -554,7 +554,7 @@ open class FetchImpl(override val namespace: String,
                     val error = getErrorFromMessage(e.message)
                     error.throwable = e
                     if (func2 != null) {
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             func2.call(error)
                         }
                     }
@@ -612,7 +612,7 @@ open class FetchImpl(override val namespace: String,
                         logger.d("Cancelled download $it")
                         listenerCoordinator.mainListener.onCancelled(it)
                     }
-                    uiHandler.post {
+                    callbackExecutor.execute {
                         func?.call(downloads)
                     }
                 } catch (e: Exception) {
@@ -620,7 +620,7 @@ open class FetchImpl(override val namespace: String,
                     val error = getErrorFromMessage(e.message)
                     error.throwable = e
                     if (func2 != null) {
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             func2.call(error)
                         }
                     }
@@ -640,7 +640,7 @@ open class FetchImpl(override val namespace: String,
                         logger.d("Queued $it for download")
                         listenerCoordinator.mainListener.onQueued(it, false)
                     }
-                    uiHandler.post {
+                    callbackExecutor.execute {
                         func?.call(downloads)
                     }
                 } catch (e: Exception) {
@@ -648,7 +648,7 @@ open class FetchImpl(override val namespace: String,
                     val error = getErrorFromMessage(e.message)
                     error.throwable = e
                     if (func2 != null) {
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             func2.call(error)
                         }
                     }
@@ -668,7 +668,7 @@ open class FetchImpl(override val namespace: String,
                         logger.d("Queued $download for download")
                         listenerCoordinator.mainListener.onQueued(download, false)
                     }
-                    uiHandler.post {
+                    callbackExecutor.execute {
                         func?.call(download)
                     }
                 } catch (e: Exception) {
@@ -676,7 +676,7 @@ open class FetchImpl(override val namespace: String,
                     val error = getErrorFromMessage(e.message)
                     error.throwable = e
                     if (func2 != null) {
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             func2.call(error)
                         }
                     }
@@ -751,7 +751,7 @@ open class FetchImpl(override val namespace: String,
                             }
                         }
                     }
-                    uiHandler.post {
+                    callbackExecutor.execute {
                         func?.call(download)
                     }
                 } catch (e: Exception) {
@@ -759,7 +759,7 @@ open class FetchImpl(override val namespace: String,
                     val error = getErrorFromMessage(e.message)
                     error.throwable = e
                     if (func2 != null) {
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             func2.call(error)
                         }
                     }
@@ -776,7 +776,7 @@ open class FetchImpl(override val namespace: String,
                 try {
                     val download = fetchHandler.renameCompletedDownloadFile(id, newFileName)
                     if (func != null) {
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             func.call(download)
                         }
                     }
@@ -785,7 +785,7 @@ open class FetchImpl(override val namespace: String,
                     val error = getErrorFromMessage(e.message)
                     error.throwable = e
                     if (func2 != null) {
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             func2.call(error)
                         }
                     }
@@ -802,7 +802,7 @@ open class FetchImpl(override val namespace: String,
                 try {
                     val download = fetchHandler.replaceExtras(id, extras)
                     if (func != null) {
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             func.call(download)
                         }
                     }
@@ -811,7 +811,7 @@ open class FetchImpl(override val namespace: String,
                     val error = getErrorFromMessage(e.message)
                     error.throwable = e
                     if (func2 != null) {
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             func2.call(error)
                         }
                     }
@@ -826,7 +826,7 @@ open class FetchImpl(override val namespace: String,
             throwExceptionIfClosed()
             handlerWrapper.post {
                 val downloads = fetchHandler.getDownloads()
-                uiHandler.post {
+                callbackExecutor.execute {
                     func.call(downloads)
                 }
             }
@@ -839,7 +839,7 @@ open class FetchImpl(override val namespace: String,
             throwExceptionIfClosed()
             handlerWrapper.post {
                 val download = fetchHandler.getDownload(id)
-                uiHandler.post {
+                callbackExecutor.execute {
                     func2.call(download)
                 }
             }
@@ -852,7 +852,7 @@ open class FetchImpl(override val namespace: String,
             throwExceptionIfClosed()
             handlerWrapper.post {
                 val downloads = fetchHandler.getDownloads(idList)
-                uiHandler.post {
+                callbackExecutor.execute {
                     func.call(downloads)
                 }
             }
@@ -865,7 +865,7 @@ open class FetchImpl(override val namespace: String,
             throwExceptionIfClosed()
             handlerWrapper.post {
                 val downloads = fetchHandler.getDownloadsInGroup(groupId)
-                uiHandler.post {
+                callbackExecutor.execute {
                     func.call(downloads)
                 }
             }
@@ -878,7 +878,7 @@ open class FetchImpl(override val namespace: String,
             throwExceptionIfClosed()
             handlerWrapper.post {
                 val downloads = fetchHandler.getDownloadsWithStatus(status)
-                uiHandler.post {
+                callbackExecutor.execute {
                     func.call(downloads)
                 }
             }
@@ -891,7 +891,7 @@ open class FetchImpl(override val namespace: String,
             throwExceptionIfClosed()
             handlerWrapper.post {
                 val downloads = fetchHandler.getDownloadsInGroupWithStatus(groupId, statuses)
-                uiHandler.post {
+                callbackExecutor.execute {
                     func.call(downloads)
                 }
             }
@@ -904,7 +904,7 @@ open class FetchImpl(override val namespace: String,
             throwExceptionIfClosed()
             handlerWrapper.post {
                 val downloads = fetchHandler.getDownloadsByRequestIdentifier(identifier)
-                uiHandler.post {
+                callbackExecutor.execute {
                     func.call(downloads)
                 }
             }
@@ -917,7 +917,7 @@ open class FetchImpl(override val namespace: String,
             throwExceptionIfClosed()
             handlerWrapper.post {
                 val downloads = fetchHandler.getDownloadsWithStatus(statuses)
-                uiHandler.post {
+                callbackExecutor.execute {
                     func.call(downloads)
                 }
             }
@@ -930,7 +930,7 @@ open class FetchImpl(override val namespace: String,
             throwExceptionIfClosed()
             handlerWrapper.post {
                 val groupIdList = fetchHandler.getAllGroupIds()
-                uiHandler.post {
+                callbackExecutor.execute {
                     func.call(groupIdList)
                 }
             }
@@ -943,7 +943,7 @@ open class FetchImpl(override val namespace: String,
             throwExceptionIfClosed()
             handlerWrapper.post {
                 val downloads = fetchHandler.getDownloadsByTag(tag)
-                uiHandler.post {
+                callbackExecutor.execute {
                     func.call(downloads)
                 }
             }
@@ -951,6 +951,149 @@ open class FetchImpl(override val namespace: String,
         }
     }
 
+    override fun getDownloadSummaries(func: Func<List<DownloadSummary>>): Fetch {
+        return getDownloadSummaries(func) {
+            fetchHandler.getDownloadSummaries()
+        }
+    }
+
+    override fun getDownloadSummaries(idList: List<Int>, func: Func<List<DownloadSummary>>): Fetch {
+        return getDownloadSummaries(func) {
+            fetchHandler.getDownloadSummaries(idList)
+        }
+    }
+
+    override fun getDownloadSummariesWithStatus(statuses: List<Status>, func: Func<List<DownloadSummary>>): Fetch {
+        return getDownloadSummaries(func) {
+            fetchHandler.getDownloadSummariesWithStatus(statuses)
+        }
+    }
+
+    override fun getDownloadSummariesInGroup(groupId: Int, func: Func<List<DownloadSummary>>): Fetch {
+        return getDownloadSummaries(func) {
+            fetchHandler.getDownloadSummariesInGroup(groupId)
+        }
+    }
+
+    private fun getDownloadSummaries(func: Func<List<DownloadSummary>>, getSummaries: () -> List<DownloadSummary>): Fetch {
+        synchronized(lock) {
+            throwExceptionIfClosed()
+            handlerWrapper.post {
+                val summaries = getSummaries()
+                callbackExecutor.execute {
+                    func.call(summaries)
+                }
+            }
+            return this
+        }
+    }
+
+    override fun getDownloadsPage(pageSize: Int, cursor: String?, func: Func<DownloadPage>): Fetch {
+        return getDownloadPage(pageSize, cursor, func) {
+            fetchHandler.getDownloadsPage(cursor, pageSize)
+        }
+    }
+
+    override fun getDownloadsWithStatusPage(statuses: List<Status>, pageSize: Int, cursor: String?, func: Func<DownloadPage>): Fetch {
+        return getDownloadPage(pageSize, cursor, func) {
+            fetchHandler.getDownloadsWithStatusPage(statuses, cursor, pageSize)
+        }
+    }
+
+    override fun getDownloadsInGroupPage(groupId: Int, pageSize: Int, cursor: String?, func: Func<DownloadPage>): Fetch {
+        return getDownloadPage(pageSize, cursor, func) {
+            fetchHandler.getDownloadsInGroupPage(groupId, cursor, pageSize)
+        }
+    }
+
+    private fun getDownloadPage(pageSize: Int, cursor: String?, func: Func<DownloadPage>, getPage: () -> DownloadPage): Fetch {
+        synchronized(lock) {
+            throwExceptionIfClosed()
+            throwExceptionIfInvalidPageSize(pageSize)
+            getDownloadPageCursorPosition(cursor)
+            handlerWrapper.post {
+                val downloadPage = getPage()
+                callbackExecutor.execute {
+                    func.call(downloadPage)
+                }
+            }
+            return this
+        }
+    }
+
+    override fun streamDownloads(chunkSize: Int, func: Func<List<Download>>, func2: Func<Int>?): Fetch {
+        return streamDownloadPages(chunkSize, func, func2) { cursor ->
+            fetchHandler.getDownloadsPage(cursor, chunkSize)
+        }
+    }
+
+    override fun streamDownloadsWithStatus(statuses: List<Status>, chunkSize: Int, func: Func<List<Download>>, func2: Func<Int>?): Fetch {
+        return streamDownloadPages(chunkSize, func, func2) { cursor ->
+            fetchHandler.getDownloadsWithStatusPage(statuses, cursor, chunkSize)
+        }
+    }
+
+    override fun streamDownloadsInGroup(groupId: Int, chunkSize: Int, func: Func<List<Download>>, func2: Func<Int>?): Fetch {
+        return streamDownloadPages(chunkSize, func, func2) { cursor ->
+            fetchHandler.getDownloadsInGroupPage(groupId, cursor, chunkSize)
+        }
+    }
+
+    private fun streamDownloadPages(chunkSize: Int, func: Func<List<Download>>, func2: Func<Int>?, getPage: (String?) -> DownloadPage): Fetch {
+        synchronized(lock) {
+            throwExceptionIfClosed()
+            throwExceptionIfInvalidPageSize(chunkSize)
+            handlerWrapper.post {
+                streamNextDownloadPage(null, 0, func, func2, getPage)
+            }
+            return this
+        }
+    }
+
+    /** Queries one page and posts the query of the next page, so other work on the
+     * handler can run between the pages of a long stream. The next page is only queried once
+     * the callback returned for the current chunk, so at most one chunk is in flight.*/
+    private fun streamNextDownloadPage(cursor: String?, streamedCount: Int, func: Func<List<Download>>, func2: Func<Int>?,
+                                       getPage: (String?) -> DownloadPage) {
+        if (isClosed) {
+            return
+        }
+        val downloadPage = getPage(cursor)
+        val count = streamedCount + downloadPage.downloads.size
+        val nextCursor = downloadPage.nextCursor
+        if (downloadPage.downloads.isNotEmpty()) {
+            callbackExecutor.execute {
+                func.call(downloadPage.downloads)
+                continueDownloadStream(nextCursor, count, func, func2, getPage)
+            }
+        } else {
+            continueDownloadStream(nextCursor, count, func, func2, getPage)
+        }
+    }
+
+    private fun continueDownloadStream(nextCursor: String?, count: Int, func: Func<List<Download>>, func2: Func<Int>?,
+                                       getPage: (String?) -> DownloadPage) {
+        if (nextCursor != null) {
+            synchronized(lock) {
+                if (!isClosed) {
+                    handlerWrapper.post {
+                        streamNextDownloadPage(nextCursor, count, func, func2, getPage)
+                    }
+                }
+            }
+        } else if (func2 != null) {
+            callbackExecutor.execute {
+                func2.call(count)
+            }
+        }
+    }
+
+    private fun throwExceptionIfInvalidPageSize(pageSize: Int) {
+        if (pageSize < 1) {
+            throw FetchException("Page size cannot be less than 1")
+        }
+    }
+
     override fun addCompletedDownload(completedDownload: CompletedDownload, alertListeners: Boolean, func: Func<Download>?, func2: Func<Error>?): Fetch {
         return addCompletedDownloads(listOf(completedDownload), alertListeners, { downloads ->
             if (downloads.isNotEmpty()) {
@@ -973,7 +1116,7 @@ open class FetchImpl(override val namespace: String,
                             logger.d("Added CompletedDownload $it")
                         }
                     }
-                    uiHandler.post {
+                    callbackExecutor.execute {
                         func?.call(downloads)
                     }
                 } catch (e: Exception) {
@@ -981,7 +1124,7 @@ open class FetchImpl(override val namespace: String,
                     val error = getErrorFromMessage(e.message)
                     error.throwable = e
                     if (func2 != null) {
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             func2.call(error)
                         }
                     }
@@ -997,7 +1140,7 @@ open class FetchImpl(override val namespace: String,
             throwExceptionIfClosed()
             handlerWrapper.post {
                 val fetchGroup = fetchHandler.getFetchGroup(group)
-                uiHandler.post {
+                callbackExecutor.execute {
                     func.call(fetchGroup)
                 }
             }
@@ -1010,7 +1153,7 @@ open class FetchImpl(override val namespace: String,
             throwExceptionIfClosed()
             handlerWrapper.post {
                 val hasActiveDownloads = fetchHandler.hasActiveDownloads(includeAddedDownloads)
-                uiHandler.post {
+                callbackExecutor.execute {
                     func.call(hasActiveDownloads)
                 }
             }
@@ -1027,10 +1170,14 @@ open class FetchImpl(override val namespace: String,
     }
 
     override fun addListener(listener: FetchListener, notify: Boolean, autoStart: Boolean): Fetch {
+        return addListener(listener, notify, autoStart, defaultDeliveryTarget)
+    }
+
+    override fun addListener(listener: FetchListener, notify: Boolean, autoStart: Boolean, deliveryTarget: DeliveryTarget): Fetch {
         synchronized(lock) {
             throwExceptionIfClosed()
             handlerWrapper.post {
-                fetchHandler.addListener(listener, notify, autoStart)
+                fetchHandler.addListener(listener, notify, autoStart, deliveryTarget)
             }
             return this
         }
@@ -1078,7 +1225,7 @@ open class FetchImpl(override val namespace: String,
             throwExceptionIfClosed()
             handlerWrapper.post {
                 val downloadBlocksList = fetchHandler.getDownloadBlocks(downloadId)
-                uiHandler.post {
+                callbackExecutor.execute {
                     func.call(downloadBlocksList)
                 }
             }
@@ -1092,7 +1239,7 @@ open class FetchImpl(override val namespace: String,
             handlerWrapper.executeWorkerTask {
                 try {
                     val contentLength = fetchHandler.getContentLengthForRequest(request, fromServer)
-                    uiHandler.post {
+                    callbackExecutor.execute {
                         func.call(contentLength)
                     }
                 } catch (e: Exception) {
@@ -1100,7 +1247,7 @@ open class FetchImpl(override val namespace: String,
                     val error = getErrorFromMessage(e.message)
                     error.throwable = e
                     if (func2 != null) {
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             func2.call(error)
                         }
                     }
@@ -1126,10 +1273,10 @@ open class FetchImpl(override val namespace: String,
                         results2.add(Pair(request, error))
                     }
                 }
-                uiHandler.post {
+                callbackExecutor.execute {
                     func.call(results)
                 }
-                uiHandler.post {
+                callbackExecutor.execute {
                     func2.call(results2)
                 }
             }
@@ -1147,7 +1294,7 @@ open class FetchImpl(override val namespace: String,
             handlerWrapper.executeWorkerTask {
                 try {
                     val response = fetchHandler.getServerResponse(url, headers)
-                    uiHandler.post {
+                    callbackExecutor.execute {
                         func.call(response)
                     }
                 } catch (e: Exception) {
@@ -1155,7 +1302,7 @@ open class FetchImpl(override val namespace: String,
                     val error = getErrorFromMessage(e.message)
                     error.throwable = e
                     if (func2 != null) {
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             func2.call(error)
                         }
                     }
@@ -1171,7 +1318,7 @@ open class FetchImpl(override val namespace: String,
             handlerWrapper.executeWorkerTask {
                 try {
                     val fileResourceList = fetchHandler.getFetchFileServerCatalog(request)
-                    uiHandler.post {
+                    callbackExecutor.execute {
                         func.call(fileResourceList)
                     }
                 } catch (e: Exception) {
@@ -1179,7 +1326,7 @@ open class FetchImpl(override val namespace: String,
                     val error = getErrorFromMessage(e.message)
                     error.throwable = e
                     if (func2 != null) {
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             func2.call(error)
                         }
                     }
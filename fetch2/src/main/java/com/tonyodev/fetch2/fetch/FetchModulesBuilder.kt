@@ -36,7 +36,7 @@ object FetchModulesBuilder {
                 val newHandlerWrapper = HandlerWrapper(fetchConfiguration.namespace, fetchConfiguration.backgroundHandler)
                 val liveSettings = LiveSettings(fetchConfiguration.namespace)
                 val newDatabaseManager = fetchConfiguration.fetchDatabaseManager
-                        ?: FetchDatabaseManagerImpl(
+                        ?: CachedFetchDatabaseManager(FetchDatabaseManagerImpl(
                                 context = fetchConfiguration.appContext,
                                 namespace = fetchConfiguration.namespace,
                                 logger = fetchConfiguration.logger,
@@ -44,12 +44,15 @@ object FetchModulesBuilder {
                                 liveSettings = liveSettings,
                                 fileExistChecksEnabled = fetchConfiguration.fileExistChecksEnabled,
                                 defaultStorageResolver = DefaultStorageResolver(fetchConfiguration.appContext,
-                                        getFileTempDir(fetchConfiguration.appContext)))
-                val databaseManagerWrapper = FetchDatabaseManagerWrapper(newDatabaseManager)
+                                        getFileTempDir(fetchConfiguration.appContext))))
+                val databaseManagerWrapper = FetchDatabaseManagerWrapper(newDatabaseManager, newHandlerWrapper,
+                        fetchConfiguration.progressReportingIntervalMillis,
+                        fetchConfiguration.fetchDatabaseManager == null)
                 val downloadProvider = DownloadProvider(databaseManagerWrapper)
                 val downloadManagerCoordinator = DownloadManagerCoordinator(fetchConfiguration.namespace)
                 val groupInfoProvider = GroupInfoProvider(fetchConfiguration.namespace, downloadProvider)
-                val listenerCoordinator = ListenerCoordinator(fetchConfiguration.namespace, groupInfoProvider, downloadProvider, mainUIHandler)
+                val listenerCoordinator = ListenerCoordinator(fetchConfiguration.namespace, groupInfoProvider, downloadProvider, mainUIHandler,
+                        fetchConfiguration.progressDeliveryIntervalMillis)
                 val newModules = Modules(fetchConfiguration, newHandlerWrapper, databaseManagerWrapper, downloadProvider, groupInfoProvider, mainUIHandler,
                         downloadManagerCoordinator, listenerCoordinator)
                 holderMap[fetchConfiguration.namespace] = Holder(newHandlerWrapper, databaseManagerWrapper, downloadProvider, groupInfoProvider, mainUIHandler,
@@ -121,7 +124,8 @@ object FetchModulesBuilder {
                     namespace = fetchConfiguration.namespace,
                     groupInfoProvider = groupInfoProvider,
                     globalAutoRetryMaxAttempts = fetchConfiguration.maxAutoRetryAttempts,
-                    preAllocateFileOnCreation = fetchConfiguration.preAllocateFileOnCreation)
+                    preAllocateFileOnCreation = fetchConfiguration.preAllocateFileOnCreation,
+                    maxConcurrentSlices = fetchConfiguration.maxConcurrentSlices)
             priorityListProcessor = PriorityListProcessorImpl(
                     handlerWrapper = handlerWrapper,
                     downloadProvider = downloadProvider,
@@ -5,711 +5,491 @@ import android.os.HandlerThread
 import com.tonyodev.fetch2.*
 import com.tonyodev.fetch2.provider.DownloadProvider
 import com.tonyodev.fetch2.provider.GroupInfoProvider
+import com.tonyodev.fetch2.util.DEFAULT_PROGRESS_DELIVERY_INTERVAL_IN_MILLISECONDS
 import com.tonyodev.fetch2core.DownloadBlock
 import com.tonyodev.fetch2core.FetchObserver
 import com.tonyodev.fetch2core.Reason
 import java.lang.ref.WeakReference
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.RejectedExecutionException
 
-class ListenerCoordinator(val namespace: String,
-                          private val groupInfoProvider: GroupInfoProvider,
-                          private val downloadProvider: DownloadProvider,
-                          private val uiHandler: Handler) {
+/**
+ * Delivers download events to the attached listeners, observers and notification managers.
+ * Listeners are kept in copy on write lists, so events iterate them without taking a lock and
+ * a slow listener or a listener being attached never holds up the download threads.
+ * */
+class ListenerCoordinator @JvmOverloads constructor(val namespace: String,
+                                                    private val groupInfoProvider: GroupInfoProvider,
+                                                    private val downloadProvider: DownloadProvider,
+                                                    private val uiHandler: Handler,
+                                                    private val progressDeliveryIntervalMillis: Long = DEFAULT_PROGRESS_DELIVERY_INTERVAL_IN_MILLISECONDS) {
 
-    private val lock = Any()
-    private val fetchListenerMap = mutableMapOf<Int, MutableSet<WeakReference<FetchListener>>>()
-    private val fetchGroupListenerMap = mutableMapOf<Int, MutableSet<WeakReference<FetchGroupListener>>>()
-    private val fetchNotificationManagerList = mutableListOf<FetchNotificationManager>()
+    private val fetchListeners = CopyOnWriteArrayList<ListenerRegistration>()
+    private val fetchGroupListeners = CopyOnWriteArrayList<ListenerRegistration>()
+    private val fetchNotificationManagerList = CopyOnWriteArrayList<FetchNotificationManager>()
     private val fetchNotificationHandler = run {
         val handlerThread = HandlerThread("FetchNotificationsIO")
         handlerThread.start()
         Handler(handlerThread.looper)
     }
-    private val downloadsObserverMap = mutableMapOf<Int, MutableList<WeakReference<FetchObserver<Download>>>>()
+    private val observerLock = Any()
+    private val downloadsObserverMap = ConcurrentHashMap<Int, CopyOnWriteArrayList<WeakReference<FetchObserver<Download>>>>()
+    /** Progress is conflated per download. Only the latest progress of each download waits for delivery.*/
+    private val progressLock = Any()
+    private val pendingProgressUpdates = LinkedHashMap<Int, DownloadProgressUpdate>()
+    /** Bumped for a download whenever its pending progress is dropped. Progress taken before is
+     * not delivered, even if it was already handed to a delivery target.*/
+    private val progressGenerations = HashMap<Int, Int>()
+    private var progressDeliveryScheduled = false
+    private var lastProgressDeliveryMillis = 0L
+    private val progressDeliveryRunnable = Runnable {
+        deliverProgressUpdates()
+    }
 
-    fun addListener(id: Int, fetchListener: FetchListener) {
-        synchronized(lock) {
-            val set = fetchListenerMap[id] ?: mutableSetOf()
-            set.add(WeakReference(fetchListener))
-            fetchListenerMap[id] = set
-            if (fetchListener is FetchGroupListener) {
-                val groupSet = fetchGroupListenerMap[id] ?: mutableSetOf()
-                groupSet.add(WeakReference(fetchListener))
-                fetchGroupListenerMap[id] = groupSet
-            }
+    @JvmOverloads
+    fun addListener(id: Int, fetchListener: FetchListener, deliveryTarget: DeliveryTarget = DeliveryTarget.MAIN_THREAD) {
+        val registration = ListenerRegistration(id, fetchListener, deliveryTarget)
+        fetchListeners.add(registration)
+        if (fetchListener is FetchGroupListener) {
+            fetchGroupListeners.add(registration)
         }
     }
 
     fun removeListener(id: Int, fetchListener: FetchListener) {
-        synchronized(lock) {
-            val iterator = fetchListenerMap[id]?.iterator()
-            if (iterator != null) {
-                while (iterator.hasNext()) {
-                    val reference = iterator.next()
-                    if (reference.get() == fetchListener) {
-                        iterator.remove()
-                        break
-                    }
-                }
-            }
-            if (fetchListener is FetchGroupListener) {
-                val groupIterator = fetchGroupListenerMap[id]?.iterator()
-                if (groupIterator != null) {
-                    while (groupIterator.hasNext()) {
-                        val reference = groupIterator.next()
-                        if (reference.get() == fetchListener) {
-                            groupIterator.remove()
-                            break
-                        }
-                    }
-                }
-            }
+        val registration = fetchListeners.firstOrNull { it.id == id && it.fetchListener == fetchListener }
+        if (registration != null) {
+            fetchListeners.remove(registration)
+            fetchGroupListeners.remove(registration)
         }
     }
 
     fun addNotificationManager(fetchNotificationManager: FetchNotificationManager) {
-        synchronized(lock) {
-            if (!fetchNotificationManagerList.contains(fetchNotificationManager)) {
-                fetchNotificationManagerList.add(fetchNotificationManager)
-            }
-        }
+        fetchNotificationManagerList.addIfAbsent(fetchNotificationManager)
     }
 
     fun removeNotificationManager(fetchNotificationManager: FetchNotificationManager) {
-        synchronized(lock) {
-            fetchNotificationManagerList.remove(fetchNotificationManager)
-        }
+        fetchNotificationManagerList.remove(fetchNotificationManager)
     }
 
     fun cancelOnGoingNotifications(fetchNotificationManager: FetchNotificationManager) {
-        synchronized(lock) {
-            fetchNotificationHandler.post {
-                synchronized(lock) {
-                    fetchNotificationManager.cancelOngoingNotifications()
-                }
-            }
+        fetchNotificationHandler.post {
+            fetchNotificationManager.cancelOngoingNotifications()
         }
     }
 
     val mainListener: FetchListener = object : FetchListener {
 
         override fun onAdded(download: Download) {
-            synchronized(lock) {
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onAdded(download)
-                            }
-                        }
-                    }
+            removePendingProgressUpdate(download.id)
+            forEachFetchListener { registration, fetchListener ->
+                registration.deliver(true) {
+                    fetchListener.onAdded(download)
                 }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_ADDED)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                uiHandler.post {
-                                    fetchListener.onAdded(groupId, download, fetchGroup)
-                                }
-                            }
-                        }
-                    }
-                } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_ADDED)
-                }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_ADDED)
-                        }
+            }
+            if (fetchGroupListeners.isNotEmpty()) {
+                val groupId = download.group
+                val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_ADDED)
+                forEachFetchGroupListener { registration, fetchListener ->
+                    registration.deliver(true) {
+                        fetchListener.onAdded(groupId, download, fetchGroup)
                     }
                 }
+            } else {
+                groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_ADDED)
             }
+            notifyDownloadObservers(download, Reason.DOWNLOAD_ADDED)
         }
 
         override fun onQueued(download: Download, waitingOnNetwork: Boolean) {
-            synchronized(lock) {
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onQueued(download, waitingOnNetwork)
-                            }
-                        }
-                    }
+            removePendingProgressUpdate(download.id)
+            forEachFetchListener { registration, fetchListener ->
+                registration.deliver(true) {
+                    fetchListener.onQueued(download, waitingOnNetwork)
                 }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_QUEUED)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onQueued(groupId, download, waitingOnNetwork, fetchGroup)
-                            }
-                        }
-                    }
-                } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_QUEUED)
-                }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_QUEUED)
-                        }
+            }
+            if (fetchGroupListeners.isNotEmpty()) {
+                val groupId = download.group
+                val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_QUEUED)
+                forEachFetchGroupListener { registration, fetchListener ->
+                    registration.deliver(false) {
+                        fetchListener.onQueued(groupId, download, waitingOnNetwork, fetchGroup)
                     }
                 }
+            } else {
+                groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_QUEUED)
             }
+            notifyDownloadObservers(download, Reason.DOWNLOAD_QUEUED)
         }
 
         override fun onWaitingNetwork(download: Download) {
-            synchronized(lock) {
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onWaitingNetwork(download)
-                            }
-                        }
-                    }
+            removePendingProgressUpdate(download.id)
+            forEachFetchListener { registration, fetchListener ->
+                registration.deliver(true) {
+                    fetchListener.onWaitingNetwork(download)
                 }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_WAITING_ON_NETWORK)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onWaitingNetwork(groupId, download, fetchGroup)
-                            }
-                        }
-                    }
-                } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_WAITING_ON_NETWORK)
-                }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_WAITING_ON_NETWORK)
-                        }
+            }
+            if (fetchGroupListeners.isNotEmpty()) {
+                val groupId = download.group
+                val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_WAITING_ON_NETWORK)
+                forEachFetchGroupListener { registration, fetchListener ->
+                    registration.deliver(false) {
+                        fetchListener.onWaitingNetwork(groupId, download, fetchGroup)
                     }
                 }
+            } else {
+                groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_WAITING_ON_NETWORK)
             }
+            notifyDownloadObservers(download, Reason.DOWNLOAD_WAITING_ON_NETWORK)
         }
 
         override fun onCompleted(download: Download) {
-            synchronized(lock) {
-                fetchNotificationHandler.post {
-                    synchronized(lock) {
-                        for (fetchNotificationManager in fetchNotificationManagerList) {
-                            if (fetchNotificationManager.postDownloadUpdate(download)) break
-                        }
-                    }
-                }
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onCompleted(download)
-                            }
-                        }
-                    }
+            removePendingProgressUpdate(download.id)
+            postNotificationUpdate(download)
+            forEachFetchListener { registration, fetchListener ->
+                registration.deliver(true) {
+                    fetchListener.onCompleted(download)
                 }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_COMPLETED)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onCompleted(groupId, download, fetchGroup)
-                            }
-                        }
-                    }
-                } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_COMPLETED)
-                }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_COMPLETED)
-                        }
+            }
+            if (fetchGroupListeners.isNotEmpty()) {
+                val groupId = download.group
+                val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_COMPLETED)
+                forEachFetchGroupListener { registration, fetchListener ->
+                    registration.deliver(false) {
+                        fetchListener.onCompleted(groupId, download, fetchGroup)
                     }
                 }
+            } else {
+                groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_COMPLETED)
             }
+            notifyDownloadObservers(download, Reason.DOWNLOAD_COMPLETED)
         }
 
         override fun onError(download: Download, error: Error, throwable: Throwable?) {
-            synchronized(lock) {
-                fetchNotificationHandler.post {
-                    synchronized(lock) {
-                        for (fetchNotificationManager in fetchNotificationManagerList) {
-                            if (fetchNotificationManager.postDownloadUpdate(download)) break
-                        }
-                    }
-                }
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onError(download, error, throwable)
-                            }
-                        }
-                    }
+            removePendingProgressUpdate(download.id)
+            postNotificationUpdate(download)
+            forEachFetchListener { registration, fetchListener ->
+                registration.deliver(true) {
+                    fetchListener.onError(download, error, throwable)
                 }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_ERROR)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onError(groupId, download, error, throwable, fetchGroup)
-                            }
-                        }
-                    }
-                } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_ERROR)
-                }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_ERROR)
-                        }
+            }
+            if (fetchGroupListeners.isNotEmpty()) {
+                val groupId = download.group
+                val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_ERROR)
+                forEachFetchGroupListener { registration, fetchListener ->
+                    registration.deliver(false) {
+                        fetchListener.onError(groupId, download, error, throwable, fetchGroup)
                     }
                 }
+            } else {
+                groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_ERROR)
             }
+            notifyDownloadObservers(download, Reason.DOWNLOAD_ERROR)
         }
 
         override fun onDownloadBlockUpdated(download: Download, downloadBlock: DownloadBlock, totalBlocks: Int) {
-            synchronized(lock) {
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            fetchListener.onDownloadBlockUpdated(download, downloadBlock, totalBlocks)
-                        }
-                    }
+            forEachFetchListener { registration, fetchListener ->
+                registration.deliver(false) {
+                    fetchListener.onDownloadBlockUpdated(download, downloadBlock, totalBlocks)
                 }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_BLOCK_UPDATED)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onDownloadBlockUpdated(groupId, download, downloadBlock, totalBlocks, fetchGroup)
-                            }
-                        }
+            }
+            if (fetchGroupListeners.isNotEmpty()) {
+                val groupId = download.group
+                val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_BLOCK_UPDATED)
+                forEachFetchGroupListener { registration, fetchListener ->
+                    registration.deliver(false) {
+                        fetchListener.onDownloadBlockUpdated(groupId, download, downloadBlock, totalBlocks, fetchGroup)
                     }
                 }
             }
         }
 
         override fun onStarted(download: Download, downloadBlocks: List<DownloadBlock>, totalBlocks: Int) {
-            synchronized(lock) {
-                fetchNotificationHandler.post {
-                    synchronized(lock) {
-                        for (fetchNotificationManager in fetchNotificationManagerList) {
-                            if (fetchNotificationManager.postDownloadUpdate(download)) break
-                        }
-                    }
+            removePendingProgressUpdate(download.id)
+            postNotificationUpdate(download)
+            forEachFetchListener { registration, fetchListener ->
+                registration.deliver(true) {
+                    fetchListener.onStarted(download, downloadBlocks, totalBlocks)
                 }
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onStarted(download, downloadBlocks, totalBlocks)
-                            }
-                        }
-                    }
-                }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_STARTED)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onStarted(groupId, download, downloadBlocks, totalBlocks, fetchGroup)
-                            }
-                        }
-                    }
-                } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_STARTED)
-                }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_STARTED)
-                        }
+            }
+            if (fetchGroupListeners.isNotEmpty()) {
+                val groupId = download.group
+                val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_STARTED)
+                forEachFetchGroupListener { registration, fetchListener ->
+                    registration.deliver(false) {
+                        fetchListener.onStarted(groupId, download, downloadBlocks, totalBlocks, fetchGroup)
                     }
                 }
+            } else {
+                groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_STARTED)
             }
+            notifyDownloadObservers(download, Reason.DOWNLOAD_STARTED)
         }
 
         override fun onProgress(download: Download, etaInMilliSeconds: Long, downloadedBytesPerSecond: Long) {
-            synchronized(lock) {
-                fetchNotificationHandler.post {
-                    synchronized(lock) {
-                        for (fetchNotificationManager in fetchNotificationManagerList) {
-                            if (fetchNotificationManager.postDownloadUpdate(download)) break
-                        }
-                    }
-                }
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onProgress(download, etaInMilliSeconds, downloadedBytesPerSecond)
-                            }
-                        }
-                    }
-                }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_PROGRESS_CHANGED)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onProgress(groupId, download, etaInMilliSeconds, downloadedBytesPerSecond, fetchGroup)
-                            }
-                        }
-                    }
-                } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_PROGRESS_CHANGED)
-                }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_PROGRESS_CHANGED)
-                        }
+            if (fetchGroupListeners.isNotEmpty()) {
+                val groupId = download.group
+                val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_PROGRESS_CHANGED)
+                forEachFetchGroupListener { registration, fetchListener ->
+                    registration.deliver(false) {
+                        fetchListener.onProgress(groupId, download, etaInMilliSeconds, downloadedBytesPerSecond, fetchGroup)
                     }
                 }
+            } else {
+                groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_PROGRESS_CHANGED)
             }
+            enqueueProgressUpdate(DownloadProgressUpdate(download, etaInMilliSeconds, downloadedBytesPerSecond))
         }
 
         override fun onPaused(download: Download) {
-            synchronized(lock) {
-                fetchNotificationHandler.post {
-                    synchronized(lock) {
-                        for (fetchNotificationManager in fetchNotificationManagerList) {
-                            if (fetchNotificationManager.postDownloadUpdate(download)) break
-                        }
-                    }
+            removePendingProgressUpdate(download.id)
+            postNotificationUpdate(download)
+            forEachFetchListener { registration, fetchListener ->
+                registration.deliver(true) {
+                    fetchListener.onPaused(download)
                 }
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onPaused(download)
-                            }
-                        }
-                    }
-                }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download,  Reason.DOWNLOAD_PAUSED)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onPaused(groupId, download, fetchGroup)
-                            }
-                        }
-                    }
-                } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_PAUSED)
-                }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_PAUSED)
-                        }
+            }
+            if (fetchGroupListeners.isNotEmpty()) {
+                val groupId = download.group
+                val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_PAUSED)
+                forEachFetchGroupListener { registration, fetchListener ->
+                    registration.deliver(false) {
+                        fetchListener.onPaused(groupId, download, fetchGroup)
                     }
                 }
+            } else {
+                groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_PAUSED)
             }
+            notifyDownloadObservers(download, Reason.DOWNLOAD_PAUSED)
         }
 
         override fun onResumed(download: Download) {
-            synchronized(lock) {
-                fetchNotificationHandler.post {
-                    synchronized(lock) {
-                        for (fetchNotificationManager in fetchNotificationManagerList) {
-                            if (fetchNotificationManager.postDownloadUpdate(download)) break
-                        }
-                    }
+            removePendingProgressUpdate(download.id)
+            postNotificationUpdate(download)
+            forEachFetchListener { registration, fetchListener ->
+                registration.deliver(true) {
+                    fetchListener.onResumed(download)
                 }
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onResumed(download)
-                            }
-                        }
-                    }
-                }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_RESUMED)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onResumed(groupId, download, fetchGroup)
-                            }
-                        }
-                    }
-                } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_RESUMED)
-                }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_RESUMED)
-                        }
+            }
+            if (fetchGroupListeners.isNotEmpty()) {
+                val groupId = download.group
+                val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_RESUMED)
+                forEachFetchGroupListener { registration, fetchListener ->
+                    registration.deliver(false) {
+                        fetchListener.onResumed(groupId, download, fetchGroup)
                     }
                 }
+            } else {
+                groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_RESUMED)
             }
+            notifyDownloadObservers(download, Reason.DOWNLOAD_RESUMED)
         }
 
         override fun onCancelled(download: Download) {
-            synchronized(lock) {
-                fetchNotificationHandler.post {
-                    synchronized(lock) {
-                        for (fetchNotificationManager in fetchNotificationManagerList) {
-                            if (fetchNotificationManager.postDownloadUpdate(download)) break
-                        }
-                    }
-                }
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onCancelled(download)
-                            }
-                        }
-                    }
+            removePendingProgressUpdate(download.id)
+            postNotificationUpdate(download)
+            forEachFetchListener { registration, fetchListener ->
+                registration.deliver(true) {
+                    fetchListener.onCancelled(download)
                 }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_CANCELLED)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onCancelled(groupId, download, fetchGroup)
-                            }
-                        }
-                    }
-                } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_CANCELLED)
-                }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_CANCELLED)
-                        }
+            }
+            if (fetchGroupListeners.isNotEmpty()) {
+                val groupId = download.group
+                val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_CANCELLED)
+                forEachFetchGroupListener { registration, fetchListener ->
+                    registration.deliver(false) {
+                        fetchListener.onCancelled(groupId, download, fetchGroup)
                     }
                 }
+            } else {
+                groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_CANCELLED)
             }
+            notifyDownloadObservers(download, Reason.DOWNLOAD_CANCELLED)
         }
 
         override fun onRemoved(download: Download) {
-            synchronized(lock) {
-                fetchNotificationHandler.post {
-                    synchronized(lock) {
-                        for (fetchNotificationManager in fetchNotificationManagerList) {
-                            if (fetchNotificationManager.postDownloadUpdate(download)) break
-                        }
-                    }
+            removePendingProgressUpdate(download.id)
+            postNotificationUpdate(download)
+            forEachFetchListener { registration, fetchListener ->
+                registration.deliver(true) {
+                    fetchListener.onRemoved(download)
                 }
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onRemoved(download)
-                            }
-                        }
-                    }
-                }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_REMOVED)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onRemoved(groupId, download, fetchGroup)
-                            }
-                        }
-                    }
-                } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_REMOVED)
-                }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_REMOVED)
-                        }
+            }
+            if (fetchGroupListeners.isNotEmpty()) {
+                val groupId = download.group
+                val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_REMOVED)
+                forEachFetchGroupListener { registration, fetchListener ->
+                    registration.deliver(false) {
+                        fetchListener.onRemoved(groupId, download, fetchGroup)
                     }
                 }
+            } else {
+                groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_REMOVED)
             }
+            notifyDownloadObservers(download, Reason.DOWNLOAD_REMOVED)
         }
 
         override fun onDeleted(download: Download) {
-            synchronized(lock) {
-                fetchNotificationHandler.post {
-                    synchronized(lock) {
-                        for (fetchNotificationManager in fetchNotificationManagerList) {
-                            if (fetchNotificationManager.postDownloadUpdate(download)) break
-                        }
-                    }
+            removePendingProgressUpdate(download.id)
+            postNotificationUpdate(download)
+            forEachFetchListener { registration, fetchListener ->
+                registration.deliver(true) {
+                    fetchListener.onDeleted(download)
                 }
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onDeleted(download)
-                            }
-                        }
+            }
+            if (fetchGroupListeners.isNotEmpty()) {
+                val groupId = download.group
+                val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_DELETED)
+                forEachFetchGroupListener { registration, fetchListener ->
+                    registration.deliver(false) {
+                        fetchListener.onDeleted(groupId, download, fetchGroup)
                     }
                 }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_DELETED)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onDeleted(groupId, download, fetchGroup)
-                            }
-                        }
-                    }
-                } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_DELETED)
-                }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_DELETED)
+            } else {
+                groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_DELETED)
+            }
+            notifyDownloadObservers(download, Reason.DOWNLOAD_DELETED)
+        }
+    }
+
+    fun clearAll() {
+        fetchListeners.clear()
+        fetchGroupListeners.clear()
+        fetchNotificationManagerList.clear()
+        downloadsObserverMap.clear()
+        synchronized(progressLock) {
+            pendingProgressUpdates.clear()
+            progressGenerations.clear()
+        }
+    }
+
+    /** Iterates a snapshot of the attached listeners. Registrations of collected listeners are removed.*/
+    private fun forEachFetchListener(action: (ListenerRegistration, FetchListener) -> Unit) {
+        for (registration in fetchListeners) {
+            val fetchListener = registration.fetchListener
+            if (fetchListener == null) {
+                fetchListeners.remove(registration)
+            } else {
+                action(registration, fetchListener)
+            }
+        }
+    }
+
+    private fun forEachFetchGroupListener(action: (ListenerRegistration, FetchGroupListener) -> Unit) {
+        for (registration in fetchGroupListeners) {
+            val fetchListener = registration.fetchListener as? FetchGroupListener
+            if (fetchListener == null) {
+                fetchGroupListeners.remove(registration)
+            } else {
+                action(registration, fetchListener)
+            }
+        }
+    }
+
+    private fun postNotificationUpdate(download: Download) {
+        if (fetchNotificationManagerList.isNotEmpty()) {
+            fetchNotificationHandler.post {
+                for (fetchNotificationManager in fetchNotificationManagerList) {
+                    if (fetchNotificationManager.postDownloadUpdate(download)) break
+                }
+            }
+        }
+    }
+
+    private fun notifyDownloadObservers(download: Download, reason: Reason) {
+        val observers = downloadsObserverMap[download.id]?.mapNotNull { it.get() }
+        if (observers != null && observers.isNotEmpty()) {
+            uiHandler.post {
+                for (observer in observers) {
+                    observer.onChanged(download, reason)
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the pending progress of the download and schedules a delivery if none is scheduled.
+     * Deliveries are at least progressDeliveryIntervalMillis apart.
+     * */
+    private fun enqueueProgressUpdate(progressUpdate: DownloadProgressUpdate) {
+        synchronized(progressLock) {
+            pendingProgressUpdates[progressUpdate.download.id] = progressUpdate
+            if (!progressDeliveryScheduled) {
+                progressDeliveryScheduled = true
+                val delay = lastProgressDeliveryMillis + progressDeliveryIntervalMillis - System.currentTimeMillis()
+                fetchNotificationHandler.postDelayed(progressDeliveryRunnable, delay.coerceIn(0, progressDeliveryIntervalMillis))
+            }
+        }
+    }
+
+    /** Drops pending progress, so it is not delivered after a later status change of the download.*/
+    private fun removePendingProgressUpdate(downloadId: Int) {
+        synchronized(progressLock) {
+            pendingProgressUpdates.remove(downloadId)
+            progressGenerations[downloadId] = (progressGenerations[downloadId] ?: 0) + 1
+        }
+    }
+
+    /** @return the progress updates whose download did not change status since they were taken.*/
+    private fun getCurrentProgressUpdates(progressUpdates: List<DownloadProgressUpdate>, generations: IntArray): List<DownloadProgressUpdate> {
+        return synchronized(progressLock) {
+            progressUpdates.filterIndexed { index, progressUpdate ->
+                (progressGenerations[progressUpdate.download.id] ?: 0) == generations[index]
+            }
+        }
+    }
+
+    /**
+     * Runs on the notification thread. Posts the latest progress of each download to the notification
+     * managers, then hands all pending progress to each delivery target. Listeners on the main thread
+     * and download observers share one message. Terminal events are posted by the download threads,
+     * so each delivery drops the progress of downloads whose status changed after it was taken.
+     * */
+    private fun deliverProgressUpdates() {
+        val (progressUpdates, generations) = synchronized(progressLock) {
+            progressDeliveryScheduled = false
+            lastProgressDeliveryMillis = System.currentTimeMillis()
+            val progressUpdates = pendingProgressUpdates.values.toList()
+            pendingProgressUpdates.clear()
+            Pair(progressUpdates, IntArray(progressUpdates.size) { progressGenerations[progressUpdates[it].download.id] ?: 0 })
+        }
+        if (progressUpdates.isEmpty()) {
+            return
+        }
+        for (progressUpdate in progressUpdates) {
+            for (fetchNotificationManager in fetchNotificationManagerList) {
+                if (fetchNotificationManager.postDownloadUpdate(progressUpdate.download)) break
+            }
+        }
+        val mainThreadListeners = mutableListOf<FetchListener>()
+        forEachFetchListener { registration, fetchListener ->
+            if (registration.deliveryTarget.executor == null) {
+                mainThreadListeners.add(fetchListener)
+            } else {
+                registration.deliver(false) {
+                    deliverProgressUpdates(fetchListener, getCurrentProgressUpdates(progressUpdates, generations))
+                }
+            }
+        }
+        val downloadObservers = mutableListOf<Pair<DownloadProgressUpdate, List<FetchObserver<Download>>>>()
+        if (downloadsObserverMap.isNotEmpty()) {
+            for (progressUpdate in progressUpdates) {
+                val observers = downloadsObserverMap[progressUpdate.download.id]?.mapNotNull { it.get() }
+                if (observers != null && observers.isNotEmpty()) {
+                    downloadObservers.add(Pair(progressUpdate, observers))
+                }
+            }
+        }
+        if (mainThreadListeners.isNotEmpty() || downloadObservers.isNotEmpty()) {
+            uiHandler.post {
+                val currentProgressUpdates = getCurrentProgressUpdates(progressUpdates, generations)
+                for (fetchListener in mainThreadListeners) {
+                    deliverProgressUpdates(fetchListener, currentProgressUpdates)
+                }
+                for ((progressUpdate, observers) in downloadObservers) {
+                    if (currentProgressUpdates.contains(progressUpdate)) {
+                        for (observer in observers) {
+                            observer.onChanged(progressUpdate.download, Reason.DOWNLOAD_PROGRESS_CHANGED)
                         }
                     }
                 }
@@ -717,54 +497,86 @@ class ListenerCoordinator(val namespace: String,
         }
     }
 
-    fun clearAll() {
-        synchronized(lock) {
-            fetchListenerMap.clear()
-            fetchGroupListenerMap.clear()
-            fetchNotificationManagerList.clear()
-            downloadsObserverMap.clear()
+    private fun deliverProgressUpdates(fetchListener: FetchListener, progressUpdates: List<DownloadProgressUpdate>) {
+        if (progressUpdates.isEmpty()) {
+            return
+        }
+        if (fetchListener is FetchBatchProgressListener) {
+            fetchListener.onProgress(progressUpdates)
+        } else {
+            for (progressUpdate in progressUpdates) {
+                fetchListener.onProgress(progressUpdate.download, progressUpdate.etaInMilliSeconds,
+                        progressUpdate.downloadedBytesPerSecond)
+            }
         }
     }
 
     fun addFetchObserversForDownload(downloadId: Int, vararg fetchObservers: FetchObserver<Download>) {
-        synchronized(lock) {
-            val newFetchObservers = fetchObservers.distinct()
-            val set = downloadsObserverMap[downloadId] ?: mutableListOf()
-            val attachedObservers = set.mapNotNull { it.get() }
-            val addedObservers = mutableListOf<FetchObserver<Download>>()
-            for (fetchObserver in newFetchObservers) {
-                if (!attachedObservers.contains(fetchObserver)) {
-                    set.add(WeakReference(fetchObserver))
-                    addedObservers.add(fetchObserver)
-                }
-            }
-            val download = downloadProvider.getDownload(downloadId)
-            if (download != null) {
-                uiHandler.post {
-                    for (addedObserver in addedObservers) {
-                        addedObserver.onChanged(download, Reason.OBSERVER_ATTACHED)
-                    }
+        val addedObservers = synchronized(observerLock) {
+            val observers = downloadsObserverMap[downloadId] ?: CopyOnWriteArrayList()
+            val attachedObservers = observers.mapNotNull { it.get() }
+            val addedObservers = fetchObservers.distinct().filter { !attachedObservers.contains(it) }
+            for (addedObserver in addedObservers) {
+                observers.add(WeakReference(addedObserver))
+            }
+            downloadsObserverMap[downloadId] = observers
+            addedObservers
+        }
+        val download = downloadProvider.getDownload(downloadId)
+        if (download != null && addedObservers.isNotEmpty()) {
+            uiHandler.post {
+                for (addedObserver in addedObservers) {
+                    addedObserver.onChanged(download, Reason.OBSERVER_ATTACHED)
                 }
             }
-            downloadsObserverMap[downloadId] = set
         }
     }
 
     fun removeFetchObserversForDownload(downloadId: Int, vararg fetchObservers: FetchObserver<Download>) {
-        synchronized(lock) {
-            for (fetchObserver in fetchObservers) {
-                val iterator = downloadsObserverMap[downloadId]?.iterator()
-                if (iterator != null) {
-                    while (iterator.hasNext()) {
-                        val reference = iterator.next()
-                        if (reference.get() == fetchObserver) {
-                            iterator.remove()
-                            break
-                        }
+        synchronized(observerLock) {
+            val observers = downloadsObserverMap[downloadId]
+            if (observers != null) {
+                for (fetchObserver in fetchObservers) {
+                    val reference = observers.firstOrNull { it.get() == fetchObserver }
+                    if (reference != null) {
+                        observers.remove(reference)
                     }
                 }
             }
         }
     }
 
-}
\ No newline at end of file
+    /** A listener attached with the id of a Fetch instance. The listener is held weakly.*/
+    private inner class ListenerRegistration(val id: Int,
+                                             fetchListener: FetchListener,
+                                             val deliveryTarget: DeliveryTarget) {
+
+        private val reference = WeakReference(fetchListener)
+
+        val fetchListener: FetchListener?
+            get() {
+                return reference.get()
+            }
+
+        /**
+         * Hands the callback to the executor of the delivery target. Without an executor the callback
+         * is posted to the main thread if mainThreadByDefault is true, and called directly otherwise.
+         * */
+        fun deliver(mainThreadByDefault: Boolean, callback: () -> Unit) {
+            val executor = deliveryTarget.executor
+            when {
+                executor != null -> {
+                    try {
+                        executor.execute(Runnable(callback))
+                    } catch (e: RejectedExecutionException) {
+                        //Executor was shut down by its owner. Event is dropped for this listener.
+                    }
+                }
+                mainThreadByDefault -> uiHandler.post(Runnable(callback))
+                else -> callback()
+            }
+        }
+
+    }
+
+}
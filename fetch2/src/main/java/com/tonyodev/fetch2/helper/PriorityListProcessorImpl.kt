@@ -7,6 +7,8 @@ import android.content.Intent
 import android.content.IntentFilter
 import android.os.Build
 import com.tonyodev.fetch2.*
+import com.tonyodev.fetch2.database.DownloadInfo
+import com.tonyodev.fetch2.database.FetchDatabaseManagerWrapper
 import com.tonyodev.fetch2.downloader.DownloadManager
 import com.tonyodev.fetch2core.HandlerWrapper
 import com.tonyodev.fetch2.provider.DownloadProvider
@@ -16,6 +18,7 @@ import com.tonyodev.fetch2.NetworkType
 import com.tonyodev.fetch2.fetch.ListenerCoordinator
 import com.tonyodev.fetch2core.Logger
 import com.tonyodev.fetch2core.isFetchFileServerUrl
+import java.util.*
 import java.util.concurrent.TimeUnit
 
 @SuppressLint("UnspecifiedRegisterReceiverFlag")
@@ -55,6 +58,49 @@ class PriorityListProcessorImpl(private val handlerWrapper: HandlerWrapper,
             }
         }
     }
+    private val readyQueueLock = Any()
+    /** Queued downloads ordered by priority and created time. Kept up to date from database writes,
+     * so the pending downloads are only queried on start and after the queue was invalidated.*/
+    private val readyQueue = TreeSet<ReadyDownload>(getReadyDownloadComparator(prioritySort))
+    private val readyDownloads = HashMap<Int, ReadyDownload>()
+    private var readyQueueLoaded = false
+    private var readyQueueLoading = false
+    private val readyQueueChangesWhileLoading = mutableListOf<ReadyQueueChange>()
+    private val downloadChangeListener = object : FetchDatabaseManagerWrapper.DownloadChangeListener {
+
+        override fun onDownloadsUpdated(downloads: List<DownloadInfo>) {
+            synchronized(readyQueueLock) {
+                if (readyQueueLoading) {
+                    readyQueueChangesWhileLoading.addAll(downloads.map { it.toReadyQueueChange() })
+                }
+                if (readyQueueLoaded || readyQueueLoading) {
+                    downloads.forEach {
+                        updateReadyQueue(it.id, it.status, it.priority, it.created)
+                    }
+                }
+            }
+        }
+
+        override fun onDownloadsDeleted(downloads: List<DownloadInfo>) {
+            synchronized(readyQueueLock) {
+                if (readyQueueLoading) {
+                    readyQueueChangesWhileLoading.addAll(downloads.map {
+                        val change = it.toReadyQueueChange()
+                        change.status = Status.DELETED
+                        change
+                    })
+                }
+                downloads.forEach {
+                    removeFromReadyQueue(it.id)
+                }
+            }
+        }
+
+        override fun onDownloadsInvalidated() {
+            invalidateReadyQueue()
+        }
+
+    }
     private val priorityBackoffResetReceiver: BroadcastReceiver = object : BroadcastReceiver() {
         override fun onReceive(context: Context?, intent: Intent?) {
             if (context != null && intent != null) {
@@ -71,6 +117,7 @@ class PriorityListProcessorImpl(private val handlerWrapper: HandlerWrapper,
 
     init {
         networkInfoProvider.registerNetworkChangeListener(networkChangeListener)
+        downloadProvider.addDownloadChangeListener(downloadChangeListener)
         if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
             context.registerReceiver(priorityBackoffResetReceiver, IntentFilter(ACTION_QUEUE_BACKOFF_RESET), Context.RECEIVER_NOT_EXPORTED)
         }
@@ -82,39 +129,38 @@ class PriorityListProcessorImpl(private val handlerWrapper: HandlerWrapper,
     private val priorityIteratorRunnable = Runnable {
         if (canContinueToProcess()) {
             if (downloadManager.canAccommodateNewDownload() && canContinueToProcess()) {
-                val priorityList = getPriorityList()
-                var shouldBackOff = false
-                if (priorityList.isEmpty() || !networkInfoProvider.isNetworkAvailable) {
-                    shouldBackOff = true
-                }
-                if (!shouldBackOff) {
-                    shouldBackOff = true
-                    for (index in 0..priorityList.lastIndex) {
+                var shouldBackOff = true
+                if (loadReadyQueue() && networkInfoProvider.isNetworkAvailable) {
+                    var readyDownload = getNextReadyDownload(null)
+                    while (readyDownload != null) {
                         if (downloadManager.canAccommodateNewDownload() && canContinueToProcess()) {
-                            val download = priorityList[index]
-                            val isFetchServerRequest = isFetchFileServerUrl(download.url)
-                            if ((isFetchServerRequest || networkInfoProvider.isNetworkAvailable) && canContinueToProcess()) {
-                                val networkType = when {
-                                    globalNetworkType != NetworkType.GLOBAL_OFF -> globalNetworkType
-                                    download.networkType == NetworkType.GLOBAL_OFF -> NetworkType.ALL
-                                    else -> download.networkType
-                                }
-                                val properNetworkConditions = networkInfoProvider.isOnAllowedNetwork(networkType)
-                                if (!properNetworkConditions) {
-                                    listenerCoordinator.mainListener.onWaitingNetwork(download)
-                                }
-                                if ((isFetchServerRequest || properNetworkConditions)) {
-                                    shouldBackOff = false
-                                    if (!downloadManager.contains(download.id) && canContinueToProcess()) {
-                                        downloadManager.start(download)
+                            val download = getQueuedDownload(readyDownload.id)
+                            if (download != null) {
+                                val isFetchServerRequest = isFetchFileServerUrl(download.url)
+                                if ((isFetchServerRequest || networkInfoProvider.isNetworkAvailable) && canContinueToProcess()) {
+                                    val networkType = when {
+                                        globalNetworkType != NetworkType.GLOBAL_OFF -> globalNetworkType
+                                        download.networkType == NetworkType.GLOBAL_OFF -> NetworkType.ALL
+                                        else -> download.networkType
                                     }
+                                    val properNetworkConditions = networkInfoProvider.isOnAllowedNetwork(networkType)
+                                    if (!properNetworkConditions) {
+                                        listenerCoordinator.mainListener.onWaitingNetwork(download)
+                                    }
+                                    if ((isFetchServerRequest || properNetworkConditions)) {
+                                        shouldBackOff = false
+                                        if (!downloadManager.contains(download.id) && canContinueToProcess()) {
+                                            downloadManager.start(download)
+                                        }
+                                    }
+                                } else {
+                                    break
                                 }
-                            } else {
-                                break
                             }
                         } else {
                             break
                         }
+                        readyDownload = getNextReadyDownload(readyDownload)
                     }
                 }
                 if (shouldBackOff) {
@@ -178,6 +224,99 @@ class PriorityListProcessorImpl(private val handlerWrapper: HandlerWrapper,
         }
     }
 
+    /**
+     * Loads the ready queue from the database if it is not loaded yet.
+     * @return true if the ready queue is loaded and contains downloads.
+     * */
+    private fun loadReadyQueue(): Boolean {
+        synchronized(readyQueueLock) {
+            if (readyQueueLoaded) {
+                return readyQueue.isNotEmpty()
+            }
+            readyQueueLoading = true
+            readyQueueChangesWhileLoading.clear()
+            clearReadyQueue()
+        }
+        val pendingDownloads = getPriorityList()
+        synchronized(readyQueueLock) {
+            clearReadyQueue()
+            pendingDownloads.forEach {
+                updateReadyQueue(it.id, it.status, it.priority, it.created)
+            }
+            readyQueueChangesWhileLoading.forEach {
+                updateReadyQueue(it.id, it.status, it.priority, it.created)
+            }
+            readyQueueChangesWhileLoading.clear()
+            readyQueueLoading = false
+            readyQueueLoaded = true
+            return readyQueue.isNotEmpty()
+        }
+    }
+
+    private fun invalidateReadyQueue() {
+        synchronized(readyQueueLock) {
+            readyQueueLoaded = false
+            readyQueueLoading = false
+            readyQueueChangesWhileLoading.clear()
+            clearReadyQueue()
+        }
+    }
+
+    /** @return the ready download that follows the passed in download in priority order.*/
+    private fun getNextReadyDownload(readyDownload: ReadyDownload?): ReadyDownload? {
+        return synchronized(readyQueueLock) {
+            if (readyDownload == null) {
+                readyQueue.firstOrNull()
+            } else {
+                readyQueue.higher(readyDownload)
+            }
+        }
+    }
+
+    /** @return the download if it is still queued. Otherwise removes it from the ready queue.*/
+    private fun getQueuedDownload(id: Int): Download? {
+        val download = try {
+            downloadProvider.getDownload(id)
+        } catch (e: Exception) {
+            logger.d("PriorityIterator failed access database", e)
+            invalidateReadyQueue()
+            return null
+        }
+        if (download == null || download.status != Status.QUEUED) {
+            synchronized(readyQueueLock) {
+                removeFromReadyQueue(id)
+            }
+            return null
+        }
+        return download
+    }
+
+    private fun updateReadyQueue(id: Int, status: Status, priority: Priority, created: Long) {
+        val readyDownload = readyDownloads[id]
+        if (status == Status.QUEUED) {
+            if (readyDownload == null || readyDownload.priority != priority || readyDownload.created != created) {
+                removeFromReadyQueue(id)
+                val newReadyDownload = ReadyDownload(id, priority, created)
+                readyDownloads[id] = newReadyDownload
+                readyQueue.add(newReadyDownload)
+            }
+        } else if (readyDownload != null) {
+            removeFromReadyQueue(id)
+        }
+    }
+
+    private fun removeFromReadyQueue(id: Int) {
+        val readyDownload = readyDownloads.remove(id)
+        if (readyDownload != null) {
+            readyQueue.remove(readyDownload)
+        }
+    }
+
+    private fun clearReadyQueue() {
+        readyQueue.clear()
+        readyDownloads.clear()
+    }
+
     private fun registerPriorityIterator() {
         if (downloadConcurrentLimit > 0) {
             handlerWrapper.postDelayed(priorityIteratorRunnable, backOffTime)
@@ -214,6 +353,8 @@ class PriorityListProcessorImpl(private val handlerWrapper: HandlerWrapper,
     override fun close() {
         synchronized(lock) {
             networkInfoProvider.unregisterNetworkChangeListener(networkChangeListener)
+            downloadProvider.removeDownloadChangeListener(downloadChangeListener)
+            invalidateReadyQueue()
             context.unregisterReceiver(priorityBackoffResetReceiver)
         }
     }
@@ -228,8 +369,32 @@ class PriorityListProcessorImpl(private val handlerWrapper: HandlerWrapper,
         logger.d("PriorityIterator backoffTime increased to $minutes minute(s)")
     }
 
+    private class ReadyDownload(val id: Int,
+                                val priority: Priority,
+                                val created: Long)
+
+    private class ReadyQueueChange(val id: Int,
+                                   var status: Status,
+                                   val priority: Priority,
+                                   val created: Long)
+
+    private fun DownloadInfo.toReadyQueueChange(): ReadyQueueChange {
+        return ReadyQueueChange(id, status, priority, created)
+    }
+
     private companion object {
         private const val ONE_MINUTE_IN_MILLISECONDS = 60000L
+
+        private fun getReadyDownloadComparator(prioritySort: PrioritySort): Comparator<ReadyDownload> {
+            val createdComparator = if (prioritySort == PrioritySort.ASC) {
+                compareBy<ReadyDownload> { it.created }
+            } else {
+                compareByDescending { it.created }
+            }
+            return compareByDescending<ReadyDownload> { it.priority.value }
+                    .then(createdComparator)
+                    .thenBy { it.id }
+        }
     }
 
 }
\ No newline at end of file
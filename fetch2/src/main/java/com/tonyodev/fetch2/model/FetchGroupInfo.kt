@@ -9,29 +9,89 @@ import com.tonyodev.fetch2core.FetchObserver
 import com.tonyodev.fetch2core.Reason
 import com.tonyodev.fetch2core.calculateProgress
 
+/**
+ * Keeps the members of a group together with aggregates per status and the summed downloaded
+ * and total bytes. A change of a single download updates the aggregates in constant time.
+ * Downloaders reuse and mutate the same download instance between events, so the values each
+ * member added to the aggregates are kept separately and subtracted on the next change. The
+ * download lists are only built when an accessor or an attached observer asks for them, and are
+ * reused until the group changes again.
+ * */
 class FetchGroupInfo(override val id: Int = 0,
                      override val namespace: String): FetchGroup {
 
     private val observerSet = mutableSetOf<FetchGroupObserver>()
+    private val members = LinkedHashMap<Int, Download>()
+    private val contributions = HashMap<Int, MemberContribution>()
+    private val statusCounts = IntArray(Status.values().size)
+    private var membersDownloaded = 0L
+    private var membersTotal = 0L
+    private var indeterminateCount = 0
+    private var downloadsSnapshot: List<Download>? = null
+    private val statusSnapshots = arrayOfNulls<List<Download>>(Status.values().size)
 
+    /** Version of the group info provider the members were loaded at.*/
     @Volatile
-    override var downloads: List<Download> = emptyList()
-        set(value) {
-            field = value
-            queuedDownloads = value.filter { it.status == Status.QUEUED }
-            addedDownloads = value.filter { it.status == Status.ADDED }
-            pausedDownloads = value.filter { it.status == Status.PAUSED }
-            downloadingDownloads = value.filter { it.status == Status.DOWNLOADING }
-            completedDownloads = value.filter { it.status == Status.COMPLETED }
-            cancelledDownloads = value.filter { it.status == Status.CANCELLED }
-            failedDownloads = value.filter { it.status == Status.FAILED }
-            deletedDownloads = value.filter { it.status == Status.DELETED }
-            removedDownloads = value.filter { it.status == Status.REMOVED }
+    var loadedVersion = 0
+
+    override val downloads: List<Download>
+        get() {
+            return synchronized(members) {
+                downloadsSnapshot ?: members.values.toList().also {
+                    downloadsSnapshot = it
+                }
+            }
         }
 
+    /** Replaces all members of the group. Used when the group is loaded from the database.*/
     fun update(downloads: List<Download>, triggerDownload: Download?, reason: Reason) {
-        this.downloads = downloads
+        synchronized(members) {
+            members.clear()
+            contributions.clear()
+            statusCounts.fill(0)
+            membersDownloaded = 0L
+            membersTotal = 0L
+            indeterminateCount = 0
+            for (download in downloads) {
+                members[download.id] = download
+                addToAggregates(download)
+            }
+            clearSnapshots()
+        }
+        notifyObservers(triggerDownload, reason)
+    }
+
+    /**
+     * Applies the change of a single download to the group. Deleted and removed downloads are no
+     * longer stored, so they leave the group.
+     * */
+    fun update(download: Download, reason: Reason) {
+        synchronized(members) {
+            if (download.status == Status.DELETED || download.status == Status.REMOVED) {
+                members.remove(download.id)
+            } else {
+                members[download.id] = download
+            }
+            val oldContribution = contributions.remove(download.id)
+            if (oldContribution != null) {
+                removeFromAggregates(oldContribution)
+            }
+            if (download.status != Status.DELETED && download.status != Status.REMOVED) {
+                addToAggregates(download)
+            }
+            clearSnapshots()
+        }
+        notifyObservers(download, reason)
+    }
+
+    private fun notifyObservers(triggerDownload: Download?, reason: Reason) {
         if (reason != Reason.DOWNLOAD_BLOCK_UPDATED) {
+            synchronized(observerSet) {
+                if (observerSet.isEmpty()) {
+                    return
+                }
+            }
+            val downloads = downloads
             FetchModulesBuilder.mainUIHandler.post {
                 synchronized(observerSet) {
                     observerSet.iterator().forEach {
@@ -45,36 +105,128 @@ class FetchGroupInfo(override val id: Int = 0,
         }
     }
 
-    override var queuedDownloads: List<Download> = emptyList()
+    private fun addToAggregates(download: Download) {
+        val contribution = MemberContribution(download.status.ordinal, download.downloaded, download.total)
+        contributions[download.id] = contribution
+        statusCounts[contribution.statusOrdinal]++
+        membersDownloaded += contribution.downloaded
+        membersTotal += contribution.total
+        if (contribution.total < 1L) {
+            indeterminateCount++
+        }
+    }
 
-    override var addedDownloads: List<Download> = emptyList()
+    private fun removeFromAggregates(contribution: MemberContribution) {
+        statusCounts[contribution.statusOrdinal]--
+        membersDownloaded -= contribution.downloaded
+        membersTotal -= contribution.total
+        if (contribution.total < 1L) {
+            indeterminateCount--
+        }
+    }
 
-    override var pausedDownloads: List<Download> = emptyList()
+    private fun clearSnapshots() {
+        downloadsSnapshot = null
+        statusSnapshots.fill(null)
+    }
 
-    override var downloadingDownloads: List<Download> = emptyList()
+    /** The values a member added to the aggregates when it was last updated.*/
+    private class MemberContribution(val statusOrdinal: Int,
+                                     val downloaded: Long,
+                                     val total: Long)
 
-    override var completedDownloads: List<Download> = emptyList()
+    private fun getDownloadsWithStatus(status: Status): List<Download> {
+        return synchronized(members) {
+            statusSnapshots[status.ordinal] ?: if (statusCounts[status.ordinal] == 0) {
+                emptyList()
+            } else {
+                members.values.filter { contributions[it.id]?.statusOrdinal == status.ordinal }
+            }.also {
+                statusSnapshots[status.ordinal] = it
+            }
+        }
+    }
 
-    override var cancelledDownloads: List<Download> = emptyList()
+    override val queuedDownloads: List<Download>
+        get() {
+            return getDownloadsWithStatus(Status.QUEUED)
+        }
 
-    override var failedDownloads: List<Download> = emptyList()
+    override val addedDownloads: List<Download>
+        get() {
+            return getDownloadsWithStatus(Status.ADDED)
+        }
 
-    override var deletedDownloads: List<Download> = emptyList()
+    override val pausedDownloads: List<Download>
+        get() {
+            return getDownloadsWithStatus(Status.PAUSED)
+        }
 
-    override var removedDownloads: List<Download> = emptyList()
+    override val downloadingDownloads: List<Download>
+        get() {
+            return getDownloadsWithStatus(Status.DOWNLOADING)
+        }
+
+    override val completedDownloads: List<Download>
+        get() {
+            return getDownloadsWithStatus(Status.COMPLETED)
+        }
+
+    override val cancelledDownloads: List<Download>
+        get() {
+            return getDownloadsWithStatus(Status.CANCELLED)
+        }
+
+    override val failedDownloads: List<Download>
+        get() {
+            return getDownloadsWithStatus(Status.FAILED)
+        }
+
+    override val deletedDownloads: List<Download>
+        get() {
+            return getDownloadsWithStatus(Status.DELETED)
+        }
+
+    override val removedDownloads: List<Download>
+        get() {
+            return getDownloadsWithStatus(Status.REMOVED)
+        }
+
+    override val downloadCount: Int
+        get() {
+            return synchronized(members) {
+                members.size
+            }
+        }
+
+    override fun getDownloadCount(status: Status): Int {
+        return synchronized(members) {
+            statusCounts[status.ordinal]
+        }
+    }
+
+    override val downloadedBytes: Long
+        get() {
+            return synchronized(members) {
+                membersDownloaded
+            }
+        }
+
+    override val totalBytes: Long
+        get() {
+            return synchronized(members) {
+                membersTotal
+            }
+        }
 
     override val groupDownloadProgress: Int
         get() {
-            return if (downloads.any { it.total < 1L }) {
-                -1
-            } else {
-                var downloaded = 0L
-                var total = 0L
-                for (download in downloads) {
-                    downloaded += download.downloaded
-                    total += download.total
+            return synchronized(members) {
+                if (indeterminateCount > 0) {
+                    -1
+                } else {
+                    calculateProgress(membersDownloaded, membersTotal)
                 }
-                return calculateProgress(downloaded, total)
             }
         }
 
@@ -111,4 +263,4 @@ class FetchGroupInfo(override val id: Int = 0,
         }
     }
 
-}
\ No newline at end of file
+}
@@ -24,15 +24,6 @@ class DownloadProvider(private val fetchDatabaseManagerWrapper: FetchDatabaseMan
         return fetchDatabaseManagerWrapper.getByGroup(group)
     }
 
-    fun getByGroupReplace(group: Int, download: Download): List<Download> {
-        val downloads = getByGroup(group) as ArrayList
-        val index = downloads.indexOfFirst { it.id == download.id }
-        if (index != -1) {
-            downloads[index] = download
-        }
-        return downloads
-    }
-
     fun getByStatus(status: Status): List<Download> {
         return fetchDatabaseManagerWrapper.getByStatus(status)
     }
@@ -41,4 +32,12 @@ class DownloadProvider(private val fetchDatabaseManagerWrapper: FetchDatabaseMan
         return fetchDatabaseManagerWrapper.getPendingDownloadsSorted(prioritySort)
     }
 
+    fun addDownloadChangeListener(downloadChangeListener: FetchDatabaseManagerWrapper.DownloadChangeListener) {
+        fetchDatabaseManagerWrapper.addDownloadChangeListener(downloadChangeListener)
+    }
+
+    fun removeDownloadChangeListener(downloadChangeListener: FetchDatabaseManagerWrapper.DownloadChangeListener) {
+        fetchDatabaseManagerWrapper.removeDownloadChangeListener(downloadChangeListener)
+    }
+
 }
\ No newline at end of file
@@ -2,25 +2,55 @@ package com.tonyodev.fetch2.provider
 
 import com.tonyodev.fetch2.Download
 import com.tonyodev.fetch2.FetchGroup
+import com.tonyodev.fetch2.database.DownloadInfo
+import com.tonyodev.fetch2.database.FetchDatabaseManagerWrapper
 import com.tonyodev.fetch2.model.FetchGroupInfo
 import com.tonyodev.fetch2core.Reason
 import java.lang.ref.WeakReference
+import java.util.concurrent.atomic.AtomicInteger
 
+/**
+ * Provides the FetchGroupInfo of a group. A group is loaded from the database once, then kept up
+ * to date from the download events, so an event only costs the update of a single member. Groups
+ * are loaded again after the database was changed without individual download events.
+ * */
 class GroupInfoProvider(private val namespace: String,
                         private val downloadProvider: DownloadProvider) {
 
     private val lock = Any()
     private val groupInfoMap = mutableMapOf<Int, WeakReference<FetchGroupInfo>>()
+    private val version = AtomicInteger(0)
+    /** Called while the database wrapper holds its lock, so it must not take the provider lock.*/
+    private val downloadChangeListener = object : FetchDatabaseManagerWrapper.DownloadChangeListener {
+
+        override fun onDownloadsUpdated(downloads: List<DownloadInfo>) {
+        }
+
+        override fun onDownloadsDeleted(downloads: List<DownloadInfo>) {
+        }
+
+        override fun onDownloadsInvalidated() {
+            version.incrementAndGet()
+        }
+
+    }
+
+    init {
+        downloadProvider.addDownloadChangeListener(downloadChangeListener)
+    }
 
     fun getGroupInfo(id: Int, reason: Reason): FetchGroupInfo {
         synchronized(lock) {
             val info = groupInfoMap[id]?.get()
             return if (info == null) {
                 val groupInfo = FetchGroupInfo(id, namespace)
-                groupInfo.update(downloadProvider.getByGroup(id), null, reason)
-                groupInfoMap[id] =  WeakReference(groupInfo)
+                loadGroupInfo(groupInfo, null, reason)
+                groupInfoMap[id] = WeakReference(groupInfo)
                 groupInfo
             } else {
+                if (info.loadedVersion != version.get()) {
+                    loadGroupInfo(info, null, reason)
+                }
                 info
             }
         }
@@ -29,7 +59,7 @@ class GroupInfoProvider(private val namespace: String,
     fun getGroupReplace(id: Int, download: Download, reason: Reason): FetchGroup {
         return synchronized(lock) {
             val groupInfo = getGroupInfo(id, reason)
-            groupInfo.update(downloadProvider.getByGroupReplace(id, download), download, reason)
+            groupInfo.update(download, reason)
             groupInfo
         }
     }
@@ -37,10 +67,21 @@ class GroupInfoProvider(private val namespace: String,
     fun postGroupReplace(id: Int, download: Download, reason: Reason) {
         synchronized(lock) {
             val groupInfo = groupInfoMap[id]?.get()
-            groupInfo?.update(downloadProvider.getByGroupReplace(id, download), download, reason)
+            if (groupInfo != null) {
+                if (groupInfo.loadedVersion != version.get()) {
+                    loadGroupInfo(groupInfo, download, reason)
+                } else {
+                    groupInfo.update(download, reason)
+                }
+            }
         }
     }
 
+    private fun loadGroupInfo(groupInfo: FetchGroupInfo, triggerDownload: Download?, reason: Reason) {
+        groupInfo.loadedVersion = version.get()
+        groupInfo.update(downloadProvider.getByGroup(groupInfo.id), triggerDownload, reason)
+    }
+
     fun clean() {
         synchronized(lock) {
             val iterator = groupInfoMap.iterator()
@@ -59,4 +100,4 @@ class GroupInfoProvider(private val namespace: String,
         }
     }
 
-}
\ No newline at end of file
+}
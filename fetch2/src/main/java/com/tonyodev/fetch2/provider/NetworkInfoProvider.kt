@@ -9,14 +9,24 @@ import android.net.Network
 import android.net.NetworkCapabilities
 import android.net.NetworkRequest
 import android.os.Build
+import android.os.Handler
+import android.os.HandlerThread
 import com.tonyodev.fetch2.NetworkType
+import com.tonyodev.fetch2.util.DEFAULT_INTERNET_CHECK_CACHE_INTERVAL_IN_MILLISECONDS
 import com.tonyodev.fetch2core.isNetworkAvailable
 import com.tonyodev.fetch2core.isOnMeteredConnection
 import com.tonyodev.fetch2core.isOnWiFi
 import java.net.HttpURLConnection
 import java.net.URL
+import java.util.concurrent.atomic.AtomicBoolean
 
 
+/**
+ * Provides the network state to the scheduler and the downloaders. When an internet check url is set,
+ * the url is probed on a background thread and the result is cached, so reading the network state never
+ * blocks. The probe is repeated when the cached result is older than
+ * DEFAULT_INTERNET_CHECK_CACHE_INTERVAL_IN_MILLISECONDS or when the connectivity of the device changes.
+ * */
 class NetworkInfoProvider(private val context: Context,
                           private val internetCheckUrl: String?) {
 
@@ -25,11 +35,52 @@ class NetworkInfoProvider(private val context: Context,
     private val connectivityManager: ConnectivityManager? = context.getSystemService(Context.CONNECTIVITY_SERVICE) as? ConnectivityManager
     private val networkChangeBroadcastReceiver: BroadcastReceiver = object : BroadcastReceiver() {
         override fun onReceive(context: Context?, intent: Intent?) {
-            notifyNetworkChangeListeners()
+            onConnectivityChanged()
         }
     }
     private var broadcastRegistered = false
     private var networkCallback: Any? = null
+    @Volatile
+    private var internetCheckAvailable = false
+    @Volatile
+    private var internetCheckTimeMillis = 0L
+    private val internetCheckInProgress = AtomicBoolean(false)
+    /** Set when the connectivity changed while a probe was in flight. The probe is repeated once.*/
+    private val internetCheckRepeat = AtomicBoolean(false)
+    /** Guards the creation and the shutdown of the internet check handler thread.*/
+    private val internetCheckLock = Any()
+    @Volatile
+    private var closed = false
+    /** The last VALIDATED state seen for each network. Only a change of it forces a new probe.*/
+    private val networkValidatedStates = HashMap<Network, Boolean>()
+    private val internetCheckHandlerDelegate = lazy {
+        val handlerThread = HandlerThread("FetchInternetCheck")
+        handlerThread.start()
+        Handler(handlerThread.looper)
+    }
+    private val internetCheckHandler by internetCheckHandlerDelegate
+    private val internetCheckRunnable: Runnable = object : Runnable {
+        override fun run() {
+            internetCheckRepeat.set(false)
+            val available = checkInternetUrl()
+            val changed = available != internetCheckAvailable
+            internetCheckAvailable = available
+            internetCheckTimeMillis = System.currentTimeMillis()
+            if (internetCheckRepeat.get()) {
+                if (!postInternetCheck()) {
+                    internetCheckInProgress.set(false)
+                }
+            } else {
+                internetCheckInProgress.set(false)
+                if (internetCheckRepeat.get() && internetCheckInProgress.compareAndSet(false, true) && !postInternetCheck()) {
+                    internetCheckInProgress.set(false)
+                }
+            }
+            if (changed) {
+                notifyNetworkChangeListeners()
+            }
+        }
+    }
 
     init {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && connectivityManager != null) {
@@ -40,11 +91,28 @@ class NetworkInfoProvider(private val context: Context,
                     .build()
             val networkCallback: ConnectivityManager.NetworkCallback = object : ConnectivityManager.NetworkCallback() {
                 override fun onLost(network: Network) {
-                    notifyNetworkChangeListeners()
+                    synchronized(networkValidatedStates) {
+                        networkValidatedStates.remove(network)
+                    }
+                    onConnectivityChanged()
                 }
 
                 override fun onAvailable(network: Network) {
-                    notifyNetworkChangeListeners()
+                    onConnectivityChanged()
+                }
+
+                override fun onCapabilitiesChanged(network: Network, networkCapabilities: NetworkCapabilities) {
+                    //Signing in to a captive portal only changes the capabilities of the network.
+                    //Capabilities change often, so only a change of VALIDATED for the network forces a probe.
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                        val validated = networkCapabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED)
+                        val previousValidated = synchronized(networkValidatedStates) {
+                            networkValidatedStates.put(network, validated)
+                        }
+                        if (previousValidated != null && previousValidated != validated) {
+                            refreshInternetCheck(true)
+                        }
+                    }
                 }
             }
             this.networkCallback = networkCallback
@@ -64,6 +132,11 @@ class NetworkInfoProvider(private val context: Context,
         }
     }
 
+    private fun onConnectivityChanged() {
+        refreshInternetCheck(true)
+        notifyNetworkChangeListeners()
+    }
+
     private fun notifyNetworkChangeListeners() {
         synchronized(lock) {
             networkChangeListenerSet.iterator().forEach { listener ->
@@ -101,6 +174,16 @@ class NetworkInfoProvider(private val context: Context,
                 }
             }
         }
+        synchronized(networkValidatedStates) {
+            networkValidatedStates.clear()
+        }
+        synchronized(internetCheckLock) {
+            closed = true
+            if (internetCheckHandlerDelegate.isInitialized()) {
+                internetCheckHandler.removeCallbacksAndMessages(null)
+                internetCheckHandler.looper.quit()
+            }
+        }
     }
 
     fun isOnAllowedNetwork(networkType: NetworkType): Boolean {
@@ -116,27 +199,68 @@ class NetworkInfoProvider(private val context: Context,
         return false
     }
 
+    /**
+     * Never blocks. With an internet check url, returns the cached result of the last probe and
+     * starts a new probe if the result is stale. Until the first probe completes the network is
+     * reported as unavailable. Network change listeners are notified when a probe changes the result.
+     * */
     val isNetworkAvailable: Boolean
         get() {
-            val url = internetCheckUrl
-            return if (url != null) {
-                try {
-                    val urlConnection = URL(url)
-                    val connection = urlConnection.openConnection() as HttpURLConnection
-                    connection.connectTimeout = 15_000
-                    connection.readTimeout = 20_000
-                    connection.instanceFollowRedirects = true
-                    connection.useCaches = false
-                    connection.defaultUseCaches = false
-                    connection.connect()
-                    connection.responseCode != -1
-                } catch (e: Exception) {
-                    false
-                }
-            } else {
-                context.isNetworkAvailable()
+            if (internetCheckUrl == null) {
+                return context.isNetworkAvailable()
+            }
+            if (!context.isNetworkAvailable()) {
+                return false
+            }
+            refreshInternetCheck(false)
+            return internetCheckAvailable
+        }
+
+    /** Starts a probe of the internet check url unless one is in flight.
+     * @param force probe even if the cached result is not stale.*/
+    private fun refreshInternetCheck(force: Boolean) {
+        if (internetCheckUrl == null || closed) {
+            return
+        }
+        if (!force && System.currentTimeMillis() - internetCheckTimeMillis < DEFAULT_INTERNET_CHECK_CACHE_INTERVAL_IN_MILLISECONDS) {
+            return
+        }
+        if (internetCheckInProgress.compareAndSet(false, true)) {
+            if (!postInternetCheck()) {
+                internetCheckInProgress.set(false)
             }
+        } else if (force) {
+            internetCheckRepeat.set(true)
         }
+    }
+
+    /** Posts a probe to the internet check thread. Once the listeners were unregistered the
+     * thread is quit and no new thread is started.
+     * @return true if the probe was posted.*/
+    private fun postInternetCheck(): Boolean {
+        synchronized(internetCheckLock) {
+            return !closed && internetCheckHandler.post(internetCheckRunnable)
+        }
+    }
+
+    private fun checkInternetUrl(): Boolean {
+        val url = internetCheckUrl ?: return context.isNetworkAvailable()
+        var connection: HttpURLConnection? = null
+        return try {
+            connection = URL(url).openConnection() as HttpURLConnection
+            connection.connectTimeout = 15_000
+            connection.readTimeout = 20_000
+            connection.instanceFollowRedirects = true
+            connection.useCaches = false
+            connection.defaultUseCaches = false
+            connection.connect()
+            connection.responseCode != -1
+        } catch (e: Exception) {
+            false
+        } finally {
+            connection?.disconnect()
+        }
+    }
 
     interface NetworkChangeListener {
         fun onNetworkChanged()
@@ -12,6 +12,7 @@ const val DEFAULT_GROUP_ID = 0
 const val DEFAULT_UNIQUE_IDENTIFIER = 0L
 const val DEFAULT_DOWNLOAD_SPEED_REPORTING_INTERVAL_IN_MILLISECONDS = 1_000L
 const val DEFAULT_HAS_ACTIVE_DOWNLOADS_INTERVAL_IN_MILLISECONDS = 300000L
+const val DEFAULT_PROGRESS_DELIVERY_INTERVAL_IN_MILLISECONDS = 100L
 const val DEFAULT_CREATE_FILE_ON_ENQUEUE = true
 const val DEFAULT_CONCURRENT_LIMIT = 1
 const val EMPTY_JSON_OBJECT_STRING = "{}"
@@ -19,6 +20,13 @@ const val DEFAULT_PRIORITY_QUEUE_INTERVAL_IN_MILLISECONDS = 500L
 const val DEFAULT_AUTO_START = true
 const val DEFAULT_RETRY_ON_NETWORK_GAIN = true
 const val DEFAULT_FILE_SLICE_NO_LIMIT_SET = -1
+const val DEFAULT_MAX_CONCURRENT_SLICES = 16
+const val DEFAULT_CHECKPOINT_FLUSH_THRESHOLD_BYTES = 1024L * 1024L
+const val DEFAULT_MIN_FILE_SLICE_STEAL_BYTES = 1024L * 1024L
+const val DEFAULT_ADAPTIVE_INITIAL_FILE_SLICES = 2
+const val DEFAULT_ADAPTIVE_MAX_CONNECTIONS_PER_HOST = 8
+const val DEFAULT_ADAPTIVE_SPEED_SAMPLES = 3
+const val DEFAULT_ADAPTIVE_MIN_SPEED_IMPROVEMENT = 0.1
 const val DEFAULT_INSTANCE_NAMESPACE = "LibGlobalFetchLib"
 const val DEFAULT_HASH_CHECK_ENABLED = false
 const val DEFAULT_FILE_EXIST_CHECKS = true
@@ -31,6 +39,9 @@ const val DEFAULT_DOWNLOAD_ON_ENQUEUE = true
 const val DEFAULT_PREALLOCATE_FILE_ON_CREATE = true
 const val DEFAULT_NOTIFICATION_TIMEOUT_AFTER_RESET = 15552000000 * 2
 const val DEFAULT_NOTIFICATION_TIMEOUT_AFTER = 10_000L
+const val DEFAULT_FILE_RECONCILIATION_DELAY_IN_MILLISECONDS = 500L
+const val DEFAULT_FILE_VERIFICATION_INTERVAL_IN_MILLISECONDS = 30_000L
+const val DEFAULT_INTERNET_CHECK_CACHE_INTERVAL_IN_MILLISECONDS = 30_000L
 val defaultNetworkType = NetworkType.ALL
 val defaultGlobalNetworkType = NetworkType.GLOBAL_OFF
 val defaultPriority = Priority.NORMAL
@@ -113,32 +113,6 @@ fun getCatalogServerRequestFromRequest(request: Request): Downloader.ServerReque
             segment = 1)
 }
 
-fun getPreviousSliceCount(id: Int, fileTempDir: String): Int {
-    var sliceCount = -1
-    try {
-        sliceCount = getLongDataFromFile(getMetaFilePath(id, fileTempDir))?.toInt() ?: -1
-    } catch (_: Exception) {
-
-    }
-    return sliceCount
-}
-
-fun getMetaFilePath(id: Int, fileTempDir: String): String {
-    return "$fileTempDir/$id.meta.data"
-}
-
-fun saveCurrentSliceCount(id: Int, sliceCount: Int, fileTempDir: String) {
-    try {
-        writeLongToFile(getMetaFilePath(id, fileTempDir), sliceCount.toLong())
-    } catch (_: Exception) {
-
-    }
-}
-
-fun getDownloadedInfoFilePath(id: Int, position: Int, fileTempDir: String): String {
-    return "$fileTempDir/$id.$position.data"
-}
-
 fun deleteAllInFolderForId(id: Int, fileTempDir: String) {
     try {
         val dir = File(fileTempDir)
@@ -160,16 +134,6 @@ fun deleteAllInFolderForId(id: Int, fileTempDir: String) {
     }
 }
 
-fun getSavedDownloadedInfo(id: Int, position: Int, fileTempDir: String): Long {
-    var downloaded = 0L
-    try {
-        downloaded = getLongDataFromFile(getDownloadedInfoFilePath(id, position, fileTempDir)) ?: 0L
-    } catch (_: Exception) {
-
-    }
-    return downloaded
-}
-
 fun getFileSliceInfo(fileSliceSize: Int, totalBytes: Long): FileSliceInfo {
     return if (fileSliceSize == DEFAULT_FILE_SLICE_NO_LIMIT_SET) {
         val fileSizeInMb = totalBytes.toFloat() / 1024F * 1024F
@@ -193,6 +157,41 @@ fun getFileSliceInfo(fileSliceSize: Int, totalBytes: Long): FileSliceInfo {
     }
 }
 
+/** @return the bytes the slice still has to download up to its current end.*/
+fun getFileSliceRemainderBytes(fileSlice: FileSlice): Long {
+    val naturalEnd = if (fileSlice.endBytes < 1) 0 else fileSlice.endBytes
+    return naturalEnd - (fileSlice.startBytes + fileSlice.downloaded)
+}
+
+/**
+ * Splits off the back half of the largest remaining range of the passed in slices and returns it as
+ * a new slice. The slice that lost the range gets the split as its new end. The split is placed at
+ * least one buffer past the current position of that slice, so a buffer it is already writing can
+ * never overlap the new slice.
+ * @param fileSlices the slices that are still downloading.
+ * @param position the position of the new slice.
+ * @param bufferSize the largest buffer a slice writes at once.
+ * @param minStealBytes the smallest range the new slice takes.
+ * @return the new slice or null if no range is large enough to split.
+ * */
+fun splitFileSlice(fileSlices: Collection<FileSlice>, position: Int, bufferSize: Int,
+                   minStealBytes: Long = DEFAULT_MIN_FILE_SLICE_STEAL_BYTES): FileSlice? {
+    val slowFileSlice = fileSlices.maxByOrNull { getFileSliceRemainderBytes(it) } ?: return null
+    val stealStartBytes = slowFileSlice.startBytes + slowFileSlice.downloaded + bufferSize
+    val stealableBytes = slowFileSlice.endBytes - stealStartBytes
+    if (stealableBytes < 2 * minStealBytes) {
+        return null
+    }
+    val splitBytes = stealStartBytes + (stealableBytes / 2)
+    val stolenFileSlice = FileSlice(
+            id = slowFileSlice.id,
+            position = position,
+            startBytes = splitBytes,
+            endBytes = slowFileSlice.endBytes)
+    slowFileSlice.endBytes = splitBytes
+    return stolenFileSlice
+}
+
 fun awaitFinishOrTimeout(allowTimeInMilliseconds: Long, fetchHandler: FetchHandler) {
     if (Thread.currentThread() == Looper.getMainLooper().thread) {
         throw FetchException(AWAIT_CALL_ON_UI_THREAD)
@@ -220,3 +219,26 @@ fun awaitFinishOrTimeout(allowTimeInMilliseconds: Long, fetchHandler: FetchHandl
         pendingCount = fetchHandler.getPendingCount()
     }
 }
+
+/** @return the opaque cursor that points after the download in created and id order.*/
+fun getDownloadPageCursor(download: Download): String {
+    return "${download.created}:${download.id}"
+}
+
+/**
+ * Gets the created time and id a page cursor points after.
+ * @param cursor the cursor. Null for the first page.
+ * @throws FetchException if the cursor is not valid.
+ * */
+fun getDownloadPageCursorPosition(cursor: String?): Pair<Long, Int> {
+    if (cursor == null) {
+        return Pair(Long.MIN_VALUE, Int.MIN_VALUE)
+    }
+    val separatorIndex = cursor.indexOf(':')
+    val created = if (separatorIndex > 0) cursor.substring(0, separatorIndex).toLongOrNull() else null
+    val id = if (separatorIndex > 0) cursor.substring(separatorIndex + 1).toIntOrNull() else null
+    if (created == null || id == null) {
+        throw FetchException("Invalid download page cursor: $cursor")
+    }
+    return Pair(created, id)
+}
@@ -4,6 +4,7 @@ package com.tonyodev.fetch2.util
 
 import com.tonyodev.fetch2.*
 import com.tonyodev.fetch2.database.DownloadInfo
+import com.tonyodev.fetch2.database.DownloadSummaryInfo
 import com.tonyodev.fetch2core.getUniqueId
 
 fun Request.toDownloadInfo(downloadInfo: DownloadInfo): DownloadInfo {
@@ -72,4 +73,15 @@ fun CompletedDownload.toDownloadInfo(downloadInfo: DownloadInfo): DownloadInfo {
     downloadInfo.autoRetryMaxAttempts = DEFAULT_AUTO_RETRY_ATTEMPTS
     downloadInfo.autoRetryAttempts = DEFAULT_AUTO_RETRY_ATTEMPTS
     return downloadInfo
-}
\ No newline at end of file
+}
+
+fun Download.toDownloadSummaryInfo(downloadSummaryInfo: DownloadSummaryInfo): DownloadSummaryInfo {
+    downloadSummaryInfo.id = id
+    downloadSummaryInfo.status = status
+    downloadSummaryInfo.downloaded = downloaded
+    downloadSummaryInfo.total = total
+    downloadSummaryInfo.priority = priority
+    downloadSummaryInfo.group = group
+    downloadSummaryInfo.error = error
+    return downloadSummaryInfo
+}
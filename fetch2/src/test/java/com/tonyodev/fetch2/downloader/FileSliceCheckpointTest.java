@@ -0,0 +1,109 @@
+package com.tonyodev.fetch2.downloader;
+
+import com.tonyodev.fetch2core.FetchCoreUtils;
+import com.tonyodev.fetch2core.FileSlice;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FileSliceCheckpointTest {
+
+    private static final int ID = 7;
+    private static final int HEADER_SIZE = 16;
+    private static final int SLICE_RECORD_SIZE = 24;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private String fileTempDir;
+
+    @Before
+    public void setUp() {
+        fileTempDir = temporaryFolder.getRoot().getAbsolutePath();
+    }
+
+    @Test
+    public void savedSlicesRoundTrip() {
+        final FileSliceCheckpoint checkpoint = new FileSliceCheckpoint(ID, fileTempDir, Long.MAX_VALUE);
+        checkpoint.open(Arrays.asList(new FileSlice(ID, 1, 0, 100, 0), new FileSlice(ID, 2, 100, 200, 20)));
+        checkpoint.update(0, 40, 40);
+        checkpoint.update(1, 30, 10);
+        checkpoint.close();
+        final List<FileSlice> savedSlices = FileSliceCheckpoint.Companion.readSavedSlices(ID, fileTempDir);
+        assertEquals(Arrays.asList(new FileSlice(ID, 1, 0, 100, 40), new FileSlice(ID, 2, 100, 200, 30)), savedSlices);
+    }
+
+    @Test
+    public void addedSlicesKeepOffsetsWhenTheRecordGrows() {
+        final FileSliceCheckpoint checkpoint = new FileSliceCheckpoint(ID, fileTempDir, Long.MAX_VALUE);
+        final List<FileSlice> fileSlices = new ArrayList<>(Arrays.asList(new FileSlice(ID, 1, 0, 1000, 0)));
+        checkpoint.open(new ArrayList<>(fileSlices));
+        for (int position = 2; position <= 6; position++) {
+            final FileSlice lastFileSlice = fileSlices.get(fileSlices.size() - 1);
+            final long splitBytes = lastFileSlice.getStartBytes() + (lastFileSlice.getEndBytes() - lastFileSlice.getStartBytes()) / 2;
+            fileSlices.add(new FileSlice(ID, position, splitBytes, lastFileSlice.getEndBytes(), 0));
+            lastFileSlice.setEndBytes(splitBytes);
+            checkpoint.update(position - 2, position, position);
+            lastFileSlice.setDownloaded(position);
+            checkpoint.addSlices(new ArrayList<>(fileSlices));
+        }
+        checkpoint.close();
+        assertEquals(fileSlices, FileSliceCheckpoint.Companion.readSavedSlices(ID, fileTempDir));
+    }
+
+    @Test
+    public void truncatedRecordIsIgnored() throws Exception {
+        final FileSliceCheckpoint checkpoint = new FileSliceCheckpoint(ID, fileTempDir, Long.MAX_VALUE);
+        checkpoint.open(Arrays.asList(new FileSlice(ID, 1, 0, 100, 10), new FileSlice(ID, 2, 100, 200, 10)));
+        checkpoint.close();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(getCheckpointFile(), "rw")) {
+            randomAccessFile.setLength(HEADER_SIZE + SLICE_RECORD_SIZE);
+        }
+        assertTrue(FileSliceCheckpoint.Companion.readSavedSlices(ID, fileTempDir).isEmpty());
+    }
+
+    @Test
+    public void corruptRecordIsIgnored() throws Exception {
+        final FileSliceCheckpoint checkpoint = new FileSliceCheckpoint(ID, fileTempDir, Long.MAX_VALUE);
+        checkpoint.open(Arrays.asList(new FileSlice(ID, 1, 0, 100, 10)));
+        checkpoint.close();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(getCheckpointFile(), "rw")) {
+            randomAccessFile.writeInt(0);
+        }
+        assertTrue(FileSliceCheckpoint.Companion.readSavedSlices(ID, fileTempDir).isEmpty());
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(getCheckpointFile(), "rw")) {
+            randomAccessFile.setLength(HEADER_SIZE - 1);
+        }
+        assertTrue(FileSliceCheckpoint.Companion.readSavedSlices(ID, fileTempDir).isEmpty());
+    }
+
+    @Test
+    public void legacySliceFilesAreReadWithoutCheckpoint() {
+        FetchCoreUtils.writeLongToFile(fileTempDir + "/" + ID + ".meta.data", 2);
+        FetchCoreUtils.writeLongToFile(fileTempDir + "/" + ID + ".1.data", 30);
+        FetchCoreUtils.writeLongToFile(fileTempDir + "/" + ID + ".2.data", 5);
+        final List<FileSlice> savedSlices = FileSliceCheckpoint.Companion.readSavedSlices(ID, fileTempDir);
+        assertEquals(Arrays.asList(new FileSlice(ID, 1, -1, -1, 30), new FileSlice(ID, 2, -1, -1, 5)), savedSlices);
+    }
+
+    @Test
+    public void nothingSaved() {
+        assertTrue(FileSliceCheckpoint.Companion.readSavedSlices(ID, fileTempDir).isEmpty());
+    }
+
+    private File getCheckpointFile() {
+        return new File(FileSliceCheckpoint.Companion.getCheckpointFilePath(ID, fileTempDir));
+    }
+
+}
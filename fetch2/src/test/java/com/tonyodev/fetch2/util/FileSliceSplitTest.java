@@ -0,0 +1,90 @@
+package com.tonyodev.fetch2.util;
+
+import com.tonyodev.fetch2core.FileSlice;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileSliceSplitTest {
+
+    private static final int ID = 7;
+    private static final long TOTAL = 64L * 1024L * 1024L;
+    private static final int BUFFER_SIZE = 8192;
+    private static final long MIN_STEAL_BYTES = 1024L * 1024L;
+
+    @Test
+    public void splitsTheLargestRemainingRange() {
+        final FileSlice first = new FileSlice(ID, 1, 0, TOTAL / 2, TOTAL / 4);
+        final FileSlice second = new FileSlice(ID, 2, TOTAL / 2, TOTAL, 1024);
+        final FileSlice stolen = FetchUtils.splitFileSlice(Arrays.asList(first, second), 3, BUFFER_SIZE, MIN_STEAL_BYTES);
+        assertNotNull(stolen);
+        assertEquals(3, stolen.getPosition());
+        assertEquals(TOTAL, stolen.getEndBytes());
+        assertEquals(stolen.getStartBytes(), second.getEndBytes());
+        assertEquals(TOTAL / 2, first.getEndBytes());
+        assertTrue(stolen.getStartBytes() >= second.getStartBytes() + second.getDownloaded() + BUFFER_SIZE);
+    }
+
+    @Test
+    public void stealsLeaveNoGapsOrOverlaps() {
+        final List<FileSlice> fileSlices = new ArrayList<>();
+        final long sliceSize = TOTAL / 4;
+        for (int position = 1; position <= 4; position++) {
+            fileSlices.add(new FileSlice(ID, position, (position - 1) * sliceSize, position * sliceSize, 0));
+        }
+        final List<FileSlice> activeFileSlices = new ArrayList<>(fileSlices);
+        for (int steal = 0; steal < 32; steal++) {
+            //The first active slice finishes, the others progress a little.
+            final FileSlice finished = activeFileSlices.remove(0);
+            finished.setDownloaded(finished.getEndBytes() - finished.getStartBytes());
+            for (FileSlice fileSlice : activeFileSlices) {
+                fileSlice.setDownloaded(Math.min(fileSlice.getDownloaded() + BUFFER_SIZE * 3, fileSlice.getEndBytes() - fileSlice.getStartBytes()));
+            }
+            final FileSlice stolen = FetchUtils.splitFileSlice(activeFileSlices, fileSlices.size() + 1, BUFFER_SIZE, MIN_STEAL_BYTES);
+            if (stolen == null) {
+                break;
+            }
+            fileSlices.add(stolen);
+            activeFileSlices.add(stolen);
+            assertContiguous(fileSlices);
+        }
+        assertTrue(fileSlices.size() > 4);
+    }
+
+    @Test
+    public void smallRangesAreNotSplit() {
+        final FileSlice fileSlice = new FileSlice(ID, 1, 0, 2 * MIN_STEAL_BYTES + BUFFER_SIZE, 1);
+        assertNull(FetchUtils.splitFileSlice(Collections.singletonList(fileSlice), 2, BUFFER_SIZE, MIN_STEAL_BYTES));
+        assertEquals(2 * MIN_STEAL_BYTES + BUFFER_SIZE, fileSlice.getEndBytes());
+        assertNull(FetchUtils.splitFileSlice(Collections.<FileSlice>emptyList(), 1, BUFFER_SIZE, MIN_STEAL_BYTES));
+    }
+
+    private void assertContiguous(final List<FileSlice> fileSlices) {
+        final List<FileSlice> sortedFileSlices = new ArrayList<>(fileSlices);
+        Collections.sort(sortedFileSlices, new Comparator<FileSlice>() {
+            @Override
+            public int compare(FileSlice first, FileSlice second) {
+                return Long.compare(first.getStartBytes(), second.getStartBytes());
+            }
+        });
+        long expectedStartBytes = 0;
+        for (FileSlice fileSlice : sortedFileSlices) {
+            assertEquals(expectedStartBytes, fileSlice.getStartBytes());
+            assertTrue(fileSlice.getEndBytes() > fileSlice.getStartBytes());
+            assertTrue(fileSlice.getStartBytes() + fileSlice.getDownloaded() <= fileSlice.getEndBytes());
+            expectedStartBytes = fileSlice.getEndBytes();
+        }
+        assertEquals(TOTAL, expectedStartBytes);
+    }
+
+}
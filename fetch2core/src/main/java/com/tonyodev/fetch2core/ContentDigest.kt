@@ -0,0 +1,71 @@
+package com.tonyodev.fetch2core
+
+import java.io.RandomAccessFile
+import java.security.MessageDigest
+
+/**
+ * Computes the hash of the content of a download while its bytes are written, so the
+ * content hash can be verified without reading the whole file again once the download completes.
+ * Bytes must be passed in the order they appear in the file, starting with the first byte.
+ * Bytes that were written before digesting started can be read back from the file with
+ * update(randomAccessFile, endPosition, buffer). This class is not thread safe.
+ * */
+class ContentDigest(val algorithm: String) {
+
+    private val messageDigest = MessageDigest.getInstance(algorithm)
+
+    /** The number of bytes digested so far. This is also the file position of the next byte to digest.*/
+    var digestedBytes = 0L
+        private set
+
+    /** Digests the passed in bytes.
+     * @param byteArray data
+     * @param offSet data offset
+     * @param length data length
+     * */
+    fun update(byteArray: ByteArray, offSet: Int = 0, length: Int = byteArray.size) {
+        messageDigest.update(byteArray, offSet, length)
+        digestedBytes += length
+    }
+
+    /** Reads the bytes of the file between digestedBytes and endPosition and digests them.
+     * @param randomAccessFile file opened for reading
+     * @param endPosition exclusive end position
+     * @param buffer buffer used to read the file
+     * */
+    fun update(randomAccessFile: RandomAccessFile, endPosition: Long, buffer: ByteArray) {
+        randomAccessFile.seek(digestedBytes)
+        while (digestedBytes < endPosition) {
+            val length = minOf(buffer.size.toLong(), endPosition - digestedBytes).toInt()
+            val read = randomAccessFile.read(buffer, 0, length)
+            if (read == -1) {
+                break
+            }
+            update(buffer, 0, read)
+        }
+    }
+
+    /** Completes the digest and returns it as a lower case hex string.
+     * The digest is reset afterwards.*/
+    fun getHashString(): String {
+        digestedBytes = 0L
+        return getDigestHexString(messageDigest.digest())
+    }
+
+    companion object {
+
+        /** Creates a digest for the algorithm of the passed in hash.
+         * @return the digest or null if the hash is empty or its algorithm is not supported.*/
+        @JvmStatic
+        fun create(hash: String): ContentDigest? {
+            val algorithm = getContentHashAlgorithm(hash) ?: return null
+            return try {
+                ContentDigest(algorithm)
+            } catch (e: Exception) {
+                null
+            }
+        }
+
+    }
+
+}
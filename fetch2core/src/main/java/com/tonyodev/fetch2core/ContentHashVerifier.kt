@@ -0,0 +1,28 @@
+package com.tonyodev.fetch2core
+
+/**
+ * Implemented by downloaders that verify the content hash against the hash Fetch computes while
+ * the bytes of a download are written, so the file does not have to be read again. Fetch only
+ * computes the hash for downloaders that implement this interface and only when the hash returned
+ * by the server is a hex encoded MD5 or SHA-256 hash. Otherwise Fetch calls
+ * Downloader.verifyContentHash(request: ServerRequest, hash: String).
+ * The downloaders of the library implement this interface and compare the two hashes ignoring case.
+ * Subclasses that override Downloader.verifyContentHash(request: ServerRequest, hash: String), for
+ * example to read the file again, must also override this method, otherwise their override is
+ * only called when Fetch could not compute the hash.
+ * */
+interface ContentHashVerifier {
+
+    /**
+     * Verifies the hash returned by the server against the hash Fetch computed.
+     * This method is called on a background thread.
+     * @param request the request information for the download.
+     * @param hash Hash returned by the server for the content
+     * @param computedHash lower case hex hash of the downloaded content computed with the
+     * algorithm that matches the length of the server hash.
+     * @return return true if the hash values match otherwise false. If false is returned,
+     * this indicates that the download files is not correct so the download fails.
+     * */
+    fun verifyContentHash(request: Downloader.ServerRequest, hash: String, computedHash: String): Boolean
+
+}
@@ -53,6 +53,8 @@ interface Downloader<T, R> : Closeable {
      * This method is called by Fetch if the FileDownloaderType.Parallel type was set
      * for the download request. Returns the desired slices that the file will be divided in for parallel downloading.
      * If null is returned, Fetch will automatically select an appropriate slicing size based on the content length.
+     * If the FileDownloaderType.ADAPTIVE_PARALLEL type was set, the returned value is the maximum number of
+     * connections Fetch opens to the host of the request. If null, a default maximum is used.
      * This method is called on a background thread.
      * @param request the request information for the download.
      * @param contentLength the total content length in bytes.
@@ -73,8 +75,10 @@ interface Downloader<T, R> : Closeable {
      * This method should be used to verify that the download file Hash matches the
      * passed in Hash returned by the server for the content.
      * This method is called on a background thread.
-     * By default this method tires verify using the MD5 hash. If overriding this method,
+     * By default this method tires verify using the MD5 or SHA-256 hash. If overriding this method,
      * also override getContentHash(responseHeaders: MutableMap<String, List<String>>) method.
+     * Downloaders that implement ContentHashVerifier are only called here when Fetch could not compute
+     * the hash while the download was written.
      * @param request the request information for the download.
      * @param hash Hash returned by the server for the content
      * @return return true if the hash values match otherwise false. If false is returned,
@@ -220,7 +224,12 @@ interface Downloader<T, R> : Closeable {
 
         /** Performs the download by splitting parts of the file in parallel for download.
          * Fastest download option*/
-        PARALLEL
+        PARALLEL,
+
+        /** Performs the download in parallel but starts with a few connections and only adds
+         * more while the measured download speed keeps improving. The value returned by
+         * getFileSlicingCount is used as the maximum number of connections to the host.*/
+        ADAPTIVE_PARALLEL
     }
 
 }
\ No newline at end of file
@@ -20,6 +20,14 @@ const val GET_REQUEST_METHOD = "GET"
 
 const val HEAD_REQUEST_METHOD = "HEAD"
 
+const val MD5_ALGORITHM = "MD5"
+
+const val SHA_256_ALGORITHM = "SHA-256"
+
+const val MD5_HASH_LENGTH = 32
+
+const val SHA_256_HASH_LENGTH = 64
+
 internal const val HEADER_ACCEPT_RANGE = "Accept-Ranges"
 
 internal const val HEADER_ACCEPT_RANGE_LEGACY = "accept-ranges"
@@ -227,26 +235,58 @@ fun getMd5String(bytes: ByteArray, start: Int = 0, length: Int = bytes.size): St
     }
 }
 
-@Suppress("ControlFlowWithEmptyBody")
 fun getFileMd5String(file: String): String? {
+    return getFileDigestString(file, MD5_ALGORITHM)
+}
+
+@Suppress("ControlFlowWithEmptyBody")
+fun getFileDigestString(file: String, algorithm: String): String? {
     val contentFile = File(file)
     return try {
         val buffer = ByteArray(kotlin.io.DEFAULT_BUFFER_SIZE)
-        val md = MessageDigest.getInstance("MD5")
+        val md = MessageDigest.getInstance(algorithm)
         val inputStream = DigestInputStream(FileInputStream(contentFile), md)
         inputStream.use { dis ->
             while (dis.read(buffer) != -1);
         }
-        var md5: String = BigInteger(1, md.digest()).toString(16)
-        while (md5.length < 32) {
-            md5 = "0$md5"
-        }
-        md5
+        getDigestHexString(md.digest())
     } catch (e: Exception) {
         null
     }
 }
 
+fun getDigestHexString(digest: ByteArray): String {
+    var hex: String = BigInteger(1, digest).toString(16)
+    while (hex.length < digest.size * 2) {
+        hex = "0$hex"
+    }
+    return hex
+}
+
+/** Returns the digest algorithm of a hex encoded content hash based on its length.
+ * MD5 and SHA-256 hashes are supported.
+ * @return the algorithm name or null if the hash is not a supported hex encoded hash.*/
+fun getContentHashAlgorithm(hash: String): String? {
+    if (hash.any { Character.digit(it, 16) == -1 }) {
+        return null
+    }
+    return when (hash.length) {
+        MD5_HASH_LENGTH -> MD5_ALGORITHM
+        SHA_256_HASH_LENGTH -> SHA_256_ALGORITHM
+        else -> null
+    }
+}
+
+/** Verifies the file against a hex encoded MD5 or SHA-256 content hash.
+ * An empty hash is always valid.*/
+fun verifyFileContentHash(file: String, hash: String): Boolean {
+    if (hash.isEmpty()) {
+        return true
+    }
+    val fileHash = getFileDigestString(file, getContentHashAlgorithm(hash) ?: MD5_ALGORITHM)
+    return fileHash?.equals(hash, ignoreCase = true) ?: true
+}
+
 fun isParallelDownloadingSupported(code: Int, headers: Map<String, List<String>>): Boolean {
     return acceptRanges(code, headers)
 }
@@ -261,6 +301,7 @@ fun getRequestSupportedFileDownloaderTypes(
         if (response != null) {
             if (isParallelDownloadingSupported(response.code, response.responseHeaders)) {
                 fileDownloaderTypeSet.add(Downloader.FileDownloaderType.PARALLEL)
+                fileDownloaderTypeSet.add(Downloader.FileDownloaderType.ADAPTIVE_PARALLEL)
             }
             downloader.disconnect(response)
         }
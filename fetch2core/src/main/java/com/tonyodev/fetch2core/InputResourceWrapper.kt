@@ -2,6 +2,7 @@ package com.tonyodev.fetch2core
 
 import java.io.Closeable
 import java.io.IOException
+import java.nio.channels.WritableByteChannel
 
 /**
  * Class that can be used to wrap an INPUT Stream of file input resource.
@@ -22,4 +23,19 @@ abstract class InputResourceWrapper : Closeable {
     @Throws(IOException::class)
     abstract fun setReadOffset(offset: Long)
 
+    /** Transfers bytes of the resource directly to the target channel without copying them
+     * through a heap buffer. Resources backed by a FileChannel override this method and use
+     * FileChannel.transferTo, so the kernel can move the bytes from the page cache to a socket.
+     * The read offset of the resource is not changed.
+     * @param position absolute position in the resource of the first byte to transfer
+     * @param count maximum number of bytes to transfer
+     * @param target channel the bytes are transferred to
+     * @return the number of bytes transferred, 0 if the position is at the end of the resource or
+     * -1 if the resource does not support direct transfers. Callers should then use read.
+     * */
+    @Throws(IOException::class)
+    open fun transferTo(position: Long, count: Long, target: WritableByteChannel): Long {
+        return -1L
+    }
+
 }
\ No newline at end of file
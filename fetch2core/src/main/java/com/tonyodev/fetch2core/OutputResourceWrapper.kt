@@ -16,6 +16,24 @@ abstract class OutputResourceWrapper : Closeable {
     @Throws(IOException::class)
     abstract fun write(byteArray: ByteArray, offSet: Int = 0, length: Int = byteArray.size)
 
+    /** Write bytes to resource at an absolute position. Unlike setWriteOffset followed by write,
+     * this method does not depend on a shared write offset, so callers writing to non overlapping
+     * regions of the resource can call it concurrently from multiple threads.
+     * Resources backed by a FileChannel override this method to perform positional writes.
+     * The default implementation serializes calls and falls back to setWriteOffset and write.
+     * @param position absolute write position in the resource
+     * @param byteArray data
+     * @param offSet offset in the byteArray
+     * @param length data length
+     * */
+    @Throws(IOException::class)
+    open fun writeAtPosition(position: Long, byteArray: ByteArray, offSet: Int = 0, length: Int = byteArray.size) {
+        synchronized(this) {
+            setWriteOffset(position)
+            write(byteArray, offSet, length)
+        }
+    }
+
     /** Set write offset position
      * @param offset write offset position
      * */
@@ -10,6 +10,9 @@ import android.os.Build
 import android.os.ParcelFileDescriptor
 import android.provider.DocumentsContract
 import java.io.*
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.channels.WritableByteChannel
 
 fun getOutputResourceWrapper(parcelFileDescriptor: ParcelFileDescriptor): OutputResourceWrapper {
     return getOutputResourceWrapper(parcelFileDescriptor.fileDescriptor)
@@ -36,6 +39,10 @@ fun getOutputResourceWrapper(fileOutputStream: FileOutputStream): OutputResource
             this.fileOutputStream.channel.position(offset)
         }
 
+        override fun writeAtPosition(position: Long, byteArray: ByteArray, offSet: Int, length: Int) {
+            writeToFileChannel(this.fileOutputStream.channel, position, byteArray, offSet, length)
+        }
+
         override fun flush() {
             this.fileOutputStream.flush()
         }
@@ -113,6 +120,10 @@ fun getOutputResourceWrapper(randomAccessFile: RandomAccessFile): OutputResource
             this.randomAccessFile.seek(offset)
         }
 
+        override fun writeAtPosition(position: Long, byteArray: ByteArray, offSet: Int, length: Int) {
+            writeToFileChannel(this.randomAccessFile.channel, position, byteArray, offSet, length)
+        }
+
         override fun flush() {
 
         }
@@ -123,6 +134,40 @@ fun getOutputResourceWrapper(randomAccessFile: RandomAccessFile): OutputResource
     }
 }
 
+fun getInputResourceWrapper(randomAccessFile: RandomAccessFile): InputResourceWrapper {
+    return object : InputResourceWrapper() {
+
+        private val randomAccessFile = randomAccessFile
+
+        override fun read(byteArray: ByteArray, offSet: Int, length: Int): Int {
+            return this.randomAccessFile.read(byteArray, offSet, length)
+        }
+
+        override fun setReadOffset(offset: Long) {
+            this.randomAccessFile.seek(offset)
+        }
+
+        override fun transferTo(position: Long, count: Long, target: WritableByteChannel): Long {
+            return this.randomAccessFile.channel.transferTo(position, count, target)
+        }
+
+        override fun close() {
+            this.randomAccessFile.close()
+        }
+    }
+}
+
+/** Writes the bytes to the file channel at the absolute position without changing the
+ * channel position. Positional writes do not share state so concurrent callers writing
+ * to different regions of the same file do not need to synchronize.*/
+fun writeToFileChannel(fileChannel: FileChannel, position: Long, byteArray: ByteArray, offSet: Int, length: Int) {
+    val byteBuffer = ByteBuffer.wrap(byteArray, offSet, length)
+    var writePosition = position
+    while (byteBuffer.hasRemaining()) {
+        writePosition += fileChannel.write(byteBuffer, writePosition)
+    }
+}
+
 fun deleteFile(filePath: String, context: Context): Boolean {
     return if (isUriPath(filePath)) {
         val uri = Uri.parse(filePath)
@@ -198,6 +243,32 @@ fun createFileAtPath(filePath: String, increment: Boolean, context: Context): St
     }
 }
 
+/**
+ * Creates the parent directories of the passed in local file paths. Each distinct directory is
+ * checked once, so files created afterwards in the same directories skip the directory checks.
+ * Content uris are skipped. Failures are ignored and reported when the files are created.
+ * */
+fun createParentDirectories(filePaths: Collection<String>) {
+    val directories = HashSet<File>()
+    for (filePath in filePaths) {
+        val localPath = if (isUriPath(filePath)) {
+            val uri = Uri.parse(filePath)
+            if (uri.scheme == "file") uri.path else null
+        } else {
+            filePath
+        }
+        val directory = localPath?.let { File(it).parentFile }
+        if (directory != null) {
+            directories.add(directory)
+        }
+    }
+    for (directory in directories) {
+        if (!directory.exists()) {
+            directory.mkdirs()
+        }
+    }
+}
+
 fun createLocalFile(filePath: String, increment: Boolean): String {
     return if (!increment) {
         createFile(File(filePath))
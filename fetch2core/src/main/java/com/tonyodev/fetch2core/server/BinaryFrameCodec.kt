@@ -0,0 +1,237 @@
+package com.tonyodev.fetch2core.server
+
+import com.tonyodev.fetch2core.Extras
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.IOException
+
+/**
+ * Compact binary frame format of the Fetch File Server protocol.
+ *
+ * A client asks for binary framing by sending the handshake right after connecting. The handshake
+ * is a valid writeUTF frame, so a server that only understands JSON fails to parse it and answers
+ * with a JSON error. The client then falls back to JSON on a new connection. A server that supports
+ * binary framing answers with the same handshake and both sides use binary frames for the rest of
+ * the connection.
+ *
+ * A binary frame is the payload size as an int followed by the payload. Requests and responses
+ * are encoded as fixed width fields followed by length prefixed UTF-8 strings. Unlike the JSON
+ * format, which is limited to the 64 KB of writeUTF, a frame may carry up to MAX_FRAME_SIZE bytes,
+ * so large extras and authorization values fit. Frame buffers grow as bytes arrive instead of
+ * trusting the size sent by the peer, so the cap does not cost memory for small frames.
+ * */
+object BinaryFrameCodec {
+
+    const val VERSION = 1
+
+    /** Largest binary frame payload accepted, 1 MB. Larger frames are rejected when read.*/
+    const val MAX_FRAME_SIZE = 1024 * 1024
+
+    private val HANDSHAKE = byteArrayOf('F'.code.toByte(), 'S'.code.toByte(), 'B'.code.toByte(), VERSION.toByte())
+
+    /** Size of the handshake frame including its two byte writeUTF length.*/
+    val HANDSHAKE_FRAME_SIZE = 2 + HANDSHAKE.size
+
+    /** @return the handshake as a writeUTF compatible frame.*/
+    @JvmStatic
+    fun getHandshakeFrame(): ByteArray {
+        val frame = ByteArray(HANDSHAKE_FRAME_SIZE)
+        frame[0] = (HANDSHAKE.size shr 8).toByte()
+        frame[1] = HANDSHAKE.size.toByte()
+        System.arraycopy(HANDSHAKE, 0, frame, 2, HANDSHAKE.size)
+        return frame
+    }
+
+    /** @return true if the writeUTF payload is the binary framing handshake.*/
+    @JvmStatic
+    fun isHandshake(payload: ByteArray, offset: Int = 0, length: Int = payload.size): Boolean {
+        if (length != HANDSHAKE.size) {
+            return false
+        }
+        for (index in HANDSHAKE.indices) {
+            if (payload[offset + index] != HANDSHAKE[index]) {
+                return false
+            }
+        }
+        return true
+    }
+
+    @JvmStatic
+    fun writeRequest(dataOutput: DataOutputStream, fileRequest: FileRequest) {
+        writeFrame(dataOutput, encodeRequest(fileRequest))
+    }
+
+    @JvmStatic
+    fun readRequest(dataInput: DataInputStream): FileRequest {
+        return decodeRequest(readFrame(dataInput))
+    }
+
+    @JvmStatic
+    fun writeResponse(dataOutput: DataOutputStream, fileResponse: FileResponse) {
+        writeFrame(dataOutput, encodeResponse(fileResponse))
+    }
+
+    @JvmStatic
+    fun readResponse(dataInput: DataInputStream): FileResponse {
+        return decodeResponse(readFrame(dataInput))
+    }
+
+    /** @return the request as a complete frame, including the payload size.*/
+    @JvmStatic
+    fun getRequestFrame(fileRequest: FileRequest): ByteArray {
+        return getFrame(encodeRequest(fileRequest))
+    }
+
+    /** @return the response as a complete frame, including the payload size.*/
+    @JvmStatic
+    fun getResponseFrame(fileResponse: FileResponse): ByteArray {
+        return getFrame(encodeResponse(fileResponse))
+    }
+
+    @JvmStatic
+    fun encodeRequest(fileRequest: FileRequest): ByteArray {
+        return encode {
+            it.writeInt(fileRequest.type)
+            it.writeLong(fileRequest.rangeStart)
+            it.writeLong(fileRequest.rangeEnd)
+            it.writeInt(fileRequest.page)
+            it.writeInt(fileRequest.size)
+            it.writeBoolean(fileRequest.persistConnection)
+            writeString(it, fileRequest.fileResourceId)
+            writeString(it, fileRequest.authorization)
+            writeString(it, fileRequest.client)
+            val extras = fileRequest.extras.map
+            it.writeInt(extras.size)
+            extras.forEach { entry ->
+                writeString(it, entry.key)
+                writeString(it, entry.value)
+            }
+        }
+    }
+
+    @JvmStatic
+    fun decodeRequest(payload: ByteArray, offset: Int = 0, length: Int = payload.size): FileRequest {
+        val dataInput = DataInputStream(ByteArrayInputStream(payload, offset, length))
+        val type = dataInput.readInt()
+        val rangeStart = dataInput.readLong()
+        val rangeEnd = dataInput.readLong()
+        val page = dataInput.readInt()
+        val size = dataInput.readInt()
+        val persistConnection = dataInput.readBoolean()
+        val fileResourceId = readString(dataInput)
+        val authorization = readString(dataInput)
+        val client = readString(dataInput)
+        val extrasSize = dataInput.readInt()
+        val extras = if (extrasSize > 0) {
+            val map = mutableMapOf<String, String>()
+            for (index in 0 until extrasSize) {
+                map[readString(dataInput)] = readString(dataInput)
+            }
+            Extras(map)
+        } else {
+            Extras.emptyExtras
+        }
+        return FileRequest.createFileRequest(
+                type = type,
+                fileResourceId = fileResourceId,
+                rangeStart = rangeStart,
+                rangeEnd = rangeEnd,
+                authorization = authorization,
+                client = client,
+                extras = extras,
+                page = page,
+                size = size,
+                persistConnection = persistConnection)
+    }
+
+    @JvmStatic
+    fun encodeResponse(fileResponse: FileResponse): ByteArray {
+        return encode {
+            it.writeInt(fileResponse.status)
+            it.writeInt(fileResponse.type)
+            it.writeInt(fileResponse.connection)
+            it.writeLong(fileResponse.date)
+            it.writeLong(fileResponse.contentLength)
+            writeString(it, fileResponse.md5)
+            writeString(it, fileResponse.sessionId)
+        }
+    }
+
+    @JvmStatic
+    fun decodeResponse(payload: ByteArray, offset: Int = 0, length: Int = payload.size): FileResponse {
+        val dataInput = DataInputStream(ByteArrayInputStream(payload, offset, length))
+        return FileResponse(
+                status = dataInput.readInt(),
+                type = dataInput.readInt(),
+                connection = dataInput.readInt(),
+                date = dataInput.readLong(),
+                contentLength = dataInput.readLong(),
+                md5 = readString(dataInput),
+                sessionId = readString(dataInput))
+    }
+
+    private fun encode(writer: (DataOutputStream) -> Unit): ByteArray {
+        val byteArrayOutputStream = ByteArrayOutputStream(FRAME_BUFFER_SIZE)
+        DataOutputStream(byteArrayOutputStream).use(writer)
+        return byteArrayOutputStream.toByteArray()
+    }
+
+    private fun getFrame(payload: ByteArray): ByteArray {
+        val frame = ByteArray(4 + payload.size)
+        frame[0] = (payload.size shr 24).toByte()
+        frame[1] = (payload.size shr 16).toByte()
+        frame[2] = (payload.size shr 8).toByte()
+        frame[3] = payload.size.toByte()
+        System.arraycopy(payload, 0, frame, 4, payload.size)
+        return frame
+    }
+
+    private fun writeFrame(dataOutput: DataOutputStream, payload: ByteArray) {
+        dataOutput.writeInt(payload.size)
+        dataOutput.write(payload)
+    }
+
+    private fun readFrame(dataInput: DataInputStream): ByteArray {
+        val size = dataInput.readInt()
+        if (size < 0 || size > MAX_FRAME_SIZE) {
+            throw IOException("Invalid binary frame size $size")
+        }
+        var payload = ByteArray(minOf(size, FRAME_BUFFER_SIZE))
+        var read = 0
+        while (read < size) {
+            if (read == payload.size) {
+                payload = payload.copyOf(minOf(size, payload.size * 2))
+            }
+            val count = dataInput.read(payload, read, payload.size - read)
+            if (count == -1) {
+                throw EOFException("Binary frame ended after $read of $size bytes")
+            }
+            read += count
+        }
+        return payload
+    }
+
+    private fun writeString(dataOutput: DataOutputStream, value: String) {
+        val bytes = value.toByteArray(Charsets.UTF_8)
+        dataOutput.writeInt(bytes.size)
+        dataOutput.write(bytes)
+    }
+
+    /** Strings are only read from a payload that is already in memory, so available() is the
+     * exact number of bytes left and bounds the string size.*/
+    private fun readString(dataInput: DataInputStream): String {
+        val size = dataInput.readInt()
+        if (size < 0 || size > dataInput.available()) {
+            throw IOException("Invalid binary string size $size")
+        }
+        val bytes = ByteArray(size)
+        dataInput.readFully(bytes)
+        return String(bytes, Charsets.UTF_8)
+    }
+
+    private const val FRAME_BUFFER_SIZE = 128
+
+}
@@ -1,6 +1,6 @@
 package com.tonyodev.fetch2core.server
 
-import com.tonyodev.fetch2core.Extras
+import com.tonyodev.fetch2core.InputResourceWrapper
 import com.tonyodev.fetch2core.server.FileResponse.CREATOR.FIELD_CONNECTION
 import com.tonyodev.fetch2core.server.FileResponse.CREATOR.FIELD_CONTENT_LENGTH
 import com.tonyodev.fetch2core.server.FileResponse.CREATOR.FIELD_DATE
@@ -9,6 +9,7 @@ import com.tonyodev.fetch2core.server.FileResponse.CREATOR.FIELD_SESSION_ID
 import com.tonyodev.fetch2core.server.FileResponse.CREATOR.FIELD_STATUS
 import com.tonyodev.fetch2core.server.FileResponse.CREATOR.FIELD_TYPE
 import org.json.JSONObject
+import java.io.ByteArrayInputStream
 import java.io.DataInputStream
 import java.io.DataOutputStream
 import java.io.InputStream
@@ -24,6 +25,26 @@ class FetchFileResourceTransporter(private val client: Socket = Socket()) : File
     private val lock = Any()
     @Volatile
     private var closed = false
+    @Volatile
+    private var binaryFraming = false
+    @Volatile
+    private var binaryFramingRequested = false
+    @Volatile
+    private var binaryFramingRejected = false
+
+    /** True once both sides of the connection agreed to use binary frames.*/
+    val isBinaryFraming: Boolean
+        get() {
+            return binaryFraming
+        }
+
+    /** True if binary framing was requested but the server only understands JSON frames.
+     * The response that rejected the request was returned by receiveFileResponse and the
+     * connection should be replaced by a connection that does not request binary framing.*/
+    val isBinaryFramingRejected: Boolean
+        get() {
+            return binaryFramingRejected
+        }
 
     override val isClosed: Boolean
         get() {
@@ -51,53 +72,38 @@ class FetchFileResourceTransporter(private val client: Socket = Socket()) : File
         }
     }
 
+    /**
+     * Connects to the server and asks it to use binary frames for the connection. Requests are
+     * sent as binary frames right away and the answer of the server is read together with the first
+     * response. Check isBinaryFramingRejected after receiving the first response.
+     * */
+    fun connect(socketAddress: SocketAddress, requestBinaryFraming: Boolean) {
+        synchronized(lock) {
+            connect(socketAddress)
+            if (requestBinaryFraming) {
+                binaryFramingRequested = true
+                dataOutput.write(BinaryFrameCodec.getHandshakeFrame())
+            }
+        }
+    }
+
     override fun receiveFileRequest(): FileRequest {
         return synchronized(lock) {
             throwExceptionIfClosed()
             throwIfNotConnected()
-            val json = JSONObject(dataInput.readUTF())
-            val requestType = json.getInt(FileRequest.FIELD_TYPE)
-            val fileResourceId = json.getString(FileRequest.FIELD_FILE_RESOURCE_ID)
-            var rangeStart = json.getLong(FileRequest.FIELD_RANGE_START)
-            var rangeEnd = json.getLong(FileRequest.FIELD_RANGE_END)
-            val authorization = json.getString(FileRequest.FIELD_AUTHORIZATION)
-            val client = json.getString(FileRequest.FIELD_CLIENT)
-            val extras = try {
-                val map = mutableMapOf<String, String>()
-                val jsonObject = JSONObject(json.getString(FileRequest.FIELD_EXTRAS))
-                jsonObject.keys().forEach {
-                    map[it] = jsonObject.getString(it)
+            if (binaryFraming) {
+                BinaryFrameCodec.readRequest(dataInput)
+            } else {
+                val payload = readUtfPayload()
+                if (BinaryFrameCodec.isHandshake(payload)) {
+                    binaryFraming = true
+                    dataOutput.write(BinaryFrameCodec.getHandshakeFrame())
+                    dataOutput.flush()
+                    BinaryFrameCodec.readRequest(dataInput)
+                } else {
+                    FileRequest.fromJsonString(decodeUtfPayload(payload))
                 }
-                Extras(map)
-            } catch (e: Exception) {
-                Extras.emptyExtras
-            }
-            var page = json.getInt(FileRequest.FIELD_PAGE)
-            var size = json.getInt(FileRequest.FIELD_SIZE)
-            if ((rangeStart < 0L || rangeStart > rangeEnd) && rangeEnd > -1) {
-                rangeStart = 0L
             }
-            if (rangeEnd < 0L) {
-                rangeEnd = -1L
-            }
-            if (page < -1) {
-                page = -1
-            }
-            if (size < -1) {
-                size = -1
-            }
-            val persistConnection = json.getBoolean(FileRequest.FIELD_PERSIST_CONNECTION)
-            FileRequest(
-                    type = requestType,
-                    fileResourceId = fileResourceId,
-                    rangeStart = rangeStart,
-                    rangeEnd = rangeEnd,
-                    authorization = authorization,
-                    client = client,
-                    extras = extras,
-                    page = page,
-                    size = size,
-                    persistConnection = persistConnection)
         }
     }
 
@@ -105,7 +111,11 @@ class FetchFileResourceTransporter(private val client: Socket = Socket()) : File
         synchronized(lock) {
             throwExceptionIfClosed()
             throwIfNotConnected()
-            dataOutput.writeUTF(fileRequest.toJsonString)
+            if (binaryFraming || binaryFramingRequested) {
+                BinaryFrameCodec.writeRequest(dataOutput, fileRequest)
+            } else {
+                dataOutput.writeUTF(fileRequest.toJsonString)
+            }
             dataOutput.flush()
         }
     }
@@ -114,30 +124,52 @@ class FetchFileResourceTransporter(private val client: Socket = Socket()) : File
         return synchronized(lock) {
             throwExceptionIfClosed()
             throwIfNotConnected()
-            val json = JSONObject(dataInput.readUTF().lowercase())
-            val status = json.getInt(FIELD_STATUS)
-            val requestType = json.getInt(FIELD_TYPE)
-            val connection = json.getInt(FIELD_CONNECTION)
-            val date = json.getLong(FIELD_DATE)
-            val contentLength = json.getLong(FIELD_CONTENT_LENGTH)
-            val md5 = json.getString(FIELD_MD5)
-            val sessionId = json.getString(FIELD_SESSION_ID)
-            FileResponse(
-                    status = status,
-                    type = requestType,
-                    connection = connection,
-                    date = date,
-                    contentLength = contentLength,
-                    md5 = md5,
-                    sessionId = sessionId)
+            if (binaryFramingRequested) {
+                binaryFramingRequested = false
+                val payload = readUtfPayload()
+                if (BinaryFrameCodec.isHandshake(payload)) {
+                    binaryFraming = true
+                } else {
+                    binaryFramingRejected = true
+                    return parseFileResponse(decodeUtfPayload(payload))
+                }
+            }
+            if (binaryFraming) {
+                BinaryFrameCodec.readResponse(dataInput)
+            } else {
+                parseFileResponse(dataInput.readUTF())
+            }
         }
     }
 
+    private fun parseFileResponse(jsonString: String): FileResponse {
+        val json = JSONObject(jsonString.lowercase())
+        val status = json.getInt(FIELD_STATUS)
+        val requestType = json.getInt(FIELD_TYPE)
+        val connection = json.getInt(FIELD_CONNECTION)
+        val date = json.getLong(FIELD_DATE)
+        val contentLength = json.getLong(FIELD_CONTENT_LENGTH)
+        val md5 = json.getString(FIELD_MD5)
+        val sessionId = json.getString(FIELD_SESSION_ID)
+        return FileResponse(
+                status = status,
+                type = requestType,
+                connection = connection,
+                date = date,
+                contentLength = contentLength,
+                md5 = md5,
+                sessionId = sessionId)
+    }
+
     override fun sendFileResponse(fileResponse: FileResponse) {
         synchronized(lock) {
             throwExceptionIfClosed()
             throwIfNotConnected()
-            dataOutput.writeUTF(fileResponse.toJsonString)
+            if (binaryFraming) {
+                BinaryFrameCodec.writeResponse(dataOutput, fileResponse)
+            } else {
+                dataOutput.writeUTF(fileResponse.toJsonString)
+            }
             dataOutput.flush()
         }
     }
@@ -151,6 +183,19 @@ class FetchFileResourceTransporter(private val client: Socket = Socket()) : File
         }
     }
 
+    override fun transferRawBytes(inputResourceWrapper: InputResourceWrapper, position: Long, count: Long): Long {
+        synchronized(lock) {
+            throwExceptionIfClosed()
+            throwIfNotConnected()
+            val channel = client.channel
+            if (channel == null || !channel.isBlocking) {
+                return -1L
+            }
+            dataOutput.flush()
+            return inputResourceWrapper.transferTo(position, count, channel)
+        }
+    }
+
     override fun readRawBytes(byteArray: ByteArray, offset: Int, length: Int): Int {
         return synchronized(lock) {
             throwExceptionIfClosed()
@@ -195,6 +240,20 @@ class FetchFileResourceTransporter(private val client: Socket = Socket()) : File
         }
     }
 
+    private fun readUtfPayload(): ByteArray {
+        val payload = ByteArray(dataInput.readUnsignedShort())
+        dataInput.readFully(payload)
+        return payload
+    }
+
+    private fun decodeUtfPayload(payload: ByteArray): String {
+        val frame = ByteArray(payload.size + 2)
+        frame[0] = (payload.size shr 8).toByte()
+        frame[1] = payload.size.toByte()
+        System.arraycopy(payload, 0, frame, 2, payload.size)
+        return DataInputStream(ByteArrayInputStream(frame)).readUTF()
+    }
+
     private fun throwExceptionIfClosed() {
         if (closed) {
             throw Exception("FetchFileResourceTransporter is already closed.")
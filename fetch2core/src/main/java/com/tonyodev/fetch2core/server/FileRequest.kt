@@ -3,6 +3,7 @@ package com.tonyodev.fetch2core.server
 import android.os.Parcel
 import android.os.Parcelable
 import com.tonyodev.fetch2core.Extras
+import org.json.JSONObject
 import java.io.Serializable
 import java.lang.StringBuilder
 
@@ -75,6 +76,80 @@ data class FileRequest(val type: Int = TYPE_INVALID,
         const val FIELD_SIZE = "Size"
         const val FIELD_PERSIST_CONNECTION = "Persist-Connection"
 
+        /** Parses a request sent by a client as JSON.*/
+        @JvmStatic
+        fun fromJsonString(jsonString: String): FileRequest {
+            val json = JSONObject(jsonString)
+            val requestType = json.getInt(FIELD_TYPE)
+            val fileResourceId = json.getString(FIELD_FILE_RESOURCE_ID)
+            val rangeStart = json.getLong(FIELD_RANGE_START)
+            val rangeEnd = json.getLong(FIELD_RANGE_END)
+            val authorization = json.getString(FIELD_AUTHORIZATION)
+            val client = json.getString(FIELD_CLIENT)
+            val extras = try {
+                val map = mutableMapOf<String, String>()
+                val jsonObject = JSONObject(json.getString(FIELD_EXTRAS))
+                jsonObject.keys().forEach {
+                    map[it] = jsonObject.getString(it)
+                }
+                Extras(map)
+            } catch (e: Exception) {
+                Extras.emptyExtras
+            }
+            return createFileRequest(
+                    type = requestType,
+                    fileResourceId = fileResourceId,
+                    rangeStart = rangeStart,
+                    rangeEnd = rangeEnd,
+                    authorization = authorization,
+                    client = client,
+                    extras = extras,
+                    page = json.getInt(FIELD_PAGE),
+                    size = json.getInt(FIELD_SIZE),
+                    persistConnection = json.getBoolean(FIELD_PERSIST_CONNECTION))
+        }
+
+        /** Creates a request received from a client and clamps invalid ranges and paging values.*/
+        @JvmStatic
+        fun createFileRequest(type: Int,
+                              fileResourceId: String,
+                              rangeStart: Long,
+                              rangeEnd: Long,
+                              authorization: String,
+                              client: String,
+                              extras: Extras,
+                              page: Int,
+                              size: Int,
+                              persistConnection: Boolean): FileRequest {
+            var start = rangeStart
+            var end = rangeEnd
+            var requestPage = page
+            var requestSize = size
+            if ((start < 0L || start > end) && end > -1) {
+                start = 0L
+            }
+            if (end < 0L) {
+                end = -1L
+            }
+            if (requestPage < -1) {
+                requestPage = -1
+            }
+            if (requestSize < -1) {
+                requestSize = -1
+            }
+            return FileRequest(
+                    type = type,
+                    fileResourceId = fileResourceId,
+                    rangeStart = start,
+                    rangeEnd = end,
+                    authorization = authorization,
+                    client = client,
+                    extras = extras,
+                    page = requestPage,
+                    size = requestSize,
+                    persistConnection = persistConnection)
+        }
+
         @Suppress("UNCHECKED_CAST")
         override fun createFromParcel(source: Parcel): FileRequest {
             return FileRequest(
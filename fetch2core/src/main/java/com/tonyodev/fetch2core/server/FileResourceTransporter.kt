@@ -1,5 +1,6 @@
 package com.tonyodev.fetch2core.server
 
+import com.tonyodev.fetch2core.InputResourceWrapper
 import java.io.InputStream
 import java.io.OutputStream
 import java.net.SocketAddress
@@ -14,6 +15,15 @@ interface FileResourceTransporter : FileResourceTransporterWriter {
 
     fun receiveFileResponse(): FileResponse?
 
+    /** Transfers bytes of the input resource straight to the socket channel of the client.
+     * The default implementation does not support direct transfers and returns -1.
+     * @return the number of bytes transferred, 0 if the position is at the end of the resource or -1
+     * if the client socket has no blocking channel or the resource does not support direct transfers.
+     * Callers should then send the bytes with sendRawBytes.*/
+    fun transferRawBytes(inputResourceWrapper: InputResourceWrapper, position: Long, count: Long): Long {
+        return -1L
+    }
+
     fun readRawBytes(byteArray: ByteArray, offset: Int, length: Int): Int
 
     fun getInputStream(): InputStream
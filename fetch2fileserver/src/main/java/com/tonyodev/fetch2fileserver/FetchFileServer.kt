@@ -2,7 +2,9 @@ package com.tonyodev.fetch2fileserver
 
 import android.content.Context
 import com.tonyodev.fetch2core.*
+import java.net.InetSocketAddress
 import java.net.ServerSocket
+import java.nio.channels.ServerSocketChannel
 
 /** A lightweight TCP File Server that acts like an HTTP file server
  * designed specifically for Android to distribute files from on device to another.
@@ -86,7 +88,7 @@ interface FetchFileServer {
             /** context*/
             private val context: Context) {
 
-        private var serverSocket = ServerSocket(0)
+        private var serverSocket = getDefaultServerSocket()
         private var clearDatabaseOnShutdown = false
         private var logger = FetchFileServerLogger()
         private var fileServerAuthenticator: FetchFileServerAuthenticator? = null
@@ -97,7 +99,9 @@ interface FetchFileServer {
         private var persistentConnectionTimeout = DEFAULT_PERSISTENT_TIME_OUT_IN_MILLISECONDS
         private var fileResolver: FileResolver = object: FileResolver(context.applicationContext) {}
 
-        /** Set Custom Server Socket
+        /** Set Custom Server Socket. Server sockets created by a ServerSocketChannel are served by a
+         * small fixed number of selector threads and send file resources with zero copy transfers.
+         * Other server sockets are served with a thread per client.
          * @param serverSocket
          * @return builder
          * */
@@ -221,6 +225,14 @@ interface FetchFileServer {
             )
         }
 
+        /** Server sockets opened by a ServerSocketChannel let the server use non blocking
+         * client channels and transfer file resources to them without copying.*/
+        private fun getDefaultServerSocket(): ServerSocket {
+            val serverSocket = ServerSocketChannel.open().socket()
+            serverSocket.bind(InetSocketAddress(0))
+            return serverSocket
+        }
+
     }
 
 }
\ No newline at end of file
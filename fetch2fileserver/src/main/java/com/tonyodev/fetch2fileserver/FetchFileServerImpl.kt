@@ -13,12 +13,18 @@ import com.tonyodev.fetch2fileserver.database.toFileResourceInfo
 import com.tonyodev.fetch2fileserver.provider.FileResourceProvider
 import com.tonyodev.fetch2fileserver.provider.FileResourceProviderDelegate
 import com.tonyodev.fetch2fileserver.provider.FetchFileResourceProvider
+import com.tonyodev.fetch2fileserver.provider.FileServerIoLoop
+import com.tonyodev.fetch2fileserver.provider.SelectorFileResourceProvider
 import com.tonyodev.fetch2core.server.FileRequest
 import com.tonyodev.fetch2core.server.FileResourceTransporterWriter
 import org.json.JSONObject
 import java.net.ServerSocket
 import java.net.Socket
+import java.nio.channels.ServerSocketChannel
+import java.nio.channels.SocketChannel
 import java.util.*
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
 
 
 class FetchFileServerImpl(context: Context,
@@ -51,6 +57,9 @@ class FetchFileServerImpl(context: Context,
         Handler(handlerThread.looper)
     }()
     private val mainHandler = Handler(Looper.getMainLooper())
+    private var ioLoops = emptyList<FileServerIoLoop>()
+    private var requestExecutor: ExecutorService? = null
+    private var nextIoLoopIndex = 0
 
     override val port: Int
         get() {
@@ -80,6 +89,11 @@ class FetchFileServerImpl(context: Context,
             throwIfTerminated()
             if (!isStarted && !isTerminated) {
                 isStarted = true
+                val serverSocketChannel = serverSocket.channel
+                if (serverSocketChannel != null) {
+                    startSelectorServer(serverSocketChannel)
+                    return
+                }
                 Thread {
                     while (!isTerminated) {
                         try {
@@ -99,6 +113,65 @@ class FetchFileServerImpl(context: Context,
         }
     }
 
+    /** Serves all clients on a small fixed number of selector loops instead of a thread per client.
+     * The accepting thread only hands new connections to the loops. Requests call the delegate,
+     * which may block, for example in onCustomRequest while a slow client drains the response.
+     * They run on a cached pool, so a slow request never holds up the requests of other clients
+     * and threads only exist while requests are processed.*/
+    private fun startSelectorServer(serverSocketChannel: ServerSocketChannel) {
+        val ioThreadCount = Runtime.getRuntime().availableProcessors().coerceIn(1, MAX_IO_THREADS)
+        requestExecutor = Executors.newCachedThreadPool()
+        ioLoops = (1..ioThreadCount).map {
+            val ioLoop = FileServerIoLoop("FetchFileServer - $id - IO $it", logger)
+            ioLoop.start()
+            ioLoop
+        }
+        serverSocketChannel.configureBlocking(true)
+        Thread {
+            while (!isTerminated) {
+                try {
+                    val client = serverSocketChannel.accept()
+                    if (!isTerminated) {
+                        processClient(client)
+                    } else {
+                        client.close()
+                    }
+                } catch (e: Exception) {
+                    logger.e(TAG + "- ${e.message}")
+                }
+            }
+            cleanUpServer()
+        }.start()
+    }
+
+    private fun processClient(clientSocketChannel: SocketChannel) {
+        val executor = requestExecutor
+        if (!isTerminated && executor != null) {
+            clientSocketChannel.configureBlocking(false)
+            val ioLoop = ioLoops[nextIoLoopIndex]
+            nextIoLoopIndex = (nextIoLoopIndex + 1) % ioLoops.size
+            val fileResourceProvider = SelectorFileResourceProvider(
+                    socketChannel = clientSocketChannel,
+                    ioLoop = ioLoop,
+                    requestExecutor = executor,
+                    fileResourceProviderDelegate = fileResourceProviderDelegate,
+                    logger = logger,
+                    progressReportingInMillis = progressReportingInMillis,
+                    persistentTimeoutInMillis = persistentTimeoutInMillis,
+                    fileResolver = fileResolver
+            )
+            try {
+                fileResourceProviderMap[fileResourceProvider.id] = fileResourceProvider
+                fileResourceProvider.execute()
+            } catch (e: Exception) {
+                logger.e(TAG + "- ${e.message}")
+                fileResourceProviderDelegate.onFinished(fileResourceProvider.id)
+            }
+        } else {
+            clientSocketChannel.close()
+        }
+    }
+
     private fun processClient(clientSocket: Socket) {
         if (!isTerminated) {
             val fileResourceProvider = FetchFileResourceProvider(
@@ -239,6 +312,12 @@ class FetchFileServerImpl(context: Context,
         } catch (e: Exception) {
             logger.e(TAG + "- ${e.message}")
         }
+        try {
+            ioLoops.forEach { it.close() }
+            requestExecutor?.shutdown()
+        } catch (e: Exception) {
+            logger.e(TAG + "- ${e.message}")
+        }
         try {
             if (clearFileResourcesDatabaseOnShutdown) {
                 ioHandler.post {
@@ -453,6 +532,7 @@ class FetchFileServerImpl(context: Context,
 
     companion object {
         const val TAG = "FetchFileServer"
+        private const val MAX_IO_THREADS = 4
     }
 
 }
\ No newline at end of file
@@ -111,22 +111,7 @@ abstract class FileResolver(context: Context) {
     }
 
     private fun getFileInputResourceWrapper(fileResource: FileResource): InputResourceWrapper {
-        return object : InputResourceWrapper() {
-
-            val randomAccessFile = RandomAccessFile(fileResource.file, "r")
-
-            override fun read(byteArray: ByteArray, offSet: Int, length: Int): Int {
-                return randomAccessFile.read(byteArray, offSet, length)
-            }
-
-            override fun setReadOffset(offset: Long) {
-                randomAccessFile.seek(offset)
-            }
-
-            override fun close() {
-                randomAccessFile.close()
-            }
-        }
+        return getInputResourceWrapper(RandomAccessFile(fileResource.file, "r"))
     }
 
 }
\ No newline at end of file
@@ -88,37 +88,10 @@ class FetchFileResourceProvider(private val client: Socket,
                                                 }
                                             }
                                             if (!interrupted) {
-                                                var reportingStopTime: Long
-                                                val byteArray = ByteArray(FileResourceTransporter.BUFFER_SIZE)
                                                 val contentLength = (if (request.rangeEnd == -1L) fileResource.length else request.rangeEnd) - request.rangeStart
-                                                var remainderBytes = contentLength
                                                 sendFileResourceResponse(contentLength, fileResource.md5)
-                                                var reportingStartTime = System.nanoTime()
-                                                var read = inputResourceWrapper?.read(byteArray)
-                                                        ?: -1
-                                                var streamBytes: Int
                                                 fileResourceProviderDelegate.onStarted(sessionId, request, fileResource)
-                                                while (remainderBytes > 0L && read != -1 && !interrupted) {
-                                                    streamBytes = if (read <= remainderBytes) {
-                                                        read
-                                                    } else {
-                                                        read = -1
-                                                        remainderBytes.toInt()
-                                                    }
-                                                    transporter.sendRawBytes(byteArray, 0, streamBytes)
-                                                    if (read != -1) {
-                                                        remainderBytes -= streamBytes
-                                                        reportingStopTime = System.nanoTime()
-                                                        val hasReportingTimeElapsed = hasIntervalTimeElapsed(reportingStartTime,
-                                                                reportingStopTime, progressReportingInMillis)
-                                                        if (hasReportingTimeElapsed && !interrupted) {
-                                                            val progress = calculateProgress(contentLength - remainderBytes, contentLength)
-                                                            fileResourceProviderDelegate.onProgress(sessionId, request, fileResource, progress)
-                                                            reportingStartTime = System.nanoTime()
-                                                        }
-                                                        read = inputResourceWrapper?.read(byteArray) ?: -1
-                                                    }
-                                                }
+                                                val remainderBytes = sendFileResourceBytes(request, fileResource, contentLength)
                                                 if (remainderBytes == 0L && !interrupted) {
                                                     fileResourceProviderDelegate.onProgress(sessionId, request, fileResource, 100)
                                                     fileResourceProviderDelegate.onComplete(sessionId, request, fileResource)
@@ -181,6 +154,66 @@ class FetchFileResourceProvider(private val client: Socket,
         }.start()
     }
 
+    /**
+     * Sends the requested range of the file resource to the client. Resources backed by a file channel
+     * are transferred straight from the page cache to the socket. Other resources, for example content
+     * Uris or the catalog, are read into a buffer and sent with sendRawBytes.
+     * @return the number of bytes that were not sent.
+     * */
+    private fun sendFileResourceBytes(request: FileRequest, fileResource: FileResource, contentLength: Long): Long {
+        val inputResourceWrapper = this.inputResourceWrapper ?: return contentLength
+        var remainderBytes = contentLength
+        var position = request.rangeStart
+        var reportingStartTime = System.nanoTime()
+        var transferred = transporter.transferRawBytes(inputResourceWrapper, position,
+                minOf(remainderBytes, ZERO_COPY_TRANSFER_SIZE))
+        if (transferred == -1L) {
+            val byteArray = ByteArray(FileResourceTransporter.BUFFER_SIZE)
+            var read = inputResourceWrapper.read(byteArray)
+            var streamBytes: Int
+            while (remainderBytes > 0L && read != -1 && !interrupted) {
+                streamBytes = if (read <= remainderBytes) {
+                    read
+                } else {
+                    read = -1
+                    remainderBytes.toInt()
+                }
+                transporter.sendRawBytes(byteArray, 0, streamBytes)
+                if (read != -1) {
+                    remainderBytes -= streamBytes
+                    reportingStartTime = reportProgress(request, fileResource, contentLength, remainderBytes, reportingStartTime)
+                    read = inputResourceWrapper.read(byteArray)
+                }
+            }
+        } else {
+            while (transferred > 0L && !interrupted) {
+                remainderBytes -= transferred
+                position += transferred
+                reportingStartTime = reportProgress(request, fileResource, contentLength, remainderBytes, reportingStartTime)
+                transferred = if (remainderBytes > 0L && !interrupted) {
+                    transporter.transferRawBytes(inputResourceWrapper, position, minOf(remainderBytes, ZERO_COPY_TRANSFER_SIZE))
+                } else {
+                    0L
+                }
+            }
+        }
+        return remainderBytes
+    }
+
+    private fun reportProgress(request: FileRequest, fileResource: FileResource, contentLength: Long,
+                               remainderBytes: Long, reportingStartTime: Long): Long {
+        val reportingStopTime = System.nanoTime()
+        val hasReportingTimeElapsed = hasIntervalTimeElapsed(reportingStartTime,
+                reportingStopTime, progressReportingInMillis)
+        return if (hasReportingTimeElapsed && !interrupted) {
+            val progress = calculateProgress(contentLength - remainderBytes, contentLength)
+            fileResourceProviderDelegate.onProgress(sessionId, request, fileResource, progress)
+            System.nanoTime()
+        } else {
+            reportingStartTime
+        }
+    }
+
     private fun cleanFileStreams() {
         try {
             inputResourceWrapper?.close()
@@ -260,4 +293,10 @@ class FetchFileResourceProvider(private val client: Socket,
         return this.fileResource?.equals(fileResource) ?: false
     }
 
+    private companion object {
+        /** Upper bound of a single zero copy transfer, so progress is still reported and
+         * interrupts are noticed while large ranges are sent.*/
+        private const val ZERO_COPY_TRANSFER_SIZE = 1024L * 1024L
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,117 @@
+package com.tonyodev.fetch2fileserver.provider
+
+import com.tonyodev.fetch2core.FetchLogger
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * Selector loop of the Fetch File Server. Each loop owns a single thread that performs the
+ * non blocking reads and writes of every connection registered with it, so the number of
+ * threads does not grow with the number of connected clients. Work for a connection that
+ * does not originate from the selector is posted to the loop and runs on the loop thread.
+ * */
+class FileServerIoLoop(private val name: String,
+                       private val logger: FetchLogger) {
+
+    private val selector = Selector.open()
+    private val pendingTasks = ConcurrentLinkedQueue<Runnable>()
+    private val thread = Thread({ run() }, name)
+    @Volatile
+    private var closed = false
+    private var lastTimeoutCheckMillis = System.currentTimeMillis()
+
+    fun start() {
+        thread.start()
+    }
+
+    /** Runs the task on the loop thread.*/
+    fun post(task: Runnable) {
+        if (closed) {
+            return
+        }
+        pendingTasks.add(task)
+        selector.wakeup()
+    }
+
+    fun register(connection: SelectorFileResourceProvider) {
+        post(Runnable {
+            try {
+                val selectionKey = connection.socketChannel.register(selector, SelectionKey.OP_READ, connection)
+                connection.onRegistered(selectionKey)
+            } catch (e: Exception) {
+                logger.e("$name - ${e.message}")
+                connection.close()
+            }
+        })
+    }
+
+    fun close() {
+        closed = true
+        selector.wakeup()
+    }
+
+    private fun run() {
+        while (!closed) {
+            try {
+                selector.select(SELECT_TIMEOUT_IN_MILLISECONDS)
+                runPendingTasks()
+                val iterator = selector.selectedKeys().iterator()
+                while (iterator.hasNext()) {
+                    val selectionKey = iterator.next()
+                    iterator.remove()
+                    val connection = selectionKey.attachment() as SelectorFileResourceProvider
+                    try {
+                        if (selectionKey.isValid && selectionKey.isReadable) {
+                            connection.onReadable()
+                        }
+                        if (selectionKey.isValid && selectionKey.isWritable) {
+                            connection.onWritable()
+                        }
+                    } catch (e: Exception) {
+                        connection.onError(e)
+                    }
+                }
+                checkTimeouts()
+            } catch (e: Exception) {
+                logger.e("$name - ${e.message}")
+            }
+        }
+        pendingTasks.clear()
+        try {
+            selector.keys().toList().forEach {
+                (it.attachment() as? SelectorFileResourceProvider)?.close()
+            }
+            selector.close()
+        } catch (e: Exception) {
+            logger.e("$name - ${e.message}")
+        }
+    }
+
+    private fun runPendingTasks() {
+        var task = pendingTasks.poll()
+        while (task != null) {
+            try {
+                task.run()
+            } catch (e: Exception) {
+                logger.e("$name - ${e.message}")
+            }
+            task = pendingTasks.poll()
+        }
+    }
+
+    private fun checkTimeouts() {
+        val nowMillis = System.currentTimeMillis()
+        if (nowMillis - lastTimeoutCheckMillis >= SELECT_TIMEOUT_IN_MILLISECONDS) {
+            lastTimeoutCheckMillis = nowMillis
+            selector.keys().toList().forEach {
+                (it.attachment() as? SelectorFileResourceProvider)?.checkPersistentTimeout(nowMillis)
+            }
+        }
+    }
+
+    private companion object {
+        private const val SELECT_TIMEOUT_IN_MILLISECONDS = 1000L
+    }
+
+}
@@ -0,0 +1,626 @@
+package com.tonyodev.fetch2fileserver.provider
+
+import com.tonyodev.fetch2core.*
+import com.tonyodev.fetch2core.server.BinaryFrameCodec
+import com.tonyodev.fetch2core.server.FileRequest
+import com.tonyodev.fetch2core.server.FileResourceTransporter
+import com.tonyodev.fetch2core.server.FileResourceTransporterWriter
+import com.tonyodev.fetch2core.server.FileResponse
+import com.tonyodev.fetch2core.server.FileResponse.CREATOR.CLOSE_CONNECTION
+import com.tonyodev.fetch2core.server.FileResponse.CREATOR.OPEN_CONNECTION
+import com.tonyodev.fetch2fileserver.FileResolver
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.net.HttpURLConnection
+import java.nio.ByteBuffer
+import java.nio.channels.SelectionKey
+import java.nio.channels.SocketChannel
+import java.util.*
+import java.util.concurrent.Executor
+
+/**
+ * Serves a single client connection on a FileServerIoLoop. Uses the same FileRequest and
+ * FileResponse protocol as FetchFileResourceProvider, but never blocks a thread while the client
+ * is idle or slow. Requests are read and file resources are written without blocking on the loop
+ * thread. Requests are processed on the requestExecutor because processing may query the
+ * file resource database and call the delegate, which may block. The requestExecutor must not
+ * limit the number of threads, otherwise a few slow requests stall all other clients.
+ * */
+class SelectorFileResourceProvider(val socketChannel: SocketChannel,
+                                   private val ioLoop: FileServerIoLoop,
+                                   private val requestExecutor: Executor,
+                                   private val fileResourceProviderDelegate: FileResourceProviderDelegate,
+                                   private val logger: FetchLogger,
+                                   private val progressReportingInMillis: Long,
+                                   private val persistentTimeoutInMillis: Long,
+                                   private val fileResolver: FileResolver) : FileResourceProvider {
+
+    override val id = UUID.randomUUID().toString()
+    private val lock = Object()
+    private val sessionId = UUID.randomUUID().toString()
+    @Volatile
+    private var interrupted = false
+    @Volatile
+    private var closed = false
+    @Volatile
+    private var binaryFraming = false
+    private var selectionKey: SelectionKey? = null
+    private var readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE)
+    private val outboundBuffers = ArrayDeque<ByteBuffer>()
+    private var outboundBytes = 0L
+    private var processing = false
+    private var closeAfterWrite = false
+    private var persistConnection = true
+    private var interruptResponseSent = false
+    private var lastActivityMillis = System.currentTimeMillis()
+    private var fileTransfer: FileTransfer? = null
+    private var inputResourceWrapper: InputResourceWrapper? = null
+    @Volatile
+    private var clientRequest: FileRequest? = null
+    @Volatile
+    private var fileResource: FileResource? = null
+
+    override fun execute() {
+        ioLoop.register(this)
+    }
+
+    /** Called on the loop thread once the socket channel is registered with the selector.*/
+    fun onRegistered(selectionKey: SelectionKey) {
+        this.selectionKey = selectionKey
+        lastActivityMillis = System.currentTimeMillis()
+        if (closed || interrupted) {
+            continueConnectionOrClose()
+        }
+    }
+
+    /** Called on the loop thread when the client sent data.*/
+    fun onReadable() {
+        val read = socketChannel.read(readBuffer)
+        if (read == -1) {
+            close()
+            return
+        }
+        lastActivityMillis = System.currentTimeMillis()
+        processBufferedRequest()
+    }
+
+    /** Called on the loop thread when the socket can take more data.*/
+    fun onWritable() {
+        continueConnection()
+    }
+
+    /** Called on the loop thread when reading or writing failed.*/
+    fun onError(throwable: Throwable) {
+        logger.e("FetchFileServerProvider - ${throwable.message}")
+        val fileResource = this.fileResource
+        val request = this.clientRequest
+        if (fileResource != null && request != null) {
+            fileResourceProviderDelegate.onError(sessionId, request, fileResource, throwable)
+        }
+        close()
+    }
+
+    /** Called on the loop thread. Interrupts connections that waited longer than the
+     * persistent connection timeout for the next request.*/
+    fun checkPersistentTimeout(nowMillis: Long) {
+        val waitingForRequest = !processing && fileTransfer == null && synchronized(lock) { outboundBuffers.isEmpty() }
+        if (waitingForRequest && !interrupted && nowMillis - lastActivityMillis > persistentTimeoutInMillis) {
+            interrupted = true
+            continueConnectionOrClose()
+        }
+    }
+
+    override fun interrupt() {
+        interrupted = true
+        ioLoop.post(Runnable {
+            continueConnectionOrClose()
+        })
+    }
+
+    override fun isServingFileResource(fileResource: FileResource): Boolean {
+        return this.fileResource?.equals(fileResource) ?: false
+    }
+
+    fun close() {
+        synchronized(lock) {
+            if (closed) {
+                return
+            }
+            closed = true
+            outboundBuffers.clear()
+            outboundBytes = 0
+            lock.notifyAll()
+        }
+        try {
+            selectionKey?.cancel()
+            socketChannel.close()
+        } catch (e: Exception) {
+            logger.e("FetchFileServerProvider - ${e.message}")
+        }
+        fileTransfer = null
+        cleanFileStreams()
+        fileResource = null
+        clientRequest = null
+        fileResourceProviderDelegate.onFinished(id)
+    }
+
+    /** Reads a complete request frame from the read buffer and hands it to the request executor.
+     * Like DataOutputStream.writeUTF, a JSON frame is a two byte length followed by the request JSON.
+     * Once the client sent the binary framing handshake, frames are read as BinaryFrameCodec frames.*/
+    private fun processBufferedRequest() {
+        val headerSize = if (binaryFraming) 4 else 2
+        if (processing || closed || interrupted || readBuffer.position() < headerSize) {
+            return
+        }
+        val payloadSize = if (binaryFraming) {
+            readBuffer.getInt(0)
+        } else {
+            ((readBuffer.get(0).toInt() and 0xFF) shl 8) or (readBuffer.get(1).toInt() and 0xFF)
+        }
+        if (payloadSize < 0 || payloadSize > BinaryFrameCodec.MAX_FRAME_SIZE) {
+            throw IOException("Invalid request frame size $payloadSize")
+        }
+        val frameSize = headerSize + payloadSize
+        if (readBuffer.position() < frameSize) {
+            //Grow with the bytes that arrived instead of trusting the size sent by the client
+            if (!readBuffer.hasRemaining()) {
+                val buffer = ByteBuffer.allocate(minOf(frameSize, readBuffer.capacity() * 2))
+                readBuffer.flip()
+                buffer.put(readBuffer)
+                readBuffer = buffer
+            }
+            return
+        }
+        val frame = ByteArray(frameSize)
+        readBuffer.flip()
+        readBuffer.get(frame)
+        readBuffer.compact()
+        if (!binaryFraming && BinaryFrameCodec.isHandshake(frame, headerSize, payloadSize)) {
+            binaryFraming = true
+            enqueue(ByteBuffer.wrap(BinaryFrameCodec.getHandshakeFrame()), false)
+            if (!writeOutboundBuffers()) {
+                setInterestOps(SelectionKey.OP_READ or SelectionKey.OP_WRITE)
+            }
+            processBufferedRequest()
+            return
+        }
+        processing = true
+        setInterestOps(0)
+        requestExecutor.execute {
+            processRequest(frame)
+            ioLoop.post(Runnable {
+                processing = false
+                continueConnectionOrClose()
+            })
+        }
+    }
+
+    /** Runs on the request executor.*/
+    private fun processRequest(frame: ByteArray) {
+        try {
+            val request = try {
+                if (binaryFraming) {
+                    BinaryFrameCodec.decodeRequest(frame, 4, frame.size - 4)
+                } else {
+                    FileRequest.fromJsonString(DataInputStream(ByteArrayInputStream(frame)).readUTF())
+                }
+            } catch (e: Exception) {
+                logger.e("FetchFileServerProvider - ${e.message}")
+                null
+            }
+            clientRequest = request
+            if (request != null && !interrupted) {
+                persistConnection = request.persistConnection
+                if (!interrupted && fileResourceProviderDelegate.acceptAuthorization(sessionId, request.authorization, request)) {
+                    logger.d("FetchFileServerProvider - ClientRequestAccepted - ${request.toJsonString}")
+                    logger.d("FetchFileServerProvider - Client Connected - $socketChannel")
+                    fileResourceProviderDelegate.onClientConnected(sessionId, request)
+                    if (request.extras.isNotEmpty()) {
+                        fileResourceProviderDelegate.onClientDidProvideExtras(sessionId, request.extras, request)
+                    }
+                    var transferStarted = false
+                    when (request.type) {
+                        FileRequest.TYPE_PING -> {
+                            if (!interrupted) {
+                                sendPingResponse()
+                            }
+                        }
+                        FileRequest.TYPE_CATALOG -> {
+                            if (!interrupted) {
+                                val catalog = fileResourceProviderDelegate.getCatalog(request.page, request.size)
+                                val data = catalog.toByteArray(Charsets.UTF_8)
+                                if (!interrupted) {
+                                    val contentLength = (if (request.rangeEnd == -1L) data.size.toLong() else request.rangeEnd) - request.rangeStart
+                                    sendCatalogResponse(contentLength, getMd5String(data))
+                                    enqueue(ByteBuffer.wrap(data, request.rangeStart.toInt(), contentLength.toInt()), false)
+                                }
+                            }
+                        }
+                        FileRequest.TYPE_FILE -> {
+                            transferStarted = startFileTransfer(request)
+                        }
+                        FileRequest.TYPE_INVALID -> {
+
+                        }
+                        else -> {
+                            if (!interrupted) {
+                                fileResourceProviderDelegate.onCustomRequest(sessionId, request, transporterWriter, interruptMonitor)
+                            }
+                        }
+                    }
+                    if (!transferStarted) {
+                        logger.d("FetchFileServerProvider - Client Disconnected - $socketChannel")
+                        fileResourceProviderDelegate.onClientDisconnected(sessionId, request)
+                    }
+                } else if (!interrupted) {
+                    logger.d("FetchFileServerProvider - ClientRequestRejected - ${request.toJsonString}")
+                    sendInvalidResponse(HttpURLConnection.HTTP_FORBIDDEN)
+                }
+            } else if (!interrupted) {
+                sendInvalidResponse(HttpURLConnection.HTTP_BAD_REQUEST)
+            }
+        } catch (e: Exception) {
+            logger.e("FetchFileServerProvider - ${e.message}")
+            try {
+                sendInvalidResponse(HttpURLConnection.HTTP_INTERNAL_ERROR)
+            } catch (e: Exception) {
+                logger.e("FetchFileServerProvider - ${e.message}")
+            }
+            val fileResource = this.fileResource
+            val request = this.clientRequest
+            if (fileResource != null && request != null) {
+                fileResourceProviderDelegate.onError(sessionId, request, fileResource, e)
+            }
+            cleanFileStreams()
+        }
+    }
+
+    /** Runs on the request executor. Sends the response header and prepares the transfer of the
+     * file resource, which is then written by the loop thread.
+     * @return true if a transfer was prepared.*/
+    private fun startFileTransfer(request: FileRequest): Boolean {
+        val fileResource = fileResourceProviderDelegate.getFileResource(request.fileResourceId)
+        if (interrupted) {
+            return false
+        }
+        if (fileResource == null) {
+            sendInvalidResponse(HttpURLConnection.HTTP_NO_CONTENT)
+            return false
+        }
+        this.fileResource = fileResource
+        var inputResourceWrapper = fileResourceProviderDelegate.getFileInputResourceWrapper(sessionId, request, fileResource, request.rangeStart)
+        if (inputResourceWrapper == null) {
+            if (fileResource.id == FileRequest.CATALOG_ID) {
+                val catalog = fileResource.extras.getString("data", "{}").toByteArray(Charsets.UTF_8)
+                fileResource.length = if (request.rangeEnd == -1L) catalog.size.toLong() else request.rangeEnd
+                fileResource.md5 = getMd5String(catalog)
+                inputResourceWrapper = fileResolver.getCatalogInputWrapper(catalog, request, fileResource)
+            } else {
+                inputResourceWrapper = fileResolver.getInputWrapper(fileResource)
+                inputResourceWrapper.setReadOffset(request.rangeStart)
+            }
+        }
+        this.inputResourceWrapper = inputResourceWrapper
+        if (interrupted) {
+            cleanFileStreams()
+            return false
+        }
+        val contentLength = (if (request.rangeEnd == -1L) fileResource.length else request.rangeEnd) - request.rangeStart
+        sendFileResourceResponse(contentLength, fileResource.md5)
+        fileResourceProviderDelegate.onStarted(sessionId, request, fileResource)
+        fileTransfer = FileTransfer(request, fileResource, inputResourceWrapper, request.rangeStart, contentLength)
+        return true
+    }
+
+    /**
+     * Runs on the loop thread. Writes pending responses and file bytes, then either waits for the
+     * next request of a persistent connection or closes the connection.
+     * */
+    private fun continueConnection() {
+        if (closed) {
+            return
+        }
+        if (interrupted && !processing && !interruptResponseSent) {
+            fileTransfer?.let {
+                fileTransfer = null
+                finishFileTransfer(it)
+            }
+            try {
+                sendInvalidResponse(HttpURLConnection.HTTP_INTERNAL_ERROR)
+            } catch (e: Exception) {
+                logger.e("FetchFileServerProvider - ${e.message}")
+            }
+        }
+        if (selectionKey == null) {
+            return
+        }
+        if (!writeOutboundBuffers()) {
+            setInterestOps(SelectionKey.OP_WRITE)
+            return
+        }
+        val transfer = fileTransfer
+        if (transfer != null) {
+            if (!transfer.write()) {
+                setInterestOps(SelectionKey.OP_WRITE)
+                return
+            }
+            fileTransfer = null
+            finishFileTransfer(transfer)
+        }
+        if (processing) {
+            setInterestOps(0)
+            return
+        }
+        if (closeAfterWrite || interrupted || !persistConnection) {
+            close()
+            return
+        }
+        clientRequest = null
+        lastActivityMillis = System.currentTimeMillis()
+        setInterestOps(SelectionKey.OP_READ)
+        processBufferedRequest()
+    }
+
+    private fun continueConnectionOrClose() {
+        try {
+            continueConnection()
+        } catch (e: Exception) {
+            onError(e)
+        }
+    }
+
+    private fun finishFileTransfer(transfer: FileTransfer) {
+        cleanFileStreams()
+        if (transfer.remainderBytes == 0L && !interrupted) {
+            fileResourceProviderDelegate.onProgress(sessionId, transfer.request, transfer.fileResource, 100)
+            fileResourceProviderDelegate.onComplete(sessionId, transfer.request, transfer.fileResource)
+        } else {
+            closeAfterWrite = true
+        }
+        logger.d("FetchFileServerProvider - Client Disconnected - $socketChannel")
+        fileResourceProviderDelegate.onClientDisconnected(sessionId, transfer.request)
+    }
+
+    /** @return true if all queued buffers were written.*/
+    private fun writeOutboundBuffers(): Boolean {
+        synchronized(lock) {
+            while (outboundBuffers.isNotEmpty()) {
+                val buffer = outboundBuffers.first()
+                val written = socketChannel.write(buffer)
+                outboundBytes -= written
+                if (buffer.hasRemaining()) {
+                    lock.notifyAll()
+                    return false
+                }
+                outboundBuffers.removeFirst()
+            }
+            lock.notifyAll()
+            return true
+        }
+    }
+
+    /** Queues bytes for the loop thread to write. Writers on other threads wait while
+     * too many bytes are queued, so custom requests cannot buffer unbounded amounts of data.*/
+    private fun enqueue(byteBuffer: ByteBuffer, waitForCapacity: Boolean) {
+        synchronized(lock) {
+            if (closed) {
+                throw Exception("FetchFileServerProvider connection is closed.")
+            }
+            while (waitForCapacity && !closed && outboundBytes > MAX_OUTBOUND_BYTES) {
+                lock.wait()
+            }
+            outboundBuffers.addLast(byteBuffer)
+            outboundBytes += byteBuffer.remaining()
+        }
+        if (waitForCapacity) {
+            ioLoop.post(Runnable {
+                continueConnectionOrClose()
+            })
+        }
+    }
+
+    private fun setInterestOps(interestOps: Int) {
+        val selectionKey = this.selectionKey
+        if (selectionKey != null && selectionKey.isValid && selectionKey.interestOps() != interestOps) {
+            selectionKey.interestOps(interestOps)
+        }
+    }
+
+    private fun cleanFileStreams() {
+        try {
+            inputResourceWrapper?.close()
+        } catch (e: Exception) {
+            logger.e("FetchFileServerProvider - ${e.message}")
+        }
+        inputResourceWrapper = null
+    }
+
+    private fun getUtfFrame(value: String): ByteBuffer {
+        val byteArrayOutputStream = ByteArrayOutputStream()
+        DataOutputStream(byteArrayOutputStream).use {
+            it.writeUTF(value)
+        }
+        return ByteBuffer.wrap(byteArrayOutputStream.toByteArray())
+    }
+
+    private fun sendFileResponse(response: FileResponse, waitForCapacity: Boolean = false) {
+        val frame = if (binaryFraming) {
+            ByteBuffer.wrap(BinaryFrameCodec.getResponseFrame(response))
+        } else {
+            getUtfFrame(response.toJsonString)
+        }
+        enqueue(frame, waitForCapacity)
+    }
+
+    private fun sendPingResponse() {
+        val response = FileResponse(status = HttpURLConnection.HTTP_OK,
+                type = FileRequest.TYPE_PING,
+                connection = OPEN_CONNECTION,
+                date = Date().time,
+                contentLength = 0,
+                sessionId = sessionId)
+        sendFileResponse(response)
+    }
+
+    private fun sendInvalidResponse(status: Int) {
+        interruptResponseSent = true
+        val response = FileResponse(status = status,
+                type = FileRequest.TYPE_INVALID,
+                connection = CLOSE_CONNECTION,
+                date = Date().time,
+                contentLength = 0,
+                sessionId = sessionId)
+        sendFileResponse(response)
+        interrupted = true
+        closeAfterWrite = true
+    }
+
+    private fun sendCatalogResponse(contentLength: Long, md5: String) {
+        val response = FileResponse(status = HttpURLConnection.HTTP_OK,
+                type = FileRequest.TYPE_CATALOG,
+                connection = OPEN_CONNECTION,
+                date = Date().time,
+                contentLength = contentLength,
+                md5 = md5,
+                sessionId = sessionId)
+        sendFileResponse(response)
+    }
+
+    private fun sendFileResourceResponse(contentLength: Long, md5: String) {
+        val response = FileResponse(status = HttpURLConnection.HTTP_PARTIAL,
+                type = FileRequest.TYPE_FILE,
+                connection = OPEN_CONNECTION,
+                date = Date().time,
+                contentLength = contentLength,
+                md5 = md5,
+                sessionId = sessionId)
+        sendFileResponse(response)
+    }
+
+    private val interruptMonitor = object : InterruptMonitor {
+        override val isInterrupted: Boolean
+            get() {
+                return interrupted
+            }
+    }
+
+    /** Writer handed to custom requests. Writes are queued and sent by the loop thread.*/
+    private val transporterWriter = object : FileResourceTransporterWriter {
+
+        override fun sendFileRequest(fileRequest: FileRequest) {
+            val frame = if (binaryFraming) {
+                ByteBuffer.wrap(BinaryFrameCodec.getRequestFrame(fileRequest))
+            } else {
+                getUtfFrame(fileRequest.toJsonString)
+            }
+            enqueue(frame, true)
+        }
+
+        override fun sendFileResponse(fileResponse: FileResponse) {
+            sendFileResponse(fileResponse, true)
+        }
+
+        override fun sendRawBytes(byteArray: ByteArray, offset: Int, length: Int) {
+            enqueue(ByteBuffer.wrap(byteArray.copyOfRange(offset, offset + length)), true)
+        }
+
+    }
+
+    /**
+     * Transfer of a file resource range. Only used on the loop thread. Resources backed by a
+     * file channel are transferred straight to the socket, others are read into a buffer first.
+     * */
+    private inner class FileTransfer(val request: FileRequest,
+                                     val fileResource: FileResource,
+                                     private val inputResourceWrapper: InputResourceWrapper,
+                                     private var position: Long,
+                                     private val contentLength: Long) {
+
+        var remainderBytes = contentLength
+            private set
+        private var zeroCopy = true
+        private var buffer: ByteBuffer? = null
+        private var ended = false
+        private var reportingStartTime = System.nanoTime()
+
+        /** Writes as many bytes as the socket takes.
+         * @return true once the range was written, the resource ended or the connection was interrupted.*/
+        fun write(): Boolean {
+            while (remainderBytes > 0L && !ended && !interrupted) {
+                val written = if (zeroCopy) transferBytes() else writeBufferedBytes()
+                if (written == -1L) {
+                    continue
+                }
+                if (written == 0L) {
+                    return ended
+                }
+                remainderBytes -= written
+                position += written
+                reportProgress()
+            }
+            return true
+        }
+
+        /** A non blocking socket takes 0 bytes while its send buffer is full, so 0 only ends the
+         * transfer once the position reached the end of the resource. Otherwise the connection
+         * waits for OP_WRITE and continues.
+         * @return the bytes written, 0 if the socket is full or -1 after switching to buffered writes.*/
+        private fun transferBytes(): Long {
+            val transferred = inputResourceWrapper.transferTo(position,
+                    minOf(remainderBytes, ZERO_COPY_TRANSFER_SIZE), socketChannel)
+            return when {
+                transferred == -1L -> {
+                    zeroCopy = false
+                    -1L
+                }
+                transferred == 0L -> {
+                    if (position >= fileResource.length) {
+                        ended = true
+                    }
+                    0L
+                }
+                else -> transferred
+            }
+        }
+
+        private fun writeBufferedBytes(): Long {
+            val buffer = this.buffer ?: ByteBuffer.allocate(FileResourceTransporter.BUFFER_SIZE).also {
+                it.limit(0)
+                this.buffer = it
+            }
+            if (!buffer.hasRemaining()) {
+                val read = inputResourceWrapper.read(buffer.array(), 0,
+                        minOf(buffer.capacity().toLong(), remainderBytes).toInt())
+                if (read == -1) {
+                    ended = true
+                    return 0L
+                }
+                buffer.clear()
+                buffer.limit(read)
+            }
+            return socketChannel.write(buffer).toLong()
+        }
+
+        private fun reportProgress() {
+            val reportingStopTime = System.nanoTime()
+            val hasReportingTimeElapsed = hasIntervalTimeElapsed(reportingStartTime,
+                    reportingStopTime, progressReportingInMillis)
+            if (hasReportingTimeElapsed && !interrupted) {
+                val progress = calculateProgress(contentLength - remainderBytes, contentLength)
+                fileResourceProviderDelegate.onProgress(sessionId, request, fileResource, progress)
+                reportingStartTime = System.nanoTime()
+            }
+        }
+
+    }
+
+    private companion object {
+        private const val INITIAL_READ_BUFFER_SIZE = 1024
+        private const val MAX_OUTBOUND_BYTES = 256L * 1024L
+        private const val ZERO_COPY_TRANSFER_SIZE = 1024L * 1024L
+    }
+
+}
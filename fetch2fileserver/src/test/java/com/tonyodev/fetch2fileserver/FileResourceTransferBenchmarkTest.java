@@ -0,0 +1,134 @@
+package com.tonyodev.fetch2fileserver;
+
+import com.tonyodev.fetch2core.InputResourceWrapper;
+import com.tonyodev.fetch2core.StorageResolverHelper;
+import com.tonyodev.fetch2core.server.FetchFileResourceTransporter;
+import com.tonyodev.fetch2core.server.FileResourceTransporter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loopback benchmark comparing the buffered copy path of the file server with zero copy transfers.
+ * Logs the throughput in MB/s and the CPU time of the sending thread per GB served with the logger
+ * FetchTransferBenchmark. Writes a 64 MB file, so it is ignored by default and run manually.
+ */
+@Ignore("Benchmark. Remove to run it manually.")
+public class FileResourceTransferBenchmarkTest {
+
+    private static final Logger LOGGER = Logger.getLogger("FetchTransferBenchmark");
+
+    private static final long FILE_SIZE = 64L * 1024L * 1024L;
+    private static final long ZERO_COPY_TRANSFER_SIZE = 1024L * 1024L;
+    private static final int RUNS = 3;
+
+    private File file;
+    private ExecutorService receiverExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("fetch-transfer-benchmark", ".bin");
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            final byte[] data = new byte[1024 * 1024];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) i;
+            }
+            for (long written = 0; written < FILE_SIZE; written += data.length) {
+                randomAccessFile.write(data);
+            }
+        }
+        receiverExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        receiverExecutor.shutdownNow();
+        file.delete();
+    }
+
+    @Test
+    public void zeroCopyTransferMatchesBufferedCopy() throws Exception {
+        for (int run = 0; run < RUNS; run++) {
+            final long[] buffered = serve(false);
+            final long[] zeroCopy = serve(true);
+            LOGGER.info(String.format("run %d buffered: %s", run, format(buffered)));
+            LOGGER.info(String.format("run %d zero copy: %s", run, format(zeroCopy)));
+        }
+    }
+
+    /** @return wall time and sender cpu time in nanoseconds.*/
+    private long[] serve(final boolean zeroCopy) throws Exception {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()) {
+            serverSocketChannel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final int port = serverSocketChannel.socket().getLocalPort();
+            final Future<Long> received = receiverExecutor.submit(() -> {
+                long total = 0;
+                try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                    final InputStream inputStream = socket.getInputStream();
+                    final byte[] buffer = new byte[64 * 1024];
+                    int read;
+                    while ((read = inputStream.read(buffer)) != -1) {
+                        total += read;
+                    }
+                }
+                return total;
+            });
+            final Socket client = serverSocketChannel.socket().accept();
+            final FetchFileResourceTransporter transporter = new FetchFileResourceTransporter(client);
+            final InputResourceWrapper inputResourceWrapper =
+                    StorageResolverHelper.getInputResourceWrapper(new RandomAccessFile(file, "r"));
+            final long cpuStartTime = threadMXBean.getCurrentThreadCpuTime();
+            final long startTime = System.nanoTime();
+            if (zeroCopy) {
+                long position = 0;
+                while (position < FILE_SIZE) {
+                    final long transferred = transporter.transferRawBytes(inputResourceWrapper, position,
+                            Math.min(FILE_SIZE - position, ZERO_COPY_TRANSFER_SIZE));
+                    assertTrue(transferred > 0);
+                    position += transferred;
+                }
+            } else {
+                final byte[] byteArray = new byte[FileResourceTransporter.BUFFER_SIZE];
+                int read;
+                while ((read = inputResourceWrapper.read(byteArray, 0, byteArray.length)) != -1) {
+                    transporter.sendRawBytes(byteArray, 0, read);
+                }
+            }
+            final long wallTime = System.nanoTime() - startTime;
+            final long cpuTime = threadMXBean.getCurrentThreadCpuTime() - cpuStartTime;
+            inputResourceWrapper.close();
+            transporter.close();
+            assertEquals(FILE_SIZE, (long) received.get());
+            return new long[]{wallTime, cpuTime};
+        }
+    }
+
+    private String format(final long[] times) {
+        final double megabytes = FILE_SIZE / (1024.0 * 1024.0);
+        final double gigabytes = FILE_SIZE / (1024.0 * 1024.0 * 1024.0);
+        final double throughput = megabytes / (times[0] / 1_000_000_000.0);
+        final double cpuMillisPerGigabyte = (times[1] / 1_000_000.0) / gigabytes;
+        return String.format("%.1f MB/s, %.1f ms cpu per GB", throughput, cpuMillisPerGigabyte);
+    }
+
+}
@@ -23,7 +23,7 @@ open class OkHttpDownloader @JvmOverloads constructor(
          * The PARALLEL type downloads bytes in parallel.
          * */
         private val fileDownloaderType: Downloader.FileDownloaderType = Downloader.FileDownloaderType.SEQUENTIAL)
-    : Downloader<OkHttpClient, Request> {
+    : Downloader<OkHttpClient, Request>, ContentHashVerifier {
 
     constructor(fileDownloaderType: Downloader.FileDownloaderType) : this(null, fileDownloaderType)
 
@@ -173,11 +173,11 @@ open class OkHttpDownloader @JvmOverloads constructor(
     }
 
     override fun verifyContentHash(request: Downloader.ServerRequest, hash: String): Boolean {
-        if (hash.isEmpty()) {
-            return true
-        }
-        val fileMd5 = getFileMd5String(request.file)
-        return fileMd5?.contentEquals(hash) ?: true
+        return verifyFileContentHash(request.file, hash)
+    }
+
+    override fun verifyContentHash(request: Downloader.ServerRequest, hash: String, computedHash: String): Boolean {
+        return hash.equals(computedHash, ignoreCase = true)
     }
 
     override fun onServerResponse(request: Downloader.ServerRequest, response: Downloader.Response) {
@@ -408,6 +408,103 @@ interface RxFetch {
      * */
     fun getDownloadsByTag(tag: String): Convertible<List<Download>>
 
+    /**
+     * Gets summaries of all downloads managed by this instance of Fetch. Summaries only contain
+     * the id, status, progress, priority, group and error of a download and are much cheaper to
+     * load than full downloads. Use getDownload(id) to load a full download when needed.
+     * @throws FetchException if this instance of Fetch has been closed.
+     * @return Convertible with results.
+     * */
+    fun getDownloadSummaries(): Convertible<List<DownloadSummary>>
+
+    /**
+     * Gets summaries of the downloads with the specified ids. Ids that do not exist are skipped.
+     * @see getDownloadSummaries
+     * @param idList Id list
+     * @throws FetchException if this instance of Fetch has been closed.
+     * @return Convertible with results.
+     * */
+    fun getDownloadSummaries(idList: List<Int>): Convertible<List<DownloadSummary>>
+
+    /**
+     * Gets summaries of the downloads with the specified statuses.
+     * @see getDownloadSummaries
+     * @param statuses Statuses to query.
+     * @throws FetchException if this instance of Fetch has been closed.
+     * @return Convertible with results.
+     * */
+    fun getDownloadSummariesWithStatus(statuses: List<Status>): Convertible<List<DownloadSummary>>
+
+    /**
+     * Gets summaries of the downloads in the specified group.
+     * @see getDownloadSummaries
+     * @param groupId group id to query.
+     * @throws FetchException if this instance of Fetch has been closed.
+     * @return Convertible with results.
+     * */
+    fun getDownloadSummariesInGroup(groupId: Int): Convertible<List<DownloadSummary>>
+
+    /**
+     * Gets a page of the downloads managed by this instance of Fetch. Downloads are ordered by
+     * the time they were created and then by id.
+     * @param pageSize maximum number of downloads in the page. Must be greater than 0.
+     * @param cursor the next cursor of the previous page or null for the first page.
+     * @throws FetchException if this instance of Fetch has been closed, the page size is less than 1 or the cursor is not valid.
+     * @return Convertible with results.
+     * */
+    fun getDownloadsPage(pageSize: Int, cursor: String?): Convertible<DownloadPage>
+
+    /**
+     * Gets a page of the downloads with the specified statuses. Downloads are ordered by
+     * the time they were created and then by id.
+     * @param statuses Statuses to query.
+     * @param pageSize maximum number of downloads in the page. Must be greater than 0.
+     * @param cursor the next cursor of the previous page or null for the first page.
+     * @throws FetchException if this instance of Fetch has been closed, the page size is less than 1 or the cursor is not valid.
+     * @return Convertible with results.
+     * */
+    fun getDownloadsWithStatusPage(statuses: List<Status>, pageSize: Int, cursor: String?): Convertible<DownloadPage>
+
+    /**
+     * Gets a page of the downloads in the specified group. Downloads are ordered by
+     * the time they were created and then by id.
+     * @param groupId group id to query.
+     * @param pageSize maximum number of downloads in the page. Must be greater than 0.
+     * @param cursor the next cursor of the previous page or null for the first page.
+     * @throws FetchException if this instance of Fetch has been closed, the page size is less than 1 or the cursor is not valid.
+     * @return Convertible with results.
+     * */
+    fun getDownloadsInGroupPage(groupId: Int, pageSize: Int, cursor: String?): Convertible<DownloadPage>
+
+    /**
+     * Streams all downloads managed by this instance of Fetch in chunks. Chunks are ordered by the time
+     * the downloads were created and then by id. A chunk is only queried when the subscriber requests it.
+     * @param chunkSize maximum number of downloads in a chunk. Must be greater than 0.
+     * @throws FetchException if this instance of Fetch has been closed or the chunk size is less than 1.
+     * @return Flowable that emits the chunks and completes after the last chunk.
+     * */
+    fun streamDownloads(chunkSize: Int): Flowable<List<Download>>
+
+    /**
+     * Streams the downloads with the specified statuses in chunks.
+     * @see streamDownloads
+     * @param statuses Statuses to query.
+     * @param chunkSize maximum number of downloads in a chunk. Must be greater than 0.
+     * @throws FetchException if this instance of Fetch has been closed or the chunk size is less than 1.
+     * @return Flowable that emits the chunks and completes after the last chunk.
+     * */
+    fun streamDownloadsWithStatus(statuses: List<Status>, chunkSize: Int): Flowable<List<Download>>
+
+    /**
+     * Streams the downloads in the specified group in chunks.
+     * @see streamDownloads
+     * @param groupId group id to query.
+     * @param chunkSize maximum number of downloads in a chunk. Must be greater than 0.
+     * @throws FetchException if this instance of Fetch has been closed or the chunk size is less than 1.
+     * @return Flowable that emits the chunks and completes after the last chunk.
+     * */
+    fun streamDownloadsInGroup(groupId: Int, chunkSize: Int): Flowable<List<Download>>
+
     /** Attaches a FetchListener to this instance of Fetch.
      * @param listener Fetch Listener
      * @throws FetchException if this instance of Fetch has been closed.
@@ -434,6 +531,18 @@ interface RxFetch {
      * */
     fun addListener(listener: FetchListener, notify: Boolean = DEFAULT_ENABLE_LISTENER_NOTIFY_ON_ATTACHED, autoStart: Boolean): RxFetch
 
+    /** Attaches a FetchListener to this instance of Fetch.
+     * @param listener Fetch Listener
+     * @param notify Allows Fetch to notify the newly attached listener instantly of the download status
+     * of all downloads managed by the namespace.
+     * @param autoStart Allows Fetch to start processing requests if it is not already doing so.
+     * @param deliveryTarget The thread or executor the callbacks of the listener are delivered on.
+     * Default is DeliveryTarget.MAIN_THREAD.
+     * @throws FetchException if this instance of Fetch has been closed.
+     * @return Instance
+     * */
+    fun addListener(listener: FetchListener, notify: Boolean, autoStart: Boolean, deliveryTarget: DeliveryTarget): RxFetch
+
     /** Detaches a FetchListener from this instance of Fetch.
      * @param listener Fetch Listener
      * @throws FetchException if this instance of Fetch has been closed.
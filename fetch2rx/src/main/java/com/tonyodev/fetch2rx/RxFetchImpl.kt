@@ -11,11 +11,17 @@ import com.tonyodev.fetch2.database.FetchDatabaseManagerWrapper
 import com.tonyodev.fetch2.util.ActiveDownloadInfo
 import com.tonyodev.fetch2.util.DEFAULT_ENABLE_LISTENER_AUTOSTART_ON_ATTACHED
 import com.tonyodev.fetch2.util.DEFAULT_ENABLE_LISTENER_NOTIFY_ON_ATTACHED
+import com.tonyodev.fetch2.util.getDownloadPageCursorPosition
 import com.tonyodev.fetch2.util.toDownloadInfo
 import com.tonyodev.fetch2core.*
 import com.tonyodev.fetch2rx.util.toConvertible
+import io.reactivex.Emitter
 import io.reactivex.Flowable
 import io.reactivex.android.schedulers.AndroidSchedulers
+import io.reactivex.functions.BiConsumer
+import io.reactivex.schedulers.Schedulers
+import java.util.concurrent.Callable
+import java.util.concurrent.Executor
 
 open class RxFetchImpl(override val namespace: String,
                        override val fetchConfiguration: FetchConfiguration,
@@ -27,7 +33,8 @@ open class RxFetchImpl(override val namespace: String,
                        private val fetchDatabaseManagerWrapper: FetchDatabaseManagerWrapper) : RxFetch {
 
     private val scheduler = AndroidSchedulers.from(handlerWrapper.getLooper())
-    private val uiScheduler = AndroidSchedulers.mainThread()
+    private val uiScheduler = fetchConfiguration.callbackExecutor?.let { Schedulers.from(it) }
+            ?: AndroidSchedulers.mainThread()
     private val lock = Object()
     @Volatile
     private var closed = false
@@ -37,6 +44,10 @@ open class RxFetchImpl(override val namespace: String,
                 return closed
             }
         }
+    /** Results and errors are delivered on the configured callback executor, or on the main thread.*/
+    private val callbackExecutor = fetchConfiguration.callbackExecutor ?: Executor { uiHandler.post(it) }
+    private val defaultDeliveryTarget = fetchConfiguration.callbackExecutor?.let { DeliveryTarget.executor(it) }
+            ?: DeliveryTarget.MAIN_THREAD
     private val activeDownloadsSet = mutableSetOf<ActiveDownloadInfo>()
     private val activeDownloadsRunnable = Runnable {
         if (!isClosed) {
@@ -108,7 +119,7 @@ open class RxFetchImpl(override val namespace: String,
                             throw FetchException(ENQUEUED_REQUESTS_ARE_NOT_DISTINCT)
                         }
                         val downloadPairs = fetchHandler.enqueue(requests)
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             downloadPairs.forEach { downloadPair ->
                                 val download = downloadPair.first
                                 when (download.status) {
@@ -150,7 +161,7 @@ open class RxFetchImpl(override val namespace: String,
                     .flatMap { ids ->
                         throwExceptionIfClosed()
                         val downloads = fetchHandler.pause(ids)
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             downloads.forEach {
                                 logger.d("Paused download $it")
                                 listenerCoordinator.mainListener.onPaused(it)
@@ -186,7 +197,7 @@ open class RxFetchImpl(override val namespace: String,
                     .flatMap {
                         throwExceptionIfClosed()
                         val downloads = fetchHandler.pausedGroup(it)
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             downloads.forEach { download ->
                                 logger.d("Paused download $download")
                                 listenerCoordinator.mainListener.onPaused(download)
@@ -237,7 +248,7 @@ open class RxFetchImpl(override val namespace: String,
                     .flatMap { ids ->
                         throwExceptionIfClosed()
                         val downloads = fetchHandler.resume(ids)
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             downloads.forEach {
                                 logger.d("Queued download $it")
                                 listenerCoordinator.mainListener.onQueued(it, false)
@@ -275,7 +286,7 @@ open class RxFetchImpl(override val namespace: String,
                     .flatMap {
                         throwExceptionIfClosed()
                         val downloads = fetchHandler.resumeGroup(it)
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             downloads.forEach { download ->
                                 logger.d("Queued download $download")
                                 listenerCoordinator.mainListener.onQueued(download, false)
@@ -298,7 +309,7 @@ open class RxFetchImpl(override val namespace: String,
                     .flatMap {
                         throwExceptionIfClosed()
                         val downloads = fetchHandler.remove(it)
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             downloads.forEach { download ->
                                 logger.d("Removed download $download")
                                 listenerCoordinator.mainListener.onRemoved(download)
@@ -334,7 +345,7 @@ open class RxFetchImpl(override val namespace: String,
                     .flatMap {
                         throwExceptionIfClosed()
                         val downloads = fetchHandler.removeGroup(it)
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             downloads.forEach { download ->
                                 logger.d("Removed download $download")
                                 listenerCoordinator.mainListener.onRemoved(download)
@@ -355,7 +366,7 @@ open class RxFetchImpl(override val namespace: String,
                     .flatMap {
                         throwExceptionIfClosed()
                         val downloads = fetchHandler.removeAll()
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             downloads.forEach { download ->
                                 logger.d("Removed download $download")
                                 listenerCoordinator.mainListener.onRemoved(download)
@@ -376,7 +387,7 @@ open class RxFetchImpl(override val namespace: String,
                     .flatMap {
                         throwExceptionIfClosed()
                         val downloads = fetchHandler.removeAllWithStatus(it)
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             downloads.forEach { download ->
                                 logger.d("Removed download $download")
                                 listenerCoordinator.mainListener.onRemoved(download)
@@ -397,7 +408,7 @@ open class RxFetchImpl(override val namespace: String,
                     .flatMap {
                         throwExceptionIfClosed()
                         val downloads = fetchHandler.removeAllInGroupWithStatus(it.first, it.second)
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             downloads.forEach { download ->
                                 logger.d("Removed download $download")
                                 listenerCoordinator.mainListener.onRemoved(download)
@@ -418,7 +429,7 @@ open class RxFetchImpl(override val namespace: String,
                     .flatMap { ids ->
                         throwExceptionIfClosed()
                         val downloads = fetchHandler.delete(ids)
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             downloads.forEach {
                                 logger.d("Deleted download $it")
                                 listenerCoordinator.mainListener.onDeleted(it)
@@ -454,7 +465,7 @@ open class RxFetchImpl(override val namespace: String,
                     .flatMap { id ->
                         throwExceptionIfClosed()
                         val downloads = fetchHandler.deleteGroup(id)
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             downloads.forEach {
                                 logger.d("Deleted download $it")
                                 listenerCoordinator.mainListener.onDeleted(it)
@@ -475,7 +486,7 @@ open class RxFetchImpl(override val namespace: String,
                     .flatMap {
                         throwExceptionIfClosed()
                         val downloads = fetchHandler.deleteAll()
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             downloads.forEach { download ->
                                 logger.d("Deleted download $download")
                                 listenerCoordinator.mainListener.onDeleted(download)
@@ -496,7 +507,7 @@ open class RxFetchImpl(override val namespace: String,
                     .flatMap {
                         throwExceptionIfClosed()
                         val downloads = fetchHandler.deleteAllWithStatus(it)
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             downloads.forEach { download ->
                                 logger.d("Deleted download $download")
                                 listenerCoordinator.mainListener.onDeleted(download)
@@ -517,7 +528,7 @@ open class RxFetchImpl(override val namespace: String,
                     .flatMap {
                         throwExceptionIfClosed()
                         val downloads = fetchHandler.deleteAllInGroupWithStatus(it.first, it.second)
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             downloads.forEach { download ->
                                 logger.d("Deleted download $download")
                                 listenerCoordinator.mainListener.onDeleted(download)
@@ -538,7 +549,7 @@ open class RxFetchImpl(override val namespace: String,
                     .flatMap { ids ->
                         throwExceptionIfClosed()
                         val downloads = fetchHandler.cancel(ids)
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             downloads.forEach {
                                 logger.d("Cancelled download $it")
                                 listenerCoordinator.mainListener.onCancelled(it)
@@ -574,7 +585,7 @@ open class RxFetchImpl(override val namespace: String,
                     .flatMap { id ->
                         throwExceptionIfClosed()
                         val downloads = fetchHandler.cancelGroup(id)
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             downloads.forEach {
                                 logger.d("Cancelled download $it")
                                 listenerCoordinator.mainListener.onCancelled(it)
@@ -595,7 +606,7 @@ open class RxFetchImpl(override val namespace: String,
                     .flatMap {
                         throwExceptionIfClosed()
                         val downloads = fetchHandler.cancelAll()
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             downloads.forEach { download ->
                                 logger.d("Cancelled download $download")
                                 listenerCoordinator.mainListener.onCancelled(download)
@@ -616,7 +627,7 @@ open class RxFetchImpl(override val namespace: String,
                     .flatMap { ids ->
                         throwExceptionIfClosed()
                         val downloads = fetchHandler.retry(ids)
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             downloads.forEach {
                                 logger.d("Queued $it for download")
                                 listenerCoordinator.mainListener.onQueued(it, false)
@@ -652,7 +663,7 @@ open class RxFetchImpl(override val namespace: String,
                     .flatMap {
                         throwExceptionIfClosed()
                         val download = fetchHandler.resetAutoRetryAttempts(downloadId, retryDownload)
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             if (download != null && download.status == Status.QUEUED) {
                                 logger.d("Queued $download for download")
                                 listenerCoordinator.mainListener.onQueued(download, false)
@@ -678,10 +689,14 @@ open class RxFetchImpl(override val namespace: String,
     }
 
     override fun addListener(listener: FetchListener, notify: Boolean, autoStart: Boolean): RxFetch {
+        return addListener(listener, notify, autoStart, defaultDeliveryTarget)
+    }
+
+    override fun addListener(listener: FetchListener, notify: Boolean, autoStart: Boolean, deliveryTarget: DeliveryTarget): RxFetch {
         synchronized(lock) {
             throwExceptionIfClosed()
             handlerWrapper.post {
-                fetchHandler.addListener(listener, notify, autoStart)
+                fetchHandler.addListener(listener, notify, autoStart, deliveryTarget)
             }
             return this
         }
@@ -713,7 +728,7 @@ open class RxFetchImpl(override val namespace: String,
                         throwExceptionIfClosed()
                         val downloadPair = fetchHandler.updateRequest(it.first, it.second)
                         val download = downloadPair.first
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             if (notifyListeners) {
                                 when (download.status) {
                                     Status.COMPLETED -> {
@@ -944,6 +959,132 @@ open class RxFetchImpl(override val namespace: String,
         }
     }
 
+    override fun getDownloadSummaries(): Convertible<List<DownloadSummary>> {
+        return getDownloadSummaries {
+            fetchHandler.getDownloadSummaries()
+        }
+    }
+
+    override fun getDownloadSummaries(idList: List<Int>): Convertible<List<DownloadSummary>> {
+        return getDownloadSummaries {
+            fetchHandler.getDownloadSummaries(idList)
+        }
+    }
+
+    override fun getDownloadSummariesWithStatus(statuses: List<Status>): Convertible<List<DownloadSummary>> {
+        return getDownloadSummaries {
+            fetchHandler.getDownloadSummariesWithStatus(statuses)
+        }
+    }
+
+    override fun getDownloadSummariesInGroup(groupId: Int): Convertible<List<DownloadSummary>> {
+        return getDownloadSummaries {
+            fetchHandler.getDownloadSummariesInGroup(groupId)
+        }
+    }
+
+    private fun getDownloadSummaries(getSummaries: () -> List<DownloadSummary>): Convertible<List<DownloadSummary>> {
+        return synchronized(lock) {
+            throwExceptionIfClosed()
+            Flowable.just(Any())
+                    .subscribeOn(scheduler)
+                    .flatMap {
+                        throwExceptionIfClosed()
+                        Flowable.just(getSummaries())
+                    }
+                    .observeOn(uiScheduler)
+                    .toConvertible()
+        }
+    }
+
+    override fun getDownloadsPage(pageSize: Int, cursor: String?): Convertible<DownloadPage> {
+        return getDownloadPage(pageSize, cursor) {
+            fetchHandler.getDownloadsPage(cursor, pageSize)
+        }
+    }
+
+    override fun getDownloadsWithStatusPage(statuses: List<Status>, pageSize: Int, cursor: String?): Convertible<DownloadPage> {
+        return getDownloadPage(pageSize, cursor) {
+            fetchHandler.getDownloadsWithStatusPage(statuses, cursor, pageSize)
+        }
+    }
+
+    override fun getDownloadsInGroupPage(groupId: Int, pageSize: Int, cursor: String?): Convertible<DownloadPage> {
+        return getDownloadPage(pageSize, cursor) {
+            fetchHandler.getDownloadsInGroupPage(groupId, cursor, pageSize)
+        }
+    }
+
+    private fun getDownloadPage(pageSize: Int, cursor: String?, getPage: () -> DownloadPage): Convertible<DownloadPage> {
+        return synchronized(lock) {
+            throwExceptionIfClosed()
+            throwExceptionIfInvalidPageSize(pageSize)
+            getDownloadPageCursorPosition(cursor)
+            Flowable.just(pageSize)
+                    .subscribeOn(scheduler)
+                    .flatMap {
+                        throwExceptionIfClosed()
+                        Flowable.just(getPage())
+                    }
+                    .observeOn(uiScheduler)
+                    .toConvertible()
+        }
+    }
+
+    override fun streamDownloads(chunkSize: Int): Flowable<List<Download>> {
+        return streamDownloadPages(chunkSize) { cursor ->
+            fetchHandler.getDownloadsPage(cursor, chunkSize)
+        }
+    }
+
+    override fun streamDownloadsWithStatus(statuses: List<Status>, chunkSize: Int): Flowable<List<Download>> {
+        return streamDownloadPages(chunkSize) { cursor ->
+            fetchHandler.getDownloadsWithStatusPage(statuses, cursor, chunkSize)
+        }
+    }
+
+    override fun streamDownloadsInGroup(groupId: Int, chunkSize: Int): Flowable<List<Download>> {
+        return streamDownloadPages(chunkSize) { cursor ->
+            fetchHandler.getDownloadsInGroupPage(groupId, cursor, chunkSize)
+        }
+    }
+
+    /** Each page is only queried when the subscriber requests the next chunk.*/
+    private fun streamDownloadPages(chunkSize: Int, getPage: (String?) -> DownloadPage): Flowable<List<Download>> {
+        return synchronized(lock) {
+            throwExceptionIfClosed()
+            throwExceptionIfInvalidPageSize(chunkSize)
+            Flowable.generate(Callable { DownloadStreamState() }, BiConsumer<DownloadStreamState, Emitter<List<Download>>> { state, emitter ->
+                if (state.completed) {
+                    emitter.onComplete()
+                } else {
+                    throwExceptionIfClosed()
+                    val downloadPage = getPage(state.cursor)
+                    state.cursor = downloadPage.nextCursor
+                    state.completed = downloadPage.nextCursor == null
+                    if (downloadPage.downloads.isNotEmpty()) {
+                        emitter.onNext(downloadPage.downloads)
+                    } else {
+                        emitter.onComplete()
+                    }
+                }
+            })
+                    .subscribeOn(scheduler)
+                    .observeOn(uiScheduler, false, 1)
+        }
+    }
+
+    private fun throwExceptionIfInvalidPageSize(pageSize: Int) {
+        if (pageSize < 1) {
+            throw FetchException("Page size cannot be less than 1")
+        }
+    }
+
+    private class DownloadStreamState {
+        var cursor: String? = null
+        var completed = false
+    }
+
     override fun addCompletedDownload(completedDownload: CompletedDownload, alertListeners: Boolean): Convertible<Download> {
         return addCompletedDownloads(listOf(completedDownload), alertListeners)
                 .flowable
@@ -967,7 +1108,7 @@ open class RxFetchImpl(override val namespace: String,
                     .flatMap {
                         throwExceptionIfClosed()
                         val downloads = fetchHandler.enqueueCompletedDownloads(completedDownloads)
-                        uiHandler.post {
+                        callbackExecutor.execute {
                             downloads.forEach { download ->
                                 if (alertListeners) {
                                     listenerCoordinator.mainListener.onCompleted(download)